@@ -0,0 +1,124 @@
+/*
+ * Copyright (C) 2010 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.android.notepad;
+
+import junit.framework.TestCase;
+
+/**
+ * Tests when {@link AutosaveScheduler} writes a note. Saves are triggered with flush(), so the
+ * tests do not depend on the idle timer.
+ */
+public class AutosaveSchedulerTest extends TestCase {
+
+    // A fake editor that records the writes
+    private static class FakeEditor implements AutosaveScheduler.Editor {
+        String title = "";
+        String text = "";
+        int writes;
+
+        @Override
+        public String getTitle() {
+            return title;
+        }
+
+        @Override
+        public String getText() {
+            return text;
+        }
+
+        @Override
+        public void write(String title, String text) {
+            writes++;
+        }
+    }
+
+    private FakeEditor mEditor;
+    private AutosaveScheduler mAutosave;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mEditor = new FakeEditor();
+        mAutosave = new AutosaveScheduler(mEditor);
+        mEditor.title = "Note";
+        mEditor.text = "Some text";
+        mAutosave.setSaved("Note", "Some text");
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mAutosave.cancel();
+        super.tearDown();
+    }
+
+    /*
+     * Nothing is written until the note is edited.
+     */
+    public void testNoWriteWhenNotEdited() {
+        assertFalse(mAutosave.isDirty());
+        assertFalse(mAutosave.flush());
+        assertEquals(0, mEditor.writes);
+    }
+
+    /*
+     * Edits are written once, however many there were.
+     */
+    public void testEditsWrittenOnce() {
+        mEditor.text = "Some text, edited";
+        mAutosave.onEdited();
+        mAutosave.onEdited();
+        assertTrue(mAutosave.isDirty());
+
+        assertTrue(mAutosave.flush());
+        assertFalse(mAutosave.isDirty());
+        assertFalse(mAutosave.flush());
+        assertEquals(1, mEditor.writes);
+
+        // A title edit alone is written too
+        mEditor.title = "Renamed";
+        mAutosave.onEdited();
+        assertTrue(mAutosave.flush());
+        assertEquals(2, mEditor.writes);
+    }
+
+    /*
+     * Edits that leave the note as it was saved are not written.
+     */
+    public void testUnchangedContentSkipped() {
+        mEditor.text = "Some text!";
+        mAutosave.onEdited();
+        mEditor.text = "Some text";
+        mAutosave.onEdited();
+
+        assertFalse(mAutosave.flush());
+        assertFalse(mAutosave.isDirty());
+        assertEquals(0, mEditor.writes);
+    }
+
+    /*
+     * A cancelled save is not written.
+     */
+    public void testCancel() {
+        mEditor.text = "Deleted anyway";
+        mAutosave.onEdited();
+        mAutosave.cancel();
+
+        assertFalse(mAutosave.isDirty());
+        assertFalse(mAutosave.flush());
+        assertEquals(0, mEditor.writes);
+    }
+}
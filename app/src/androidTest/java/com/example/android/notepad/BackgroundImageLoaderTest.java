@@ -0,0 +1,101 @@
+/*
+ * Copyright (C) 2010 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.android.notepad;
+
+import junit.framework.TestCase;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+/**
+ * Tests how {@link BackgroundImageLoader} chooses the subsampling of an image and trims its disk
+ * cache.
+ */
+public class BackgroundImageLoaderTest extends TestCase {
+
+    /*
+     * An image no larger than the view is decoded at full size.
+     */
+    public void testSmallImageNotSubsampled() {
+        assertEquals(1, BackgroundImageLoader.calculateInSampleSize(720, 1280, 720, 1280));
+        assertEquals(1, BackgroundImageLoader.calculateInSampleSize(500, 800, 720, 1280));
+        assertEquals(1, BackgroundImageLoader.calculateInSampleSize(1439, 2559, 720, 1280));
+    }
+
+    /*
+     * A larger image is subsampled by the largest power of two that still covers the view in
+     * both dimensions.
+     */
+    public void testLargeImageSubsampled() {
+        assertEquals(2, BackgroundImageLoader.calculateInSampleSize(1440, 2560, 720, 1280));
+        assertEquals(4, BackgroundImageLoader.calculateInSampleSize(3000, 6000, 720, 1280));
+
+        // The narrower dimension decides
+        assertEquals(2, BackgroundImageLoader.calculateInSampleSize(6000, 2600, 720, 1280));
+
+        // The screen and the view below the status bar share an image
+        assertEquals(2, BackgroundImageLoader.calculateInSampleSize(2160, 3840, 1080, 1920));
+        assertEquals(2, BackgroundImageLoader.calculateInSampleSize(2160, 3840, 1080, 1776));
+    }
+
+    /*
+     * Trimming the disk cache deletes the least recently modified files until the rest fit, but
+     * keeps the file just written even if it is the oldest.
+     */
+    public void testTrimDiskCache() throws IOException {
+        File dir = File.createTempFile("backgrounds", null);
+        assertTrue(dir.delete() && dir.mkdir());
+        try {
+            File oldest = writeFile(dir, "oldest.jpg", 1000, 1000);
+            File old = writeFile(dir, "old.jpg", 1000, 2000);
+            File kept = writeFile(dir, "kept.jpg", 1000, 3000);
+            File newest = writeFile(dir, "newest.jpg", 1000, 4000);
+
+            // Everything fits
+            BackgroundImageLoader.trimDiskCache(dir, 4000, newest);
+            assertTrue(oldest.exists() && old.exists() && kept.exists() && newest.exists());
+
+            BackgroundImageLoader.trimDiskCache(dir, 2500, newest);
+            assertFalse(oldest.exists());
+            assertFalse(old.exists());
+            assertTrue(kept.exists() && newest.exists());
+
+            BackgroundImageLoader.trimDiskCache(dir, 1000, kept);
+            assertTrue(kept.exists());
+            assertFalse(newest.exists());
+        } finally {
+            for (File file : dir.listFiles()) {
+                file.delete();
+            }
+            dir.delete();
+        }
+    }
+
+    private static File writeFile(File dir, String name, int length, long modified)
+            throws IOException {
+        File file = new File(dir, name);
+        FileOutputStream out = new FileOutputStream(file);
+        try {
+            out.write(new byte[length]);
+        } finally {
+            out.close();
+        }
+        assertTrue(file.setLastModified(modified));
+        return file;
+    }
+}
@@ -0,0 +1,93 @@
+/*
+ * Copyright (C) 2010 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.android.notepad;
+
+import android.content.ContentResolver;
+import android.content.Context;
+import android.database.DatabaseErrorHandler;
+import android.database.sqlite.SQLiteDatabase;
+import android.test.RenamingDelegatingContext;
+import android.test.mock.MockContentResolver;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * A context that keeps its files apart from the application's, and records the databases
+ * opened through it.
+ *
+ * SQLiteOpenHelper opens its database with openOrCreateDatabase() up to Android 8.0, and since
+ * Android 8.1 with SQLiteDatabase.openDatabase() on the file that getDatabasePath() returns,
+ * so both are recorded. Code that opens the database file itself has to find it with
+ * getDatabasePath() as well. The context is its own application context, and its content
+ * resolver holds a NotePadProvider that runs on it, so that an activity created on it reaches
+ * no other database.
+ */
+final class CountingContext extends RenamingDelegatingContext {
+
+    /**
+     * The names of the databases opened, in order. Databases may be opened on any thread.
+     */
+    final List<String> mOpened = Collections.synchronizedList(new ArrayList<String>());
+
+    private final NotePadProvider mProvider;
+    private final MockContentResolver mResolver;
+
+    CountingContext(Context context) {
+        super(context, "test.counting.");
+        mProvider = new NotePadProvider();
+        mProvider.attachInfo(this, null);
+        mResolver = new MockContentResolver();
+        mResolver.addProvider(NotePad.AUTHORITY, mProvider);
+    }
+
+    NotePadProvider getProvider() {
+        return mProvider;
+    }
+
+    @Override
+    public ContentResolver getContentResolver() {
+        return mResolver;
+    }
+
+    @Override
+    public Context getApplicationContext() {
+        return this;
+    }
+
+    @Override
+    public File getDatabasePath(String name) {
+        mOpened.add(name);
+        return super.getDatabasePath(name);
+    }
+
+    @Override
+    public SQLiteDatabase openOrCreateDatabase(String name, int mode,
+            SQLiteDatabase.CursorFactory factory) {
+        mOpened.add(name);
+        return super.openOrCreateDatabase(name, mode, factory);
+    }
+
+    @Override
+    public SQLiteDatabase openOrCreateDatabase(String name, int mode,
+            SQLiteDatabase.CursorFactory factory, DatabaseErrorHandler errorHandler) {
+        mOpened.add(name);
+        return super.openOrCreateDatabase(name, mode, factory, errorHandler);
+    }
+}
@@ -0,0 +1,164 @@
+/*
+ * Copyright (C) 2010 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.android.notepad;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.test.AndroidTestCase;
+import android.util.Log;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Measures how long the notes list query takes while another thread keeps saving notes, the
+ * way NotesList re-queries while NoteEditor writes. The reader and the writer each have a
+ * connection of their own, so that the reader waits on the database's locks rather than on a
+ * shared connection.
+ *
+ * It changes one setting at a time: it runs in rollback journal mode with synchronous=FULL,
+ * then in write-ahead logging mode with synchronous=FULL, then with the provider's default
+ * tuning, which is write-ahead logging with synchronous=NORMAL. It logs the latency percentiles
+ * of each run under the tag "DatabaseTuningBenchmark".
+ */
+public class DatabaseTuningBenchmark extends AndroidTestCase {
+    private static final String TAG = "DatabaseTuningBenchmark";
+
+    // Number of notes in the benchmark database
+    private static final int NOTE_COUNT = 2000;
+
+    // Number of list queries timed for each configuration
+    private static final int READ_COUNT = 200;
+
+    // The columns and page size the notes list asks for
+    private static final String[] LIST_PROJECTION = {
+        NotePad.Notes._ID,
+        NotePad.Notes.COLUMN_NAME_TITLE,
+        NotePad.Notes.COLUMN_NAME_MODIFICATION_DATE
+    };
+    private static final String PAGE_SIZE = "50";
+
+    public void testReadWhileWriteLatency() throws Exception {
+        long[] rollback = measure("benchmark_rollback.db",
+                new NotePadProvider.DatabaseHelper.Tuning(false, "FULL", 4096, 2048));
+        long[] walFull = measure("benchmark_wal_full.db",
+                new NotePadProvider.DatabaseHelper.Tuning(true, "FULL", 4096, 2048));
+        long[] wal = measure("benchmark_wal.db", NotePadProvider.DatabaseHelper.Tuning.DEFAULT);
+
+        Log.i(TAG, "rollback journal, synchronous=FULL: " + summarize(rollback));
+        Log.i(TAG, "write-ahead log, synchronous=FULL: " + summarize(walFull));
+        Log.i(TAG, "write-ahead log, synchronous=NORMAL (default tuning): " + summarize(wal));
+    }
+
+    /*
+     * Times READ_COUNT list queries while a writer thread updates notes continuously, and returns
+     * the sorted latencies in nanoseconds.
+     */
+    private long[] measure(String name, NotePadProvider.DatabaseHelper.Tuning tuning)
+            throws InterruptedException {
+        getContext().deleteDatabase(name);
+        NotePadProvider.DatabaseHelper writerHelper =
+                new NotePadProvider.DatabaseHelper(getContext(), name, tuning);
+        NotePadProvider.DatabaseHelper readerHelper =
+                new NotePadProvider.DatabaseHelper(getContext(), name, tuning);
+        try {
+            final SQLiteDatabase db = writerHelper.getWritableDatabase();
+            populate(db);
+            SQLiteDatabase readerDb = readerHelper.getReadableDatabase();
+
+            final AtomicBoolean done = new AtomicBoolean();
+            Thread writer = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    ContentValues values = new ContentValues();
+                    String body = repeat("The quick brown fox jumps over the lazy dog. ", 100);
+                    long iteration = 0;
+                    while (!done.get()) {
+                        // Each save is its own transaction, as in NoteEditor.onPause()
+                        values.put(NotePad.Notes.COLUMN_NAME_NOTE, body + iteration);
+                        values.put(NotePad.Notes.COLUMN_NAME_MODIFICATION_DATE,
+                                System.currentTimeMillis());
+                        db.update(NotePad.Notes.TABLE_NAME, values,
+                                NotePad.Notes._ID + " = " + (iteration % NOTE_COUNT + 1), null);
+                        iteration++;
+                    }
+                }
+            });
+            writer.start();
+
+            long[] latencies = new long[READ_COUNT];
+            try {
+                for (int i = 0; i < READ_COUNT; i++) {
+                    long start = System.nanoTime();
+                    Cursor cursor = readerDb.query(NotePad.Notes.TABLE_NAME, LIST_PROJECTION,
+                            null, null, null, null, NotePad.Notes.DEFAULT_SORT_ORDER, PAGE_SIZE);
+                    cursor.getCount();
+                    cursor.close();
+                    latencies[i] = System.nanoTime() - start;
+                }
+            } finally {
+                done.set(true);
+                writer.join();
+            }
+
+            Arrays.sort(latencies);
+            assertTrue(latencies[0] > 0);
+            return latencies;
+        } finally {
+            readerHelper.close();
+            writerHelper.close();
+            getContext().deleteDatabase(name);
+        }
+    }
+
+    private static void populate(SQLiteDatabase db) {
+        ContentValues values = new ContentValues();
+        String body = repeat("Lorem ipsum dolor sit amet. ", 40);
+        db.beginTransaction();
+        try {
+            for (int i = 0; i < NOTE_COUNT; i++) {
+                values.put(NotePad.Notes.COLUMN_NAME_TITLE, "Note" + i);
+                values.put(NotePad.Notes.COLUMN_NAME_NOTE, body);
+                values.put(NotePad.Notes.COLUMN_NAME_CREATE_DATE, (long) i);
+                values.put(NotePad.Notes.COLUMN_NAME_MODIFICATION_DATE, (long) i);
+                db.insertOrThrow(NotePad.Notes.TABLE_NAME, null, values);
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+    }
+
+    private static String summarize(long[] sortedNanos) {
+        return "p50=" + micros(sortedNanos, 50) + "us p90=" + micros(sortedNanos, 90)
+                + "us p99=" + micros(sortedNanos, 99) + "us max="
+                + sortedNanos[sortedNanos.length - 1] / 1000 + "us";
+    }
+
+    private static long micros(long[] sortedNanos, int percentile) {
+        return sortedNanos[(sortedNanos.length - 1) * percentile / 100] / 1000;
+    }
+
+    private static String repeat(String text, int times) {
+        StringBuilder builder = new StringBuilder(text.length() * times);
+        for (int i = 0; i < times; i++) {
+            builder.append(text);
+        }
+        return builder.toString();
+    }
+}
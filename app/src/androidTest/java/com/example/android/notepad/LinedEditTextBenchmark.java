@@ -0,0 +1,144 @@
+/*
+ * Copyright (C) 2010 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.android.notepad;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Rect;
+import android.test.InstrumentationTestCase;
+import android.util.Log;
+import android.view.View;
+
+import java.util.Arrays;
+
+/**
+ * Measures the time to draw a frame of {@link NoteEditor.LinedEditText} showing a 10,000-line
+ * note, scrolled to different positions. It draws once with the editor's clipped rules and once
+ * with a copy of the editor that rules every line of the note, as the editor used to, and logs
+ * the frame times of both under the tag "LinedEditTextBenchmark".
+ */
+public class LinedEditTextBenchmark extends InstrumentationTestCase {
+    private static final String TAG = "LinedEditTextBenchmark";
+
+    // The number of lines in the note
+    private static final int LINE_COUNT = 10000;
+
+    // The number of frames timed for each editor
+    private static final int FRAME_COUNT = 60;
+
+    // The size of the screen the editor is drawn on
+    private static final int WIDTH = 720;
+    private static final int HEIGHT = 1280;
+
+    /*
+     * Rules every line of the note, like LinedEditText.onDraw() did before it was clipped.
+     */
+    private static class UnclippedLinedEditText extends NoteEditor.LinedEditText {
+        private final Rect mRect = new Rect();
+
+        UnclippedLinedEditText(Context context) {
+            super(context, null);
+        }
+
+        @Override
+        void drawRules(Canvas canvas) {
+            int count = getLineCount();
+            Rect r = mRect;
+            for (int i = 0; i < count; i++) {
+                int baseline = getLineBounds(i, r);
+                canvas.drawLine(r.left, baseline + 1, r.right, baseline + 1, getPaint());
+            }
+        }
+    }
+
+    public void testFrameTime() {
+        final long[][] results = new long[2][];
+        getInstrumentation().runOnMainSync(new Runnable() {
+            @Override
+            public void run() {
+                Context context = getInstrumentation().getTargetContext();
+                String note = buildNote();
+                results[0] = measure(new UnclippedLinedEditText(context), note);
+                results[1] = measure(new NoteEditor.LinedEditText(context, null), note);
+            }
+        });
+
+        long[] unclipped = results[0];
+        long[] clipped = results[1];
+        Log.i(TAG, "every line ruled: " + summarize(unclipped));
+        Log.i(TAG, "visible lines ruled: " + summarize(clipped));
+        assertTrue("Clipped frames are not faster: " + summarize(clipped),
+                median(clipped) < median(unclipped));
+    }
+
+    /*
+     * Lays the editor out with the note, and returns the sorted times of FRAME_COUNT frames in
+     * nanoseconds, each scrolled to a different part of the note.
+     */
+    private static long[] measure(NoteEditor.LinedEditText view, String note) {
+        view.setText(note);
+        view.measure(View.MeasureSpec.makeMeasureSpec(WIDTH, View.MeasureSpec.EXACTLY),
+                View.MeasureSpec.makeMeasureSpec(HEIGHT, View.MeasureSpec.EXACTLY));
+        view.layout(0, 0, WIDTH, HEIGHT);
+        assertEquals(LINE_COUNT, view.getLineCount());
+
+        Bitmap bitmap = Bitmap.createBitmap(WIDTH, HEIGHT, Bitmap.Config.ARGB_8888);
+        Canvas canvas = new Canvas(bitmap);
+        int contentHeight = view.getLayout().getHeight();
+        long[] frames = new long[FRAME_COUNT];
+        try {
+            for (int i = 0; i < FRAME_COUNT; i++) {
+                int scrollY = (int) ((long) (contentHeight - HEIGHT) * i / FRAME_COUNT);
+
+                // Draws the frame the way a parent draws a scrolled child
+                long start = System.nanoTime();
+                canvas.save();
+                canvas.translate(0, -scrollY);
+                canvas.clipRect(0, scrollY, WIDTH, scrollY + HEIGHT);
+                view.draw(canvas);
+                canvas.restore();
+                frames[i] = System.nanoTime() - start;
+            }
+        } finally {
+            bitmap.recycle();
+        }
+        Arrays.sort(frames);
+        return frames;
+    }
+
+    private static String buildNote() {
+        StringBuilder builder = new StringBuilder(LINE_COUNT * 16);
+        for (int i = 0; i < LINE_COUNT; i++) {
+            if (i > 0) {
+                builder.append('\n');
+            }
+            builder.append("Line ").append(i);
+        }
+        return builder.toString();
+    }
+
+    private static long median(long[] sortedNanos) {
+        return sortedNanos[sortedNanos.length / 2];
+    }
+
+    private static String summarize(long[] sortedNanos) {
+        return "p50=" + median(sortedNanos) / 1000 + "us p90="
+                + sortedNanos[(sortedNanos.length - 1) * 90 / 100] / 1000 + "us max="
+                + sortedNanos[sortedNanos.length - 1] / 1000 + "us";
+    }
+}
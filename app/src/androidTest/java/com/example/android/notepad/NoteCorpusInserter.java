@@ -0,0 +1,90 @@
+/*
+ * Copyright (C) 2010 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.android.notepad;
+
+import android.content.ContentResolver;
+import android.content.ContentValues;
+
+import java.util.ArrayList;
+
+/**
+ * Inserts the notes of a {@link NoteCorpus} through NotePadProvider, with bulkInsert() calls of
+ * a bounded number of notes and characters.
+ */
+final class NoteCorpusInserter {
+
+    /**
+     * The most notes inserted by one bulkInsert() call
+     */
+    static final int BATCH_NOTES = 500;
+
+    /**
+     * The most characters inserted by one bulkInsert() call, unless a single note is longer.
+     * Keeps multi-MB notes from piling up in memory.
+     */
+    static final int BATCH_CHARS = 4 * 1024 * 1024;
+
+    private NoteCorpusInserter() {
+    }
+
+    /**
+     * Inserts every note of a corpus, in order, so that in an empty table note i gets the _id
+     * i + 1.
+     *
+     * @return the number of notes inserted
+     */
+    static int insert(ContentResolver resolver, NoteCorpus corpus) {
+        ArrayList<ContentValues> batch = new ArrayList<ContentValues>();
+        int batchChars = 0;
+        int inserted = 0;
+        for (int i = 0; i < corpus.getCount(); i++) {
+            NoteCorpus.Note note = corpus.note(i);
+            if (!batch.isEmpty() && (batch.size() == BATCH_NOTES
+                    || batchChars + note.body.length() > BATCH_CHARS)) {
+                inserted += flush(resolver, batch);
+                batchChars = 0;
+            }
+            batch.add(toContentValues(note));
+            batchChars += note.body.length();
+        }
+        inserted += flush(resolver, batch);
+        return inserted;
+    }
+
+    /**
+     * Returns the values of a generated note, as inserted into the notes table.
+     */
+    static ContentValues toContentValues(NoteCorpus.Note note) {
+        ContentValues values = new ContentValues();
+        values.put(NotePad.Notes.COLUMN_NAME_TITLE, note.title);
+        values.put(NotePad.Notes.COLUMN_NAME_NOTE, note.body);
+        values.put("category", note.category);
+        values.put(NotePad.Notes.COLUMN_NAME_CREATE_DATE, note.created);
+        values.put(NotePad.Notes.COLUMN_NAME_MODIFICATION_DATE, note.modified);
+        return values;
+    }
+
+    private static int flush(ContentResolver resolver, ArrayList<ContentValues> batch) {
+        if (batch.isEmpty()) {
+            return 0;
+        }
+        int inserted = resolver.bulkInsert(NotePad.Notes.CONTENT_URI,
+                batch.toArray(new ContentValues[batch.size()]));
+        batch.clear();
+        return inserted;
+    }
+}
@@ -0,0 +1,83 @@
+/*
+ * Copyright (C) 2010 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.android.notepad;
+
+import junit.framework.TestCase;
+
+import java.util.Arrays;
+
+/**
+ * Tests that {@link NoteCorpus} is deterministic and follows its settings.
+ */
+public class NoteCorpusTest extends TestCase {
+
+    /*
+     * The same seed gives the same notes, whatever the corpus size and generation order.
+     */
+    public void testDeterministic() {
+        NoteCorpus first = new NoteCorpus(1234, 100);
+        NoteCorpus second = new NoteCorpus(1234, 10);
+        for (int i = 9; i >= 0; i--) {
+            assertSameNote(first.note(i), second.note(i));
+        }
+
+        NoteCorpus other = new NoteCorpus(1235, 100);
+        assertFalse(first.note(0).body.equals(other.note(0).body));
+    }
+
+    /*
+     * Bodies stay in their size classes, and timestamps in the time span.
+     */
+    public void testSettings() {
+        NoteCorpus corpus = new NoteCorpus(7, 200);
+        corpus.setBodySizes(new NoteCorpus.BodySize[] {
+                new NoteCorpus.BodySize(1, 10, 20), new NoteCorpus.BodySize(1, 1000, 1000) });
+        corpus.setCategories(new String[] { "A", "B" });
+        corpus.setTimeSpan(1000000, 5000);
+        corpus.setChineseFraction(0);
+
+        boolean sawShort = false;
+        boolean sawLong = false;
+        for (int i = 0; i < corpus.getCount(); i++) {
+            NoteCorpus.Note note = corpus.note(i);
+            int length = note.body.length();
+            assertTrue(length == 1000 || (length >= 10 && length <= 20));
+            sawShort |= length <= 20;
+            sawLong |= length == 1000;
+
+            assertTrue(Arrays.asList("A", "B").contains(note.category));
+            assertTrue(note.created >= 1000000 - 5000);
+            assertTrue(note.created <= note.modified);
+            assertTrue(note.modified <= 1000000);
+
+            // No Chinese was asked for
+            for (int j = 0; j < length; j++) {
+                assertTrue(note.body.charAt(j) < 0x80);
+            }
+        }
+        assertTrue(sawShort);
+        assertTrue(sawLong);
+    }
+
+    private static void assertSameNote(NoteCorpus.Note expected, NoteCorpus.Note actual) {
+        assertEquals(expected.title, actual.title);
+        assertEquals(expected.body, actual.body);
+        assertEquals(expected.category, actual.category);
+        assertEquals(expected.created, actual.created);
+        assertEquals(expected.modified, actual.modified);
+    }
+}
@@ -0,0 +1,128 @@
+/*
+ * Copyright (C) 2010 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.android.notepad;
+
+import junit.framework.TestCase;
+
+import java.io.UnsupportedEncodingException;
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Tests that {@link NoteDelta} rebuilds every version exactly, and keeps deltas of small edits
+ * small.
+ */
+public class NoteDeltaTest extends TestCase {
+
+    public void testEdgeCases() throws UnsupportedEncodingException {
+        byte[] empty = new byte[0];
+        byte[] text = "一段笔记 with some text that is longer than a block".getBytes("UTF-8");
+        assertRoundTrip(empty, empty);
+        assertRoundTrip(empty, text);
+        assertRoundTrip(text, empty);
+        assertRoundTrip(text, text);
+        assertRoundTrip("short".getBytes("UTF-8"), "shorter".getBytes("UTF-8"));
+    }
+
+    /*
+     * Random edits of random text, including text made of few distinct bytes, which has many
+     * equal blocks.
+     */
+    public void testRandomEdits() {
+        Random random = new Random(42);
+        for (int i = 0; i < 500; i++) {
+            byte[] base = new byte[random.nextInt(5000)];
+            int alphabet = random.nextBoolean() ? 256 : 2;
+            for (int j = 0; j < base.length; j++) {
+                base[j] = (byte) random.nextInt(alphabet);
+            }
+            byte[] target = base;
+            for (int edits = random.nextInt(5); edits >= 0; edits--) {
+                target = edit(random, target, alphabet);
+            }
+            assertRoundTrip(base, target);
+        }
+    }
+
+    /*
+     * An edit in the middle of a long note, and a paragraph moved, cost little more than the
+     * text inserted.
+     */
+    public void testSmallEdits() throws UnsupportedEncodingException {
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; i < 2000; i++) {
+            text.append("第").append(i).append("行: the quick brown fox jumps over the lazy dog\n");
+        }
+        byte[] base = text.toString().getBytes("UTF-8");
+
+        text.insert(text.length() / 2, "新的一句话。");
+        byte[] delta = assertRoundTrip(base, text.toString().getBytes("UTF-8"));
+        assertTrue("Delta of " + delta.length + " bytes", delta.length < 64);
+
+        String moved = text.substring(0, 500);
+        text.delete(0, 500).append(moved);
+        delta = assertRoundTrip(base, text.toString().getBytes("UTF-8"));
+        assertTrue("Delta of " + delta.length + " bytes", delta.length < 128);
+    }
+
+    public void testMalformedDelta() throws UnsupportedEncodingException {
+        byte[] base = "the base of the delta, long enough to copy from".getBytes("UTF-8");
+        byte[] delta = NoteDelta.diff(base, "the base of the delta, with an edit".getBytes("UTF-8"));
+        assertMalformed(base, Arrays.copyOf(delta, delta.length - 1));
+        assertMalformed(base, new byte[0]);
+        assertMalformed(base, new byte[] { (byte) 0x80 });
+        // Copies 20 bytes from offset 40 of a 47 byte base
+        assertMalformed(base, new byte[] { 20, 41, 40 });
+        // Inserts more bytes than the delta holds
+        assertMalformed(base, new byte[] { 4, 8, 'a' });
+        // Builds more bytes than its length
+        assertMalformed(base, new byte[] { 1, 4, 'a', 'b' });
+    }
+
+    private static byte[] assertRoundTrip(byte[] base, byte[] target) {
+        byte[] delta = NoteDelta.diff(base, target);
+        assertTrue(Arrays.equals(target, NoteDelta.apply(base, delta)));
+        return delta;
+    }
+
+    private static void assertMalformed(byte[] base, byte[] delta) {
+        try {
+            NoteDelta.apply(base, delta);
+            fail("Applied a malformed delta");
+        } catch (IllegalArgumentException e) {
+            // Expected
+        }
+    }
+
+    /*
+     * Inserts, deletes or replaces a random run of bytes.
+     */
+    private static byte[] edit(Random random, byte[] text, int alphabet) {
+        int at = random.nextInt(text.length + 1);
+        int removed = random.nextInt(Math.min(100, text.length - at) + 1);
+        byte[] inserted = new byte[random.nextInt(100)];
+        for (int i = 0; i < inserted.length; i++) {
+            inserted[i] = (byte) random.nextInt(alphabet);
+        }
+        byte[] result = new byte[text.length - removed + inserted.length];
+        System.arraycopy(text, 0, result, 0, at);
+        System.arraycopy(inserted, 0, result, at, inserted.length);
+        System.arraycopy(text, at + removed, result, at + inserted.length,
+                text.length - at - removed);
+        return result;
+    }
+}
@@ -0,0 +1,108 @@
+/*
+ * Copyright (C) 2010 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.android.notepad;
+
+import android.content.ContentValues;
+import android.content.Intent;
+import android.database.Cursor;
+import android.net.Uri;
+import android.test.ActivityUnitTestCase;
+import android.widget.PopupWindow;
+
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Tests that the note editor creates folders through NotePadProvider, without opening the
+ * notes database itself.
+ *
+ * The editor runs on a {@link CountingContext}, whose provider and database are its own, and
+ * which records every database opened through it.
+ */
+public class NoteEditorFolderTest extends ActivityUnitTestCase<NoteEditor> {
+
+    private static final long TIMEOUT_SECONDS = 5;
+
+    private CountingContext mContext;
+
+    public NoteEditorFolderTest() {
+        super(NoteEditor.class);
+    }
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mContext = new CountingContext(getInstrumentation().getTargetContext());
+        mContext.deleteDatabase("note_pad.db");
+        setActivityContext(mContext);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mContext.getProvider().getOpenHelperForTest().close();
+        mContext.deleteDatabase("note_pad.db");
+        super.tearDown();
+    }
+
+    /*
+     * A folder created from the editor's sheet is added by the provider, and the database file
+     * is only ever opened by the provider's helper.
+     */
+    public void testNewFolder() throws InterruptedException {
+        ContentValues values = new ContentValues();
+        values.put(NotePad.Notes.COLUMN_NAME_TITLE, "Plan");
+        Uri noteUri = mContext.getContentResolver().insert(NotePad.Notes.CONTENT_URI, values);
+        final Intent intent = new Intent(Intent.ACTION_EDIT, noteUri);
+
+        // The editor's query handler delivers its results on the main thread
+        getInstrumentation().runOnMainSync(new Runnable() {
+            @Override
+            public void run() {
+                NoteEditor editor = startActivity(intent, null, null);
+                editor.createFolder(new PopupWindow(editor), "工作");
+            }
+        });
+        assertFolderCount("工作", 1);
+        // Lets the editor show the folder it added
+        getInstrumentation().waitForIdleSync();
+
+        assertEquals(Collections.singletonList("note_pad.db"), mContext.mOpened);
+    }
+
+    /*
+     * Waits for the number of folders with a name to become the expected one.
+     */
+    private void assertFolderCount(String name, int expected) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(TIMEOUT_SECONDS);
+        int count;
+        while (true) {
+            Cursor cursor = mContext.getContentResolver().query(NotePad.Categories.CONTENT_URI,
+                    null, NotePad.Categories.COLUMN_NAME_NAME + " = ?", new String[] { name },
+                    null);
+            try {
+                count = cursor.getCount();
+            } finally {
+                cursor.close();
+            }
+            if (count == expected || System.nanoTime() > deadline) {
+                break;
+            }
+            Thread.sleep(50);
+        }
+        assertEquals(expected, count);
+    }
+}
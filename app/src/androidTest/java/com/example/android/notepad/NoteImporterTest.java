@@ -0,0 +1,104 @@
+/*
+ * Copyright (C) 2010 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.android.notepad;
+
+import android.content.ContentValues;
+
+import junit.framework.TestCase;
+
+import java.io.UnsupportedEncodingException;
+
+/**
+ * Tests how {@link NoteImporter} picks, decodes and parses files.
+ */
+public class NoteImporterTest extends TestCase {
+
+    public void testIsNoteFile() {
+        assertTrue(NoteImporter.isNoteFile("a.txt"));
+        assertTrue(NoteImporter.isNoteFile("README.MD"));
+        assertTrue(NoteImporter.isNoteFile("笔记.markdown"));
+        assertFalse(NoteImporter.isNoteFile(".hidden.txt"));
+        assertFalse(NoteImporter.isNoteFile("photo.png"));
+        assertFalse(NoteImporter.isNoteFile("txt"));
+    }
+
+    /*
+     * Byte order marks are honoured, UTF-8 is preferred, and other text is read as GB18030.
+     */
+    public void testDecode() throws UnsupportedEncodingException {
+        String text = "今天的会议 notes";
+        assertEquals(text, NoteImporter.decode(text.getBytes("UTF-8")));
+        assertEquals(text, NoteImporter.decode(text.getBytes("GB18030")));
+        assertEquals(text, NoteImporter.decode(concat(new byte[] { (byte) 0xef, (byte) 0xbb,
+                (byte) 0xbf }, text.getBytes("UTF-8"))));
+        assertEquals(text, NoteImporter.decode(concat(new byte[] { (byte) 0xff, (byte) 0xfe },
+                text.getBytes("UTF-16LE"))));
+        assertEquals(text, NoteImporter.decode(concat(new byte[] { (byte) 0xfe, (byte) 0xff },
+                text.getBytes("UTF-16BE"))));
+        assertEquals("", NoteImporter.decode(new byte[0]));
+    }
+
+    /*
+     * A plain file is all note, titled after its Markdown heading or else its name.
+     */
+    public void testParsePlainFile() throws UnsupportedEncodingException {
+        ContentValues values = NoteImporter.parse("plan.md", 5000,
+                "\n#  Weekly plan \nbuy milk".getBytes("UTF-8"));
+        assertEquals("Weekly plan", values.getAsString(NotePad.Notes.COLUMN_NAME_TITLE));
+        assertEquals("\n#  Weekly plan \nbuy milk",
+                values.getAsString(NotePad.Notes.COLUMN_NAME_NOTE));
+        assertEquals(5000L, (long) values.getAsLong(NotePad.Notes.COLUMN_NAME_CREATE_DATE));
+        assertEquals(5000L,
+                (long) values.getAsLong(NotePad.Notes.COLUMN_NAME_MODIFICATION_DATE));
+        assertFalse(values.containsKey("category"));
+
+        // Not a heading in a text file, nor after other text in a Markdown file
+        values = NoteImporter.parse("购物清单.txt", 0, "# milk".getBytes("UTF-8"));
+        assertEquals("购物清单", values.getAsString(NotePad.Notes.COLUMN_NAME_TITLE));
+        assertTrue(values.getAsLong(NotePad.Notes.COLUMN_NAME_MODIFICATION_DATE) > 0);
+        values = NoteImporter.parse("list.md", 0, "milk\n# eggs".getBytes("UTF-8"));
+        assertEquals("list", values.getAsString(NotePad.Notes.COLUMN_NAME_TITLE));
+    }
+
+    /*
+     * An entry of an exported archive gets back its title, category and dates.
+     */
+    public void testParseArchiveEntry() throws UnsupportedEncodingException {
+        String entry = NoteStreams.HEADER_TITLE + "会议记录\n"
+                + NoteStreams.HEADER_CATEGORY + "工作\n"
+                + NoteStreams.HEADER_CREATED + "2024-01-02T03:04:05Z\n"
+                + NoteStreams.HEADER_MODIFIED + "2024-02-03T04:05:06Z\n"
+                + "\n"
+                + "\nfirst line\n\nsecond";
+        ContentValues values = NoteImporter.parse("7 会议记录.txt", 1, entry.getBytes("UTF-8"));
+        assertEquals("会议记录", values.getAsString(NotePad.Notes.COLUMN_NAME_TITLE));
+        assertEquals("\nfirst line\n\nsecond",
+                values.getAsString(NotePad.Notes.COLUMN_NAME_NOTE));
+        assertEquals("工作", values.getAsString("category"));
+        assertEquals(1704164645000L,
+                (long) values.getAsLong(NotePad.Notes.COLUMN_NAME_CREATE_DATE));
+        assertEquals(1706933106000L,
+                (long) values.getAsLong(NotePad.Notes.COLUMN_NAME_MODIFICATION_DATE));
+    }
+
+    private static byte[] concat(byte[] first, byte[] second) {
+        byte[] result = new byte[first.length + second.length];
+        System.arraycopy(first, 0, result, 0, first.length);
+        System.arraycopy(second, 0, result, first.length, second.length);
+        return result;
+    }
+}
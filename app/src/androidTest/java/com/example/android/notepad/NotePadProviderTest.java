@@ -16,23 +16,44 @@
 
 package com.example.android.notepad;
 
+import android.content.ContentProviderOperation;
+import android.content.ContentProviderResult;
 import android.content.ContentUris;
 import android.content.ContentValues;
+import android.content.Context;
 import android.content.res.AssetFileDescriptor;
 import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.database.SQLException;
 import android.database.sqlite.SQLiteDatabase;
 import android.net.Uri;
 import android.os.ParcelFileDescriptor;
 import android.test.ProviderTestCase2;
+import android.test.RenamingDelegatingContext;
 import android.test.mock.MockContentResolver;
 
 import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
 import java.io.FileDescriptor;
 import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
 import java.io.FileReader;
 import java.io.IOException;
+import java.io.InputStream;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
 import java.util.Calendar;
+import java.util.Collections;
+import java.util.Date;
 import java.util.GregorianCalendar;
+import java.util.Locale;
+import java.util.TimeZone;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
 
 /*
  */
@@ -186,9 +207,13 @@ public class NotePadProviderTest extends ProviderTestCase2<NotePadProvider> {
      */
     public void testGetStreamTypes() {
 
-        // Tests the notes table URI. This should return null, since the content provider does
-        // not provide a stream MIME type for multiple notes.
-        assertNull(mMockResolver.getStreamTypes(NotePad.Notes.CONTENT_URI, MIME_TYPES_ALL));
+        // Tests the notes table URI. This should return the archive type, since the content
+        // provider streams every note as a ZIP archive.
+        String[] archiveType = mMockResolver.getStreamTypes(NotePad.Notes.CONTENT_URI,
+                MIME_TYPES_ALL);
+        assertNotNull(archiveType);
+        assertEquals(1, archiveType.length);
+        assertEquals(NotePad.Notes.ARCHIVE_TYPE, archiveType[0]);
 
         // Tests the live folders URI. This should return null, since the content provider does not
         // provide a stream MIME type for multiple notes.
@@ -219,10 +244,10 @@ public class NotePadProviderTest extends ProviderTestCase2<NotePadProvider> {
         assertNull(mimeType);
 
         /*
-         * Tests with a URI that should not have any associated stream MIME types, but with a
-         * filter that returns all types. The result should still be null.
+         * Tests the notes table URI with a filter for text. The result should be null, since
+         * multiple notes are only streamed as an archive.
          */
-        mimeType = mMockResolver.getStreamTypes(NotePad.Notes.CONTENT_URI, MIME_TYPES_ALL);
+        mimeType = mMockResolver.getStreamTypes(NotePad.Notes.CONTENT_URI, MIME_TYPE_TEXT);
         assertNull(mimeType);
 
     }
@@ -281,8 +306,8 @@ public class NotePadProviderTest extends ProviderTestCase2<NotePadProvider> {
 
         /*
          * Changes the URI to a notes URI for multiple notes, and re-test. This should fail, since
-         * the provider does not support this type of URI. A FileNotFound exception is expected,
-         * so call fail() if it does *not* occur.
+         * the provider only streams multiple notes as an archive, not as text. A FileNotFound
+         * exception is expected, so call fail() if it does *not* occur.
          */
         try {
             testAssetDescriptor = mMockResolver.openTypedAssetFileDescriptor(
@@ -415,6 +440,222 @@ public class NotePadProviderTest extends ProviderTestCase2<NotePadProvider> {
         assertEquals(TEST_NOTES[0].note, inputData[2]);
     }
 
+    /*
+     * Tests that a 50 MB note streams through the pipe intact, without the provider loading it
+     * into the Java heap.
+     */
+    public void testWriteHugeNoteToPipe() throws IOException {
+        // Repeats a two-character word of six UTF-8 bytes, so that the chunks split characters.
+        // The note is built by SQLite, so the test does not hold it in the heap either.
+        byte[] word = "\u7b14\u8bb0".getBytes("UTF-8");
+        int repeats = 50 * 1024 * 1024 / word.length;
+        mDb.execSQL("INSERT INTO " + NotePad.Notes.TABLE_NAME + " (" + NotePad.Notes._ID + ", "
+                + NotePad.Notes.COLUMN_NAME_TITLE + ", " + NotePad.Notes.COLUMN_NAME_NOTE
+                + ") VALUES (1, 'Huge', replace(hex(zeroblob(" + repeats + ")), '00', '"
+                + new String(word, "UTF-8") + "'))");
+
+        Runtime runtime = Runtime.getRuntime();
+        System.gc();
+        long baseline = runtime.totalMemory() - runtime.freeMemory();
+        long peak = baseline;
+
+        AssetFileDescriptor descriptor = mMockResolver.openTypedAssetFileDescriptor(
+                ContentUris.withAppendedId(NotePad.Notes.CONTENT_ID_URI_BASE, 1),
+                MIME_TYPE_TEXT, null);
+        InputStream in = descriptor.createInputStream();
+        byte[] header = "Huge\n\n".getBytes("UTF-8");
+        long expectedLength = header.length + (long) repeats * word.length + 1;
+        byte[] buffer = new byte[64 * 1024];
+        long position = 0;
+        try {
+            int count;
+            while ((count = in.read(buffer)) > 0) {
+                for (int i = 0; i < count; i++, position++) {
+                    byte expected;
+                    if (position < header.length) {
+                        expected = header[(int) position];
+                    } else if (position == expectedLength - 1) {
+                        expected = '\n';
+                    } else {
+                        expected = word[(int) ((position - header.length) % word.length)];
+                    }
+                    // Builds no message unless the byte is wrong, so the check makes no garbage
+                    if (buffer[i] != expected) {
+                        fail("Wrong byte at " + position);
+                    }
+                }
+                peak = Math.max(peak, runtime.totalMemory() - runtime.freeMemory());
+            }
+        } finally {
+            in.close();
+        }
+        assertEquals(expectedLength, position);
+
+        // Far less than the note, let alone its UTF-16 copy
+        assertTrue("Heap grew by " + (peak - baseline) + " bytes",
+                peak - baseline < 16 * 1024 * 1024);
+    }
+
+    /*
+     * Tests that the notes table URI streams every note as a ZIP archive, with an entry per note
+     * holding a header and the note.
+     */
+    public void testWriteArchiveToPipe() throws IOException {
+        NoteCorpus corpus = new NoteCorpus(20, 300);
+        NoteCorpusInserter.insert(mMockResolver, corpus);
+
+        AssetFileDescriptor descriptor = mMockResolver.openTypedAssetFileDescriptor(
+                NotePad.Notes.CONTENT_URI, NotePad.Notes.ARCHIVE_TYPE, null);
+        ZipInputStream zip = new ZipInputStream(descriptor.createInputStream());
+        SimpleDateFormat dateFormat = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss'Z'", Locale.US);
+        dateFormat.setTimeZone(TimeZone.getTimeZone("UTC"));
+        try {
+            // The entries are in _id order, and note i of the corpus has the _id i + 1
+            for (int i = 0; i < corpus.getCount(); i++) {
+                NoteCorpus.Note note = corpus.note(i);
+                ZipEntry entry = zip.getNextEntry();
+                assertNotNull(entry);
+                assertTrue(entry.getName(), entry.getName().startsWith((i + 1) + " "));
+                assertTrue(entry.getName(), entry.getName().endsWith(".txt"));
+
+                StringBuilder expected = new StringBuilder();
+                expected.append("Title: ").append(note.title.replaceAll("[\\r\\n]+", " "))
+                        .append('\n');
+                if (note.category != null) {
+                    expected.append("Category: ").append(note.category).append('\n');
+                }
+                expected.append("Created: ").append(dateFormat.format(new Date(note.created)))
+                        .append('\n');
+                expected.append("Modified: ").append(dateFormat.format(new Date(note.modified)))
+                        .append("\n\n");
+                expected.append(note.body);
+
+                ByteArrayOutputStream content = new ByteArrayOutputStream();
+                byte[] buffer = new byte[8192];
+                int count;
+                while ((count = zip.read(buffer)) > 0) {
+                    content.write(buffer, 0, count);
+                }
+                assertEquals(expected.toString(), content.toString("UTF-8"));
+            }
+            assertNull(zip.getNextEntry());
+        } finally {
+            zip.close();
+        }
+
+        // With no notes, the archive is empty rather than missing
+        mDb.delete(NotePad.Notes.TABLE_NAME, null, null);
+        descriptor = mMockResolver.openTypedAssetFileDescriptor(NotePad.Notes.CONTENT_URI,
+                NotePad.Notes.ARCHIVE_TYPE, null);
+        zip = new ZipInputStream(descriptor.createInputStream());
+        try {
+            assertNull(zip.getNextEntry());
+        } finally {
+            zip.close();
+        }
+    }
+
+    /*
+     * Tests that an exported archive imports back into the same notes, with the dates rounded to
+     * the second, and that a directory tree imports its text and Markdown files.
+     */
+    public void testImport() throws Exception {
+        NoteCorpus corpus = new NoteCorpus(21, 300);
+        NoteCorpusInserter.insert(mMockResolver, corpus);
+
+        AssetFileDescriptor descriptor = mMockResolver.openTypedAssetFileDescriptor(
+                NotePad.Notes.CONTENT_URI, NotePad.Notes.ARCHIVE_TYPE, null);
+        ByteArrayOutputStream archive = new ByteArrayOutputStream();
+        InputStream in = descriptor.createInputStream();
+        try {
+            byte[] buffer = new byte[8192];
+            int count;
+            while ((count = in.read(buffer)) > 0) {
+                archive.write(buffer, 0, count);
+            }
+        } finally {
+            in.close();
+        }
+        mDb.delete(NotePad.Notes.TABLE_NAME, null, null);
+
+        NoteImporter importer = new NoteImporter(mMockResolver, 4);
+        NoteImporter.Result result = importer.importZip(
+                new ByteArrayInputStream(archive.toByteArray()));
+        assertEquals(corpus.getCount(), result.imported);
+        assertEquals(0, result.failed);
+
+        // The workers finish in any order, so the notes are compared as sets
+        ArrayList<String> expected = new ArrayList<String>();
+        for (int i = 0; i < corpus.getCount(); i++) {
+            NoteCorpus.Note note = corpus.note(i);
+            expected.add(note.title.replaceAll("[\\r\\n]+", " ") + "|" + note.category + "|"
+                    + note.created / 1000 + "|" + note.modified / 1000 + "|" + note.body);
+        }
+        ArrayList<String> imported = new ArrayList<String>();
+        Cursor cursor = mDb.query(NotePad.Notes.TABLE_NAME, new String[] {
+                NotePad.Notes.COLUMN_NAME_TITLE, "category",
+                NotePad.Notes.COLUMN_NAME_CREATE_DATE,
+                NotePad.Notes.COLUMN_NAME_MODIFICATION_DATE, NotePad.Notes.COLUMN_NAME_NOTE },
+                null, null, null, null, null);
+        try {
+            while (cursor.moveToNext()) {
+                imported.add(cursor.getString(0) + "|" + cursor.getString(1) + "|"
+                        + cursor.getLong(2) / 1000 + "|" + cursor.getLong(3) / 1000 + "|"
+                        + cursor.getString(4));
+            }
+        } finally {
+            cursor.close();
+        }
+        Collections.sort(expected);
+        Collections.sort(imported);
+        assertEquals(expected, imported);
+
+        // A tree of files, of which only the visible text and Markdown files are imported
+        mDb.delete(NotePad.Notes.TABLE_NAME, null, null);
+        File root = new File(getContext().getCacheDir(), "import-test");
+        File sub = new File(root, "sub");
+        assertTrue(sub.mkdirs() || sub.isDirectory());
+        try {
+            writeFile(new File(root, "plan.md"), "# Weekly plan\nbuy milk".getBytes("UTF-8"));
+            writeFile(new File(sub, "购物.txt"), "牛奶和鸡蛋".getBytes("GB18030"));
+            writeFile(new File(root, ".hidden.txt"), "hidden".getBytes("UTF-8"));
+            writeFile(new File(root, "photo.png"), new byte[] { 1, 2, 3 });
+
+            result = importer.importDirectory(root);
+            assertEquals(2, result.imported);
+            assertEquals(0, result.failed);
+            assertEquals("# Weekly plan\nbuy milk", queryNoteByTitle("Weekly plan"));
+            assertEquals("牛奶和鸡蛋", queryNoteByTitle("购物"));
+        } finally {
+            for (File file : new File[] { new File(root, "plan.md"), new File(sub, "购物.txt"),
+                    new File(root, ".hidden.txt"), new File(root, "photo.png"), sub, root }) {
+                file.delete();
+            }
+        }
+    }
+
+    private String queryNoteByTitle(String title) {
+        Cursor cursor = mDb.query(NotePad.Notes.TABLE_NAME,
+                new String[] { NotePad.Notes.COLUMN_NAME_NOTE },
+                NotePad.Notes.COLUMN_NAME_TITLE + " = ?", new String[] { title },
+                null, null, null);
+        try {
+            assertTrue(cursor.moveToFirst());
+            return cursor.getString(0);
+        } finally {
+            cursor.close();
+        }
+    }
+
+    private static void writeFile(File file, byte[] content) throws IOException {
+        FileOutputStream out = new FileOutputStream(file);
+        try {
+            out.write(content);
+        } finally {
+            out.close();
+        }
+    }
+
     /*
      * Tests the provider's public API for querying data in the table, using the URI for
      * a dataset of records.
@@ -790,6 +1031,1052 @@ public class NotePadProviderTest extends ProviderTestCase2<NotePadProvider> {
 
     }
 
+    /*
+     * Tests full-text searches through the search URI. Titles and note contents are both
+     * searched, title hits rank ahead of content-only hits, and the index follows updates and
+     * deletes made through the provider.
+     */
+    public void testSearch() {
+        // Search subtest 1.
+        // A search against an empty table returns no rows.
+        Cursor cursor = mMockResolver.query(searchUri("note"), null, null, null, null);
+        assertEquals(0, cursor.getCount());
+
+        // Search subtest 2.
+        // Every test note contains the word "This" in its contents, but only one note has the
+        // title "Note5".
+        insertData();
+        cursor = mMockResolver.query(searchUri("this"), null, null, null, null);
+        assertEquals(TEST_NOTES.length, cursor.getCount());
+        cursor = mMockResolver.query(searchUri("Note5"), null, null, null, null);
+        assertEquals(1, cursor.getCount());
+        assertTrue(cursor.moveToFirst());
+        assertEquals("Note5",
+                cursor.getString(cursor.getColumnIndex(NotePad.Notes.COLUMN_NAME_TITLE)));
+
+        // Search subtest 3.
+        // A title hit ranks ahead of a more recently modified note that only mentions the word
+        // in its contents.
+        NoteInfo titleHit = new NoteInfo("Garden", "Tomatoes and beans");
+        titleHit.setModificationDate(START_DATE);
+        NoteInfo contentHit = new NoteInfo("Weekend", "Work in the garden");
+        contentHit.setModificationDate(START_DATE + ONE_WEEK_MILLIS * 20);
+        mMockResolver.insert(NotePad.Notes.CONTENT_URI, titleHit.getContentValues());
+        Uri contentHitUri =
+                mMockResolver.insert(NotePad.Notes.CONTENT_URI, contentHit.getContentValues());
+        cursor = mMockResolver.query(searchUri("gard"), null, null, null, null);
+        assertEquals(2, cursor.getCount());
+        assertTrue(cursor.moveToFirst());
+        assertEquals("Garden",
+                cursor.getString(cursor.getColumnIndex(NotePad.Notes.COLUMN_NAME_TITLE)));
+
+        // Search subtest 4.
+        // The index follows updates and deletes.
+        ContentValues values = new ContentValues();
+        values.put(NotePad.Notes.COLUMN_NAME_NOTE, "Lazy afternoon");
+        mMockResolver.update(contentHitUri, values, null, null);
+        cursor = mMockResolver.query(searchUri("garden"), null, null, null, null);
+        assertEquals(1, cursor.getCount());
+        cursor = mMockResolver.query(searchUri("afternoon"), null, null, null, null);
+        assertEquals(1, cursor.getCount());
+        mMockResolver.delete(contentHitUri, null, null);
+        cursor = mMockResolver.query(searchUri("afternoon"), null, null, null, null);
+        assertEquals(0, cursor.getCount());
+
+        // Search subtest 5.
+        // CJK text is matched as a substring of the title or contents, of any length, and
+        // every word of a search must match.
+        Uri bookUri = mMockResolver.insert(NotePad.Notes.CONTENT_URI,
+                new NoteInfo("读书笔记", "今天读完了一本书，明天开会").getContentValues());
+        for (String terms : new String[] { "一本", "本", "书", "读完了一本书", "笔记 开会",
+                "一本书，明天" }) {
+            cursor = mMockResolver.query(searchUri(terms), null, null, null, null);
+            assertEquals(terms, 1, cursor.getCount());
+        }
+        for (String terms : new String[] { "书明", "笔记 garden", "一本 会议" }) {
+            cursor = mMockResolver.query(searchUri(terms), null, null, null, null);
+            assertEquals(terms, 0, cursor.getCount());
+        }
+        values = new ContentValues();
+        values.put(NotePad.Notes.COLUMN_NAME_TITLE, "会议记录");
+        mMockResolver.update(bookUri, values, null, null);
+        cursor = mMockResolver.query(searchUri("会议"), null, null, null, null);
+        assertEquals(1, cursor.getCount());
+        cursor = mMockResolver.query(searchUri("读书"), null, null, null, null);
+        assertEquals(0, cursor.getCount());
+
+        // Search subtest 6.
+        // Words joined by punctuation are indexed as separate words, and a search for them
+        // matches each of them; ASCII and CJK words mix in one search.
+        mMockResolver.bulkInsert(NotePad.Notes.CONTENT_URI, new ContentValues[] {
+                new NoteInfo("Inbox", "Send the e-mail to foo_bar").getContentValues(),
+                new NoteInfo("meeting会议", "Plans").getContentValues() });
+        for (String terms : new String[] { "e-mail", "foo_bar", "mail", "meeting 会议",
+                "meeting会议" }) {
+            cursor = mMockResolver.query(searchUri(terms), null, null, null, null);
+            assertEquals(terms, 1, cursor.getCount());
+        }
+        cursor = mMockResolver.query(searchUri("!!"), null, null, null, null);
+        assertEquals(mMockResolver.query(NotePad.Notes.CONTENT_URI, null, null, null, null)
+                .getCount(), cursor.getCount());
+    }
+
+    // Builds a search URI for the given search terms.
+    private static Uri searchUri(String terms) {
+        return NotePad.Notes.CONTENT_SEARCH_URI.buildUpon()
+                .appendQueryParameter(NotePad.Notes.QUERY_PARAMETER_SEARCH, terms)
+                .build();
+    }
+
+    /*
+     * Tests inserting a batch of notes through bulkInsert(). Rows with different column sets can
+     * be mixed in one batch, and a failing row rolls back the whole batch.
+     */
+    public void testBulkInsert() {
+        // Bulk insert subtest 1.
+        // Inserts all the test notes, plus one that relies on the provider's defaults.
+        ContentValues[] values = new ContentValues[TEST_NOTES.length + 1];
+        for (int index = 0; index < TEST_NOTES.length; index++) {
+            values[index] = TEST_NOTES[index].getContentValues();
+        }
+        values[TEST_NOTES.length] = new ContentValues();
+        int inserted = mMockResolver.bulkInsert(NotePad.Notes.CONTENT_URI, values);
+        assertEquals(values.length, inserted);
+
+        Cursor cursor = mMockResolver.query(NotePad.Notes.CONTENT_URI, null, null, null, null);
+        assertEquals(values.length, cursor.getCount());
+
+        // Bulk insert subtest 2.
+        // A batch containing a duplicate ID inserts nothing.
+        cursor.moveToFirst();
+        ContentValues duplicate = new ContentValues();
+        duplicate.put(NotePad.Notes._ID, cursor.getLong(cursor.getColumnIndex(NotePad.Notes._ID)));
+        try {
+            mMockResolver.bulkInsert(NotePad.Notes.CONTENT_URI, new ContentValues[] {
+                    new NoteInfo("Note30", "Inserted before the failure").getContentValues(),
+                    duplicate });
+            fail("Expected bulk insert failure for existing record but insert succeeded.");
+        } catch (Exception e) {
+            // succeeded, so do nothing.
+        }
+        cursor = mMockResolver.query(NotePad.Notes.CONTENT_URI, null, null, null, null);
+        assertEquals(values.length, cursor.getCount());
+    }
+
+    /*
+     * Tests applying a batch of operations through applyBatch().
+     */
+    public void testApplyBatch() throws Exception {
+        insertData();
+
+        ArrayList<ContentProviderOperation> operations =
+                new ArrayList<ContentProviderOperation>();
+        operations.add(ContentProviderOperation.newInsert(NotePad.Notes.CONTENT_URI)
+                .withValues(new NoteInfo("Note30", "Inserted in a batch").getContentValues())
+                .build());
+        operations.add(ContentProviderOperation.newUpdate(NotePad.Notes.CONTENT_URI)
+                .withSelection(NotePad.Notes.COLUMN_NAME_TITLE + " = ?", new String[] { "Note1" })
+                .withValue(NotePad.Notes.COLUMN_NAME_NOTE, "Updated in a batch")
+                .build());
+        operations.add(ContentProviderOperation.newDelete(NotePad.Notes.CONTENT_URI)
+                .withSelection(NotePad.Notes.COLUMN_NAME_TITLE + " = ?", new String[] { "Note2" })
+                .build());
+
+        ContentProviderResult[] results = mMockResolver.applyBatch(NotePad.AUTHORITY, operations);
+        assertEquals(3, results.length);
+        assertNotNull(results[0].uri);
+        assertEquals(1, results[1].count.intValue());
+        assertEquals(1, results[2].count.intValue());
+
+        Cursor cursor = mMockResolver.query(NotePad.Notes.CONTENT_URI, null, null, null, null);
+        assertEquals(TEST_NOTES.length, cursor.getCount());
+    }
+
+    /*
+     * Tests that change notifications are coalesced. A counting sink replaces the content
+     * resolver, whose mock drops notifications.
+     */
+    public void testCoalescedNotifications() throws Exception {
+        insertData();
+
+        final ArrayList<Uri> notified = new ArrayList<Uri>();
+        NotificationCoalescer.Sink sink = new NotificationCoalescer.Sink() {
+            @Override
+            public void notifyChange(Uri uri) {
+                synchronized (notified) {
+                    notified.add(uri);
+                }
+            }
+        };
+        // The window never closes during the test, which flushes the changes itself, so that
+        // the counts do not depend on how fast the device saves
+        NotificationCoalescer notifier = getProvider().setNotificationSinkForTest(sink,
+                TimeUnit.HOURS.toMillis(1));
+        Uri firstNote = ContentUris.withAppendedId(NotePad.Notes.CONTENT_ID_URI_BASE, 1);
+        Uri secondNote = ContentUris.withAppendedId(NotePad.Notes.CONTENT_ID_URI_BASE, 2);
+        ContentValues values = new ContentValues();
+
+        // Notification subtest 1.
+        // A burst of saves of one note, like an autosave, is notified once.
+        for (int i = 0; i < 100; i++) {
+            values.put(NotePad.Notes.COLUMN_NAME_NOTE, "Autosaved " + i);
+            mMockResolver.update(firstNote, values, null, null);
+        }
+        synchronized (notified) {
+            assertTrue(notified.isEmpty());
+        }
+        notifier.flush();
+        synchronized (notified) {
+            assertEquals(1, notified.size());
+            assertEquals(firstNote, notified.get(0));
+            notified.clear();
+        }
+
+        // Notification subtest 2.
+        // Each distinct note is notified once, and a change to the notes URI covers the
+        // notes under it.
+        for (int i = 0; i < 10; i++) {
+            mMockResolver.update(firstNote, values, null, null);
+            mMockResolver.update(secondNote, values, null, null);
+        }
+        notifier.flush();
+        synchronized (notified) {
+            assertEquals(2, notified.size());
+            assertTrue(notified.contains(firstNote));
+            assertTrue(notified.contains(secondNote));
+            notified.clear();
+        }
+        mMockResolver.update(firstNote, values, null, null);
+        mMockResolver.delete(NotePad.Notes.CONTENT_URI,
+                NotePad.Notes.COLUMN_NAME_TITLE + " = ?", new String[] { "Note3" });
+        mMockResolver.update(secondNote, values, null, null);
+        notifier.flush();
+        synchronized (notified) {
+            assertEquals(1, notified.size());
+            assertEquals(NotePad.Notes.CONTENT_URI, notified.get(0));
+            notified.clear();
+        }
+
+        // Notification subtest 3.
+        // A batch is notified once, as soon as it commits.
+        ArrayList<ContentProviderOperation> operations =
+                new ArrayList<ContentProviderOperation>();
+        for (int i = 0; i < 20; i++) {
+            operations.add(ContentProviderOperation.newInsert(NotePad.Notes.CONTENT_URI)
+                    .withValues(new NoteInfo("Batch" + i, "Inserted in a batch")
+                            .getContentValues())
+                    .build());
+        }
+        mMockResolver.applyBatch(NotePad.AUTHORITY, operations);
+        synchronized (notified) {
+            assertEquals(1, notified.size());
+            assertEquals(NotePad.Notes.CONTENT_URI, notified.get(0));
+            notified.clear();
+        }
+
+        // Notification subtest 4.
+        // A change is notified by itself once the window closes.
+        final CountDownLatch windowClosed = new CountDownLatch(1);
+        getProvider().setNotificationSinkForTest(new NotificationCoalescer.Sink() {
+            @Override
+            public void notifyChange(Uri uri) {
+                synchronized (notified) {
+                    notified.add(uri);
+                }
+                windowClosed.countDown();
+            }
+        }, NotificationCoalescer.DEFAULT_WINDOW_MILLIS);
+        mMockResolver.update(firstNote, values, null, null);
+        assertTrue(windowClosed.await(5, TimeUnit.SECONDS));
+        synchronized (notified) {
+            assertEquals(Collections.singletonList(firstNote), notified);
+        }
+    }
+
+    /*
+     * Tests keyset-paginated queries on the notes URI. Walking the pages must return every note
+     * exactly once, newest first, including notes that share a modification date.
+     */
+    public void testPagedQueries() {
+        final String[] PAGE_PROJECTION = {
+            NotePad.Notes._ID,
+            NotePad.Notes.COLUMN_NAME_MODIFICATION_DATE
+        };
+        final int PAGE_SIZE = 4;
+
+        insertData();
+
+        // Adds two notes modified at the same time as the newest test note, so that a page
+        // boundary falls between notes with equal modification dates.
+        for (int index = 0; index < 2; index++) {
+            NoteInfo tie = new NoteInfo("Tie" + index, "Same modification date");
+            tie.setModificationDate(TEST_NOTES[TEST_NOTES.length - 1].modDate);
+            mMockResolver.insert(NotePad.Notes.CONTENT_URI, tie.getContentValues());
+        }
+        final int total = TEST_NOTES.length + 2;
+
+        // Paging subtest 1.
+        // Walks every page and checks the rows come back in keyset order without repeats.
+        int seen = 0;
+        long lastModified = Long.MAX_VALUE;
+        long lastId = Long.MAX_VALUE;
+        Uri pageUri = pageUri(PAGE_SIZE, null, null);
+        while (true) {
+            Cursor page = mMockResolver.query(pageUri, PAGE_PROJECTION, null, null, null);
+            assertTrue(page.getCount() <= PAGE_SIZE);
+            if (page.getCount() == 0) {
+                page.close();
+                break;
+            }
+            while (page.moveToNext()) {
+                long id = page.getLong(0);
+                long modified = page.getLong(1);
+                assertTrue(modified < lastModified || (modified == lastModified && id < lastId));
+                lastModified = modified;
+                lastId = id;
+                seen++;
+            }
+            page.close();
+            pageUri = pageUri(PAGE_SIZE, lastModified, lastId);
+        }
+        assertEquals(total, seen);
+
+        // Paging subtest 2.
+        // A page that asks for more notes than there are returns all of them.
+        Cursor cursor = mMockResolver.query(pageUri(total + 10, null, null), PAGE_PROJECTION,
+                null, null, null);
+        assertEquals(total, cursor.getCount());
+
+        // Paging subtest 3.
+        // Malformed paging parameters are rejected.
+        try {
+            mMockResolver.query(pageUri(0, null, null), PAGE_PROJECTION, null, null, null);
+            fail("Expected a page size of 0 to be rejected.");
+        } catch (IllegalArgumentException e) {
+            // succeeded, so do nothing.
+        }
+        try {
+            Uri incomplete = NotePad.Notes.CONTENT_URI.buildUpon()
+                    .appendQueryParameter(NotePad.Notes.QUERY_PARAMETER_LIMIT, "5")
+                    .appendQueryParameter(NotePad.Notes.QUERY_PARAMETER_BEFORE_ID, "3")
+                    .build();
+            mMockResolver.query(incomplete, PAGE_PROJECTION, null, null, null);
+            fail("Expected a keyset without a modification date to be rejected.");
+        } catch (IllegalArgumentException e) {
+            // succeeded, so do nothing.
+        }
+    }
+
+    /*
+     * Tests that the provider records its calls and returns them from the metrics URI.
+     */
+    public void testMetrics() {
+        insertData();
+
+        for (int i = 0; i < 3; i++) {
+            mMockResolver.query(NotePad.Notes.CONTENT_URI, null, null, null, null).close();
+        }
+        ContentValues values = new ContentValues();
+        values.put(NotePad.Notes.COLUMN_NAME_NOTE, "Updated");
+        mMockResolver.update(ContentUris.withAppendedId(NotePad.Notes.CONTENT_ID_URI_BASE, 1),
+                values, null, null);
+        try {
+            mMockResolver.update(INVALID_URI, values, null, null);
+            fail("Expected an update on an invalid URI to fail.");
+        } catch (IllegalArgumentException e) {
+            // succeeded, so do nothing.
+        }
+
+        Cursor cursor = mMockResolver.query(NotePad.Metrics.CONTENT_URI, null, null, null, null);
+        assertEquals(3, cursor.getCount());
+        int operationIndex = cursor.getColumnIndex(NotePad.Metrics.COLUMN_NAME_OPERATION);
+        int uriIndex = cursor.getColumnIndex(NotePad.Metrics.COLUMN_NAME_URI);
+        int callsIndex = cursor.getColumnIndex(NotePad.Metrics.COLUMN_NAME_CALLS);
+        int errorsIndex = cursor.getColumnIndex(NotePad.Metrics.COLUMN_NAME_ERRORS);
+        int rowsIndex = cursor.getColumnIndex(NotePad.Metrics.COLUMN_NAME_ROWS);
+        int p99Index = cursor.getColumnIndex(NotePad.Metrics.COLUMN_NAME_P99_MICROS);
+        int maxIndex = cursor.getColumnIndex(NotePad.Metrics.COLUMN_NAME_MAX_MICROS);
+        while (cursor.moveToNext()) {
+            String operation = cursor.getString(operationIndex) + " " + cursor.getString(uriIndex);
+            if (operation.equals("query notes")) {
+                assertEquals(3, cursor.getLong(callsIndex));
+                assertEquals(0, cursor.getLong(errorsIndex));
+                // ContentResolver asks for the count of every cursor, so each query counts all
+                // of its rows
+                assertEquals(3 * TEST_NOTES.length, cursor.getLong(rowsIndex));
+            } else if (operation.equals("update notes/#")) {
+                assertEquals(1, cursor.getLong(callsIndex));
+                assertEquals(0, cursor.getLong(errorsIndex));
+                assertEquals(1, cursor.getLong(rowsIndex));
+            } else if (operation.equals("update unknown")) {
+                assertEquals(1, cursor.getLong(callsIndex));
+                assertEquals(1, cursor.getLong(errorsIndex));
+                assertEquals(0, cursor.getLong(rowsIndex));
+            } else {
+                fail("Unexpected metrics for " + operation);
+            }
+            // With fewer than 100 calls, the 99th percentile is the bucket of the slowest call
+            assertTrue(cursor.getLong(maxIndex) <= cursor.getLong(p99Index));
+        }
+        cursor.close();
+
+        // Dumping the metrics to logcat returns nothing
+        assertNull(mMockResolver.call(NotePad.Metrics.CONTENT_URI, NotePad.Metrics.METHOD_DUMP,
+                null, null));
+    }
+
+    /*
+     * Tests that a generated corpus goes into the provider unchanged, including a note of
+     * several megabytes.
+     */
+    public void testCorpusInsert() {
+        NoteCorpus corpus = new NoteCorpus(42, 1000);
+        assertEquals(1000, NoteCorpusInserter.insert(mMockResolver, corpus));
+
+        Cursor cursor = mMockResolver.query(NotePad.Notes.CONTENT_URI, null, null, null, null);
+        assertEquals(1000, cursor.getCount());
+        cursor.close();
+
+        // The notes are inserted in order, so note i has the _id i + 1
+        String[] projection = { NotePad.Notes.COLUMN_NAME_TITLE, NotePad.Notes.COLUMN_NAME_NOTE,
+                NotePad.Notes.COLUMN_NAME_MODIFICATION_DATE };
+        for (int i = 0; i < corpus.getCount(); i += 97) {
+            NoteCorpus.Note note = corpus.note(i);
+            cursor = mMockResolver.query(
+                    ContentUris.withAppendedId(NotePad.Notes.CONTENT_ID_URI_BASE, i + 1),
+                    projection, null, null, null);
+            assertTrue(cursor.moveToFirst());
+            assertEquals(note.title, cursor.getString(0));
+            assertEquals(note.body, cursor.getString(1));
+            assertEquals(note.modified, cursor.getLong(2));
+            cursor.close();
+
+            // The notes URIs do not expose the category column, so it is read directly
+            cursor = mDb.query(NotePad.Notes.TABLE_NAME, new String[] { "category" },
+                    NotePad.Notes._ID + " = " + (i + 1), null, null, null, null);
+            assertTrue(cursor.moveToFirst());
+            assertEquals(note.category, cursor.getString(0));
+            cursor.close();
+        }
+
+        // A corpus with a multi-MB note is split into batches by size
+        NoteCorpus huge = new NoteCorpus(42, 3);
+        huge.setBodySizes(new NoteCorpus.BodySize[] {
+                new NoteCorpus.BodySize(1, 2000000, 3000000) });
+        assertEquals(3, NoteCorpusInserter.insert(mMockResolver, huge));
+        cursor = mMockResolver.query(NotePad.Notes.CONTENT_URI, null, null, null, null);
+        assertEquals(1003, cursor.getCount());
+        cursor.close();
+    }
+
+    /*
+     * Tests that the provider keeps the snippet column in step with the note content.
+     */
+    public void testSnippets() {
+        String[] projection = { NotePad.Notes.COLUMN_NAME_SNIPPET };
+
+        // Whitespace is collapsed, and a caller's own snippet is ignored
+        ContentValues values = new NoteInfo("Snippet", "  Buy milk,\n\n\teggs\u3000and bread.  ")
+                .getContentValues();
+        values.put(NotePad.Notes.COLUMN_NAME_SNIPPET, "Written by the caller");
+        Uri noteUri = mMockResolver.insert(NotePad.Notes.CONTENT_URI, values);
+        assertEquals("Buy milk, eggs and bread.", querySnippet(noteUri, projection));
+
+        // Changing only the title keeps the snippet
+        values = new ContentValues();
+        values.put(NotePad.Notes.COLUMN_NAME_TITLE, "Shopping");
+        mMockResolver.update(noteUri, values, null, null);
+        assertEquals("Buy milk, eggs and bread.", querySnippet(noteUri, projection));
+
+        // An update of the snippet alone changes nothing
+        values = new ContentValues();
+        values.put(NotePad.Notes.COLUMN_NAME_SNIPPET, "Written by the caller");
+        assertEquals(0, mMockResolver.update(noteUri, values, null, null));
+        assertEquals("Buy milk, eggs and bread.", querySnippet(noteUri, projection));
+
+        // Changing the note replaces it, bounded in length
+        StringBuilder longNote = new StringBuilder();
+        for (int i = 0; i < 1000; i++) {
+            longNote.append("word ");
+        }
+        values = new ContentValues();
+        values.put(NotePad.Notes.COLUMN_NAME_NOTE, longNote.toString());
+        mMockResolver.update(noteUri, values, null, null);
+        String snippet = querySnippet(noteUri, projection);
+        assertEquals(NotePadSchema.SNIPPET_LENGTH - 1, snippet.length());
+        assertTrue(longNote.toString().startsWith(snippet));
+
+        // Search results carry the snippet too
+        Uri searchUri = NotePad.Notes.CONTENT_SEARCH_URI.buildUpon()
+                .appendQueryParameter(NotePad.Notes.QUERY_PARAMETER_SEARCH, "shopping").build();
+        Cursor cursor = mMockResolver.query(searchUri, projection, null, null, null);
+        assertTrue(cursor.moveToFirst());
+        assertEquals(snippet, cursor.getString(0));
+        cursor.close();
+
+        // A character outside the Basic Multilingual Plane is not split at the limit
+        StringBuilder emoji = new StringBuilder();
+        for (int i = 0; i < NotePadSchema.SNIPPET_LENGTH - 1; i++) {
+            emoji.append('x');
+        }
+        emoji.append("\ud83d\ude00");
+        assertEquals(NotePadSchema.SNIPPET_LENGTH - 1,
+                NotePadSchema.snippet(emoji.toString()).length());
+        assertEquals("", NotePadSchema.snippet(" \n "));
+    }
+
+    /*
+     * Tests the revision history: every change is recorded, each revision can be rebuilt from
+     * the deltas, most revisions are stored as small deltas, a revision can be reverted to, and
+     * the history goes with its note. The changes are made further apart than the updates that
+     * are coalesced into one revision.
+     */
+    public void testRevisions() {
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; i < 200; i++) {
+            text.append("第").append(i).append("行: the quick brown fox jumps over the lazy dog\n");
+        }
+        Uri noteUri = mMockResolver.insert(NotePad.Notes.CONTENT_URI,
+                new NoteInfo("Draft", text.toString()).getContentValues());
+        long noteId = ContentUris.parseId(noteUri);
+        Uri revisionsUri = NotePad.Revisions.getContentUri(noteId);
+        assertEquals(NotePad.Revisions.CONTENT_TYPE, mMockResolver.getType(revisionsUri));
+        assertEquals(NotePad.Revisions.CONTENT_ITEM_TYPE,
+                mMockResolver.getType(NotePad.Revisions.getRevisionUri(noteId, 1)));
+        assertEquals(0, queryRevision(noteUri));
+
+        // An update that changes nothing records nothing
+        ContentValues values = new ContentValues();
+        values.put(NotePad.Notes.COLUMN_NAME_NOTE, text.toString());
+        assertEquals(1, mMockResolver.update(noteUri, values, null, null));
+        assertEquals(0, queryRevision(noteUri));
+
+        // The first change also records the note as it was, as revision 1
+        ArrayList<String> versions = new ArrayList<String>();
+        versions.add(text.toString());
+        int edits = 2 * NoteRevisions.SNAPSHOT_INTERVAL + 5;
+        for (int i = 0; i < edits; i++) {
+            text.insert((i * 997) % text.length(), "编辑" + i);
+            values = new ContentValues();
+            values.put(NotePad.Notes.COLUMN_NAME_NOTE, text.toString());
+            values.put(NotePad.Notes.COLUMN_NAME_MODIFICATION_DATE,
+                    (i + 1) * 2 * NoteRevisions.COALESCE_MILLIS);
+            mMockResolver.update(noteUri, values, null, null);
+            versions.add(text.toString());
+        }
+        int latest = versions.size();
+        assertEquals(latest, queryRevision(noteUri));
+
+        // Snapshots at the interval, and small deltas between them
+        Cursor cursor = mMockResolver.query(revisionsUri, new String[] {
+                NotePad.Revisions.COLUMN_NAME_REVISION, NotePad.Revisions.COLUMN_NAME_SNAPSHOT,
+                NotePad.Revisions.COLUMN_NAME_SIZE, NotePad.Revisions.COLUMN_NAME_LENGTH },
+                null, null, null);
+        assertEquals(latest, cursor.getCount());
+        int expected = latest;
+        while (cursor.moveToNext()) {
+            assertEquals(expected, cursor.getInt(0));
+            boolean snapshot = (expected - 1) % NoteRevisions.SNAPSHOT_INTERVAL == 0;
+            assertEquals(snapshot ? 1 : 0, cursor.getInt(1));
+            if (!snapshot) {
+                assertTrue("Delta of " + cursor.getInt(2) + " bytes",
+                        cursor.getInt(2) * 20 < cursor.getInt(3));
+            }
+            expected--;
+        }
+        cursor.close();
+
+        // Every revision is rebuilt exactly
+        for (int revision = 1; revision <= latest; revision++) {
+            cursor = mMockResolver.query(NotePad.Revisions.getRevisionUri(noteId, revision),
+                    null, null, null, null);
+            assertTrue(cursor.moveToFirst());
+            assertEquals(revision, cursor.getInt(
+                    cursor.getColumnIndexOrThrow(NotePad.Revisions.COLUMN_NAME_REVISION)));
+            assertEquals(versions.get(revision - 1), cursor.getString(
+                    cursor.getColumnIndexOrThrow(NotePad.Revisions.COLUMN_NAME_NOTE)));
+            assertEquals("Draft", cursor.getString(
+                    cursor.getColumnIndexOrThrow(NotePad.Revisions.COLUMN_NAME_TITLE)));
+            cursor.close();
+        }
+        cursor = mMockResolver.query(NotePad.Revisions.getRevisionUri(noteId, latest + 1),
+                null, null, null, null);
+        assertEquals(0, cursor.getCount());
+        cursor.close();
+
+        // A note changed behind the provider's back gets a whole revision
+        values = new ContentValues();
+        values.put(NotePad.Notes.COLUMN_NAME_NOTE, "changed directly");
+        mDb.update(NotePad.Notes.TABLE_NAME, values, NotePad.Notes._ID + " = " + noteId, null);
+        values = new ContentValues();
+        values.put(NotePad.Notes.COLUMN_NAME_TITLE, "Renamed");
+        mMockResolver.update(noteUri, values, null, null);
+        cursor = mMockResolver.query(NotePad.Revisions.getRevisionUri(noteId, latest + 1),
+                new String[] { NotePad.Revisions.COLUMN_NAME_NOTE }, null, null, null);
+        assertTrue(cursor.moveToFirst());
+        assertEquals("changed directly", cursor.getString(0));
+        cursor.close();
+
+        // Reverting restores the title and text, and records another revision
+        assertEquals(1, mMockResolver.update(NotePad.Revisions.getRevisionUri(noteId, 3),
+                new ContentValues(), null, null));
+        cursor = mMockResolver.query(noteUri, new String[] { NotePad.Notes.COLUMN_NAME_TITLE,
+                NotePad.Notes.COLUMN_NAME_NOTE, NotePad.Notes.COLUMN_NAME_REVISION },
+                null, null, null);
+        assertTrue(cursor.moveToFirst());
+        assertEquals("Draft", cursor.getString(0));
+        assertEquals(versions.get(2), cursor.getString(1));
+        assertEquals(latest + 2, cursor.getInt(2));
+        cursor.close();
+        assertEquals(0, mMockResolver.update(NotePad.Revisions.getRevisionUri(noteId, 999),
+                new ContentValues(), null, null));
+
+        // Deleting the note deletes its history
+        mMockResolver.delete(noteUri, null, null);
+        cursor = mMockResolver.query(revisionsUri, null, null, null, null);
+        assertEquals(0, cursor.getCount());
+        cursor.close();
+    }
+
+    /*
+     * Tests that updates made soon after the latest revision, as autosaves are, replace it
+     * instead of adding revisions, and that revision 1 and reverts are never replaced.
+     */
+    public void testRevisionsCoalesced() {
+        Uri noteUri = mMockResolver.insert(NotePad.Notes.CONTENT_URI,
+                new NoteInfo("Draft", "v0").getContentValues());
+        long noteId = ContentUris.parseId(noteUri);
+        long start = 10 * NoteRevisions.COALESCE_MILLIS;
+
+        // The first change adds revisions 1 and 2, and the next one replaces revision 2
+        updateNote(noteUri, "v1", start);
+        updateNote(noteUri, "v2", start + 2000);
+        assertEquals(2, queryRevision(noteUri));
+        assertRevision(noteId, 1, "v0");
+        assertRevision(noteId, 2, "v2");
+
+        // Each update extends the window, and a pause as long as it adds a revision
+        long last = start + 2000;
+        for (int i = 3; i < 10; i++) {
+            last += NoteRevisions.COALESCE_MILLIS / 2;
+            updateNote(noteUri, "v" + i, last);
+        }
+        assertEquals(2, queryRevision(noteUri));
+        updateNote(noteUri, "v10", last + NoteRevisions.COALESCE_MILLIS);
+        updateNote(noteUri, "v11", last + NoteRevisions.COALESCE_MILLIS + 2000);
+        assertEquals(3, queryRevision(noteUri));
+        assertRevision(noteId, 2, "v9");
+        assertRevision(noteId, 3, "v11");
+
+        // Reverting adds a revision, even right after the latest one
+        assertEquals(1, mMockResolver.update(NotePad.Revisions.getRevisionUri(noteId, 2),
+                new ContentValues(), null, null));
+        assertEquals(4, queryRevision(noteUri));
+        assertRevision(noteId, 3, "v11");
+        assertRevision(noteId, 4, "v9");
+    }
+
+    private void updateNote(Uri noteUri, String text, long modified) {
+        ContentValues values = new ContentValues();
+        values.put(NotePad.Notes.COLUMN_NAME_NOTE, text);
+        values.put(NotePad.Notes.COLUMN_NAME_MODIFICATION_DATE, modified);
+        assertEquals(1, mMockResolver.update(noteUri, values, null, null));
+    }
+
+    private void assertRevision(long noteId, int revision, String expected) {
+        Cursor cursor = mMockResolver.query(NotePad.Revisions.getRevisionUri(noteId, revision),
+                new String[] { NotePad.Revisions.COLUMN_NAME_NOTE }, null, null, null);
+        try {
+            assertTrue(cursor.moveToFirst());
+            assertEquals(expected, cursor.getString(0));
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /*
+     * Tests that the triggers keep the number of notes in each category through inserts,
+     * moves, deletes and renames, counting the notes a category already has when it is created.
+     */
+    public void testCategoryCounts() {
+        ContentValues values = new NoteInfo("Plan", "").getContentValues();
+        values.put("category", "工作");
+        Uri workNote = mMockResolver.insert(NotePad.Notes.CONTENT_URI, values);
+        mMockResolver.insert(NotePad.Notes.CONTENT_URI, values);
+        long work = insertCategory("工作");
+        long life = insertCategory("生活");
+        assertEquals(2, queryCategoryCount(work));
+        assertEquals(0, queryCategoryCount(life));
+
+        values.put("category", "生活");
+        Uri lifeNote = mMockResolver.insert(NotePad.Notes.CONTENT_URI, values);
+        ContentValues[] bulk = new ContentValues[3];
+        for (int i = 0; i < bulk.length; i++) {
+            bulk[i] = values;
+        }
+        mMockResolver.bulkInsert(NotePad.Notes.CONTENT_URI, bulk);
+        mMockResolver.insert(NotePad.Notes.CONTENT_URI, new NoteInfo("None", "")
+                .getContentValues());
+        assertEquals(2, queryCategoryCount(work));
+        assertEquals(4, queryCategoryCount(life));
+
+        // Moving a note, and changing it without moving it
+        values = new ContentValues();
+        values.put("category", "生活");
+        mMockResolver.update(workNote, values, null, null);
+        values = new ContentValues();
+        values.put(NotePad.Notes.COLUMN_NAME_NOTE, "changed");
+        mMockResolver.update(lifeNote, values, null, null);
+        assertEquals(1, queryCategoryCount(work));
+        assertEquals(5, queryCategoryCount(life));
+
+        mMockResolver.delete(lifeNote, null, null);
+        assertEquals(4, queryCategoryCount(life));
+        mMockResolver.delete(NotePad.Notes.CONTENT_URI, "category = ?", new String[] { "生活" });
+        assertEquals(0, queryCategoryCount(life));
+        assertEquals(1, queryCategoryCount(work));
+
+        // A renamed category counts the notes with its new name
+        values = new NoteInfo("Idea", "").getContentValues();
+        values.put("category", "Ideas");
+        mMockResolver.insert(NotePad.Notes.CONTENT_URI, values);
+        Uri workUri = ContentUris.withAppendedId(NotePad.Categories.CONTENT_URI, work);
+        values = new ContentValues();
+        values.put(NotePad.Categories.COLUMN_NAME_NAME, "Ideas");
+        assertEquals(1, mMockResolver.update(workUri, values, null, null));
+        assertEquals(1, queryCategoryCount(work));
+        values.put(NotePad.Categories.COLUMN_NAME_NAME, "学习");
+        mMockResolver.update(workUri, values, null, null);
+        assertEquals(0, queryCategoryCount(work));
+
+        // Callers cannot write the count
+        values = new ContentValues();
+        values.put(NotePad.Categories.COLUMN_NAME_COUNT, 42);
+        assertEquals(0, mMockResolver.update(workUri, values, null, null));
+        values.put(NotePad.Categories.COLUMN_NAME_COLOR, "#F1F1F1");
+        assertEquals(1, mMockResolver.update(workUri, values, null, null));
+        assertEquals(0, queryCategoryCount(work));
+    }
+
+    /*
+     * Tests inserting, listing and deleting categories through the provider. Names are unique.
+     */
+    public void testCategories() {
+        assertEquals(NotePad.Categories.CONTENT_TYPE,
+                mMockResolver.getType(NotePad.Categories.CONTENT_URI));
+        assertEquals(NotePad.Categories.CONTENT_ITEM_TYPE, mMockResolver.getType(
+                ContentUris.withAppendedId(NotePad.Categories.CONTENT_URI, 1)));
+
+        long first = insertCategory("工作");
+        long second = insertCategory("生活");
+        try {
+            insertCategory("工作");
+            fail("Inserted a category with the name of another");
+        } catch (SQLException e) {
+            // Expected
+        }
+
+        Cursor cursor = mMockResolver.query(NotePad.Categories.CONTENT_URI, new String[] {
+                NotePad.Categories._ID, NotePad.Categories.COLUMN_NAME_NAME,
+                NotePad.Categories.COLUMN_NAME_COLOR }, null, null, null);
+        assertEquals(2, cursor.getCount());
+        assertTrue(cursor.moveToFirst());
+        assertEquals(first, cursor.getLong(0));
+        assertEquals("工作", cursor.getString(1));
+        assertEquals("#FFFFFF", cursor.getString(2));
+        assertTrue(cursor.moveToNext());
+        assertEquals(second, cursor.getLong(0));
+        cursor.close();
+
+        assertEquals(1, mMockResolver.delete(
+                ContentUris.withAppendedId(NotePad.Categories.CONTENT_URI, first), null, null));
+        cursor = mMockResolver.query(NotePad.Categories.CONTENT_URI, null, null, null, null);
+        assertEquals(1, cursor.getCount());
+        cursor.close();
+    }
+
+    /*
+     * Tests listing the notes of a category from its notes URI, whole and in pages.
+     */
+    public void testCategoryNotes() {
+        final String[] PAGE_PROJECTION = {
+            NotePad.Notes._ID,
+            NotePad.Notes.COLUMN_NAME_MODIFICATION_DATE,
+            NotePad.Notes.COLUMN_NAME_CATEGORY
+        };
+        long work = insertCategory("工作");
+        long life = insertCategory("生活");
+        Uri workNotes = NotePad.Categories.getNotesUri(work);
+        assertEquals(NotePad.Notes.CONTENT_TYPE, mMockResolver.getType(workNotes));
+
+        // Five notes in 工作, two of them modified at the same time, and one in 生活
+        long modified = 1000;
+        for (int i = 0; i < 6; i++) {
+            NoteInfo note = new NoteInfo("Note" + i, "");
+            note.setModificationDate(i == 4 ? modified - 1 : modified - i);
+            ContentValues values = note.getContentValues();
+            values.put(NotePad.Notes.COLUMN_NAME_CATEGORY, i == 2 ? "生活" : "工作");
+            mMockResolver.insert(NotePad.Notes.CONTENT_URI, values);
+        }
+        mMockResolver.insert(NotePad.Notes.CONTENT_URI, new NoteInfo("None", "")
+                .getContentValues());
+
+        Cursor cursor = mMockResolver.query(workNotes, PAGE_PROJECTION, null, null, null);
+        assertEquals(5, cursor.getCount());
+        while (cursor.moveToNext()) {
+            assertEquals("工作", cursor.getString(2));
+        }
+        cursor.close();
+        cursor = mMockResolver.query(NotePad.Categories.getNotesUri(life), PAGE_PROJECTION,
+                null, null, null);
+        assertEquals(1, cursor.getCount());
+        cursor.close();
+
+        // Walks the pages of 工作, which come back in keyset order without repeats
+        int seen = 0;
+        long lastModified = Long.MAX_VALUE;
+        long lastId = Long.MAX_VALUE;
+        Uri firstPage = workNotes.buildUpon()
+                .appendQueryParameter(NotePad.Notes.QUERY_PARAMETER_LIMIT, "2")
+                .build();
+        Uri pageUri = firstPage;
+        while (true) {
+            Cursor page = mMockResolver.query(pageUri, PAGE_PROJECTION, null, null, null);
+            assertTrue(page.getCount() <= 2);
+            if (page.getCount() == 0) {
+                page.close();
+                break;
+            }
+            while (page.moveToNext()) {
+                long id = page.getLong(0);
+                modified = page.getLong(1);
+                assertTrue(modified < lastModified || (modified == lastModified && id < lastId));
+                assertEquals("工作", page.getString(2));
+                lastModified = modified;
+                lastId = id;
+                seen++;
+            }
+            page.close();
+            pageUri = firstPage.buildUpon()
+                    .appendQueryParameter(NotePad.Notes.QUERY_PARAMETER_BEFORE_MODIFIED,
+                            Long.toString(lastModified))
+                    .appendQueryParameter(NotePad.Notes.QUERY_PARAMETER_BEFORE_ID,
+                            Long.toString(lastId))
+                    .build();
+        }
+        assertEquals(5, seen);
+
+        // A category that does not exist has no notes
+        cursor = mMockResolver.query(NotePad.Categories.getNotesUri(life + 100),
+                PAGE_PROJECTION, null, null, null);
+        assertEquals(0, cursor.getCount());
+        cursor.close();
+    }
+
+    /*
+     * Tests that notes and categories are all read and written through the provider's one
+     * database helper, which opens the database file once.
+     */
+    public void testSingleDatabaseOpen() {
+        CountingContext context = new CountingContext(getContext());
+        context.deleteDatabase("note_pad.db");
+        NotePadProvider provider = context.getProvider();
+        try {
+            ContentValues values = new ContentValues();
+            values.put(NotePad.Categories.COLUMN_NAME_NAME, "工作");
+            Uri categoryUri = provider.insert(NotePad.Categories.CONTENT_URI, values);
+            values = new NoteInfo("Plan", "").getContentValues();
+            values.put("category", "工作");
+            Uri noteUri = provider.insert(NotePad.Notes.CONTENT_URI, values);
+            provider.query(NotePad.Categories.CONTENT_URI, null, null, null, null).close();
+            provider.query(noteUri, null, null, null, null).close();
+            values = new ContentValues();
+            values.put(NotePad.Categories.COLUMN_NAME_COLOR, "#F1F1F1");
+            provider.update(categoryUri, values, null, null);
+            provider.delete(noteUri, null, null);
+            provider.delete(categoryUri, null, null);
+
+            assertEquals(Collections.singletonList("note_pad.db"), context.mOpened);
+        } finally {
+            provider.getOpenHelperForTest().close();
+            context.deleteDatabase("note_pad.db");
+        }
+    }
+
+    /*
+     * Tests that a new database gets the page size of its tuning, although it is then switched
+     * to write-ahead logging.
+     */
+    public void testDatabaseTuning() {
+        Context context = new RenamingDelegatingContext(getContext(), "test.tuning.");
+        context.deleteDatabase("tuning.db");
+        NotePadProvider.DatabaseHelper helper = new NotePadProvider.DatabaseHelper(context,
+                "tuning.db", new NotePadProvider.DatabaseHelper.Tuning(true, "NORMAL", 8192, 2048));
+        try {
+            SQLiteDatabase db = helper.getWritableDatabase();
+            assertEquals(8192, DatabaseUtils.longForQuery(db, "PRAGMA page_size", null));
+            assertEquals("wal", DatabaseUtils.stringForQuery(db, "PRAGMA journal_mode", null)
+                    .toLowerCase(Locale.US));
+        } finally {
+            helper.close();
+            context.deleteDatabase("tuning.db");
+        }
+    }
+
+    /*
+     * A database created by version 3 of the application, whose notes table has no category
+     * column, is upgraded to the current schema, with its notes searchable and summarized.
+     */
+    public void testUpgradeFromVersion3() {
+        Context context = new RenamingDelegatingContext(getContext(), "test.upgrade.");
+        context.deleteDatabase("upgrade.db");
+        SQLiteDatabase old = createVersion3Database(context, "upgrade.db", false);
+        old.execSQL("INSERT INTO notes (_id, title, note, created, modified)"
+                + " VALUES (1, 'Garden', '  Plant the\n tomatoes ', 1000, 2000)");
+        old.execSQL("INSERT INTO notes (_id, title, note, created, modified)"
+                + " VALUES (2, '计划', '今天的工作计划', 1000, 2000)");
+        old.close();
+
+        NotePadProvider.DatabaseHelper helper = new NotePadProvider.DatabaseHelper(context,
+                "upgrade.db", NotePadProvider.DatabaseHelper.Tuning.DEFAULT);
+        try {
+            SQLiteDatabase db = helper.getWritableDatabase();
+            assertEquals(9, db.getVersion());
+            assertNull(DatabaseUtils.stringForQuery(db,
+                    "SELECT category FROM notes WHERE _id = 1", null));
+            assertEquals(1, DatabaseUtils.longForQuery(db,
+                    "SELECT docid FROM notes_fts WHERE notes_fts MATCH 'tomatoes'", null));
+            assertEquals(2, DatabaseUtils.longForQuery(db,
+                    "SELECT docid FROM notes_fts WHERE notes_fts MATCH ?",
+                    new String[] { NoteSearch.matchQuery("工作") }));
+            assertEquals("Plant the tomatoes", DatabaseUtils.stringForQuery(db,
+                    "SELECT snippet FROM notes WHERE _id = 1", null));
+            assertEquals(2, DatabaseUtils.longForQuery(db, "SELECT count(*) FROM sqlite_master"
+                    + " WHERE type = 'index' AND name IN"
+                    + " ('notes_modified', 'notes_category_modified')", null));
+            assertEquals(0, DatabaseUtils.longForQuery(db,
+                    "SELECT count(*) FROM note_revisions", null));
+
+            // The category triggers work on the new column
+            db.execSQL("INSERT INTO category (name, color) VALUES ('工作', '#FFFFFF')");
+            db.execSQL("UPDATE notes SET category = '工作' WHERE _id = 1");
+            assertEquals(1, DatabaseUtils.longForQuery(db,
+                    "SELECT count FROM category WHERE name = '工作'", null));
+        } finally {
+            helper.close();
+            context.deleteDatabase("upgrade.db");
+        }
+    }
+
+    /*
+     * A version 3 database upgraded from an older one has the category column, and may have a
+     * category table that the old note editor created, whose counts were never kept. The
+     * upgrade keeps the column and counts the notes in each category.
+     */
+    public void testUpgradeFromVersion3WithCategories() {
+        Context context = new RenamingDelegatingContext(getContext(), "test.upgrade.");
+        context.deleteDatabase("upgrade.db");
+        SQLiteDatabase old = createVersion3Database(context, "upgrade.db", true);
+        old.execSQL("CREATE TABLE category (_id INTEGER PRIMARY KEY, name TEXT NOT NULL UNIQUE,"
+                + " color TEXT NOT NULL, count INTEGER NOT NULL DEFAULT 0)");
+        old.execSQL("INSERT INTO category (name, color) VALUES ('工作', '#FFFFFF')");
+        old.execSQL("INSERT INTO notes (title, note, category) VALUES ('A', 'a', '工作')");
+        old.execSQL("INSERT INTO notes (title, note, category) VALUES ('B', 'b', '工作')");
+        old.execSQL("INSERT INTO notes (title, note, category) VALUES ('C', 'c', NULL)");
+        old.close();
+
+        NotePadProvider.DatabaseHelper helper = new NotePadProvider.DatabaseHelper(context,
+                "upgrade.db", NotePadProvider.DatabaseHelper.Tuning.DEFAULT);
+        try {
+            SQLiteDatabase db = helper.getWritableDatabase();
+            assertEquals(9, db.getVersion());
+            assertEquals(2, DatabaseUtils.longForQuery(db,
+                    "SELECT count FROM category WHERE name = '工作'", null));
+            assertEquals(3, DatabaseUtils.longForQuery(db,
+                    "SELECT count(*) FROM notes_fts", null));
+
+            db.execSQL("INSERT INTO notes (title, note, category) VALUES ('D', 'd', '工作')");
+            assertEquals(3, DatabaseUtils.longForQuery(db,
+                    "SELECT count FROM category WHERE name = '工作'", null));
+        } finally {
+            helper.close();
+            context.deleteDatabase("upgrade.db");
+        }
+    }
+
+    /*
+     * Creates a database as version 3 of the application left it. Its onCreate() made the notes
+     * table without a category column; only databases upgraded from version 2 have one.
+     */
+    private static SQLiteDatabase createVersion3Database(Context context, String name,
+            boolean withCategory) {
+        File file = context.getDatabasePath(name);
+        file.getParentFile().mkdirs();
+        SQLiteDatabase db = SQLiteDatabase.openOrCreateDatabase(file, null);
+        db.execSQL("CREATE TABLE notes (_id INTEGER PRIMARY KEY, title TEXT, note TEXT,"
+                + " created INTEGER, modified INTEGER"
+                + (withCategory ? ", category TEXT" : "") + ")");
+        db.setVersion(3);
+        return db;
+    }
+
+    }
+
+    private long insertCategory(String name) {
+        ContentValues values = new ContentValues();
+        values.put(NotePad.Categories.COLUMN_NAME_NAME, name);
+        // The count is ignored
+        values.put(NotePad.Categories.COLUMN_NAME_COUNT, 7);
+        return ContentUris.parseId(mMockResolver.insert(NotePad.Categories.CONTENT_URI, values));
+    }
+
+    private int queryCategoryCount(long categoryId) {
+        Cursor cursor = mMockResolver.query(
+                ContentUris.withAppendedId(NotePad.Categories.CONTENT_URI, categoryId),
+                new String[] { NotePad.Categories.COLUMN_NAME_COUNT }, null, null, null);
+        try {
+            assertTrue(cursor.moveToFirst());
+            return cursor.getInt(0);
+        } finally {
+            cursor.close();
+        }
+    }
+
+    private int queryRevision(Uri noteUri) {
+        Cursor cursor = mMockResolver.query(noteUri,
+                new String[] { NotePad.Notes.COLUMN_NAME_REVISION }, null, null, null);
+        try {
+            assertTrue(cursor.moveToFirst());
+            return cursor.getInt(0);
+        } finally {
+            cursor.close();
+        }
+    }
+
+    private String querySnippet(Uri noteUri, String[] projection) {
+        Cursor cursor = mMockResolver.query(noteUri, projection, null, null, null);
+        try {
+            assertTrue(cursor.moveToFirst());
+            return cursor.getString(0);
+        } finally {
+            cursor.close();
+        }
+    }
+
+    // Builds a page URI for the notes table, continuing after the given keyset if there is one.
+    private static Uri pageUri(int limit, Long beforeModified, Long beforeId) {
+        Uri.Builder builder = NotePad.Notes.CONTENT_URI.buildUpon()
+                .appendQueryParameter(NotePad.Notes.QUERY_PARAMETER_LIMIT,
+                        Integer.toString(limit));
+        if (beforeModified != null) {
+            builder.appendQueryParameter(NotePad.Notes.QUERY_PARAMETER_BEFORE_MODIFIED,
+                    beforeModified.toString());
+            builder.appendQueryParameter(NotePad.Notes.QUERY_PARAMETER_BEFORE_ID,
+                    beforeId.toString());
+        }
+        return builder.build();
+    }
+
     // A utility for converting note data to a ContentValues map.
     private static class NoteInfo {
         String title;
@@ -0,0 +1,157 @@
+/*
+ * Copyright (C) 2010 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.android.notepad;
+
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.net.Uri;
+import android.test.ProviderTestCase2;
+
+import java.util.regex.Pattern;
+
+/**
+ * Runs EXPLAIN QUERY PLAN for every query shape that NotePadProvider issues, and fails if any of
+ * them reads the notes table without an index or sorts it in a temporary b-tree.
+ */
+public class NotePadQueryPlanTest extends ProviderTestCase2<NotePadProvider> {
+
+    // Matches a plan step that walks the notes table itself (and not notes_fts). Newer SQLite
+    // versions leave out the word TABLE.
+    private static final Pattern NOTES_SCAN = Pattern.compile("^SCAN (TABLE )?notes( |$)");
+
+    // The columns the notes list asks for
+    private static final String[] LIST_PROJECTION = {
+        NotePad.Notes._ID,
+        NotePad.Notes.COLUMN_NAME_TITLE,
+        NotePad.Notes.COLUMN_NAME_MODIFICATION_DATE
+    };
+
+    // Contains an SQLite database, used to run EXPLAIN QUERY PLAN
+    private SQLiteDatabase mDb;
+
+    public NotePadQueryPlanTest() {
+        super(NotePadProvider.class, NotePad.AUTHORITY);
+    }
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mDb = getProvider().getOpenHelperForTest().getReadableDatabase();
+    }
+
+    /*
+     * The full list, in the default sort order, walks the modification date index instead of
+     * sorting the table.
+     */
+    public void testNotesListPlan() {
+        assertIndexed(NotePad.Notes.CONTENT_URI, LIST_PROJECTION, null, null, false);
+        assertIndexed(NotePad.Notes.LIVE_FOLDER_URI, null, null, null, false);
+    }
+
+    /*
+     * The first page and every following page start with a seek on the modification date index.
+     */
+    public void testPagePlans() {
+        Uri firstPage = NotePad.Notes.CONTENT_URI.buildUpon()
+                .appendQueryParameter(NotePad.Notes.QUERY_PARAMETER_LIMIT, "50")
+                .build();
+        assertIndexed(firstPage, LIST_PROJECTION, null, null, false);
+
+        Uri nextPage = firstPage.buildUpon()
+                .appendQueryParameter(NotePad.Notes.QUERY_PARAMETER_BEFORE_MODIFIED, "1000")
+                .appendQueryParameter(NotePad.Notes.QUERY_PARAMETER_BEFORE_ID, "10")
+                .build();
+        assertIndexed(nextPage, LIST_PROJECTION, null, null, false);
+    }
+
+    /*
+     * A single note is looked up by its primary key.
+     */
+    public void testNoteIdPlan() {
+        assertIndexed(Uri.withAppendedPath(NotePad.Notes.CONTENT_ID_URI_BASE, "1"), null, null,
+                null, false);
+    }
+
+    /*
+     * A search is answered from the FTS index. Its results are ranked, so they are sorted, but
+     * only the matching notes are.
+     */
+    public void testSearchPlan() {
+        Uri searchUri = NotePad.Notes.CONTENT_SEARCH_URI.buildUpon()
+                .appendQueryParameter(NotePad.Notes.QUERY_PARAMETER_SEARCH, "garden")
+                .build();
+        assertIndexed(searchUri, LIST_PROJECTION, null, null, true);
+
+        // CJK text is looked up in the same index
+        searchUri = NotePad.Notes.CONTENT_SEARCH_URI.buildUpon()
+                .appendQueryParameter(NotePad.Notes.QUERY_PARAMETER_SEARCH, "工作 计划")
+                .build();
+        assertIndexed(searchUri, LIST_PROJECTION, null, null, true);
+    }
+
+    /*
+     * Notes in one category, newest first, come straight from the (category, modified) index.
+     */
+    public void testCategoryPlan() {
+        assertIndexed(NotePad.Notes.CONTENT_URI, LIST_PROJECTION, "category = ?",
+                new String[] { "1" }, false);
+    }
+
+    /*
+     * A folder's pages look the category up by its key, then seek the (category, modified)
+     * index.
+     */
+    public void testFolderPlans() {
+        Uri firstPage = NotePad.Categories.getNotesUri(1).buildUpon()
+                .appendQueryParameter(NotePad.Notes.QUERY_PARAMETER_LIMIT, "50")
+                .build();
+        assertIndexed(firstPage, LIST_PROJECTION, null, null, false);
+
+        Uri nextPage = firstPage.buildUpon()
+                .appendQueryParameter(NotePad.Notes.QUERY_PARAMETER_BEFORE_MODIFIED, "1000")
+                .appendQueryParameter(NotePad.Notes.QUERY_PARAMETER_BEFORE_ID, "10")
+                .build();
+        assertIndexed(nextPage, LIST_PROJECTION, null, null, false);
+    }
+
+    /*
+     * Fails if the plan for the query the provider runs for the URI reads the notes table
+     * without an index, or, unless allowSort is true, sorts rows in a temporary b-tree.
+     */
+    private void assertIndexed(Uri uri, String[] projection, String selection,
+            String[] selectionArgs, boolean allowSort) {
+        String sql = NotePadProvider.getQuerySqlForTest(uri, projection, selection, null);
+        Cursor plan = mDb.rawQuery("EXPLAIN QUERY PLAN " + sql, selectionArgs);
+        try {
+            int detailIndex = plan.getColumnIndexOrThrow("detail");
+            assertTrue("No plan for " + sql, plan.getCount() > 0);
+            while (plan.moveToNext()) {
+                String detail = plan.getString(detailIndex);
+                if (NOTES_SCAN.matcher(detail).find()
+                        && !detail.contains("INDEX")
+                        && !detail.contains("INTEGER PRIMARY KEY")) {
+                    fail("Full scan of notes in \"" + detail + "\" for " + sql);
+                }
+                if (!allowSort && detail.contains("TEMP B-TREE")) {
+                    fail("Unindexed sort in \"" + detail + "\" for " + sql);
+                }
+            }
+        } finally {
+            plan.close();
+        }
+    }
+}
@@ -0,0 +1,67 @@
+/*
+ * Copyright (C) 2010 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.android.notepad;
+
+import junit.framework.TestCase;
+
+/**
+ * Tests the text that {@link NoteSearch} puts in the search index, and the queries it builds.
+ */
+public class NoteSearchTest extends TestCase {
+
+    /*
+     * Words are lowercased and split at every character that is neither a letter nor a digit.
+     */
+    public void testIndexWords() {
+        assertNull(NoteSearch.indexText(null));
+        assertEquals("", NoteSearch.indexText(""));
+        assertEquals("send the e mail to foo bar ",
+                NoteSearch.indexText("Send the e-mail to foo_bar."));
+        assertEquals("café résumé", NoteSearch.indexText("Café—Résumé"));
+    }
+
+    /*
+     * A run of CJK text is indexed as the pairs of its characters and its last character, apart
+     * from the words around it.
+     */
+    public void testIndexCjk() {
+        assertEquals(" 工作 作计 计划 划 ", NoteSearch.indexText("工作计划"));
+        assertEquals(" 书 ", NoteSearch.indexText("书"));
+        assertEquals("meeting 会议 议  ", NoteSearch.indexText("meeting会议。"));
+        assertEquals(" 写报 报告 告   开会 会 ", NoteSearch.indexText("写报告，开会"));
+        assertEquals(" 東京 京タ タワ ワー ー ", NoteSearch.indexText("東京タワー"));
+    }
+
+    /*
+     * Every word of a search is a separate term: a prefix, or the phrase of the pairs of its CJK
+     * text.
+     */
+    public void testMatchQuery() {
+        assertNull(NoteSearch.matchQuery(null));
+        assertNull(NoteSearch.matchQuery(""));
+        assertNull(NoteSearch.matchQuery(" !? "));
+        assertEquals("garden*", NoteSearch.matchQuery("Garden"));
+        assertEquals("e* mail*", NoteSearch.matchQuery("e-mail"));
+        assertEquals("foo* bar*", NoteSearch.matchQuery("foo_bar"));
+        assertEquals("作*", NoteSearch.matchQuery("作"));
+        assertEquals("\"工作\"", NoteSearch.matchQuery("工作"));
+        assertEquals("\"工作 作计 计划\"", NoteSearch.matchQuery("工作计划"));
+        assertEquals("\"工作\" \"计划\"", NoteSearch.matchQuery("工作 计划"));
+        assertEquals("meeting* \"会议\"", NoteSearch.matchQuery("meeting 会议"));
+        assertEquals("meeting* \"会议\"", NoteSearch.matchQuery("meeting会议"));
+    }
+}
@@ -0,0 +1,133 @@
+/*
+ * Copyright (C) 2010 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.android.notepad;
+
+import junit.framework.TestCase;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Tests {@link NoteStreams#writeUtf8(CharSequence, OutputStream)}.
+ */
+public class NoteStreamsTest extends TestCase {
+
+    /*
+     * Chinese, English, and a character outside the Basic Multilingual Plane, whose surrogate
+     * pair the chunks of the encoder split at some point. 13 characters, prime to the chunk
+     * size, so that the chunk boundaries fall everywhere in the pattern.
+     */
+    private static final String PATTERN = "笔记 note📝 记录\n";
+
+    /*
+     * Short text is encoded exactly as String.getBytes() encodes it.
+     */
+    public void testWriteUtf8() throws IOException {
+        String[] texts = { "", "a", PATTERN, "📝", "unpaired \uD83D" };
+        for (String text : texts) {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            NoteStreams.writeUtf8(text, out);
+            assertEquals(text, new String(text.getBytes("UTF-8"), "UTF-8"),
+                    new String(out.toByteArray(), "UTF-8"));
+        }
+    }
+
+    /*
+     * 50 million characters are encoded correctly, without a copy of the text or of its
+     * encoding. The text is never turned into a String: toString() throws.
+     */
+    public void testWriteHugeText() throws IOException {
+        int repeats = 50 * 1000 * 1000 / PATTERN.length();
+        byte[] encoded = PATTERN.getBytes("UTF-8");
+
+        Runtime runtime = Runtime.getRuntime();
+        System.gc();
+        long baseline = runtime.totalMemory() - runtime.freeMemory();
+
+        VerifyingStream out = new VerifyingStream(encoded);
+        NoteStreams.writeUtf8(new RepeatedText(PATTERN, repeats), out);
+
+        assertEquals((long) repeats * encoded.length, out.mPosition);
+        assertTrue("Heap grew by " + (out.mPeak - baseline) + " bytes",
+                out.mPeak - baseline < 8 * 1024 * 1024);
+    }
+
+    /*
+     * Text made of a pattern repeated, without storing it
+     */
+    private static final class RepeatedText implements CharSequence {
+        private final String mPattern;
+        private final int mLength;
+
+        RepeatedText(String pattern, int repeats) {
+            mPattern = pattern;
+            mLength = pattern.length() * repeats;
+        }
+
+        @Override
+        public int length() {
+            return mLength;
+        }
+
+        @Override
+        public char charAt(int index) {
+            return mPattern.charAt(index % mPattern.length());
+        }
+
+        @Override
+        public CharSequence subSequence(int start, int end) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public String toString() {
+            throw new UnsupportedOperationException();
+        }
+    }
+
+    /*
+     * Checks each byte written against the encoded pattern, and samples the heap in use.
+     */
+    private static final class VerifyingStream extends OutputStream {
+        private final byte[] mExpected;
+        private final Runtime mRuntime = Runtime.getRuntime();
+        long mPosition;
+        long mPeak;
+
+        VerifyingStream(byte[] expected) {
+            mExpected = expected;
+        }
+
+        @Override
+        public void write(int b) {
+            // Builds no message unless the byte is wrong, so the check makes no garbage
+            if (mExpected[(int) (mPosition % mExpected.length)] != (byte) b) {
+                fail("Wrong byte at " + mPosition);
+            }
+            mPosition++;
+        }
+
+        @Override
+        public void write(byte[] buffer, int offset, int count) {
+            for (int i = 0; i < count; i++) {
+                write(buffer[offset + i]);
+            }
+            mPeak = Math.max(mPeak, mRuntime.totalMemory() - mRuntime.freeMemory());
+        }
+    }
+}
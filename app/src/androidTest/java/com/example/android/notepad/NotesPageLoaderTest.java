@@ -0,0 +1,182 @@
+/*
+ * Copyright (C) 2010 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.android.notepad;
+
+import android.content.ContentResolver;
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.content.Context;
+import android.content.ContextWrapper;
+import android.content.Loader;
+import android.database.Cursor;
+import android.net.Uri;
+import android.test.InstrumentationTestCase;
+import android.test.RenamingDelegatingContext;
+import android.test.mock.MockContentResolver;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Tests that {@link NotesPageLoader} reloads its pages when the notes in them change.
+ *
+ * The provider runs on a database of its own. Its change notifications go through the system,
+ * as they do in the application, so that the loader's observer sees them.
+ */
+public class NotesPageLoaderTest extends InstrumentationTestCase {
+
+    private static final String[] PROJECTION = {
+            NotePad.Notes._ID,
+            NotePad.Notes.COLUMN_NAME_MODIFICATION_DATE,
+            NotePad.Notes.COLUMN_NAME_TITLE,
+    };
+
+    private static final long TIMEOUT_SECONDS = 5;
+
+    private Context mProviderContext;
+    private NotePadProvider mProvider;
+    private MockContentResolver mResolver;
+    private NotesPageLoader mLoader;
+
+    // The titles of the notes in each delivered cursor, sorted and joined by commas
+    private final BlockingQueue<String> mDelivered = new LinkedBlockingQueue<String>();
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mProviderContext = new RenamingDelegatingContext(
+                getInstrumentation().getTargetContext(), "test.loader.");
+        mProviderContext.deleteDatabase("note_pad.db");
+        mProvider = new NotePadProvider();
+        mProvider.attachInfo(mProviderContext, null);
+        mResolver = new MockContentResolver();
+        mResolver.addProvider(NotePad.AUTHORITY, mProvider);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        if (mLoader != null) {
+            getInstrumentation().runOnMainSync(new Runnable() {
+                @Override
+                public void run() {
+                    mLoader.reset();
+                }
+            });
+        }
+        mProvider.getOpenHelperForTest().close();
+        mProviderContext.deleteDatabase("note_pad.db");
+        super.tearDown();
+    }
+
+    /*
+     * The loader of a folder reloads when a note in it is edited, moved out or deleted.
+     */
+    public void testFolderReloads() throws InterruptedException {
+        ContentValues values = new ContentValues();
+        values.put(NotePad.Categories.COLUMN_NAME_NAME, "工作");
+        long work = ContentUris.parseId(mResolver.insert(NotePad.Categories.CONTENT_URI, values));
+        Uri first = insertNote("A", "工作");
+        Uri second = insertNote("B", "工作");
+        insertNote("Other", null);
+
+        startLoader(NotePad.Categories.getNotesUri(work));
+        assertDelivered("A,B");
+
+        values = new ContentValues();
+        values.put(NotePad.Notes.COLUMN_NAME_TITLE, "C");
+        mResolver.update(second, values, null, null);
+        assertDelivered("A,C");
+
+        values = new ContentValues();
+        values.putNull(NotePad.Notes.COLUMN_NAME_CATEGORY);
+        mResolver.update(first, values, null, null);
+        assertDelivered("C");
+
+        mResolver.delete(second, null, null);
+        assertDelivered("");
+    }
+
+    private Uri insertNote(String title, String category) {
+        ContentValues values = new ContentValues();
+        values.put(NotePad.Notes.COLUMN_NAME_TITLE, title);
+        values.put(NotePad.Notes.COLUMN_NAME_CATEGORY, category);
+        return mResolver.insert(NotePad.Notes.CONTENT_URI, values);
+    }
+
+    /*
+     * Starts a loader that queries through the test's resolver, on the main thread, where the
+     * application runs its loaders.
+     */
+    private void startLoader(final Uri uri) {
+        final Context context = new ContextWrapper(getInstrumentation().getTargetContext()) {
+            @Override
+            public ContentResolver getContentResolver() {
+                return mResolver;
+            }
+        };
+        getInstrumentation().runOnMainSync(new Runnable() {
+            @Override
+            public void run() {
+                mLoader = new NotesPageLoader(context, uri, PROJECTION,
+                        NotesPageLoader.DEFAULT_PAGE_SIZE);
+                mLoader.registerListener(0, new Loader.OnLoadCompleteListener<Cursor>() {
+                    @Override
+                    public void onLoadComplete(Loader<Cursor> loader, Cursor cursor) {
+                        mDelivered.add(titles(cursor));
+                    }
+                });
+                mLoader.startLoading();
+            }
+        });
+    }
+
+    /*
+     * Waits for a delivery of the given titles. Earlier deliveries, from reloads that the
+     * notifications of earlier changes caused, are skipped.
+     */
+    private void assertDelivered(String titles) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(TIMEOUT_SECONDS);
+        String delivered;
+        while ((delivered = mDelivered.poll(deadline - System.nanoTime(),
+                TimeUnit.NANOSECONDS)) != null) {
+            if (delivered.equals(titles)) {
+                return;
+            }
+        }
+        fail("The loader did not reload with the notes " + titles);
+    }
+
+    private static String titles(Cursor cursor) {
+        ArrayList<String> titles = new ArrayList<String>();
+        int titleIndex = cursor.getColumnIndexOrThrow(NotePad.Notes.COLUMN_NAME_TITLE);
+        for (cursor.moveToPosition(-1); cursor.moveToNext(); ) {
+            titles.add(cursor.getString(titleIndex));
+        }
+        Collections.sort(titles);
+        StringBuilder joined = new StringBuilder();
+        for (String title : titles) {
+            if (joined.length() > 0) {
+                joined.append(',');
+            }
+            joined.append(title);
+        }
+        return joined.toString();
+    }
+}
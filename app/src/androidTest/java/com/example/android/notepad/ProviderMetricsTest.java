@@ -0,0 +1,141 @@
+/*
+ * Copyright (C) 2010 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.android.notepad;
+
+import android.database.Cursor;
+import android.database.MatrixCursor;
+
+import junit.framework.TestCase;
+
+/**
+ * Tests the latency histograms of {@link ProviderMetrics}, and the rows it counts for queries.
+ */
+public class ProviderMetricsTest extends TestCase {
+
+    /*
+     * Short latencies have a bucket each, and every longer power of two is split into
+     * SUB_BUCKETS buckets.
+     */
+    public void testBucketOf() {
+        assertEquals(0, ProviderMetrics.bucketOf(0));
+        assertEquals(1, ProviderMetrics.bucketOf(1));
+        assertEquals(15, ProviderMetrics.bucketOf(15));
+        assertEquals(16, ProviderMetrics.bucketOf(16));
+        assertEquals(16, ProviderMetrics.bucketOf(17));
+        assertEquals(17, ProviderMetrics.bucketOf(18));
+        assertEquals(23, ProviderMetrics.bucketOf(31));
+        assertEquals(24, ProviderMetrics.bucketOf(32));
+        assertEquals(63, ProviderMetrics.bucketOf(1023));
+        assertEquals(64, ProviderMetrics.bucketOf(1024));
+
+        // Latencies too long for the histogram go in the last bucket
+        assertEquals(ProviderMetrics.BUCKETS - 1, ProviderMetrics.bucketOf(1L << 32));
+        assertEquals(ProviderMetrics.BUCKETS - 1, ProviderMetrics.bucketOf(Long.MAX_VALUE));
+    }
+
+    /*
+     * The buckets cover every latency without gaps, and none is wider than an eighth of the
+     * latencies in it.
+     */
+    public void testBucketBounds() {
+        long lowest = 0;
+        for (int bucket = 0; bucket < ProviderMetrics.BUCKETS; bucket++) {
+            long highest = ProviderMetrics.highestIn(bucket);
+            assertEquals(bucket, ProviderMetrics.bucketOf(lowest));
+            assertEquals(bucket, ProviderMetrics.bucketOf(highest));
+            assertTrue(highest - lowest <= lowest / ProviderMetrics.SUB_BUCKETS);
+            lowest = highest + 1;
+        }
+        assertEquals(1L << 32, lowest);
+    }
+
+    /*
+     * A percentile is the highest latency of the bucket that holds the call at its rank.
+     */
+    public void testPercentile() {
+        long[] histogram = new long[ProviderMetrics.BUCKETS + 1];
+
+        // 90 calls of 100us, 9 calls of 1500us and 1 call of 40ms, after one unused slot
+        histogram[1 + ProviderMetrics.bucketOf(100)] = 90;
+        histogram[1 + ProviderMetrics.bucketOf(1500)] = 9;
+        histogram[1 + ProviderMetrics.bucketOf(40000)] = 1;
+
+        assertEquals(103, ProviderMetrics.percentile(histogram, 1, 100, 50));
+        assertEquals(103, ProviderMetrics.percentile(histogram, 1, 100, 90));
+        assertEquals(1535, ProviderMetrics.percentile(histogram, 1, 100, 99));
+        assertEquals(40959, ProviderMetrics.percentile(histogram, 1, 100, 100));
+
+        // An empty histogram has no latency
+        assertEquals(0, ProviderMetrics.percentile(new long[ProviderMetrics.BUCKETS], 0, 0, 50));
+    }
+
+    /*
+     * A query's cursor adds the rows its caller read when it is closed: the count if the caller
+     * asked for it, or else the rows up to the furthest it moved to.
+     */
+    public void testCountRows() {
+        ProviderMetrics metrics = new ProviderMetrics(new String[] { "unknown", "notes" });
+
+        // Reads two rows, and closes the cursor twice
+        Cursor cursor = metrics.countRows(newCursor(5), 1);
+        assertTrue(cursor.moveToNext());
+        assertTrue(cursor.moveToNext());
+        assertTrue(cursor.moveToFirst());
+        cursor.close();
+        cursor.close();
+        assertEquals(2, rows(metrics));
+
+        // Asks for the count, and reads no row
+        cursor = metrics.countRows(newCursor(5), 1);
+        assertEquals(5, cursor.getCount());
+        cursor.close();
+        assertEquals(7, rows(metrics));
+
+        // Moves past the last row
+        cursor = metrics.countRows(newCursor(3), 1);
+        assertTrue(cursor.moveToPosition(2));
+        assertFalse(cursor.moveToNext());
+        cursor.close();
+        assertEquals(10, rows(metrics));
+
+        // A cursor that is never moved adds nothing
+        metrics.countRows(newCursor(3), 1).close();
+        assertEquals(10, rows(metrics));
+    }
+
+    private static Cursor newCursor(int rows) {
+        MatrixCursor cursor = new MatrixCursor(new String[] { "_id" });
+        for (int i = 0; i < rows; i++) {
+            cursor.addRow(new Object[] { i });
+        }
+        return cursor;
+    }
+
+    /*
+     * Returns the rows recorded for queries on the notes URI.
+     */
+    private static long rows(ProviderMetrics metrics) {
+        metrics.record(ProviderMetrics.QUERY, 1, System.nanoTime(), 0, false);
+        Cursor cursor = metrics.toCursor();
+        try {
+            assertTrue(cursor.moveToFirst());
+            return cursor.getLong(cursor.getColumnIndex(NotePad.Metrics.COLUMN_NAME_ROWS));
+        } finally {
+            cursor.close();
+        }
+    }
+}
@@ -0,0 +1,86 @@
+/*
+ * Copyright (C) 2010 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.android.notepad;
+
+import android.util.Log;
+
+import junit.framework.TestCase;
+
+import java.util.Random;
+
+/**
+ * Measures the cost of keeping the NoteEditor statistics current while typing into a
+ * multi-megabyte note: once by updating {@link TextStatistics} from each edit, and once by
+ * recounting the whole note after each edit. The results are logged under the tag
+ * "TextStatisticsBenchmark".
+ */
+public class TextStatisticsBenchmark extends TestCase {
+    private static final String TAG = "TextStatisticsBenchmark";
+
+    // The size of the note, in characters
+    private static final int NOTE_LENGTH = 4 * 1024 * 1024;
+
+    // The number of keystrokes timed with incremental updates, and with recounts
+    private static final int INCREMENTAL_EDITS = 10000;
+    private static final int RECOUNT_EDITS = 20;
+
+    private static final String PARAGRAPH =
+            "The quick brown fox jumps over the lazy dog. 敏捷的棕色狐狸跳过了懒狗。\n";
+
+    public void testKeystrokeCost() {
+        StringBuilder text = new StringBuilder(NOTE_LENGTH + INCREMENTAL_EDITS);
+        while (text.length() < NOTE_LENGTH) {
+            text.append(PARAGRAPH);
+        }
+        TextStatistics statistics = new TextStatistics();
+        statistics.reset(text);
+
+        // Types characters at random places, timing only the statistics updates
+        Random random = new Random(7);
+        long incrementalNanos = 0;
+        for (int i = 0; i < INCREMENTAL_EDITS; i++) {
+            int start = random.nextInt(text.length() + 1);
+            long begin = System.nanoTime();
+            statistics.beforeTextChanged(text, start, 0, 1);
+            incrementalNanos += System.nanoTime() - begin;
+
+            text.insert(start, i % 5 == 0 ? ' ' : 'x');
+
+            begin = System.nanoTime();
+            statistics.onTextChanged(text, start, 0, 1);
+            incrementalNanos += System.nanoTime() - begin;
+        }
+
+        TextStatistics recount = new TextStatistics();
+        long recountNanos = 0;
+        for (int i = 0; i < RECOUNT_EDITS; i++) {
+            text.insert(random.nextInt(text.length() + 1), 'x');
+            long begin = System.nanoTime();
+            recount.reset(text);
+            recountNanos += System.nanoTime() - begin;
+        }
+
+        // The incremental counts still agree with the last recount, less the recount's edits
+        assertEquals(recount.getCharCount() - RECOUNT_EDITS, statistics.getCharCount());
+        assertEquals(recount.getCjkCount(), statistics.getCjkCount());
+        assertEquals(recount.getLineCount(), statistics.getLineCount());
+
+        Log.i(TAG, "note of " + text.length() + " chars, per keystroke: incremental="
+                + incrementalNanos / INCREMENTAL_EDITS + "ns, full recount="
+                + recountNanos / RECOUNT_EDITS / 1000 + "us");
+    }
+}
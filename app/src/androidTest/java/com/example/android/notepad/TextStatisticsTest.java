@@ -0,0 +1,101 @@
+/*
+ * Copyright (C) 2010 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.android.notepad;
+
+import junit.framework.TestCase;
+
+import java.util.Random;
+
+/**
+ * Tests that {@link TextStatistics} updated edit by edit agrees with counting the whole text.
+ */
+public class TextStatisticsTest extends TestCase {
+
+    // Characters the random edits are made of: word characters, CJK, whitespace and punctuation
+    private static final String ALPHABET = "ab9Z \n\t.,-'中文あ가！";
+
+    private static final int EDIT_COUNT = 5000;
+
+    /*
+     * Counts a few known texts.
+     */
+    public void testCounts() {
+        TextStatistics statistics = new TextStatistics();
+
+        statistics.reset("");
+        assertCounts(statistics, 0, 0, 0, 1);
+
+        statistics.reset("Hello, world!\nSecond line");
+        assertCounts(statistics, 25, 4, 0, 2);
+
+        statistics.reset("今天 is Tuesday。\n\n");
+        assertCounts(statistics, 16, 2, 2, 3);
+    }
+
+    /*
+     * Applies random insertions, deletions and replacements, and compares the incremental counts
+     * with a recount after every edit.
+     */
+    public void testIncrementalMatchesRecount() {
+        Random random = new Random(42);
+        StringBuilder text = new StringBuilder();
+        TextStatistics incremental = new TextStatistics();
+        TextStatistics recount = new TextStatistics();
+        incremental.reset(text);
+
+        for (int i = 0; i < EDIT_COUNT; i++) {
+            int start = random.nextInt(text.length() + 1);
+            int before = random.nextInt(Math.min(text.length() - start, 8) + 1);
+            String replacement = randomText(random, random.nextInt(8));
+
+            replace(incremental, text, start, before, replacement);
+
+            recount.reset(text);
+            String message = "after edit " + i + " of \"" + text + "\"";
+            assertEquals(message, recount.getCharCount(), incremental.getCharCount());
+            assertEquals(message, recount.getWordCount(), incremental.getWordCount());
+            assertEquals(message, recount.getCjkCount(), incremental.getCjkCount());
+            assertEquals(message, recount.getLineCount(), incremental.getLineCount());
+        }
+    }
+
+    /*
+     * Replaces a range of the text, calling the watcher the way an Editable does.
+     */
+    static void replace(TextStatistics statistics, StringBuilder text, int start, int before,
+            CharSequence replacement) {
+        statistics.beforeTextChanged(text, start, before, replacement.length());
+        text.replace(start, start + before, replacement.toString());
+        statistics.onTextChanged(text, start, before, replacement.length());
+    }
+
+    private static String randomText(Random random, int length) {
+        StringBuilder builder = new StringBuilder(length);
+        for (int i = 0; i < length; i++) {
+            builder.append(ALPHABET.charAt(random.nextInt(ALPHABET.length())));
+        }
+        return builder.toString();
+    }
+
+    private static void assertCounts(TextStatistics statistics, int chars, int words, int cjk,
+            int lines) {
+        assertEquals(chars, statistics.getCharCount());
+        assertEquals(words, statistics.getWordCount());
+        assertEquals(cjk, statistics.getCjkCount());
+        assertEquals(lines, statistics.getLineCount());
+    }
+}
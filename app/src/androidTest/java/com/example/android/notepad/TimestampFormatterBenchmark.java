@@ -0,0 +1,100 @@
+/*
+ * Copyright (C) 2010 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.android.notepad;
+
+import android.os.Debug;
+import android.util.Log;
+
+import junit.framework.TestCase;
+
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Locale;
+
+/**
+ * Checks that {@link TimestampFormatter} formats like SimpleDateFormat, and measures the objects
+ * allocated per list-item bind with the formatter and with a SimpleDateFormat per bind, as the
+ * notes list used to do. The results are logged under the tag "TimestampFormatterBenchmark".
+ */
+@SuppressWarnings("deprecation")
+public class TimestampFormatterBenchmark extends TestCase {
+    private static final String TAG = "TimestampFormatterBenchmark";
+
+    private static final String PATTERN = "yyyy-MM-dd HH:mm:ss";
+
+    // Number of binds measured, and the spacing of their timestamps: a list of notes saved a few
+    // minutes apart
+    private static final int BIND_COUNT = 2000;
+    private static final long STEP_MILLIS = 7 * 1000 + 13;
+
+    // Some time on January 1, 2010
+    private static final long START = 1262304000000L;
+
+    /*
+     * The formatter gives the same text as SimpleDateFormat, including across minute boundaries,
+     * before 1970 and after evicting cached minutes.
+     */
+    public void testMatchesSimpleDateFormat() {
+        SimpleDateFormat reference = new SimpleDateFormat(PATTERN, Locale.getDefault());
+        TimestampFormatter formatter = new TimestampFormatter(4);
+        long[] timestamps = { 0, -1, -60001, START, START + 59999, START + 60000, 1733000000123L };
+        for (long timestamp : timestamps) {
+            assertFormatted(reference, formatter, timestamp);
+        }
+        for (int i = 0; i < BIND_COUNT; i++) {
+            assertFormatted(reference, formatter, START + i * STEP_MILLIS);
+        }
+    }
+
+    /*
+     * Measures allocations per bind. After the first bind of each minute the formatter must not
+     * allocate at all, so the average stays well under one object per bind.
+     */
+    public void testAllocationsPerBind() {
+        TimestampFormatter formatter = new TimestampFormatter();
+        Date date = new Date();
+
+        Debug.startAllocCounting();
+        try {
+            Debug.resetThreadAllocCount();
+            for (int i = 0; i < BIND_COUNT; i++) {
+                date.setTime(START + i * STEP_MILLIS);
+                new SimpleDateFormat(PATTERN, Locale.getDefault()).format(date);
+            }
+            int perBindBefore = Debug.getThreadAllocCount() / BIND_COUNT;
+
+            Debug.resetThreadAllocCount();
+            for (int i = 0; i < BIND_COUNT; i++) {
+                formatter.format(START + i * STEP_MILLIS);
+            }
+            float perBindAfter = Debug.getThreadAllocCount() / (float) BIND_COUNT;
+
+            Log.i(TAG, "objects allocated per bind: SimpleDateFormat per bind=" + perBindBefore
+                    + ", TimestampFormatter=" + perBindAfter);
+            assertTrue("TimestampFormatter allocated " + perBindAfter + " objects per bind",
+                    perBindAfter < 1);
+        } finally {
+            Debug.stopAllocCounting();
+        }
+    }
+
+    private static void assertFormatted(SimpleDateFormat reference, TimestampFormatter formatter,
+            long timestamp) {
+        assertEquals(reference.format(new Date(timestamp)),
+                new String(formatter.format(timestamp), 0, TimestampFormatter.LENGTH));
+    }
+}
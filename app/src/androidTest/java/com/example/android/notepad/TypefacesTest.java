@@ -0,0 +1,82 @@
+/*
+ * Copyright (C) 2010 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.android.notepad;
+
+import android.graphics.Typeface;
+import android.test.AndroidTestCase;
+import android.util.Log;
+
+/**
+ * Tests the {@link Typefaces} registry, and logs how long each editor font took to load under
+ * the tag "TypefacesTest".
+ */
+public class TypefacesTest extends AndroidTestCase {
+    private static final String TAG = "TypefacesTest";
+
+    /*
+     * A font is loaded once, and the same instance is handed out afterwards.
+     */
+    public void testFontLoadedOnce() {
+        Typeface first = Typefaces.get(getContext(), Typefaces.QINGNIAO);
+        assertNotNull(first);
+        long loadTime = Typefaces.getLoadTimeNanos(Typefaces.QINGNIAO);
+        assertTrue(loadTime >= 0);
+
+        assertSame(first, Typefaces.get(getContext(), Typefaces.QINGNIAO));
+        assertEquals(loadTime, Typefaces.getLoadTimeNanos(Typefaces.QINGNIAO));
+    }
+
+    /*
+     * A missing font gives null instead of an exception, and is not looked for again.
+     */
+    public void testMissingFont() {
+        String path = "font/missing.ttf";
+        assertNull(Typefaces.get(getContext(), path));
+        long loadTime = Typefaces.getLoadTimeNanos(path);
+        assertTrue(loadTime >= 0);
+
+        assertNull(Typefaces.get(getContext(), path));
+        assertEquals(loadTime, Typefaces.getLoadTimeNanos(path));
+    }
+
+    /*
+     * The font the user chose is remembered until another is chosen, and the default font is
+     * remembered as no font.
+     */
+    public void testChosenFont() {
+        String saved = Typefaces.getChosen(getContext());
+        try {
+            Typefaces.setChosen(getContext(), Typefaces.ZIHUN);
+            assertEquals(Typefaces.ZIHUN, Typefaces.getChosen(getContext()));
+            Typefaces.setChosen(getContext(), null);
+            assertNull(Typefaces.getChosen(getContext()));
+        } finally {
+            Typefaces.setChosen(getContext(), saved);
+        }
+    }
+
+    /*
+     * Logs the load time of every editor font.
+     */
+    public void testEditorFontLoadTimes() {
+        for (String path : Typefaces.EDITOR_FONTS) {
+            Typeface typeface = Typefaces.get(getContext(), path);
+            Log.i(TAG, path + ": " + (typeface != null ? "loaded" : "missing") + " in "
+                    + Typefaces.getLoadTimeNanos(path) / 1000 + "us");
+        }
+    }
+}
@@ -0,0 +1,152 @@
+/*
+ * Copyright (C) 2007 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.android.notepad;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+
+/**
+ * Saves the note being edited while the user types, without writing on every keystroke.
+ *
+ * The editor reports every edit with {@link #onEdited()}. Edits are batched: the note is saved
+ * once the user has been idle for the idle delay, and at the latest after the maximum delay
+ * when the user keeps typing. A save first reads the current title and text from the
+ * {@link Editor}, and is skipped if they equal what was last saved or loaded.
+ *
+ * The scheduler itself runs on the UI thread. {@link Editor#write(String, String)} is expected to
+ * hand the write to a background thread, as NoteEditor does with its AsyncQueryHandler.
+ */
+class AutosaveScheduler {
+
+    /**
+     * The default time the user has to be idle before edits are saved
+     */
+    static final long DEFAULT_IDLE_DELAY_MILLIS = 2000;
+
+    /**
+     * The default longest time an edit stays unsaved while the user keeps typing
+     */
+    static final long DEFAULT_MAX_DELAY_MILLIS = 10000;
+
+    /**
+     * The note being edited.
+     */
+    interface Editor {
+        /** Returns the title currently in the editor. */
+        String getTitle();
+
+        /** Returns the text currently in the editor. */
+        String getText();
+
+        /** Writes the title and text to the note, off the UI thread. */
+        void write(String title, String text);
+    }
+
+    private final Editor mEditor;
+    private final long mIdleDelayMillis;
+    private final long mMaxDelayMillis;
+    private final Handler mHandler = new Handler(Looper.getMainLooper());
+
+    private final Runnable mFlush = new Runnable() {
+        @Override
+        public void run() {
+            flush();
+        }
+    };
+
+    // The title and text that were last saved or loaded
+    private String mSavedTitle;
+    private String mSavedText;
+
+    // True if the note has been edited since it was last saved
+    private boolean mDirty;
+
+    // When the oldest unsaved edit was made, in SystemClock.uptimeMillis()
+    private long mDirtySince;
+
+    AutosaveScheduler(Editor editor) {
+        this(editor, DEFAULT_IDLE_DELAY_MILLIS, DEFAULT_MAX_DELAY_MILLIS);
+    }
+
+    AutosaveScheduler(Editor editor, long idleDelayMillis, long maxDelayMillis) {
+        mEditor = editor;
+        mIdleDelayMillis = idleDelayMillis;
+        mMaxDelayMillis = maxDelayMillis;
+    }
+
+    /**
+     * Records the title and text that are in the database now, such as a freshly loaded note.
+     */
+    void setSaved(String title, String text) {
+        mSavedTitle = title;
+        mSavedText = text;
+    }
+
+    /**
+     * Marks the note as edited, and schedules a save for when the user goes idle.
+     */
+    void onEdited() {
+        long now = SystemClock.uptimeMillis();
+        if (!mDirty) {
+            mDirty = true;
+            mDirtySince = now;
+        }
+        mHandler.removeCallbacks(mFlush);
+        mHandler.postAtTime(mFlush, Math.min(now + mIdleDelayMillis,
+                mDirtySince + mMaxDelayMillis));
+    }
+
+    /**
+     * Returns true if the note has been edited since it was last saved.
+     */
+    boolean isDirty() {
+        return mDirty;
+    }
+
+    /**
+     * Saves the note now if it has been edited and differs from what was last saved.
+     *
+     * @return true if a write was started
+     */
+    boolean flush() {
+        mHandler.removeCallbacks(mFlush);
+        if (!mDirty) {
+            return false;
+        }
+        mDirty = false;
+
+        String title = mEditor.getTitle();
+        String text = mEditor.getText();
+        if (text.equals(mSavedText) && title.equals(mSavedTitle)) {
+            // Edited, but back to what is saved, e.g. by typing and deleting a character
+            return false;
+        }
+        mEditor.write(title, text);
+        mSavedTitle = title;
+        mSavedText = text;
+        return true;
+    }
+
+    /**
+     * Drops the pending save, e.g. because the note is being deleted or reverted.
+     */
+    void cancel() {
+        mHandler.removeCallbacks(mFlush);
+        mDirty = false;
+    }
+}
@@ -0,0 +1,383 @@
+/*
+ * Copyright (C) 2007 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.android.notepad;
+
+import android.content.Context;
+import android.content.pm.PackageManager;
+import android.content.res.Resources;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.graphics.drawable.BitmapDrawable;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.Process;
+import android.util.DisplayMetrics;
+import android.util.Log;
+import android.util.SparseArray;
+import android.view.View;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Sets drawable resources as view backgrounds, decoded at the size of the view.
+ *
+ * Images are decoded on a background thread, subsampled with inSampleSize to the smallest
+ * power of two that still covers the view. Images are cached by resource and inSampleSize, so
+ * that a view and the screen it nearly fills share an image. Decoded bitmaps are kept in a
+ * memory cache bounded by their size in bytes, and the subsampled images are also written to a
+ * disk cache. Once an image is in the disk cache, a new process decodes the small cached file
+ * instead of the full resource. A JPEG that needs no subsampling is cached as a copy of the
+ * resource rather than re-encoded. The disk cache is bounded by its size in bytes, and the
+ * least recently used images are deleted first, so that the images of backgrounds that are no
+ * longer chosen do not pile up.
+ *
+ * There is one loader per process; get it with {@link #getInstance(Context)}. Its methods must be
+ * called on the UI thread.
+ */
+class BackgroundImageLoader {
+    private static final String TAG = "BackgroundImageLoader";
+
+    // The directory in the application cache that holds the subsampled images
+    private static final String CACHE_DIRECTORY = "backgrounds";
+
+    // The quality of the images written to the disk cache
+    private static final int CACHE_QUALITY = 90;
+
+    // The most bytes the disk cache may hold
+    private static final long MAX_DISK_BYTES = 8 * 1024 * 1024;
+
+    private static BackgroundImageLoader sInstance;
+
+    private final Resources mResources;
+    private final File mCacheDir;
+    private final long mMaxDiskBytes;
+
+    // Included in the disk cache keys, so that images cached by an older version of the
+    // application are not used
+    private final long mVersion;
+
+    private final Handler mHandler = new Handler(Looper.getMainLooper());
+    private final ExecutorService mExecutor = Executors.newSingleThreadExecutor(
+            new ThreadFactory() {
+                @Override
+                public Thread newThread(final Runnable r) {
+                    return new Thread(new Runnable() {
+                        @Override
+                        public void run() {
+                            Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                            r.run();
+                        }
+                    }, TAG);
+                }
+            });
+
+    // The decoded bitmaps, least recently used first, and their total size in bytes. Only
+    // touched on the UI thread.
+    private final LinkedHashMap<String, Bitmap> mMemoryCache =
+            new LinkedHashMap<String, Bitmap>(16, 0.75f, true);
+    private final int mMaxMemoryBytes;
+    private int mMemoryBytes;
+
+    // The width and height of each image that has been loaded, so that its cache key can be
+    // found without reading it. Only touched on the UI thread.
+    private final SparseArray<int[]> mBounds = new SparseArray<int[]>();
+
+    // The resource each view is waiting for, so that a late image does not replace a later
+    // choice
+    private final WeakHashMap<View, Integer> mPending = new WeakHashMap<View, Integer>();
+
+    /**
+     * Returns the process-wide loader.
+     */
+    static synchronized BackgroundImageLoader getInstance(Context context) {
+        if (sInstance == null) {
+            Context appContext = context.getApplicationContext();
+            sInstance = new BackgroundImageLoader(appContext.getResources(),
+                    new File(appContext.getCacheDir(), CACHE_DIRECTORY),
+                    getVersion(appContext), (int) (Runtime.getRuntime().maxMemory() / 8),
+                    MAX_DISK_BYTES);
+        }
+        return sInstance;
+    }
+
+    BackgroundImageLoader(Resources resources, File cacheDir, long version, int maxMemoryBytes,
+            long maxDiskBytes) {
+        mResources = resources;
+        mCacheDir = cacheDir;
+        mMaxDiskBytes = maxDiskBytes;
+        mVersion = version;
+        mMaxMemoryBytes = maxMemoryBytes;
+    }
+
+    private static long getVersion(Context context) {
+        try {
+            return context.getPackageManager()
+                    .getPackageInfo(context.getPackageName(), 0).lastUpdateTime;
+        } catch (PackageManager.NameNotFoundException e) {
+            return 0;
+        }
+    }
+
+    /**
+     * Sets a drawable resource as the background of a view. The image is sized for the view,
+     * or for the screen if the view has not been laid out yet. If the image is not in the
+     * memory cache, the background is set once the image has been loaded.
+     */
+    @SuppressWarnings("deprecation")
+    void load(final View view, final int resId) {
+        int width = view.getWidth();
+        int height = view.getHeight();
+        if (width == 0 || height == 0) {
+            DisplayMetrics metrics = mResources.getDisplayMetrics();
+            width = metrics.widthPixels;
+            height = metrics.heightPixels;
+        }
+
+        int[] bounds = mBounds.get(resId);
+        if (bounds != null) {
+            Bitmap cached = mMemoryCache.get(cacheKey(resId,
+                    calculateInSampleSize(bounds[0], bounds[1], width, height)));
+            if (cached != null) {
+                mPending.remove(view);
+                view.setBackgroundDrawable(new BitmapDrawable(mResources, cached));
+                return;
+            }
+        }
+
+        mPending.put(view, resId);
+        final int targetWidth = width;
+        final int targetHeight = height;
+        mExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                BitmapFactory.Options options = new BitmapFactory.Options();
+                options.inJustDecodeBounds = true;
+                options.inScaled = false;
+                BitmapFactory.decodeResource(mResources, resId, options);
+                final int imageWidth = options.outWidth;
+                final int imageHeight = options.outHeight;
+                options.inSampleSize = calculateInSampleSize(imageWidth, imageHeight,
+                        targetWidth, targetHeight);
+                final String key = cacheKey(resId, options.inSampleSize);
+                final Bitmap bitmap = loadBitmap(key, resId, options);
+                mHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        if (bitmap == null) {
+                            return;
+                        }
+                        mBounds.put(resId, new int[] { imageWidth, imageHeight });
+                        putInMemoryCache(key, bitmap);
+                        if (Integer.valueOf(resId).equals(mPending.get(view))) {
+                            mPending.remove(view);
+                            view.setBackgroundDrawable(new BitmapDrawable(mResources, bitmap));
+                        }
+                    }
+                });
+            }
+        });
+    }
+
+    /**
+     * Forgets the image a view is waiting for, e.g. because its background was set to a color.
+     */
+    void cancel(View view) {
+        mPending.remove(view);
+    }
+
+    /*
+     * Returns the key under which an image is cached when decoded with an inSampleSize.
+     */
+    private static String cacheKey(int resId, int inSampleSize) {
+        return resId + "_" + inSampleSize;
+    }
+
+    /*
+     * Reads the image from the disk cache, or decodes the resource with the inSampleSize of
+     * options and adds it to the disk cache. Runs on the loader thread.
+     */
+    private Bitmap loadBitmap(String key, int resId, BitmapFactory.Options options) {
+        long start = System.nanoTime();
+        File file = new File(mCacheDir, key + "_" + mVersion + ".jpg");
+        if (file.exists()) {
+            Bitmap bitmap = BitmapFactory.decodeFile(file.getPath());
+            if (bitmap != null) {
+                // Marks the image as recently used, so that trimming the cache keeps it
+                file.setLastModified(System.currentTimeMillis());
+                Log.d(TAG, "Read " + key + " from the disk cache in "
+                        + (System.nanoTime() - start) / 1000 + "us");
+                return bitmap;
+            }
+        }
+
+        options.inJustDecodeBounds = false;
+        Bitmap bitmap = BitmapFactory.decodeResource(mResources, resId, options);
+        if (bitmap == null) {
+            Log.w(TAG, "Cannot decode resource " + resId);
+            return null;
+        }
+        Log.d(TAG, "Decoded " + key + " with inSampleSize " + options.inSampleSize + " in "
+                + (System.nanoTime() - start) / 1000 + "us");
+
+        // A JPEG at its own size is copied as it is, which is faster than encoding it again and
+        // loses nothing
+        boolean copy = options.inSampleSize == 1 && "image/jpeg".equals(options.outMimeType);
+        writeToDiskCache(file, copy ? 0 : resId, bitmap);
+        return bitmap;
+    }
+
+    /*
+     * Writes an image to the disk cache, either as a copy of the given raw resource or, if
+     * resId is 0, by encoding the bitmap, then trims the cache to its maximum size.
+     */
+    private void writeToDiskCache(File file, int resId, Bitmap bitmap) {
+        if (!mCacheDir.isDirectory() && !mCacheDir.mkdirs()) {
+            return;
+        }
+        // Writes to a temporary file first, so that a half-written image is never read
+        File temp = new File(mCacheDir, file.getName() + ".tmp");
+        FileOutputStream out = null;
+        InputStream in = null;
+        try {
+            out = new FileOutputStream(temp);
+            if (resId != 0) {
+                in = mResources.openRawResource(resId);
+                byte[] buffer = new byte[8192];
+                int count;
+                while ((count = in.read(buffer)) != -1) {
+                    out.write(buffer, 0, count);
+                }
+            } else {
+                bitmap.compress(Bitmap.CompressFormat.JPEG, CACHE_QUALITY, out);
+            }
+            out.close();
+            out = null;
+            if (!temp.renameTo(file)) {
+                temp.delete();
+            }
+        } catch (IOException e) {
+            Log.w(TAG, "Cannot cache " + file, e);
+            temp.delete();
+        } finally {
+            if (in != null) {
+                try {
+                    in.close();
+                } catch (IOException e) {
+                    // Nothing left to do
+                }
+            }
+            if (out != null) {
+                try {
+                    out.close();
+                } catch (IOException e) {
+                    // Nothing left to do
+                }
+            }
+        }
+        trimDiskCache(mCacheDir, mMaxDiskBytes, file);
+    }
+
+    /**
+     * Deletes the least recently modified files in a directory until the files in it take no
+     * more than maxBytes, but never deletes the given file, which was just written.
+     */
+    static void trimDiskCache(File dir, long maxBytes, File keep) {
+        File[] files = dir.listFiles();
+        if (files == null) {
+            return;
+        }
+        long total = 0;
+        for (File file : files) {
+            total += file.length();
+        }
+        if (total <= maxBytes) {
+            return;
+        }
+
+        // Oldest first
+        final long[] modified = new long[files.length];
+        Integer[] order = new Integer[files.length];
+        for (int i = 0; i < files.length; i++) {
+            modified[i] = files[i].lastModified();
+            order[i] = i;
+        }
+        Arrays.sort(order, new Comparator<Integer>() {
+            @Override
+            public int compare(Integer lhs, Integer rhs) {
+                long l = modified[lhs];
+                long r = modified[rhs];
+                return l < r ? -1 : (l == r ? 0 : 1);
+            }
+        });
+        for (int i = 0; i < order.length && total > maxBytes; i++) {
+            File file = files[order[i]];
+            if (file.equals(keep)) {
+                continue;
+            }
+            long length = file.length();
+            if (file.delete()) {
+                total -= length;
+                Log.d(TAG, "Evicted " + file.getName() + " from the disk cache");
+            }
+        }
+    }
+
+    private void putInMemoryCache(String key, Bitmap bitmap) {
+        Bitmap previous = mMemoryCache.put(key, bitmap);
+        if (previous != null) {
+            mMemoryBytes -= sizeOf(previous);
+        }
+        mMemoryBytes += sizeOf(bitmap);
+
+        // Evicts the least recently used bitmaps, but always keeps the newest one
+        Iterator<Map.Entry<String, Bitmap>> it = mMemoryCache.entrySet().iterator();
+        while (mMemoryBytes > mMaxMemoryBytes && mMemoryCache.size() > 1) {
+            Map.Entry<String, Bitmap> eldest = it.next();
+            mMemoryBytes -= sizeOf(eldest.getValue());
+            it.remove();
+        }
+    }
+
+    /**
+     * Returns the largest power of two that subsamples an image to no less than the requested
+     * size in either dimension.
+     */
+    static int calculateInSampleSize(int imageWidth, int imageHeight, int width, int height) {
+        int inSampleSize = 1;
+        while (imageWidth / (inSampleSize * 2) >= width
+                && imageHeight / (inSampleSize * 2) >= height) {
+            inSampleSize *= 2;
+        }
+        return inSampleSize;
+    }
+
+    private static int sizeOf(Bitmap bitmap) {
+        return bitmap.getRowBytes() * bitmap.getHeight();
+    }
+}
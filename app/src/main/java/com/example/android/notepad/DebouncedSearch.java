@@ -0,0 +1,217 @@
+/*
+ * Copyright (C) 2007 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.android.notepad;
+
+import android.annotation.TargetApi;
+import android.content.ContentResolver;
+import android.database.Cursor;
+import android.net.Uri;
+import android.os.Build;
+import android.os.CancellationSignal;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Runs the searches typed into the notes list off the UI thread.
+ *
+ * Keystrokes are coalesced over a configurable window so that only the last query of a burst is
+ * sent to the provider. A query that is superseded while it is still running is cancelled
+ * through a {@link CancellationSignal} (on platforms that support it), and only the result of
+ * the latest query is ever published to the {@link Callback}.
+ *
+ * All public methods must be called on the UI thread.
+ */
+class DebouncedSearch {
+    // For logging and debugging
+    private static final String TAG = "DebouncedSearch";
+
+    /**
+     * The default window over which keystrokes are coalesced, in milliseconds
+     */
+    static final long DEFAULT_DELAY_MILLIS = 250;
+
+    /**
+     * Receives search results on the UI thread.
+     */
+    interface Callback {
+        /**
+         * Called with the cursor for the most recent query. The callback takes ownership of the
+         * cursor and is responsible for closing it.
+         */
+        void onSearchResult(String query, Cursor cursor);
+    }
+
+    private final ContentResolver mResolver;
+    private final String[] mProjection;
+    private final long mDelayMillis;
+    private final Callback mCallback;
+    private final Handler mHandler = new Handler(Looper.getMainLooper());
+
+    // A single worker, so a new query only starts once the superseded one has been cancelled
+    private final ExecutorService mExecutor = Executors.newSingleThreadExecutor();
+
+    // Incremented for every request; results from older generations are dropped
+    private int mGeneration;
+
+    // The query waiting for the coalescing window to close
+    private String mPendingQuery;
+
+    // Cancels the query that is currently running, if any
+    private CancellationSignal mRunningSignal;
+
+    private final Runnable mStartPending = new Runnable() {
+        @Override
+        public void run() {
+            start(mPendingQuery);
+        }
+    };
+
+    DebouncedSearch(ContentResolver resolver, String[] projection, Callback callback) {
+        this(resolver, projection, DEFAULT_DELAY_MILLIS, callback);
+    }
+
+    DebouncedSearch(ContentResolver resolver, String[] projection, long delayMillis,
+            Callback callback) {
+        mResolver = resolver;
+        mProjection = projection;
+        mDelayMillis = delayMillis;
+        mCallback = callback;
+    }
+
+    /**
+     * Schedules a search for the given text. The search only runs if no other call arrives within
+     * the coalescing window, and it supersedes any search that is pending or running.
+     */
+    void search(String query) {
+        cancel();
+        mPendingQuery = query;
+        mHandler.postDelayed(mStartPending, mDelayMillis);
+    }
+
+    /**
+     * Drops the pending search, cancels the running one and discards any result still in flight.
+     */
+    void cancel() {
+        mGeneration++;
+        mHandler.removeCallbacks(mStartPending);
+        cancelRunningQuery();
+    }
+
+    /**
+     * Cancels all work and stops the worker thread. The object cannot be used afterwards.
+     */
+    void shutdown() {
+        cancel();
+        mExecutor.shutdown();
+    }
+
+    private void start(final String query) {
+        final int generation = ++mGeneration;
+        final CancellationSignal signal = newCancellationSignal();
+        mRunningSignal = signal;
+        final Uri uri = NotePad.Notes.CONTENT_SEARCH_URI.buildUpon()
+                .appendQueryParameter(NotePad.Notes.QUERY_PARAMETER_SEARCH, query)
+                .build();
+
+        mExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                Cursor cursor = null;
+                try {
+                    cursor = query(uri, signal);
+                    if (cursor != null) {
+                        // Fills the cursor window here rather than on the UI thread
+                        cursor.getCount();
+                    }
+                } catch (RuntimeException e) {
+                    // A cancelled query ends with OperationCanceledException; anything else is
+                    // an actual failure.
+                    if (!isCanceled(signal)) {
+                        Log.w(TAG, "Search for \"" + query + "\" failed", e);
+                    }
+                    if (cursor != null) {
+                        cursor.close();
+                    }
+                    return;
+                }
+                publish(generation, query, cursor);
+            }
+        });
+    }
+
+    private void publish(final int generation, final String query, final Cursor cursor) {
+        mHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                if (generation != mGeneration) {
+                    // A newer search has been requested since this one started
+                    if (cursor != null) {
+                        cursor.close();
+                    }
+                    return;
+                }
+                mRunningSignal = null;
+                mCallback.onSearchResult(query, cursor);
+            }
+        });
+    }
+
+    private Cursor query(Uri uri, CancellationSignal signal) {
+        if (signal != null) {
+            return queryCancellable(uri, signal);
+        }
+        return mResolver.query(uri, mProjection, null, null, null);
+    }
+
+    @TargetApi(Build.VERSION_CODES.JELLY_BEAN)
+    private Cursor queryCancellable(Uri uri, CancellationSignal signal) {
+        return mResolver.query(uri, mProjection, null, null, null, signal);
+    }
+
+    private void cancelRunningQuery() {
+        if (mRunningSignal != null) {
+            cancelSignal(mRunningSignal);
+            mRunningSignal = null;
+        }
+    }
+
+    private static CancellationSignal newCancellationSignal() {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN) {
+            return createSignal();
+        }
+        return null;
+    }
+
+    @TargetApi(Build.VERSION_CODES.JELLY_BEAN)
+    private static CancellationSignal createSignal() {
+        return new CancellationSignal();
+    }
+
+    @TargetApi(Build.VERSION_CODES.JELLY_BEAN)
+    private static void cancelSignal(CancellationSignal signal) {
+        signal.cancel();
+    }
+
+    @TargetApi(Build.VERSION_CODES.JELLY_BEAN)
+    private static boolean isCanceled(CancellationSignal signal) {
+        return signal != null && signal.isCanceled();
+    }
+}
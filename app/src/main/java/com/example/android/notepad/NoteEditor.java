@@ -19,17 +19,21 @@ package com.example.android.notepad;
 import android.app.ActionBar;
 import android.app.Activity;
 import android.app.AlertDialog;
+import android.app.LoaderManager;
+import android.content.AsyncQueryHandler;
 import android.content.ClipData;
 import android.content.ClipboardManager;
 import android.content.ComponentName;
 import android.content.ContentResolver;
+import android.content.ContentUris;
 import android.content.ContentValues;
 import android.content.Context;
+import android.content.CursorLoader;
 import android.content.DialogInterface;
 import android.content.Intent;
+import android.content.Loader;
 import android.content.res.Resources;
 import android.database.Cursor;
-import android.database.sqlite.SQLiteDatabase;
 import android.graphics.Canvas;
 import android.graphics.Color;
 import android.graphics.Paint;
@@ -39,6 +43,7 @@ import android.media.Image;
 import android.net.Uri;
 import android.os.Bundle;
 import android.text.Editable;
+import android.text.Layout;
 import android.text.TextWatcher;
 import android.util.AttributeSet;
 import android.util.Log;
@@ -59,6 +64,7 @@ import android.widget.Toast;
 
 import org.w3c.dom.Text;
 
+import java.io.IOException;
 import java.io.OutputStream;
 
 /**
@@ -67,10 +73,9 @@ import java.io.OutputStream;
  * {@link Intent#ACTION_EDIT}, create a note {@link Intent#ACTION_INSERT}, or
  * create a new note from the current contents of the clipboard {@link Intent#ACTION_PASTE}.
  *
- * NOTE: Notice that the provider operations in this Activity are taking place on the UI thread.
- * This is not a good practice. It is only done here to make the code more readable. A real
- * application should use the {@link android.content.AsyncQueryHandler}
- * or {@link android.os.AsyncTask} object to perform operations asynchronously on a separate thread.
+ * The note is loaded by a {@link CursorLoader}, which the LoaderManager keeps across
+ * configuration changes, and inserts, updates and deletes go through an
+ * {@link AsyncQueryHandler}, so the provider is never called on the UI thread.
  */
 public class NoteEditor extends Activity {
     // For logging and debugging purposes
@@ -83,11 +88,33 @@ public class NoteEditor extends Activity {
         new String[] {
             NotePad.Notes._ID,
             NotePad.Notes.COLUMN_NAME_TITLE,
-            NotePad.Notes.COLUMN_NAME_NOTE
+            NotePad.Notes.COLUMN_NAME_NOTE,
+            NotePad.Notes.COLUMN_NAME_REVISION
     };
 
-    // A label for the saved state of the activity
-    private static final String ORIGINAL_CONTENT = "origContent";
+    // The positions of the columns in PROJECTION
+    private static final int COLUMN_INDEX_TITLE = 1;
+    private static final int COLUMN_INDEX_NOTE = 2;
+    private static final int COLUMN_INDEX_REVISION = 3;
+
+    // Labels for the saved state of the activity
+    private static final String ORIGINAL_REVISION = "origRevision";
+    private static final String NOTE_URI = "noteUri";
+    private static final String NOTE_STATE = "noteState";
+    private static final String SHOWN_TITLE = "shownTitle";
+    private static final String SHOWN_NOTE = "shownNote";
+
+    // The ID of the loader that loads the note
+    private static final int LOADER_NOTE = 0;
+
+    // Tokens for the provider operations run by mQueryHandler
+    private static final int TOKEN_INSERT = 1;
+    private static final int TOKEN_PASTE_QUERY = 2;
+    private static final int TOKEN_PASTE_UPDATE = 3;
+    private static final int TOKEN_WRITE = 4;
+    private static final int TOKEN_FOLDERS = 5;
+    private static final int TOKEN_FOLDER_CHECK = 6;
+    private static final int TOKEN_FOLDER_INSERT = 7;
 
     // This Activity can be started by more than one action. Each action is represented
     // as a "state" constant
@@ -97,18 +124,48 @@ public class NoteEditor extends Activity {
     // Global mutable variables
     private int mState;
     private Uri mUri;
+    // The loaded note, owned by the loader. Null until the note has been loaded.
     private Cursor mCursor;
     private EditText mText;
-    private String mOriginalContent;
+    // The revision of the note when the editor opened it, or -1 before it is loaded
+    private int mOriginalRevision = -1;
 
+    // The title and text as they were in the database when they were last shown in the editor
+    private String mShownTitle;
+    private String mShownNote;
+
+    // Runs the provider operations off the UI thread
+    private NoteQueryHandler mQueryHandler;
+
+    // Saves the note in the background while the user types
+    private AutosaveScheduler mAutosave;
+
+    // True while showNote() puts loaded text into the views, which is not an edit
+    private boolean mShowingNote;
+
+    // Counts the characters, words, CJK characters and lines of the note as it is edited
+    private final TextStatistics mStatistics = new TextStatistics();
+
+    /**
+     * An EditText that draws a rule under every line of text.
+     *
+     * Only the lines that intersect the canvas clip are ruled, in a single drawLines() call, so
+     * the cost of a frame depends on the height of the view and not on the length of the note.
+     */
     public static class LinedEditText extends EditText {
         private Rect mRect;
+        private Rect mClip;
         private Paint mPaint;
 
+        // The end points of the rules drawn in a frame, four floats per line. Grown when a frame
+        // shows more lines than ever before, and reused otherwise.
+        private float[] mLines = new float[4 * 64];
+
         public LinedEditText(Context context, AttributeSet attrs) {
             super(context, attrs);
 
             mRect = new Rect();
+            mClip = new Rect();
             mPaint = new Paint();
             mPaint.setStyle(Paint.Style.STROKE);
             mPaint.setColor(0x800000FF);
@@ -116,20 +173,48 @@ public class NoteEditor extends Activity {
 
         @Override
         protected void onDraw(Canvas canvas) {
+            drawRules(canvas);
+            super.onDraw(canvas);
+        }
 
+        /**
+         * Draws the rules under the lines that intersect the canvas clip.
+         */
+        void drawRules(Canvas canvas) {
+            Layout layout = getLayout();
             int count = getLineCount();
+            if (layout == null || count == 0 || !canvas.getClipBounds(mClip)) {
+                return;
+            }
 
             Rect r = mRect;
-            Paint paint = mPaint;
 
-            for (int i = 0; i < count; i++) {
+            // The bounds of the first line give the offset from layout to view coordinates
+            getLineBounds(0, r);
+            int offset = r.top;
+
+            // A rule sits one pixel below its baseline, so it can reach into the clip from the
+            // line above it
+            int first = Math.max(layout.getLineForVertical(mClip.top - offset - 1), 0);
+            int last = Math.min(layout.getLineForVertical(mClip.bottom - offset), count - 1);
+
+            int size = 4 * (last - first + 1);
+            if (mLines.length < size) {
+                mLines = new float[size];
+            }
+            float[] lines = mLines;
+            int n = 0;
+            for (int i = first; i <= last; i++) {
 
                 int baseline = getLineBounds(i, r);
 
-                canvas.drawLine(r.left, baseline + 1, r.right, baseline + 1, paint);
+                lines[n++] = r.left;
+                lines[n++] = baseline + 1;
+                lines[n++] = r.right;
+                lines[n++] = baseline + 1;
             }
 
-            super.onDraw(canvas);
+            canvas.drawLines(lines, 0, n, mPaint);
         }
     }
 
@@ -152,33 +237,7 @@ public class NoteEditor extends Activity {
             }
         });
 
-        // 定义要查询的列
-        String[] projection = { NotePad.Notes.COLUMN_NAME_TITLE };
-        mUri = getIntent().getData();
-        // 查询数据库，获取当前笔记的标题
-        Cursor cursor = getContentResolver().query(
-                mUri,       // 笔记的 URI
-                projection, // 要查询的列
-                null,       // 无需筛选条件
-                null,       // 无需筛选参数
-                null        // 无排序要求
-        );
-
-        // 检查 Cursor 是否有效并提取数据
-        if (cursor != null) {
-            if (cursor.moveToFirst()) {
-                String title = cursor.getString(
-                        cursor.getColumnIndexOrThrow(NotePad.Notes.COLUMN_NAME_TITLE)
-                );
-
-                // 将标题设置到 TextView 中
-                TextView titleView = (TextView) findViewById(R.id.title1);
-                titleView.setText(title);
-            }
-            cursor.close(); // 关闭 Cursor 避免内存泄漏
-        }
-
-
+        // 标题和正文由 mNoteCallbacks 在后台加载完成后填入
 
         sortBtn.setOnClickListener(new View.OnClickListener() {
             @Override
@@ -190,23 +249,31 @@ public class NoteEditor extends Activity {
 
         final EditText note =  (EditText) findViewById(R.id.note);
         final TextView length = (TextView) findViewById(R.id.length);
-        // 设置监听器，实时更新字数
-        note.addTextChangedListener(new TextWatcher() {
-            @Override
-            public void beforeTextChanged(CharSequence charSequence, int start, int count, int after) {
-                // 不需要做处理
-            }
+        // 设置监听器，按每次编辑的增量更新字数，不重新扫描全文
+        mStatistics.setListener(new TextStatistics.Listener() {
+            private int mShownCount = -1;
 
             @Override
-            public void onTextChanged(CharSequence charSequence, int start, int before, int after) {
-                // 更新字数
-                int charCount = note.getText().length();
-                length.setText(charCount + " 字丨");
+            public void onStatisticsChanged(TextStatistics statistics) {
+                // 字数不变时不更新显示
+                int charCount = statistics.getCharCount();
+                if (charCount != mShownCount) {
+                    mShownCount = charCount;
+                    length.setText(charCount + " 字丨");
+                }
             }
+        });
+        mStatistics.reset(note.getText());
+        note.addTextChangedListener(mStatistics);
 
+        // 点击字数显示词数、汉字数和行数
+        length.setOnClickListener(new View.OnClickListener() {
             @Override
-            public void afterTextChanged(Editable editable) {
-                // 不需要做处理
+            public void onClick(View view) {
+                Toast.makeText(NoteEditor.this, "字符 " + mStatistics.getCharCount()
+                        + "丨词 " + mStatistics.getWordCount()
+                        + "丨汉字 " + mStatistics.getCjkCount()
+                        + "丨行 " + mStatistics.getLineCount(), Toast.LENGTH_SHORT).show();
             }
         });
 
@@ -240,56 +307,246 @@ public class NoteEditor extends Activity {
             actionBar.hide();
         }
 
+        mText = (EditText) findViewById(R.id.note);
+        mQueryHandler = new NoteQueryHandler(getContentResolver());
+
+        // 使用上次选择的字体，NotesList 启动时已在后台加载好
+        String font = Typefaces.getChosen(this);
+        if (font != null) {
+            Typeface typeface = Typefaces.get(this, font);
+            if (typeface != null) {
+                mText.setTypeface(typeface);
+            }
+        }
+
+        // 输入停顿后在后台自动保存，内容没有变化时不写数据库
+        final TextView titleView = (TextView) findViewById(R.id.title1);
+        mAutosave = new AutosaveScheduler(new AutosaveScheduler.Editor() {
+            @Override
+            public String getTitle() {
+                return titleView.getText().toString();
+            }
+
+            @Override
+            public String getText() {
+                return mText.getText().toString();
+            }
+
+            @Override
+            public void write(String title, String text) {
+                updateNote(text, title);
+            }
+        });
+        TextWatcher autosaveWatcher = new TextWatcher() {
+            @Override
+            public void beforeTextChanged(CharSequence s, int start, int count, int after) {}
+
+            @Override
+            public void onTextChanged(CharSequence s, int start, int before, int count) {}
+
+            @Override
+            public void afterTextChanged(Editable editable) {
+                // Only edits to a loaded note are saved
+                if (mCursor != null && !mShowingNote) {
+                    mAutosave.onEdited();
+                }
+            }
+        };
+        mText.addTextChangedListener(autosaveWatcher);
+        titleView.addTextChangedListener(autosaveWatcher);
+
+        if (savedInstanceState != null) {
+            mOriginalRevision = savedInstanceState.getInt(ORIGINAL_REVISION, -1);
+            mShownTitle = savedInstanceState.getString(SHOWN_TITLE);
+            mShownNote = savedInstanceState.getString(SHOWN_NOTE);
+        }
+
         final Intent intent = getIntent();
         final String action = intent.getAction();
 
-        if (Intent.ACTION_EDIT.equals(action)) {
+        if (savedInstanceState != null && savedInstanceState.getParcelable(NOTE_URI) != null) {
+
+            // Recreated after a configuration change; the note was already inserted
+            mState = savedInstanceState.getInt(NOTE_STATE);
+            mUri = savedInstanceState.getParcelable(NOTE_URI);
+            startLoading();
+
+        } else if (Intent.ACTION_EDIT.equals(action)) {
 
             mState = STATE_EDIT;
             mUri = intent.getData();
+            startLoading();
 
         } else if (Intent.ACTION_INSERT.equals(action)
                 || Intent.ACTION_PASTE.equals(action)) {
 
+            // The note is inserted in the background; onInsertComplete() carries on from there
             mState = STATE_INSERT;
-            mUri = getContentResolver().insert(intent.getData(), null);
+            mQueryHandler.startInsert(TOKEN_INSERT, action, intent.getData(), null);
 
-            if (mUri == null) {
+        } else {
 
-                Log.e(TAG, "Failed to insert new note into " + getIntent().getData());
+            Log.e(TAG, "Unknown action, exiting");
+            finish();
+        }
+    }
 
-                finish();
-                return;
-            }
+    /*
+     * Starts loading the note at mUri, or reconnects to the loader that is already loading it.
+     */
+    private void startLoading() {
+        getLoaderManager().initLoader(LOADER_NOTE, null, mNoteCallbacks);
+    }
 
-            setResult(RESULT_OK, (new Intent()).setAction(mUri.toString()));
+    private final LoaderManager.LoaderCallbacks<Cursor> mNoteCallbacks =
+            new LoaderManager.LoaderCallbacks<Cursor>() {
+        @Override
+        public Loader<Cursor> onCreateLoader(int id, Bundle args) {
+            return new CursorLoader(
+                NoteEditor.this,
+                mUri,         // The URI of the note
+                PROJECTION,   // A projection that returns the note ID, title and content
+                null,         // No "where" clause selection criteria.
+                null,         // No "where" clause selection values.
+                null          // No sort order is needed for a single note.
+            );
+        }
 
-        } else {
+        @Override
+        public void onLoadFinished(Loader<Cursor> loader, Cursor cursor) {
+            showNote(cursor);
+        }
 
-            Log.e(TAG, "Unknown action, exiting");
-            finish();
+        @Override
+        public void onLoaderReset(Loader<Cursor> loader) {
+            mCursor = null;
+        }
+    };
+
+    /*
+     * Shows a loaded note. The loader delivers the note again every time it changes, including
+     * after the editor's own saves, so the title and text are only replaced when the user has
+     * not edited them since they were last shown.
+     */
+    private void showNote(Cursor cursor) {
+        if (cursor == null || !cursor.moveToFirst()) {
+            mCursor = null;
+            setTitle(getText(R.string.error_title));
+            mText.setText(getText(R.string.error_message));
             return;
         }
+        mCursor = cursor;
 
-        mCursor = managedQuery(
-            mUri,         // The URI that gets multiple notes from the provider.
-            PROJECTION,   // A projection that returns the note ID and note content for each note.
-            null,         // No "where" clause selection criteria.
-            null,         // No "where" clause selection values.
-            null          // Use the default sort order (modification date, descending)
-        );
+        String title = cursor.getString(COLUMN_INDEX_TITLE);
+        if (mState == STATE_EDIT) {
+            Resources res = getResources();
+            setTitle(String.format(res.getString(R.string.title_edit), title));
+        } else if (mState == STATE_INSERT) {
+            setTitle(getText(R.string.title_create));
+        }
 
-        if (Intent.ACTION_PASTE.equals(action)) {
+        TextView titleView = (TextView) findViewById(R.id.title1);
+        String note = cursor.getString(COLUMN_INDEX_NOTE);
+        mShowingNote = true;
+        try {
+            if (title != null && !title.equals(mShownTitle)) {
+                if (mShownTitle == null || mShownTitle.equals(titleView.getText().toString())) {
+                    titleView.setText(title);
+                }
+                mShownTitle = title;
+            }
+
+            if (note != null && !note.equals(mShownNote)) {
+                if (mShownNote == null || mShownNote.equals(mText.getText().toString())) {
+                    mText.setTextKeepState(note);
+                }
+                mShownNote = note;
+            }
+        } finally {
+            mShowingNote = false;
+        }
+        if (!mAutosave.isDirty()) {
+            // Without pending edits, what the editor shows is what is saved
+            mAutosave.setSaved(titleView.getText().toString(), mText.getText().toString());
+        }
 
-            performPaste();
+        // Stores the original revision of the note, to allow the user to revert changes.
+        if (mOriginalRevision < 0) {
+            mOriginalRevision = cursor.getInt(COLUMN_INDEX_REVISION);
+        }
+    }
 
-            mState = STATE_EDIT;
+    /*
+     * Runs the provider operations of the editor, and carries on with inserting or pasting a
+     * note when each step completes.
+     */
+    private class NoteQueryHandler extends AsyncQueryHandler {
+        NoteQueryHandler(ContentResolver cr) {
+            super(cr);
         }
 
-        mText = (EditText) findViewById(R.id.note);
+        @Override
+        protected void onInsertComplete(int token, Object cookie, Uri uri) {
+            if (token == TOKEN_FOLDER_INSERT) {
+                showNewFolder((NewFolder) cookie, uri);
+                return;
+            }
+            if (uri == null) {
+                Log.e(TAG, "Failed to insert new note into " + getIntent().getData());
+                finish();
+                return;
+            }
+            if (isFinishing()) {
+                // The user left before the note was created, so it is still empty
+                startDelete(TOKEN_WRITE, null, uri, null, null);
+                return;
+            }
+            mUri = uri;
+            setResult(RESULT_OK, (new Intent()).setAction(mUri.toString()));
 
-        if (savedInstanceState != null) {
-            mOriginalContent = savedInstanceState.getString(ORIGINAL_CONTENT);
+            if (Intent.ACTION_PASTE.equals(cookie)) {
+                performPaste();
+            } else {
+                startLoading();
+            }
+        }
+
+        @Override
+        protected void onQueryComplete(int token, Object cookie, Cursor cursor) {
+            if (token == TOKEN_FOLDERS) {
+                // The folders to move the note to
+                if (cursor != null) {
+                    showFolders((PopupWindow) cookie, cursor);
+                }
+                return;
+            }
+            if (token == TOKEN_FOLDER_CHECK) {
+                // The folders with the name of a folder being created
+                if (cursor != null) {
+                    insertFolder((NewFolder) cookie, cursor);
+                }
+                return;
+            }
+            // The note on the clipboard, being pasted
+            String text = null;
+            if (cursor != null) {
+                if (cursor.moveToFirst()) {
+                    text = cursor.getString(COLUMN_INDEX_NOTE);
+                }
+                cursor.close();
+            }
+            if (text == null) {
+                text = ((ClipData.Item) cookie).coerceToText(NoteEditor.this).toString();
+            }
+            pasteNote(text);
+        }
+
+        @Override
+        protected void onUpdateComplete(int token, Object cookie, int result) {
+            if (token == TOKEN_PASTE_UPDATE && !isFinishing()) {
+                // Loads the note once the pasted text is in it
+                startLoading();
+            }
         }
     }
 
@@ -310,12 +567,22 @@ public class NoteEditor extends Activity {
         popupWindow.setOutsideTouchable(true);
         popupWindow.setFocusable(true);
 
+        // 勾选当前使用的字体
+        String chosen = Typefaces.getChosen(this);
+        popupView.findViewById(R.id.btn1).setVisibility(chosen == null ? View.VISIBLE : View.GONE);
+        popupView.findViewById(R.id.btn2).setVisibility(
+                Typefaces.LOLI.equals(chosen) ? View.VISIBLE : View.GONE);
+        popupView.findViewById(R.id.btn3).setVisibility(
+                Typefaces.QINGNIAO.equals(chosen) ? View.VISIBLE : View.GONE);
+        popupView.findViewById(R.id.btn4).setVisibility(
+                Typefaces.ZIHUN.equals(chosen) ? View.VISIBLE : View.GONE);
 
         popupView.findViewById(R.id.noneBtn).setOnClickListener(new View.OnClickListener() {
             @Override
             public void onClick(View view) {
                 TextView textView = (TextView) findViewById(R.id.note);
                 textView.setTypeface(null);
+                Typefaces.setChosen(NoteEditor.this, null);
                 popupView.findViewById(R.id.btn1).setVisibility(View.VISIBLE);
                 popupView.findViewById(R.id.btn2).setVisibility(View.GONE);
                 popupView.findViewById(R.id.btn3).setVisibility(View.GONE);
@@ -325,9 +592,15 @@ public class NoteEditor extends Activity {
         popupView.findViewById(R.id.loliBtn).setOnClickListener(new View.OnClickListener() {
             @Override
             public void onClick(View view) {
+                // 字体只在第一次使用时加载，之后复用同一个实例
+                Typeface typeface = Typefaces.get(NoteEditor.this, Typefaces.LOLI);
+                if (typeface == null) {
+                    Toast.makeText(NoteEditor.this, "字体加载失败", Toast.LENGTH_SHORT).show();
+                    return;
+                }
                 TextView textView = (TextView) findViewById(R.id.note);
-                Typeface typeface = Typeface.createFromAsset(getAssets(), "font/loli.ttf");
                 textView.setTypeface(typeface);
+                Typefaces.setChosen(NoteEditor.this, Typefaces.LOLI);
                 popupView.findViewById(R.id.btn1).setVisibility(View.GONE);
                 popupView.findViewById(R.id.btn2).setVisibility(View.VISIBLE);
                 popupView.findViewById(R.id.btn3).setVisibility(View.GONE);
@@ -337,9 +610,15 @@ public class NoteEditor extends Activity {
         popupView.findViewById(R.id.qingniaoBtn).setOnClickListener(new View.OnClickListener() {
             @Override
             public void onClick(View view) {
+                // 字体只在第一次使用时加载，之后复用同一个实例
+                Typeface typeface = Typefaces.get(NoteEditor.this, Typefaces.QINGNIAO);
+                if (typeface == null) {
+                    Toast.makeText(NoteEditor.this, "字体加载失败", Toast.LENGTH_SHORT).show();
+                    return;
+                }
                 TextView textView = (TextView) findViewById(R.id.note);
-                Typeface typeface = Typeface.createFromAsset(getAssets(), "font/qingniao.ttf");
                 textView.setTypeface(typeface);
+                Typefaces.setChosen(NoteEditor.this, Typefaces.QINGNIAO);
                 popupView.findViewById(R.id.btn1).setVisibility(View.GONE);
                 popupView.findViewById(R.id.btn2).setVisibility(View.GONE);
                 popupView.findViewById(R.id.btn3).setVisibility(View.VISIBLE);
@@ -349,9 +628,15 @@ public class NoteEditor extends Activity {
         popupView.findViewById(R.id.zihunBtn).setOnClickListener(new View.OnClickListener() {
             @Override
             public void onClick(View view) {
+                // 字体只在第一次使用时加载，之后复用同一个实例
+                Typeface typeface = Typefaces.get(NoteEditor.this, Typefaces.ZIHUN);
+                if (typeface == null) {
+                    Toast.makeText(NoteEditor.this, "字体加载失败", Toast.LENGTH_SHORT).show();
+                    return;
+                }
                 TextView textView = (TextView) findViewById(R.id.note);
-                Typeface typeface = Typeface.createFromAsset(getAssets(), "font/zihun.ttf");
                 textView.setTypeface(typeface);
+                Typefaces.setChosen(NoteEditor.this, Typefaces.ZIHUN);
                 popupView.findViewById(R.id.btn1).setVisibility(View.GONE);
                 popupView.findViewById(R.id.btn2).setVisibility(View.GONE);
                 popupView.findViewById(R.id.btn3).setVisibility(View.GONE);
@@ -378,6 +663,18 @@ public class NoteEditor extends Activity {
         popupWindow.setOutsideTouchable(true);
         popupWindow.setFocusable(true);
 
+        // 点击未分类笔记，移出所在的文件夹
+        popupView.findViewById(R.id.uncategorized).setOnClickListener(new View.OnClickListener() {
+            @Override
+            public void onClick(View v) {
+                moveToFolder(popupWindow, null);
+            }
+        });
+
+        // 在后台查询已有的文件夹，查询完成后由 showFolders() 显示
+        mQueryHandler.startQuery(TOKEN_FOLDERS, popupWindow, NotePad.Categories.CONTENT_URI,
+                new String[] { NotePad.Categories.COLUMN_NAME_NAME }, null, null, null);
+
         // 获取新建文件夹按钮
         Button newfileBtn = (Button) popupView.findViewById(R.id.newfileBtn);
 
@@ -393,50 +690,13 @@ public class NoteEditor extends Activity {
                 input.setHint("请输入文件夹名称");
                 builder.setView(input);
 
-                // 确保数据库和表已存在
-                ensureCategoryTableExists();
-
                 // 设置确定和取消按钮
                 builder.setPositiveButton("确定", new DialogInterface.OnClickListener() {
                     @Override
                     public void onClick(DialogInterface dialog, int which) {
                         String folderName = input.getText().toString().trim();
                         if (!folderName.isEmpty()) {
-                            // 检查是否已经存在该文件夹
-                            Cursor cursor = getContentResolver().query(
-                                    Uri.parse("content://com.google.provider.NotePad/categories"),
-                                    new String[]{"name"},
-                                    "name = ?",
-                                    new String[]{folderName},
-                                    null
-                            );
-
-                            if (cursor != null && cursor.getCount() > 0) {
-                                // 如果有记录，提示名称重复
-                                Toast.makeText(NoteEditor.this, "文件夹名称已存在", Toast.LENGTH_SHORT).show();
-                                cursor.close();
-                            } else {
-                                // 如果没有记录，添加新文件夹到数据库
-                                ContentValues values = new ContentValues();
-                                values.put("name", folderName);
-                                values.put("color", "#FFFFFF");  // 默认颜色
-                                values.put("count", 0);         // 初始化计数为0
-
-                                Uri newUri = getContentResolver().insert(
-                                        Uri.parse("content://com.google.provider.NotePad/categories"), values);
-
-                                if (newUri != null) {
-                                    // 动态加载 sortfile_item 布局，显示新文件夹
-                                    LinearLayout container = (LinearLayout) popupView.findViewById(R.id.itemcontainer);
-                                    View newItem = LayoutInflater.from(NoteEditor.this).inflate(R.layout.sortfile_item, container, false);
-
-                                    TextView filename = (TextView) newItem.findViewById(R.id.filename);
-                                    filename.setText(folderName);
-
-                                    container.addView(newItem);
-                                    Toast.makeText(NoteEditor.this, "新建文件夹：" + folderName, Toast.LENGTH_SHORT).show();
-                                }
-                            }
+                            createFolder(popupWindow, folderName);
                         } else {
                             Toast.makeText(NoteEditor.this, "文件夹名称不能为空", Toast.LENGTH_SHORT).show();
                         }
@@ -448,26 +708,122 @@ public class NoteEditor extends Activity {
         });
     }
 
-    // 确保 category 表存在的方法
-    private void ensureCategoryTableExists() {
+    /**
+     * Creates a folder from the sheet of showSortMenu(), unless one has its name. The provider
+     * is queried and written in the background by mQueryHandler, and the folder is added to the
+     * sheet by showNewFolder() if the sheet is still showing.
+     */
+    void createFolder(PopupWindow popupWindow, String folderName) {
+        // 在后台检查是否已经存在该文件夹，不存在时由 insertFolder() 添加
+        mQueryHandler.startQuery(TOKEN_FOLDER_CHECK, new NewFolder(popupWindow, folderName),
+                NotePad.Categories.CONTENT_URI,
+                new String[] { NotePad.Categories.COLUMN_NAME_NAME },
+                NotePad.Categories.COLUMN_NAME_NAME + " = ?", new String[] { folderName }, null);
+    }
+
+    /*
+     * Shows the folders found by the query of showSortMenu(), if the sheet is still showing.
+     */
+    private void showFolders(PopupWindow popupWindow, Cursor folders) {
         try {
-            SQLiteDatabase db = SQLiteDatabase.openOrCreateDatabase(
-                    getApplicationContext().getDatabasePath("note_pad.db"), null);
-
-            // 检查并创建 category 表
-            db.execSQL("CREATE TABLE IF NOT EXISTS category ("
-                    + "_id INTEGER PRIMARY KEY,"
-                    + "name TEXT NOT NULL UNIQUE,"
-                    + "color TEXT NOT NULL,"
-                    + "count INTEGER NOT NULL DEFAULT 0"
-                    + ");");
-            db.close();
-        } catch (Exception e) {
-            e.printStackTrace();
-            Toast.makeText(this, "数据库初始化失败", Toast.LENGTH_SHORT).show();
+            if (!popupWindow.isShowing()) {
+                return;
+            }
+            while (folders.moveToNext()) {
+                addFolderItem(popupWindow, folders.getString(0));
+            }
+        } finally {
+            folders.close();
         }
     }
 
+    /*
+     * A folder being created from the sheet of showSortMenu(): the sheet, and the folder's name.
+     */
+    private static class NewFolder {
+        final PopupWindow popupWindow;
+        final String name;
+
+        NewFolder(PopupWindow popupWindow, String name) {
+            this.popupWindow = popupWindow;
+            this.name = name;
+        }
+    }
+
+    /*
+     * Adds a new folder, unless the query of the new-folder dialog found one with its name.
+     */
+    private void insertFolder(NewFolder folder, Cursor existing) {
+        boolean exists;
+        try {
+            exists = existing.getCount() > 0;
+        } finally {
+            existing.close();
+        }
+        if (exists) {
+            // 如果有记录，提示名称重复
+            Toast.makeText(this, "文件夹名称已存在", Toast.LENGTH_SHORT).show();
+            return;
+        }
+        // 如果没有记录，添加新文件夹到数据库
+        // 笔记数由数据库触发器维护
+        ContentValues values = new ContentValues();
+        values.put(NotePad.Categories.COLUMN_NAME_NAME, folder.name);
+        values.put(NotePad.Categories.COLUMN_NAME_COLOR, "#FFFFFF");  // 默认颜色
+        mQueryHandler.startInsert(TOKEN_FOLDER_INSERT, folder, NotePad.Categories.CONTENT_URI,
+                values);
+    }
+
+    /*
+     * Shows a folder added by insertFolder() in the sheet, if it is still showing.
+     */
+    private void showNewFolder(NewFolder folder, Uri uri) {
+        if (uri == null) {
+            return;
+        }
+        if (folder.popupWindow.isShowing()) {
+            // 显示新文件夹
+            addFolderItem(folder.popupWindow, folder.name);
+        }
+        Toast.makeText(this, "新建文件夹：" + folder.name, Toast.LENGTH_SHORT).show();
+    }
+
+    /*
+     * Adds a folder to the sheet of showSortMenu(), as a sortfile_item that moves the note to it
+     * when clicked.
+     */
+    private void addFolderItem(final PopupWindow popupWindow, final String name) {
+        // 动态加载 sortfile_item 布局，显示文件夹
+        LinearLayout container =
+                (LinearLayout) popupWindow.getContentView().findViewById(R.id.itemcontainer);
+        View item = LayoutInflater.from(this).inflate(R.layout.sortfile_item, container, false);
+        ((TextView) item.findViewById(R.id.filename)).setText(name);
+        item.setOnClickListener(new View.OnClickListener() {
+            @Override
+            public void onClick(View v) {
+                moveToFolder(popupWindow, name);
+            }
+        });
+        container.addView(item);
+    }
+
+    /*
+     * Moves the note to a folder, or out of every folder if the name is null. The folders' note
+     * counts follow by themselves.
+     */
+    private void moveToFolder(PopupWindow popupWindow, String name) {
+        popupWindow.dismiss();
+        if (mUri == null) {
+            // The note is still being created
+            return;
+        }
+        ContentValues values = new ContentValues();
+        values.put(NotePad.Notes.COLUMN_NAME_CATEGORY, name);
+        mQueryHandler.startUpdate(TOKEN_WRITE, null, mUri, values, null, null);
+        Toast.makeText(this, name != null ? "已移动至：" + name : "已移至未分类笔记",
+                Toast.LENGTH_SHORT).show();
+    }
+
     private void showColorMenu(View anchor) {
         // 加载颜色菜单布局
         View popupView = LayoutInflater.from(this).inflate(R.layout.color_menu, null);
@@ -642,25 +998,47 @@ public class NoteEditor extends Activity {
             }
         }
     }
-    private void saveNoteToFile(Uri fileUri) {
-        try {
-            // 获取笔记内容
-            String noteContent = mText.getText().toString();
-
-            // 打开输出流并写入数据
-            try (OutputStream outputStream = getContentResolver().openOutputStream(fileUri)) {
-                if (outputStream != null) {
-                    outputStream.write(noteContent.getBytes());
-                    outputStream.flush();
-                    Toast.makeText(this, "笔记导出成功", Toast.LENGTH_SHORT).show();
-                } else {
-                    Toast.makeText(this, "无法打开文件", Toast.LENGTH_SHORT).show();
+    /*
+     * Writes the note to a document on a background thread, like the export of every note in
+     * NotesList. The text is copied on the UI thread, since the editor may change it meanwhile,
+     * and encoded a chunk at a time as it is written.
+     */
+    private void saveNoteToFile(final Uri fileUri) {
+        final ContentResolver resolver = getContentResolver();
+        final String text = mText.getText().toString();
+        new Thread(new Runnable() {
+            @Override
+            public void run() {
+                String message;
+                try {
+                    OutputStream outputStream = resolver.openOutputStream(fileUri);
+                    if (outputStream != null) {
+                        try {
+                            NoteStreams.writeUtf8(text, outputStream);
+                        } finally {
+                            outputStream.close();
+                        }
+                        message = "笔记导出成功";
+                    } else {
+                        message = "无法打开文件";
+                    }
+                } catch (IOException e) {
+                    Log.w(TAG, "Failed to export the note to " + fileUri, e);
+                    message = "导出失败：" + e.getMessage();
+                } catch (RuntimeException e) {
+                    // Thrown by the resolver, for example when the document is gone
+                    Log.w(TAG, "Failed to export the note to " + fileUri, e);
+                    message = "导出失败：" + e.getMessage();
                 }
+                final String result = message;
+                runOnUiThread(new Runnable() {
+                    @Override
+                    public void run() {
+                        Toast.makeText(NoteEditor.this, result, Toast.LENGTH_SHORT).show();
+                    }
+                });
             }
-        } catch (Exception e) {
-            e.printStackTrace();
-            Toast.makeText(this, "导出失败：" + e.getMessage(), Toast.LENGTH_SHORT).show();
-        }
+        }, "NoteExport").start();
     }
 
     private void openFilePicker(String fileName) {
@@ -672,48 +1050,18 @@ public class NoteEditor extends Activity {
     }
 
 
-    @Override
-    protected void onResume() {
-        super.onResume();
-
-        if (mCursor != null) {
-
-            mCursor.requery();
-
-            mCursor.moveToFirst();
-
-            if (mState == STATE_EDIT) {
-
-                int colTitleIndex = mCursor.getColumnIndex(NotePad.Notes.COLUMN_NAME_TITLE);
-                String title = mCursor.getString(colTitleIndex);
-                Resources res = getResources();
-                String text = String.format(res.getString(R.string.title_edit), title);
-                setTitle(text);
-
-            } else if (mState == STATE_INSERT) {
-                setTitle(getText(R.string.title_create));
-            }
-
-            int colNoteIndex = mCursor.getColumnIndex(NotePad.Notes.COLUMN_NAME_NOTE);
-            String note = mCursor.getString(colNoteIndex);
-            mText.setTextKeepState(note);
-
-            // Stores the original note text, to allow the user to revert changes.
-            if (mOriginalContent == null) {
-                mOriginalContent = note;
-            }
-
-        } else {
-            setTitle(getText(R.string.error_title));
-            mText.setText(getText(R.string.error_message));
-        }
-    }
-
     @Override
     protected void onSaveInstanceState(Bundle outState) {
-        // Save away the original text, so we still have it if the activity
+        super.onSaveInstanceState(outState);
+        // Save away the original revision, so we still have it if the activity
         // needs to be killed while paused.
-        outState.putString(ORIGINAL_CONTENT, mOriginalContent);
+        outState.putInt(ORIGINAL_REVISION, mOriginalRevision);
+
+        // Keeps the note that was inserted, so that a recreated editor does not insert another
+        outState.putParcelable(NOTE_URI, mUri);
+        outState.putInt(NOTE_STATE, mState);
+        outState.putString(SHOWN_TITLE, mShownTitle);
+        outState.putString(SHOWN_NOTE, mShownNote);
     }
 
     @Override
@@ -730,13 +1078,14 @@ public class NoteEditor extends Activity {
                 setResult(RESULT_CANCELED);
                 deleteNote();
 
-            } else if (mState == STATE_EDIT) {
-                // Creates a map to contain the new values for the columns
-                updateNote(text, null);
-            } else if (mState == STATE_INSERT) {
-                updateNote(text, text);
+            } else {
+                // Saves the edits the autosave has not written yet, if there are any
+                mAutosave.flush();
                 mState = STATE_EDIT;
-          }
+            }
+        } else if (isFinishing() && mState == STATE_INSERT) {
+            // Left before the new, still empty note was loaded
+            deleteNote();
         }
     }
 
@@ -760,10 +1109,8 @@ public class NoteEditor extends Activity {
     @Override
     public boolean onPrepareOptionsMenu(Menu menu) {
         // Check if note has changed and enable/disable the revert option
-        int colNoteIndex = mCursor.getColumnIndex(NotePad.Notes.COLUMN_NAME_NOTE);
-        String savedNote = mCursor.getString(colNoteIndex);
         String currentNote = mText.getText().toString();
-        if (savedNote.equals(currentNote)) {
+        if (mShownNote == null || mShownNote.equals(currentNote)) {
             menu.findItem(R.id.menu_revert).setVisible(false);
         } else {
             menu.findItem(R.id.menu_revert).setVisible(true);
@@ -779,8 +1126,7 @@ public class NoteEditor extends Activity {
                 onBackPressed();
                 break;
             case R.id.menu_save:
-                String text = mText.getText().toString();
-                updateNote(text, null);
+                mAutosave.flush();
                 finish();
                 break;
             case R.id.menu_delete:
@@ -794,6 +1140,10 @@ public class NoteEditor extends Activity {
         return super.onOptionsItemSelected(item);
     }
 
+    /*
+     * Fills the new note from the clipboard. A note on the clipboard is read in the background,
+     * and onQueryComplete() passes its text on to pasteNote().
+     */
     private final void performPaste() {
 
         ClipboardManager clipboard = (ClipboardManager)
@@ -802,52 +1152,52 @@ public class NoteEditor extends Activity {
         ContentResolver cr = getContentResolver();
 
         ClipData clip = clipboard.getPrimaryClip();
-        if (clip != null) {
-
-            String text=null;
-            String title=null;
-
-            ClipData.Item item = clip.getItemAt(0);
-
-            Uri uri = item.getUri();
-
-            if (uri != null && NotePad.Notes.CONTENT_ITEM_TYPE.equals(cr.getType(uri))) {
-
-                Cursor orig = cr.query(
-                        uri,            // URI for the content provider
-                        PROJECTION,     // Get the columns referred to in the projection
-                        null,           // No selection variables
-                        null,           // No selection variables, so no criteria are needed
-                        null            // Use the default sort order
-                );
-
-                if (orig != null) {
-                    if (orig.moveToFirst()) {
-                        int colNoteIndex = mCursor.getColumnIndex(NotePad.Notes.COLUMN_NAME_NOTE);
-                        int colTitleIndex = mCursor.getColumnIndex(NotePad.Notes.COLUMN_NAME_TITLE);
-                        text = orig.getString(colNoteIndex);
-                        title = orig.getString(colTitleIndex);
-                    }
+        if (clip == null) {
+            mState = STATE_EDIT;
+            startLoading();
+            return;
+        }
 
-                    // Closes the cursor.
-                    orig.close();
-                }
-            }
+        ClipData.Item item = clip.getItemAt(0);
 
-            if (text == null) {
-                text = item.coerceToText(this).toString();
-            }
+        Uri uri = item.getUri();
 
-            updateNote(text, title);
+        if (uri != null && NotePad.Notes.CONTENT_ITEM_TYPE.equals(cr.getType(uri))) {
+            mQueryHandler.startQuery(
+                    TOKEN_PASTE_QUERY,
+                    item,           // Falls back to the clip's text if the note is gone
+                    uri,            // URI for the content provider
+                    PROJECTION,     // Get the columns referred to in the projection
+                    null,           // No selection variables
+                    null,           // No selection variables, so no criteria are needed
+                    null            // Use the default sort order
+            );
+        } else {
+            pasteNote(item.coerceToText(this).toString());
         }
     }
 
+    private void pasteNote(String text) {
+        updateNote(TOKEN_PASTE_UPDATE, text, null);
+        mState = STATE_EDIT;
+        // The note is loaded after the update, and will match what is shown here
+        mText.setText(text);
+    }
+
     /**
      * Replaces the current note contents with the text and title provided as arguments.
      * @param text The new note contents to use.
      * @param title The new note title to use
      */
     private final void updateNote(String text, String title) {
+        updateNote(TOKEN_WRITE, text, title);
+    }
+
+    private final void updateNote(int token, String text, String title) {
+        if (mUri == null) {
+            // The new note has not been inserted yet
+            return;
+        }
         // 获取 R.id.title1 的内容作为标题
         TextView titleView = (TextView) findViewById(R.id.title1);
         title = titleView.getText().toString(); // 获取标题内容
@@ -876,25 +1226,32 @@ public class NoteEditor extends Activity {
         }
         values.put(NotePad.Notes.COLUMN_NAME_NOTE, text);
 
-        getContentResolver().update(
+        mQueryHandler.startUpdate(
+                token,
+                null,    // No cookie is needed.
                 mUri,    // The URI for the record to update.
                 values,  // The map of column names and new values to apply to them.
                 null,    // No selection criteria are used, so no where columns are necessary.
                 null     // No where columns are used, so no where arguments are necessary.
             );
 
-
+        // The loader delivers this note again once it is written; it is not an outside change
+        mShownTitle = title;
+        mShownNote = text;
     }
 
     private final void cancelNote() {
+        mAutosave.cancel();
         if (mCursor != null) {
             if (mState == STATE_EDIT) {
-                // Put the original note text back into the database
-                mCursor.close();
+                // Reverts the note to its revision when it was opened. A note without revisions
+                // gets its first one, the original, when the editor first saves it.
+                getLoaderManager().destroyLoader(LOADER_NOTE);
                 mCursor = null;
-                ContentValues values = new ContentValues();
-                values.put(NotePad.Notes.COLUMN_NAME_NOTE, mOriginalContent);
-                getContentResolver().update(mUri, values, null, null);
+                Uri original = NotePad.Revisions.getRevisionUri(ContentUris.parseId(mUri),
+                        Math.max(mOriginalRevision, 1));
+                mQueryHandler.startUpdate(TOKEN_WRITE, null, original, new ContentValues(), null,
+                        null);
             } else if (mState == STATE_INSERT) {
                 // We inserted an empty note, make sure to delete it
                 deleteNote();
@@ -908,10 +1265,12 @@ public class NoteEditor extends Activity {
      * Take care of deleting a note.  Simply deletes the entry.
      */
     private final void deleteNote() {
-        if (mCursor != null) {
-            mCursor.close();
+        mAutosave.cancel();
+        if (mUri != null) {
+            getLoaderManager().destroyLoader(LOADER_NOTE);
             mCursor = null;
-            getContentResolver().delete(mUri, null, null);
+            mQueryHandler.startDelete(TOKEN_WRITE, null, mUri, null, null);
+            mUri = null;
             mText.setText("");
         }
     }
@@ -0,0 +1,601 @@
+/*
+ * Copyright (C) 2007 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.android.notepad;
+
+import android.content.ContentResolver;
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.net.Uri;
+import android.os.Process;
+import android.provider.OpenableColumns;
+import android.util.Log;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.CharacterCodingException;
+import java.nio.charset.Charset;
+import java.nio.charset.CodingErrorAction;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+
+/**
+ * Imports text and Markdown files into NotePadProvider, one note per file, from a directory
+ * tree, a ZIP archive, or documents picked by the user. Archives written by
+ * {@link NoteStreams#writeArchive} are read back with their titles, categories and dates.
+ *
+ * The files are read one after the other by the calling thread, decoded and parsed into notes
+ * by a pool of workers, one per core, and inserted by a single writer thread with bulkInsert(),
+ * so each batch of notes is one transaction. The queues between the stages are bounded, and the
+ * files in flight are limited to {@link #BUDGET_BYTES} in all: when the writer falls behind,
+ * the workers and then the reader wait for it, so memory does not grow with the import.
+ *
+ * Calls block until the import is done, and must not be made on the UI thread. If a file
+ * cannot be read, the notes read before it are still inserted, and then the error is thrown.
+ */
+final class NoteImporter {
+
+    // For logging and debugging
+    private static final String TAG = "NoteImporter";
+
+    /**
+     * The most notes inserted by one bulkInsert() call
+     */
+    static final int BATCH_NOTES = 500;
+
+    /**
+     * The most bytes of files read but not yet inserted. A batch is inserted early once it
+     * holds half of them, and a file larger than half counts as half.
+     */
+    static final int BUDGET_BYTES = 16 * 1024 * 1024;
+
+    /**
+     * The most characters of a title taken from the first line of a file
+     */
+    static final int MAX_TITLE_LENGTH = 100;
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    // The usual encoding of Chinese text files that are not UTF-8
+    private static final Charset GB18030 = Charset.forName("GB18030");
+
+    /**
+     * The outcome of an import.
+     */
+    static final class Result {
+        /** The number of notes inserted */
+        final int imported;
+
+        /** The number of files that could not be parsed or inserted */
+        final int failed;
+
+        Result(int imported, int failed) {
+            this.imported = imported;
+            this.failed = failed;
+        }
+    }
+
+    // Put once for each worker when no more files follow, and passed on to the writer
+    private static final Object END_OF_FILES = new Object();
+
+    /*
+     * Reads the files of an import and hands them to a run.
+     */
+    private interface Reader {
+        void read(Run run) throws IOException, InterruptedException;
+    }
+
+    private final ContentResolver mResolver;
+    private final int mWorkers;
+
+    NoteImporter(ContentResolver resolver) {
+        this(resolver, Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * @param workers the number of threads decoding and parsing files
+     */
+    NoteImporter(ContentResolver resolver, int workers) {
+        mResolver = resolver;
+        mWorkers = Math.max(1, workers);
+    }
+
+    /**
+     * Imports the text and Markdown files in a directory and its subdirectories, in name order.
+     * Hidden files and directories are skipped.
+     */
+    Result importDirectory(final File directory) throws IOException, InterruptedException {
+        return run(new Reader() {
+            @Override
+            public void read(Run run) throws IOException, InterruptedException {
+                ArrayDeque<File> directories = new ArrayDeque<File>();
+                directories.push(directory);
+                while (!directories.isEmpty()) {
+                    File[] files = directories.pop().listFiles();
+                    if (files == null) {
+                        continue;
+                    }
+                    Arrays.sort(files);
+                    // Pushed in reverse, so that subdirectories are read in name order
+                    for (int i = files.length - 1; i >= 0; i--) {
+                        if (files[i].isDirectory() && !files[i].getName().startsWith(".")) {
+                            directories.push(files[i]);
+                        }
+                    }
+                    for (File file : files) {
+                        if (file.isFile() && isNoteFile(file.getName())) {
+                            InputStream in = new FileInputStream(file);
+                            try {
+                                if (!run.submit(file.getName(), file.lastModified(),
+                                        readFully(in))) {
+                                    return;
+                                }
+                            } finally {
+                                in.close();
+                            }
+                        }
+                    }
+                }
+            }
+        });
+    }
+
+    /**
+     * Imports the text and Markdown files in a ZIP archive, in the order of the archive.
+     */
+    Result importZip(final InputStream in) throws IOException, InterruptedException {
+        return run(new Reader() {
+            @Override
+            public void read(Run run) throws IOException, InterruptedException {
+                readZip(run, in);
+            }
+        });
+    }
+
+    /**
+     * Imports documents, such as those picked with ACTION_OPEN_DOCUMENT. A document whose name
+     * ends in .zip is read as an archive, and any other as a single text file.
+     */
+    Result importDocuments(final List<Uri> documents) throws IOException, InterruptedException {
+        return run(new Reader() {
+            @Override
+            public void read(Run run) throws IOException, InterruptedException {
+                for (Uri document : documents) {
+                    String name = displayName(document);
+                    InputStream in = mResolver.openInputStream(document);
+                    if (in == null) {
+                        throw new FileNotFoundException("Unable to open " + document);
+                    }
+                    try {
+                        if (name.toLowerCase(Locale.US).endsWith(".zip")) {
+                            if (!readZip(run, in)) {
+                                return;
+                            }
+                        } else if (!run.submit(name, 0, readFully(in))) {
+                            return;
+                        }
+                    } finally {
+                        in.close();
+                    }
+                }
+            }
+        });
+    }
+
+    /*
+     * Starts the workers and the writer, reads the files on this thread, and waits for the
+     * notes to be inserted.
+     */
+    private Result run(Reader reader) throws IOException, InterruptedException {
+        Run run = new Run();
+        ExecutorService executor = Executors.newFixedThreadPool(mWorkers + 1,
+                new ThreadFactory() {
+                    private final AtomicInteger mCount = new AtomicInteger();
+
+                    @Override
+                    public Thread newThread(final Runnable r) {
+                        return new Thread(new Runnable() {
+                            @Override
+                            public void run() {
+                                Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                                r.run();
+                            }
+                        }, TAG + "-" + mCount.incrementAndGet());
+                    }
+                });
+        try {
+            for (int i = 0; i < mWorkers; i++) {
+                executor.execute(run.mWorker);
+            }
+            Future<Integer> writer = executor.submit(run.mWriter);
+            IOException readError = null;
+            try {
+                reader.read(run);
+            } catch (IOException e) {
+                readError = e;
+            } finally {
+                // Lets the workers, and then the writer, finish the files already read
+                for (int i = 0; i < mWorkers; i++) {
+                    run.mFiles.put(END_OF_FILES);
+                }
+            }
+
+            int imported;
+            try {
+                imported = writer.get();
+            } catch (ExecutionException e) {
+                throw new IllegalStateException("Import writer failed", e.getCause());
+            }
+            if (run.mWriteError != null) {
+                throw new IOException("Failed to insert the imported notes", run.mWriteError);
+            }
+            if (readError != null) {
+                throw readError;
+            }
+            return new Result(imported, run.mFailed.get());
+        } finally {
+            // Only has work to stop if the import was interrupted or failed
+            executor.shutdownNow();
+        }
+    }
+
+    /*
+     * Hands the note files of a ZIP archive to a run. Returns false if the run has stopped.
+     */
+    private static boolean readZip(Run run, InputStream in)
+            throws IOException, InterruptedException {
+        ZipInputStream zip = new ZipInputStream(new BufferedInputStream(in));
+        ZipEntry entry;
+        while ((entry = zip.getNextEntry()) != null) {
+            String name = entry.getName();
+            name = name.substring(name.lastIndexOf('/') + 1);
+            if (entry.isDirectory() || !isNoteFile(name)
+                    || entry.getName().startsWith("__MACOSX/")) {
+                continue;
+            }
+            if (!run.submit(name, entry.getTime(), readFully(zip))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /*
+     * Returns the display name of a document, or its last path segment if it has none.
+     */
+    private String displayName(Uri document) {
+        Cursor c = mResolver.query(document, new String[] { OpenableColumns.DISPLAY_NAME },
+                null, null, null);
+        if (c != null) {
+            try {
+                if (c.moveToFirst() && !c.isNull(0)) {
+                    return c.getString(0);
+                }
+            } finally {
+                c.close();
+            }
+        }
+        String segment = document.getLastPathSegment();
+        return segment != null ? segment : "";
+    }
+
+    /**
+     * Returns true if a file name is that of a text or Markdown file, and not a hidden file.
+     */
+    static boolean isNoteFile(String name) {
+        String lower = name.toLowerCase(Locale.US);
+        return !lower.startsWith(".")
+                && (lower.endsWith(".txt") || lower.endsWith(".md")
+                        || lower.endsWith(".markdown"));
+    }
+
+    /**
+     * Returns the values of the note imported from a file.
+     *
+     * An entry of an archive written by {@link NoteStreams#writeArchive} keeps the title,
+     * category and dates of its header, and the rest of the entry is the note. Otherwise the
+     * whole file is the note, and its title is the heading on the first line of a Markdown file,
+     * or else the file name.
+     *
+     * @param modified the modification time of the file, or 0 if it is not known
+     */
+    static ContentValues parse(String name, long modified, byte[] bytes) {
+        String text = decode(bytes);
+        String title = null;
+        String category = null;
+        long created = 0;
+
+        int headerEnd = text.startsWith(NoteStreams.HEADER_TITLE) ? text.indexOf("\n\n") : -1;
+        if (headerEnd >= 0) {
+            SimpleDateFormat dateFormat = NoteStreams.newHeaderDateFormat();
+            for (String line : text.substring(0, headerEnd).split("\n")) {
+                if (line.startsWith(NoteStreams.HEADER_TITLE)) {
+                    title = line.substring(NoteStreams.HEADER_TITLE.length());
+                } else if (line.startsWith(NoteStreams.HEADER_CATEGORY)) {
+                    category = line.substring(NoteStreams.HEADER_CATEGORY.length());
+                } else if (line.startsWith(NoteStreams.HEADER_CREATED)) {
+                    created = parseDate(dateFormat,
+                            line.substring(NoteStreams.HEADER_CREATED.length()), created);
+                } else if (line.startsWith(NoteStreams.HEADER_MODIFIED)) {
+                    modified = parseDate(dateFormat,
+                            line.substring(NoteStreams.HEADER_MODIFIED.length()), modified);
+                }
+            }
+            text = text.substring(headerEnd + 2);
+        } else {
+            String lower = name.toLowerCase(Locale.US);
+            if (lower.endsWith(".md") || lower.endsWith(".markdown")) {
+                title = markdownHeading(text);
+            }
+            if (title == null || title.isEmpty()) {
+                int dot = name.lastIndexOf('.');
+                title = dot > 0 ? name.substring(0, dot) : name;
+            }
+        }
+
+        if (modified <= 0) {
+            modified = System.currentTimeMillis();
+        }
+        if (created <= 0 || created > modified) {
+            created = modified;
+        }
+
+        ContentValues values = new ContentValues();
+        values.put(NotePad.Notes.COLUMN_NAME_TITLE, title);
+        values.put(NotePad.Notes.COLUMN_NAME_NOTE, text);
+        if (category != null && !category.isEmpty()) {
+            values.put("category", category);
+        }
+        values.put(NotePad.Notes.COLUMN_NAME_CREATE_DATE, created);
+        values.put(NotePad.Notes.COLUMN_NAME_MODIFICATION_DATE, modified);
+        return values;
+    }
+
+    /**
+     * Decodes the bytes of a text file. A byte order mark selects UTF-8 or UTF-16; without one,
+     * text that is valid UTF-8 is read as UTF-8, and anything else as GB18030.
+     */
+    static String decode(byte[] bytes) {
+        int length = bytes.length;
+        if (length >= 3 && (bytes[0] & 0xff) == 0xef && (bytes[1] & 0xff) == 0xbb
+                && (bytes[2] & 0xff) == 0xbf) {
+            return new String(bytes, 3, length - 3, UTF_8);
+        }
+        if (length >= 2 && (bytes[0] & 0xff) == 0xff && (bytes[1] & 0xff) == 0xfe) {
+            return new String(bytes, 2, length - 2, Charset.forName("UTF-16LE"));
+        }
+        if (length >= 2 && (bytes[0] & 0xff) == 0xfe && (bytes[1] & 0xff) == 0xff) {
+            return new String(bytes, 2, length - 2, Charset.forName("UTF-16BE"));
+        }
+        try {
+            return UTF_8.newDecoder()
+                    .onMalformedInput(CodingErrorAction.REPORT)
+                    .onUnmappableCharacter(CodingErrorAction.REPORT)
+                    .decode(ByteBuffer.wrap(bytes))
+                    .toString();
+        } catch (CharacterCodingException e) {
+            return new String(bytes, GB18030);
+        }
+    }
+
+    /*
+     * Returns the text of a heading on the first line that is not blank, or null if that line is
+     * not a heading.
+     */
+    private static String markdownHeading(String text) {
+        int start = 0;
+        while (start < text.length()) {
+            int end = text.indexOf('\n', start);
+            if (end < 0) {
+                end = text.length();
+            }
+            String line = text.substring(start, end).trim();
+            if (!line.isEmpty()) {
+                if (!line.startsWith("#")) {
+                    return null;
+                }
+                int i = 0;
+                while (i < line.length() && line.charAt(i) == '#') {
+                    i++;
+                }
+                String heading = line.substring(i).trim();
+                return heading.length() > MAX_TITLE_LENGTH
+                        ? heading.substring(0, MAX_TITLE_LENGTH) : heading;
+            }
+            start = end + 1;
+        }
+        return null;
+    }
+
+    private static long parseDate(SimpleDateFormat format, String text, long fallback) {
+        try {
+            return format.parse(text.trim()).getTime();
+        } catch (ParseException e) {
+            return fallback;
+        }
+    }
+
+    private static byte[] readFully(InputStream in) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buffer = new byte[NoteStreams.BUFFER_SIZE];
+        int count;
+        while ((count = in.read(buffer)) > 0) {
+            out.write(buffer, 0, count);
+        }
+        return out.toByteArray();
+    }
+
+    /*
+     * The queues, threads and counters of one import.
+     */
+    private final class Run {
+
+        /*
+         * A file read and waiting to be parsed
+         */
+        private final class PendingFile {
+            final String mName;
+            final long mModified;
+            final byte[] mBytes;
+            final int mPermits;
+
+            PendingFile(String name, long modified, byte[] bytes, int permits) {
+                mName = name;
+                mModified = modified;
+                mBytes = bytes;
+                mPermits = permits;
+            }
+        }
+
+        /*
+         * A note parsed and waiting to be inserted. Holds the budget of its file until then.
+         */
+        private final class ParsedNote {
+            final ContentValues mValues;
+            final int mPermits;
+
+            ParsedNote(ContentValues values, int permits) {
+                mValues = values;
+                mPermits = permits;
+            }
+        }
+
+        final BlockingQueue<Object> mFiles = new ArrayBlockingQueue<Object>(mWorkers * 2);
+        final BlockingQueue<Object> mNotes = new ArrayBlockingQueue<Object>(BATCH_NOTES);
+        final Semaphore mBudget = new Semaphore(BUDGET_BYTES);
+        final AtomicInteger mFailed = new AtomicInteger();
+
+        // The first failure of bulkInsert(). Once set, the run stops reading files, and the
+        // writer drops the notes still in flight.
+        volatile RuntimeException mWriteError;
+
+        /*
+         * Waits until the budget allows another file in flight, and queues it for the workers.
+         * Returns false if the run has stopped, and no more files should be read.
+         */
+        boolean submit(String name, long modified, byte[] bytes) throws InterruptedException {
+            if (mWriteError != null) {
+                return false;
+            }
+            int permits = Math.min(bytes.length, BUDGET_BYTES / 2);
+            mBudget.acquire(permits);
+            mFiles.put(new PendingFile(name, modified, bytes, permits));
+            return true;
+        }
+
+        final Runnable mWorker = new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    while (true) {
+                        Object item = mFiles.take();
+                        if (item == END_OF_FILES) {
+                            mNotes.put(END_OF_FILES);
+                            return;
+                        }
+                        PendingFile file = (PendingFile) item;
+                        ContentValues values = null;
+                        try {
+                            values = parse(file.mName, file.mModified, file.mBytes);
+                        } catch (RuntimeException e) {
+                            Log.w(TAG, "Failed to parse " + file.mName, e);
+                        }
+                        if (values == null) {
+                            mFailed.incrementAndGet();
+                            mBudget.release(file.mPermits);
+                        } else {
+                            mNotes.put(new ParsedNote(values, file.mPermits));
+                        }
+                    }
+                } catch (InterruptedException e) {
+                    // The import was stopped
+                }
+            }
+        };
+
+        final Callable<Integer> mWriter = new Callable<Integer>() {
+            private final ArrayList<ContentValues> mBatch = new ArrayList<ContentValues>();
+            private int mBatchPermits;
+            private int mImported;
+
+            @Override
+            public Integer call() throws InterruptedException {
+                int finishedWorkers = 0;
+                while (finishedWorkers < mWorkers) {
+                    Object item = mNotes.take();
+                    if (item == END_OF_FILES) {
+                        finishedWorkers++;
+                        continue;
+                    }
+                    ParsedNote note = (ParsedNote) item;
+                    mBatch.add(note.mValues);
+                    mBatchPermits += note.mPermits;
+                    // Inserting at half the budget means the reader, waiting for budget, can
+                    // never wait on a batch that is waiting for more notes
+                    if (mBatch.size() == BATCH_NOTES || mBatchPermits >= BUDGET_BYTES / 2) {
+                        flush();
+                    }
+                }
+                flush();
+                return mImported;
+            }
+
+            private void flush() {
+                if (mBatch.isEmpty()) {
+                    return;
+                }
+                if (mWriteError == null) {
+                    try {
+                        mImported += mResolver.bulkInsert(NotePad.Notes.CONTENT_URI,
+                                mBatch.toArray(new ContentValues[mBatch.size()]));
+                    } catch (RuntimeException e) {
+                        Log.w(TAG, "Failed to insert " + mBatch.size() + " notes", e);
+                        mWriteError = e;
+                        mFailed.addAndGet(mBatch.size());
+                    }
+                } else {
+                    mFailed.addAndGet(mBatch.size());
+                }
+                mBatch.clear();
+                mBudget.release(mBatchPermits);
+                mBatchPermits = 0;
+            }
+        };
+    }
+}
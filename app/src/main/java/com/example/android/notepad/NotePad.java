@@ -16,6 +16,7 @@
 
 package com.example.android.notepad;
 
+import android.content.ContentUris;
 import android.net.Uri;
 import android.provider.BaseColumns;
 
@@ -73,6 +74,11 @@ public final class NotePad {
          */
         public static final int NOTE_ID_PATH_POSITION = 1;
 
+        /**
+         * Path part for the full-text search URI
+         */
+        private static final String PATH_SEARCH = "/notes/search";
+
         /**
          * Path part for the Live Folder URI
          */
@@ -98,6 +104,37 @@ public final class NotePad {
         public static final Uri CONTENT_ID_URI_PATTERN
             = Uri.parse(SCHEME + AUTHORITY + PATH_NOTE_ID + "/#");
 
+        /**
+         * The content:// style URL for a ranked full-text search over note titles and contents.
+         * Callers pass the search terms in the {@link #QUERY_PARAMETER_SEARCH} query parameter.
+         */
+        public static final Uri CONTENT_SEARCH_URI = Uri.parse(SCHEME + AUTHORITY + PATH_SEARCH);
+
+        /**
+         * Query parameter of {@link #CONTENT_SEARCH_URI} holding the user's search terms
+         */
+        public static final String QUERY_PARAMETER_SEARCH = "q";
+
+        /**
+         * Query parameter of {@link #CONTENT_URI} limiting the number of notes returned. When it
+         * is present, notes are returned in keyset order, newest modification date first and
+         * then by descending {@link #_ID}, and the caller's sort order is ignored.
+         */
+        public static final String QUERY_PARAMETER_LIMIT = "limit";
+
+        /**
+         * Query parameter of {@link #CONTENT_URI} holding the modification date of the last note
+         * of the previous page. Only notes that come after that note in keyset order are
+         * returned. Must be used together with {@link #QUERY_PARAMETER_BEFORE_ID}.
+         */
+        public static final String QUERY_PARAMETER_BEFORE_MODIFIED = "before_modified";
+
+        /**
+         * Query parameter of {@link #CONTENT_URI} holding the ID of the last note of the
+         * previous page. Must be used together with {@link #QUERY_PARAMETER_BEFORE_MODIFIED}.
+         */
+        public static final String QUERY_PARAMETER_BEFORE_ID = "before_id";
+
         /**
          * The content Uri pattern for a notes listing for live folders
          */
@@ -119,6 +156,13 @@ public final class NotePad {
          */
         public static final String CONTENT_ITEM_TYPE = "vnd.android.cursor.item/vnd.google.note";
 
+        /**
+         * The MIME type of the stream of {@link #CONTENT_URI}, opened with
+         * ContentResolver.openTypedAssetFileDescriptor(): a ZIP archive of every note, with a
+         * text entry per note holding its title, category and dates, a blank line, and the note.
+         */
+        public static final String ARCHIVE_TYPE = "application/zip";
+
         /**
          * The default sort order for this table
          */
@@ -140,6 +184,21 @@ public final class NotePad {
          */
         public static final String COLUMN_NAME_NOTE = "note";
 
+        /**
+         * Column name for a preview of the note content: its first characters, with each run
+         * of whitespace replaced by a single space. The provider maintains it from the note
+         * column on every insert and update; values written to it are ignored.
+         * <P>Type: TEXT</P>
+         */
+        public static final String COLUMN_NAME_SNIPPET = "snippet";
+
+        /**
+         * Column name for the category of the note: the name of a category in
+         * {@link Categories}, or null for a note in no category
+         * <P>Type: TEXT</P>
+         */
+        public static final String COLUMN_NAME_CATEGORY = "category";
+
         /**
          * Column name for the creation timestamp
          * <P>Type: INTEGER (long from System.curentTimeMillis())</P>
@@ -151,5 +210,280 @@ public final class NotePad {
          * <P>Type: INTEGER (long from System.curentTimeMillis())</P>
          */
         public static final String COLUMN_NAME_MODIFICATION_DATE = "modified";
+
+        /**
+         * Column name for the number of the note's latest revision in {@link Revisions}, or 0
+         * if none has been recorded yet. Read-only.
+         * <P>Type: INTEGER</P>
+         */
+        public static final String COLUMN_NAME_REVISION = "revision";
+    }
+
+    /**
+     * Revisions table contract. Every update that changes the title or text of a note records
+     * a revision of it, numbered from 1 for each note. The first update of a note that has no
+     * revisions also records the note as it was before, as revision 1. An update made within a
+     * minute of the latest revision, such as the editor's autosave while the user types,
+     * replaces that revision instead of adding one, unless it is revision 1.
+     *
+     * Revisions are read-only, but updating the URI of a revision reverts its note to it: the
+     * note gets the revision's title and text, and a new revision is recorded. The values of the
+     * update, such as a modification date, are applied to the note as well.
+     */
+    public static final class Revisions implements BaseColumns {
+
+        // This class cannot be instantiated
+        private Revisions() {}
+
+        /**
+         * The table name offered by this provider
+         */
+        public static final String TABLE_NAME = "note_revisions";
+
+        /**
+         * The path segment, after a note URI, of the note's revisions
+         */
+        public static final String PATH_REVISIONS = "revisions";
+
+        /**
+         * The MIME type of the revisions of a note.
+         */
+        public static final String CONTENT_TYPE =
+                "vnd.android.cursor.dir/vnd.google.note.revision";
+
+        /**
+         * The MIME type of a single revision.
+         */
+        public static final String CONTENT_ITEM_TYPE =
+                "vnd.android.cursor.item/vnd.google.note.revision";
+
+        /**
+         * The default sort order of the revisions of a note: the latest first
+         */
+        public static final String DEFAULT_SORT_ORDER = "revision DESC";
+
+        /**
+         * Column name for the ID of the revision's note
+         * <P>Type: INTEGER</P>
+         */
+        public static final String COLUMN_NAME_NOTE_ID = "note_id";
+
+        /**
+         * Column name for the revision number, from 1 for each note
+         * <P>Type: INTEGER</P>
+         */
+        public static final String COLUMN_NAME_REVISION = "revision";
+
+        /**
+         * Column name for the time the revision was saved
+         * <P>Type: INTEGER (long from System.curentTimeMillis())</P>
+         */
+        public static final String COLUMN_NAME_CREATE_DATE = "created";
+
+        /**
+         * Column name for the title of the note in this revision
+         * <P>Type: TEXT</P>
+         */
+        public static final String COLUMN_NAME_TITLE = "title";
+
+        /**
+         * Column name for the text of the note in this revision. Only available on the URI of
+         * a single revision, where it is rebuilt from the stored deltas.
+         * <P>Type: TEXT</P>
+         */
+        public static final String COLUMN_NAME_NOTE = "note";
+
+        /**
+         * Column name for the length of the text in this revision, in UTF-8 bytes
+         * <P>Type: INTEGER</P>
+         */
+        public static final String COLUMN_NAME_LENGTH = "length";
+
+        /**
+         * Column name for the bytes the revision takes in the database. Only available on the
+         * URI of the revisions of a note.
+         * <P>Type: INTEGER</P>
+         */
+        public static final String COLUMN_NAME_SIZE = "size";
+
+        /**
+         * Column name for whether the revision is stored whole, 1, or as a delta from the
+         * previous revision, 0
+         * <P>Type: INTEGER</P>
+         */
+        public static final String COLUMN_NAME_SNAPSHOT = "snapshot";
+
+        /**
+         * Returns the URI of the revisions of a note.
+         */
+        public static Uri getContentUri(long noteId) {
+            return ContentUris.withAppendedId(Notes.CONTENT_ID_URI_BASE, noteId).buildUpon()
+                    .appendPath(PATH_REVISIONS)
+                    .build();
+        }
+
+        /**
+         * Returns the URI of a revision of a note.
+         */
+        public static Uri getRevisionUri(long noteId, int revision) {
+            return ContentUris.withAppendedId(getContentUri(noteId), revision);
+        }
+    }
+
+    /**
+     * Categories table contract. The notes in a category are those whose category column holds
+     * its name.
+     */
+    public static final class Categories implements BaseColumns {
+
+        // This class cannot be instantiated
+        private Categories() {}
+
+        /**
+         * The table name offered by this provider
+         */
+        public static final String TABLE_NAME = "category";
+
+        /**
+         * The content:// style URL for this table
+         */
+        public static final Uri CONTENT_URI = Uri.parse("content://" + AUTHORITY + "/categories");
+
+        /**
+         * 0-relative position of a category ID segment in the path part of a category ID URI
+         */
+        public static final int CATEGORY_ID_PATH_POSITION = 1;
+
+        /**
+         * The path segment, after a category URI, of the notes in the category
+         */
+        public static final String PATH_NOTES = "notes";
+
+        /**
+         * The MIME type of {@link #CONTENT_URI}.
+         */
+        public static final String CONTENT_TYPE =
+                "vnd.android.cursor.dir/vnd.google.note.category";
+
+        /**
+         * The MIME type of a single category.
+         */
+        public static final String CONTENT_ITEM_TYPE =
+                "vnd.android.cursor.item/vnd.google.note.category";
+
+        /**
+         * The default sort order for this table: in the order they were created
+         */
+        public static final String DEFAULT_SORT_ORDER = "_id";
+
+        /**
+         * Column name for the name of the category, unique
+         * <P>Type: TEXT</P>
+         */
+        public static final String COLUMN_NAME_NAME = "name";
+
+        /**
+         * Column name for the color of the category, such as "#FFFFFF"
+         * <P>Type: TEXT</P>
+         */
+        public static final String COLUMN_NAME_COLOR = "color";
+
+        /**
+         * Column name for the number of notes in the category. Kept by the provider, and
+         * ignored in inserts and updates.
+         * <P>Type: INTEGER</P>
+         */
+        public static final String COLUMN_NAME_COUNT = "count";
+
+        /**
+         * Returns the URI of the notes in a category. It takes the paging parameters of
+         * {@link Notes#CONTENT_URI}.
+         */
+        public static Uri getNotesUri(long categoryId) {
+            return ContentUris.withAppendedId(CONTENT_URI, categoryId).buildUpon()
+                    .appendPath(PATH_NOTES)
+                    .build();
+        }
+    }
+
+    /**
+     * Provider metrics contract. Each row holds the latency and throughput of one operation on
+     * one kind of URI since the provider process started.
+     */
+    public static final class Metrics {
+
+        // This class cannot be instantiated
+        private Metrics() {}
+
+        /**
+         * The content:// style URL for the metrics. Read-only.
+         */
+        public static final Uri CONTENT_URI = Uri.parse("content://" + AUTHORITY + "/metrics");
+
+        /**
+         * The MIME type of {@link #CONTENT_URI}.
+         */
+        public static final String CONTENT_TYPE = "vnd.android.cursor.dir/vnd.google.note.metrics";
+
+        /**
+         * The provider method, for {@link android.content.ContentResolver#call}, that writes the
+         * metrics to logcat under the tag "NotePadProvider".
+         */
+        public static final String METHOD_DUMP = "dump_metrics";
+
+        /**
+         * Column name for the operation: query, insert, bulk_insert, update or delete
+         * <P>Type: TEXT</P>
+         */
+        public static final String COLUMN_NAME_OPERATION = "operation";
+
+        /**
+         * Column name for the URI pattern the operation was called on, such as "notes/#", or
+         * "unknown" for a URI the provider does not handle
+         * <P>Type: TEXT</P>
+         */
+        public static final String COLUMN_NAME_URI = "uri";
+
+        /**
+         * Column name for the number of calls
+         * <P>Type: INTEGER</P>
+         */
+        public static final String COLUMN_NAME_CALLS = "calls";
+
+        /**
+         * Column name for the number of calls that threw an exception
+         * <P>Type: INTEGER</P>
+         */
+        public static final String COLUMN_NAME_ERRORS = "errors";
+
+        /**
+         * Column name for the total number of rows returned, inserted, updated or deleted. The
+         * rows a query returns are the rows its caller read, counted when it closed the cursor:
+         * all of them if it asked for the count, or else up to the furthest row it moved to.
+         * <P>Type: INTEGER</P>
+         */
+        public static final String COLUMN_NAME_ROWS = "rows";
+
+        /**
+         * Column name for the mean latency, in microseconds
+         * <P>Type: INTEGER</P>
+         */
+        public static final String COLUMN_NAME_MEAN_MICROS = "mean_us";
+
+        /**
+         * Column names for latency percentiles, in microseconds. Percentiles come from a
+         * log-linear histogram, so each is the upper bound of its bucket and is at most an
+         * eighth above the exact value.
+         * <P>Type: INTEGER</P>
+         */
+        public static final String COLUMN_NAME_P50_MICROS = "p50_us";
+        public static final String COLUMN_NAME_P90_MICROS = "p90_us";
+        public static final String COLUMN_NAME_P99_MICROS = "p99_us";
+
+        /**
+         * Column name for the highest latency, in microseconds
+         * <P>Type: INTEGER</P>
+         */
+        public static final String COLUMN_NAME_MAX_MICROS = "max_us";
     }
 }
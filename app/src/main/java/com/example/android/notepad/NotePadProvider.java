@@ -18,22 +18,33 @@ package com.example.android.notepad;
 
 import com.example.android.notepad.NotePad;
 
+import android.annotation.TargetApi;
 import android.content.ClipDescription;
 import android.content.ContentProvider;
+import android.content.ContentProviderOperation;
+import android.content.ContentProviderResult;
 import android.content.ContentUris;
 import android.content.ContentValues;
 import android.content.Context;
+import android.content.OperationApplicationException;
 import android.content.UriMatcher;
 import android.content.ContentProvider.PipeDataWriter;
 import android.content.res.AssetFileDescriptor;
 import android.content.res.Resources;
 import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.database.MatrixCursor;
 import android.database.SQLException;
 import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteOpenHelper;
 import android.database.sqlite.SQLiteQueryBuilder;
+import android.database.sqlite.SQLiteStatement;
 import android.net.Uri;
+import android.os.Build;
 import android.os.Bundle;
+import android.os.CancellationSignal;
+import android.os.Handler;
+import android.os.Looper;
 import android.os.ParcelFileDescriptor;
 import android.provider.LiveFolders;
 import android.text.TextUtils;
@@ -42,10 +53,12 @@ import android.util.Log;
 import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
 import java.io.IOException;
-import java.io.OutputStreamWriter;
-import java.io.PrintWriter;
-import java.io.UnsupportedEncodingException;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 
 /**
  * Provides access to a database of notes. Each note has a title, the note
@@ -63,7 +76,12 @@ public class NotePadProvider extends ContentProvider implements PipeDataWriter<C
     /**
      * The database version
      */
-    private static final int DATABASE_VERSION = 3;
+    private static final int DATABASE_VERSION = 9;
+
+    /**
+     * The FTS4 shadow table that indexes the title and note columns of the notes table
+     */
+    private static final String FTS_TABLE_NAME = NotePadSchema.FTS_TABLE_NAME;
 
     /**
      * A projection map used to select columns from the database
@@ -75,77 +93,418 @@ public class NotePadProvider extends ContentProvider implements PipeDataWriter<C
      */
     private static HashMap<String, String> sLiveFolderProjectionMap;
 
+    /**
+     * A projection map used to select note columns from the notes/FTS join of a search
+     */
+    private static HashMap<String, String> sSearchProjectionMap;
+
     private static HashMap<String, String> sCategoryProjectionMap;
+
+    /**
+     * A projection map for the revisions of a note. The text of a revision is only on the URI
+     * of a single revision, since it has to be rebuilt from deltas.
+     */
+    private static HashMap<String, String> sRevisionsProjectionMap;
+
+    /**
+     * The columns of a single revision, by default
+     */
+    private static final String[] REVISION_PROJECTION = new String[] {
+            NotePad.Revisions._ID,
+            NotePad.Revisions.COLUMN_NAME_NOTE_ID,
+            NotePad.Revisions.COLUMN_NAME_REVISION,
+            NotePad.Revisions.COLUMN_NAME_CREATE_DATE,
+            NotePad.Revisions.COLUMN_NAME_TITLE,
+            NotePad.Revisions.COLUMN_NAME_NOTE,
+            NotePad.Revisions.COLUMN_NAME_LENGTH,
+    };
     /**
-     * Standard projection for the interesting columns of a normal note.
+     * Projection for streaming a note. The content is left out: a long note does not fit in a
+     * cursor window, so it is copied to the stream in chunks instead.
      */
     private static final String[] READ_NOTE_PROJECTION = new String[] {
             NotePad.Notes._ID,               // Projection position 0, the note's id
-            NotePad.Notes.COLUMN_NAME_NOTE,  // Projection position 1, the note's content
-            NotePad.Notes.COLUMN_NAME_TITLE, // Projection position 2, the note's title
+            NotePad.Notes.COLUMN_NAME_TITLE, // Projection position 1, the note's title
+    };
+
+    /**
+     * Projection for archiving every note: the columns of the entry headers. The content is
+     * copied to the archive in chunks.
+     */
+    private static final String[] ARCHIVE_PROJECTION = new String[] {
+            NotePad.Notes._ID,
+            NotePad.Notes.COLUMN_NAME_TITLE,
+            "category",
+            NotePad.Notes.COLUMN_NAME_CREATE_DATE,
+            NotePad.Notes.COLUMN_NAME_MODIFICATION_DATE,
     };
-    private static final int READ_NOTE_NOTE_INDEX = 1;
-    private static final int READ_NOTE_TITLE_INDEX = 2;
+    /**
+     * The order in which pages of notes are returned. It is total, so a page can continue right
+     * after the last note of the previous one.
+     */
+    private static final String KEYSET_SORT_ORDER = NotePad.Notes.COLUMN_NAME_MODIFICATION_DATE
+            + " DESC, " + NotePad.Notes._ID + " DESC";
+
+    private static final int READ_NOTE_ID_INDEX = 0;
+    private static final int READ_NOTE_TITLE_INDEX = 1;
     private static final int NOTES = 1;
     private static final int NOTE_ID = 2;
     private static final int LIVE_FOLDER_NOTES = 3;
     private static final int CATEGORIES = 4;
     private static final int CATEGORY_ID = 5;
+    private static final int SEARCH = 6;
+    private static final int METRICS = 7;
+    private static final int NOTE_REVISIONS = 8;
+    private static final int NOTE_REVISION_ID = 9;
+    private static final int CATEGORY_NOTES = 10;
+
+    /**
+     * The names of the kinds of URI in the metrics, indexed by URI match code
+     */
+    private static final String[] URI_NAMES = {
+            "unknown",             // No match
+            "notes",               // NOTES
+            "notes/#",             // NOTE_ID
+            "live_folders/notes",  // LIVE_FOLDER_NOTES
+            "categories",          // CATEGORIES
+            "categories/#",        // CATEGORY_ID
+            "notes/search",        // SEARCH
+            "metrics",             // METRICS
+            "notes/#/revisions",   // NOTE_REVISIONS
+            "notes/#/revisions/#", // NOTE_REVISION_ID
+            "categories/#/notes",  // CATEGORY_NOTES
+    };
     private static final UriMatcher sUriMatcher;
     private DatabaseHelper mOpenHelper;
+
+    // The latency, row and error counts of the calls to the provider
+    private final ProviderMetrics mMetrics = new ProviderMetrics(URI_NAMES);
+
+    // Batches the change notifications of bursts of writes and of transactions
+    private NotificationCoalescer mNotifier;
     static {
         sUriMatcher = new UriMatcher(UriMatcher.NO_MATCH);
         sUriMatcher.addURI(NotePad.AUTHORITY, "categories", CATEGORIES);
         sUriMatcher.addURI(NotePad.AUTHORITY, "categories/#", CATEGORY_ID);
+        sUriMatcher.addURI(NotePad.AUTHORITY, "categories/#/notes", CATEGORY_NOTES);
         sUriMatcher.addURI(NotePad.AUTHORITY, "notes", NOTES);
+        sUriMatcher.addURI(NotePad.AUTHORITY, "notes/search", SEARCH);
         sUriMatcher.addURI(NotePad.AUTHORITY, "notes/#", NOTE_ID);
         sUriMatcher.addURI(NotePad.AUTHORITY, "live_folders/notes", LIVE_FOLDER_NOTES);
+        sUriMatcher.addURI(NotePad.AUTHORITY, "metrics", METRICS);
+        sUriMatcher.addURI(NotePad.AUTHORITY, "notes/#/revisions", NOTE_REVISIONS);
+        sUriMatcher.addURI(NotePad.AUTHORITY, "notes/#/revisions/#", NOTE_REVISION_ID);
         sNotesProjectionMap = new HashMap<String, String>();
         sNotesProjectionMap.put(NotePad.Notes._ID, NotePad.Notes._ID);
         sNotesProjectionMap.put(NotePad.Notes.COLUMN_NAME_TITLE, NotePad.Notes.COLUMN_NAME_TITLE);
         sNotesProjectionMap.put(NotePad.Notes.COLUMN_NAME_NOTE, NotePad.Notes.COLUMN_NAME_NOTE);
+        sNotesProjectionMap.put(NotePad.Notes.COLUMN_NAME_SNIPPET,
+                NotePad.Notes.COLUMN_NAME_SNIPPET);
         sNotesProjectionMap.put(NotePad.Notes.COLUMN_NAME_CREATE_DATE,
                 NotePad.Notes.COLUMN_NAME_CREATE_DATE);
         sNotesProjectionMap.put(
                 NotePad.Notes.COLUMN_NAME_MODIFICATION_DATE,
                 NotePad.Notes.COLUMN_NAME_MODIFICATION_DATE);
+        sNotesProjectionMap.put(NotePad.Notes.COLUMN_NAME_CATEGORY,
+                NotePad.Notes.COLUMN_NAME_CATEGORY);
+        sSearchProjectionMap = new HashMap<String, String>();
+        for (String column : sNotesProjectionMap.keySet()) {
+            sSearchProjectionMap.put(column,
+                    NotePad.Notes.TABLE_NAME + "." + column + " AS " + column);
+        }
+        // Looked up in the revisions index, so it only costs anything when it is asked for
+        String latestRevision = "(SELECT ifnull(max(" + NotePad.Revisions.COLUMN_NAME_REVISION
+                + "), 0) FROM " + NotePad.Revisions.TABLE_NAME + " WHERE "
+                + NotePad.Revisions.COLUMN_NAME_NOTE_ID + " = " + NotePad.Notes.TABLE_NAME + "."
+                + NotePad.Notes._ID + ") AS " + NotePad.Notes.COLUMN_NAME_REVISION;
+        sNotesProjectionMap.put(NotePad.Notes.COLUMN_NAME_REVISION, latestRevision);
+        sSearchProjectionMap.put(NotePad.Notes.COLUMN_NAME_REVISION, latestRevision);
+        sRevisionsProjectionMap = new HashMap<String, String>();
+        for (String column : new String[] { NotePad.Revisions._ID,
+                NotePad.Revisions.COLUMN_NAME_NOTE_ID, NotePad.Revisions.COLUMN_NAME_REVISION,
+                NotePad.Revisions.COLUMN_NAME_CREATE_DATE, NotePad.Revisions.COLUMN_NAME_TITLE,
+                NotePad.Revisions.COLUMN_NAME_LENGTH, NotePad.Revisions.COLUMN_NAME_SNAPSHOT }) {
+            sRevisionsProjectionMap.put(column, column);
+        }
+        sRevisionsProjectionMap.put(NotePad.Revisions.COLUMN_NAME_SIZE,
+                "length(data) AS " + NotePad.Revisions.COLUMN_NAME_SIZE);
         sLiveFolderProjectionMap = new HashMap<String, String>();
         sLiveFolderProjectionMap.put(LiveFolders._ID, NotePad.Notes._ID + " AS " + LiveFolders._ID);
         sLiveFolderProjectionMap.put(LiveFolders.NAME, NotePad.Notes.COLUMN_NAME_TITLE + " AS " +
             LiveFolders.NAME);
         sCategoryProjectionMap = new HashMap<>();
-        sCategoryProjectionMap.put("_id", "_id");
-        sCategoryProjectionMap.put("name", "name");
-        sCategoryProjectionMap.put("color", "color");
-        sCategoryProjectionMap.put("count", "count");
+        sCategoryProjectionMap.put(NotePad.Categories._ID, NotePad.Categories._ID);
+        sCategoryProjectionMap.put(NotePad.Categories.COLUMN_NAME_NAME,
+                NotePad.Categories.COLUMN_NAME_NAME);
+        sCategoryProjectionMap.put(NotePad.Categories.COLUMN_NAME_COLOR,
+                NotePad.Categories.COLUMN_NAME_COLOR);
+        sCategoryProjectionMap.put(NotePad.Categories.COLUMN_NAME_COUNT,
+                NotePad.Categories.COLUMN_NAME_COUNT);
     }
    static class DatabaseHelper extends SQLiteOpenHelper {
+
+       /**
+        * Connection settings for the notes database.
+        */
+       static class Tuning {
+           /**
+            * The settings the provider uses: write-ahead logging, so that the list can keep
+            * reading while the editor saves, with synchronous=NORMAL, which is durable in WAL
+            * mode except for the last commits before a power loss.
+            */
+           static final Tuning DEFAULT = new Tuning(true, "NORMAL", 4096, 2048);
+
+           /** Whether to open the database in write-ahead logging mode */
+           final boolean writeAheadLogging;
+
+           /** The value for PRAGMA synchronous: OFF, NORMAL or FULL */
+           final String synchronous;
+
+           /**
+            * The page size in bytes. Set when the database file is created, before write-ahead
+            * logging is switched on, after which it cannot change.
+            */
+           final int pageSize;
+
+           /** The size of the page cache of the connection, in KiB */
+           final int cacheSizeKb;
+
+           Tuning(boolean writeAheadLogging, String synchronous, int pageSize,
+                   int cacheSizeKb) {
+               this.writeAheadLogging = writeAheadLogging;
+               this.synchronous = synchronous;
+               this.pageSize = pageSize;
+               this.cacheSizeKb = cacheSizeKb;
+           }
+       }
+
+       private final Tuning mTuning;
+
+       // True once onCreate() has run on this helper's database
+       private boolean mCreated;
+
        DatabaseHelper(Context context) {
-           super(context, DATABASE_NAME, null, DATABASE_VERSION);
+           this(context, DATABASE_NAME, Tuning.DEFAULT);
+       }
+
+       DatabaseHelper(Context context, String name, Tuning tuning) {
+           super(context, name, null, DATABASE_VERSION);
+           mTuning = tuning;
+       }
+
+       /**
+        * Sets the page size of a new database, then switches to write-ahead logging. Runs
+        * before onCreate(), on Jelly Bean and later.
+        */
+       @TargetApi(Build.VERSION_CODES.JELLY_BEAN)
+       @Override
+       public void onConfigure(SQLiteDatabase db) {
+           super.onConfigure(db);
+           if (db.isReadOnly()) {
+               return;
+           }
+           if (db.getVersion() == 0) {
+               setPageSize(db);
+           }
+           if (mTuning.writeAheadLogging) {
+               db.enableWriteAheadLogging();
+           }
        }
+
+       @Override
+       public void onOpen(SQLiteDatabase db) {
+           super.onOpen(db);
+           if (db.isReadOnly()) {
+               return;
+           }
+           if (Build.VERSION.SDK_INT < Build.VERSION_CODES.JELLY_BEAN) {
+               // Older platforms have no onConfigure(), so a database they have just created
+               // gets its page size here, while it holds nothing but the schema
+               if (mCreated) {
+                   setPageSize(db);
+               }
+               if (mTuning.writeAheadLogging) {
+                   db.enableWriteAheadLogging();
+               }
+           }
+           db.execSQL("PRAGMA synchronous = " + mTuning.synchronous);
+           // A negative cache size is a size in KiB rather than a number of pages
+           db.execSQL("PRAGMA cache_size = -" + mTuning.cacheSizeKb);
+       }
+
+       /*
+        * Sets the page size of a database that holds no notes yet. The platform writes its own
+        * metadata table as it opens a database, so the new page size is applied by rebuilding
+        * the file with VACUUM, which takes no time at this size. It must run before write-ahead
+        * logging is switched on, and outside a transaction.
+        */
+       private void setPageSize(SQLiteDatabase db) {
+           if (DatabaseUtils.longForQuery(db, "PRAGMA page_size", null) != mTuning.pageSize) {
+               db.execSQL("PRAGMA page_size = " + mTuning.pageSize);
+               db.execSQL("VACUUM");
+           }
+       }
+
        @Override
        public void onCreate(SQLiteDatabase db) {
-           db.execSQL("CREATE TABLE " + NotePad.Notes.TABLE_NAME + " ("
-                   + NotePad.Notes._ID + " INTEGER PRIMARY KEY,"
-                   + NotePad.Notes.COLUMN_NAME_TITLE + " TEXT,"
-                   + NotePad.Notes.COLUMN_NAME_NOTE + " TEXT,"
-                   + NotePad.Notes.COLUMN_NAME_CREATE_DATE + " INTEGER,"
-                   + NotePad.Notes.COLUMN_NAME_MODIFICATION_DATE + " INTEGER"
-                   + ");");
+           mCreated = true;
+           db.execSQL(NotePadSchema.CREATE_NOTES_TABLE);
+           createSearchIndex(db);
+           createIndexes(db);
+           createRevisions(db);
+           createCategories(db);
+       }
+
+       /**
+        * Creates the category table, and the triggers that keep the number of notes in each
+        * category.
+        */
+       private void createCategories(SQLiteDatabase db) {
+           for (String sql : NotePadSchema.CREATE_CATEGORIES) {
+               db.execSQL(sql);
+           }
+       }
+
+       /**
+        * Creates the revision history table, and the trigger that clears the history of deleted
+        * notes.
+        */
+       private void createRevisions(SQLiteDatabase db) {
+           for (String sql : NotePadSchema.CREATE_REVISIONS) {
+               db.execSQL(sql);
+           }
+       }
+
+       /**
+        * Creates the indexes behind the list's sort order and category filtering.
+        */
+       private void createIndexes(SQLiteDatabase db) {
+           for (String sql : NotePadSchema.CREATE_INDEXES) {
+               db.execSQL(sql);
+           }
+       }
+
+       /**
+        * Creates the FTS4 shadow table and the triggers that keep it in step with the notes
+        * table.
+        */
+       private void createSearchIndex(SQLiteDatabase db) {
+           for (String sql : NotePadSchema.CREATE_SEARCH_INDEX) {
+               db.execSQL(sql);
+           }
        }
        @Override
        public void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion) {
            Log.w(TAG, "Upgrading database from version " + oldVersion + " to "
                    + newVersion + ", which will alter the database structure");
 
-           if (oldVersion < 3) {
-               // 添加 category 列到 notes 表
+           if (oldVersion < 5 && !hasColumn(db, NotePad.Notes.TABLE_NAME, "category")) {
+               // 添加 category 列到 notes 表。版本 3 的 onCreate() 建表时没有这一列，
+               // 只有从更早版本升级上来的数据库才有，所以按表结构判断，而不是按版本号
                db.execSQL("ALTER TABLE " + NotePad.Notes.TABLE_NAME
                        + " ADD COLUMN category TEXT;");
            }
 
-           if (oldVersion < newVersion) {
-               // 如果需要后续的数据库升级，可以在这里添加逻辑
+           if (oldVersion < 4) {
+               // 建立全文索引，已有笔记在版本 9 的步骤中加入索引
+               createSearchIndex(db);
+           }
+
+           if (oldVersion < 5) {
+               // 为排序和分类筛选建立索引
+               createIndexes(db);
+           }
+
+           if (oldVersion < 6) {
+               // 为已有笔记生成摘要
+               db.execSQL(NotePadSchema.ADD_SNIPPET_COLUMN);
+               fillSnippets(db);
+           }
+
+           if (oldVersion < 7) {
+               // 已有笔记在第一次修改时才开始记录历史版本
+               createRevisions(db);
+           }
+
+           if (oldVersion < 8) {
+               // 分类表可能已由旧版编辑器创建，但其中的笔记数从未更新过
+               createCategories(db);
+               db.execSQL(NotePadSchema.COUNT_CATEGORIES);
+           }
+
+           if (oldVersion < 9) {
+               // 全文索引改为保存 NoteSearch.indexText() 的结果，中文按两字一组建索引
+               for (String sql : NotePadSchema.DROP_SEARCH_TRIGGERS) {
+                   db.execSQL(sql);
+               }
+               db.execSQL("DELETE FROM " + FTS_TABLE_NAME + ";");
+               indexAllNotes(db);
+           }
+       }
+
+       /**
+        * Writes the search index row of every note. The contents of each note are read in
+        * chunks, so that long notes do not have to fit in a cursor window.
+        */
+       private void indexAllNotes(SQLiteDatabase db) {
+           Cursor cursor = db.query(NotePad.Notes.TABLE_NAME, new String[] {
+                   NotePad.Notes._ID, NotePad.Notes.COLUMN_NAME_TITLE }, null, null, null, null,
+                   null);
+           SQLiteStatement insert = db.compileStatement(NotePadSchema.INSERT_SEARCH_ROW);
+           try {
+               while (cursor.moveToNext()) {
+                   long id = cursor.getLong(0);
+                   String note = new String(NoteStreams.readValue(db, NotePad.Notes.TABLE_NAME,
+                           NotePad.Notes.COLUMN_NAME_NOTE, id), Charset.forName("UTF-8"));
+                   bindSearchRow(insert, id, cursor.getString(1), note);
+                   insert.executeInsert();
+               }
+           } finally {
+               cursor.close();
+               insert.close();
+           }
+       }
+
+       /**
+        * Returns whether a table has a column of the given name.
+        */
+       private static boolean hasColumn(SQLiteDatabase db, String table, String column) {
+           Cursor cursor = db.rawQuery("PRAGMA table_info(" + table + ")", null);
+           try {
+               int nameIndex = cursor.getColumnIndexOrThrow("name");
+               while (cursor.moveToNext()) {
+                   if (column.equalsIgnoreCase(cursor.getString(nameIndex))) {
+                       return true;
+                   }
+               }
+               return false;
+           } finally {
+               cursor.close();
+           }
+       }
+
+       /**
+        * Computes the snippet of every note. Only the beginning of each note is read, so that
+        * long notes are never loaded whole.
+        */
+       private void fillSnippets(SQLiteDatabase db) {
+           // Enough characters for a full snippet unless the note opens with a lot of whitespace
+           int prefixLength = NotePadSchema.SNIPPET_LENGTH * 10;
+           Cursor cursor = db.rawQuery("SELECT " + NotePad.Notes._ID + ", substr("
+                   + NotePad.Notes.COLUMN_NAME_NOTE + ", 1, " + prefixLength + ") FROM "
+                   + NotePad.Notes.TABLE_NAME, null);
+           SQLiteStatement update = db.compileStatement("UPDATE " + NotePad.Notes.TABLE_NAME
+                   + " SET " + NotePad.Notes.COLUMN_NAME_SNIPPET + " = ? WHERE "
+                   + NotePad.Notes._ID + " = ?");
+           try {
+               while (cursor.moveToNext()) {
+                   update.bindString(1, NotePadSchema.snippet(cursor.getString(1)));
+                   update.bindLong(2, cursor.getLong(0));
+                   update.execute();
+               }
+           } finally {
+               cursor.close();
+               update.close();
            }
        }
 
@@ -153,16 +512,173 @@ public class NotePadProvider extends ContentProvider implements PipeDataWriter<C
    @Override
    public boolean onCreate() {
         mOpenHelper = new DatabaseHelper(getContext());
+        mNotifier = new NotificationCoalescer(new NotificationCoalescer.Sink() {
+            @Override
+            public void notifyChange(Uri uri) {
+                getContext().getContentResolver().notifyChange(uri, null);
+            }
+        }, new Handler(Looper.getMainLooper()), NotificationCoalescer.DEFAULT_WINDOW_MILLIS);
        return true;
    }
    @Override
    public Cursor query(Uri uri, String[] projection, String selection, String[] selectionArgs,
            String sortOrder) {
-       SQLiteQueryBuilder qb = new SQLiteQueryBuilder();
+       return query(uri, projection, selection, selectionArgs, sortOrder, null);
+   }
+
+    /**
+     * Same as {@link #query(Uri, String[], String, String[], String)}, but lets a caller abort a
+     * long-running query, such as a search that has been superseded by a newer one.
+     */
+   @Override
+   public Cursor query(Uri uri, String[] projection, String selection, String[] selectionArgs,
+           String sortOrder, CancellationSignal cancellationSignal) {
+        int match = sUriMatcher.match(uri);
+        if (match == METRICS) {
+            return mMetrics.toCursor();
+        }
+        long start = System.nanoTime();
+        boolean failed = true;
+        try {
+            Cursor c = performQuery(uri, projection, selection, selectionArgs, sortOrder,
+                    cancellationSignal);
+            failed = false;
+            // Its rows are recorded when the caller closes it
+            return mMetrics.countRows(c, match);
+        } finally {
+            mMetrics.record(ProviderMetrics.QUERY, match, start, 0, failed);
+        }
+    }
+
+    private Cursor performQuery(Uri uri, String[] projection, String selection,
+            String[] selectionArgs, String sortOrder, CancellationSignal cancellationSignal) {
+       if (sUriMatcher.match(uri) == NOTE_REVISION_ID) {
+           Cursor c = queryRevision(uri, projection);
+           c.setNotificationUri(getContext().getContentResolver(), uri);
+           return c;
+       }
+       NotesQuery q = buildQuery(uri, sortOrder);
+        SQLiteDatabase db = mOpenHelper.getReadableDatabase();
+       Cursor c;
+       if (cancellationSignal == null) {
+           c = q.builder.query(
+               db,            // The database to query
+               projection,    // The columns to return from the query
+               selection,     // The columns for the where clause
+               selectionArgs, // The values for the where clause
+               null,          // don't group the rows
+               null,          // don't filter by row groups
+               q.orderBy,     // The sort order
+               q.limit        // The page size, or null for all rows
+           );
+       } else {
+           // Only reachable on platforms that pass a CancellationSignal to providers
+           c = q.builder.query(db, projection, selection, selectionArgs, null, null, q.orderBy,
+                   q.limit, cancellationSignal);
+       }
+        c.setNotificationUri(getContext().getContentResolver(), q.notificationUri);
+       return c;
+   }
+
+    /**
+     * Rebuilds a single revision of a note, for the URI of the revision.
+     *
+     * @throws IllegalArgumentException if the projection asks for a column a revision does not
+     * have
+     */
+    private Cursor queryRevision(Uri uri, String[] projection) {
+        List<String> segments = uri.getPathSegments();
+        long noteId = Long.parseLong(segments.get(NotePad.Notes.NOTE_ID_PATH_POSITION));
+        int number = Integer.parseInt(segments.get(3));
+        if (projection == null) {
+            projection = REVISION_PROJECTION;
+        }
+        MatrixCursor c = new MatrixCursor(projection, 1);
+        NoteRevisions.Revision revision =
+                NoteRevisions.read(mOpenHelper.getReadableDatabase(), noteId, number);
+        if (revision == null) {
+            return c;
+        }
+        Object[] row = new Object[projection.length];
+        for (int i = 0; i < projection.length; i++) {
+            String column = projection[i];
+            if (NotePad.Revisions._ID.equals(column)) {
+                row[i] = revision.id;
+            } else if (NotePad.Revisions.COLUMN_NAME_NOTE_ID.equals(column)) {
+                row[i] = revision.noteId;
+            } else if (NotePad.Revisions.COLUMN_NAME_REVISION.equals(column)) {
+                row[i] = revision.revision;
+            } else if (NotePad.Revisions.COLUMN_NAME_CREATE_DATE.equals(column)) {
+                row[i] = revision.created;
+            } else if (NotePad.Revisions.COLUMN_NAME_TITLE.equals(column)) {
+                row[i] = revision.title;
+            } else if (NotePad.Revisions.COLUMN_NAME_NOTE.equals(column)) {
+                row[i] = new String(revision.text, Charset.forName("UTF-8"));
+            } else if (NotePad.Revisions.COLUMN_NAME_LENGTH.equals(column)) {
+                row[i] = revision.text.length;
+            } else {
+                throw new IllegalArgumentException("Invalid column " + column);
+            }
+        }
+        c.addRow(row);
+        return c;
+    }
+
+    /**
+     * The parts of a query that depend on the URI being queried.
+     */
+    private static class NotesQuery {
+        final SQLiteQueryBuilder builder = new SQLiteQueryBuilder();
+        String orderBy;
+        String limit;
+        Uri notificationUri;
+    }
+
+    /**
+     * Sets up the tables, projection map, WHERE restrictions, sort order and limit for a query
+     * against the given URI.
+     *
+     * @throws IllegalArgumentException if the URI is not one the provider can query.
+     */
+    private static NotesQuery buildQuery(Uri uri, String sortOrder) {
+       NotesQuery q = new NotesQuery();
+       SQLiteQueryBuilder qb = q.builder;
        qb.setTables(NotePad.Notes.TABLE_NAME);
+       q.notificationUri = uri;
+       String defaultOrderBy = NotePad.Notes.DEFAULT_SORT_ORDER;
        switch (sUriMatcher.match(uri)) {
            case NOTES:
                qb.setProjectionMap(sNotesProjectionMap);
+               q.limit = uri.getQueryParameter(NotePad.Notes.QUERY_PARAMETER_LIMIT);
+               if (q.limit != null) {
+                   String keyset = keysetWhere(uri);
+                   if (keyset != null) {
+                       qb.appendWhere(keyset);
+                   }
+                   sortOrder = KEYSET_SORT_ORDER;
+                   q.notificationUri = NotePad.Notes.CONTENT_URI;
+               }
+               break;
+           case CATEGORY_NOTES:
+               // The category's name is looked up by its key once, and its notes are then a
+               // range of the (category, modified) index, already in the list's order
+               qb.setProjectionMap(sNotesProjectionMap);
+               String inCategory = NotePad.Notes.COLUMN_NAME_CATEGORY + " = (SELECT "
+                       + NotePad.Categories.COLUMN_NAME_NAME + " FROM "
+                       + NotePad.Categories.TABLE_NAME + " WHERE " + NotePad.Categories._ID + "="
+                       + uri.getPathSegments().get(NotePad.Categories.CATEGORY_ID_PATH_POSITION)
+                       + ")";
+               q.limit = uri.getQueryParameter(NotePad.Notes.QUERY_PARAMETER_LIMIT);
+               if (q.limit != null) {
+                   String keyset = keysetWhere(uri);
+                   if (keyset != null) {
+                       inCategory = inCategory + " AND " + keyset;
+                   }
+                   sortOrder = KEYSET_SORT_ORDER;
+               }
+               qb.appendWhere(inCategory);
+               // The notes in a category change whenever any note changes
+               q.notificationUri = NotePad.Notes.CONTENT_URI;
                break;
            case NOTE_ID:
                qb.setProjectionMap(sNotesProjectionMap);
@@ -172,50 +688,125 @@ public class NotePadProvider extends ContentProvider implements PipeDataWriter<C
                    uri.getPathSegments().get(NotePad.Notes.NOTE_ID_PATH_POSITION));
                break;
            case CATEGORIES:
-               qb.setTables("category");
+               qb.setTables(NotePad.Categories.TABLE_NAME);
                qb.setProjectionMap(sCategoryProjectionMap);
+               defaultOrderBy = NotePad.Categories.DEFAULT_SORT_ORDER;
                break;
            case CATEGORY_ID:
-               qb.setTables("category");
+               qb.setTables(NotePad.Categories.TABLE_NAME);
                qb.setProjectionMap(sCategoryProjectionMap);
-               qb.appendWhere("_id=" + uri.getPathSegments().get(1));
+               qb.appendWhere(NotePad.Categories._ID + "="
+                       + uri.getPathSegments().get(NotePad.Categories.CATEGORY_ID_PATH_POSITION));
+               defaultOrderBy = NotePad.Categories.DEFAULT_SORT_ORDER;
+               break;
+           case NOTE_REVISIONS:
+               qb.setTables(NotePad.Revisions.TABLE_NAME);
+               qb.setProjectionMap(sRevisionsProjectionMap);
+               qb.appendWhere(NotePad.Revisions.COLUMN_NAME_NOTE_ID + "="
+                       + uri.getPathSegments().get(NotePad.Notes.NOTE_ID_PATH_POSITION));
+               defaultOrderBy = NotePad.Revisions.DEFAULT_SORT_ORDER;
                break;
 
            case LIVE_FOLDER_NOTES:
                qb.setProjectionMap(sLiveFolderProjectionMap);
                break;
+           case SEARCH:
+               String terms = uri.getQueryParameter(NotePad.Notes.QUERY_PARAMETER_SEARCH);
+               defaultOrderBy = appendSearchWhere(qb, terms);
+               // Search results change whenever any note changes
+               q.notificationUri = NotePad.Notes.CONTENT_URI;
+               break;
            default:
                throw new IllegalArgumentException("Unknown URI " + uri);
        }
 
-
-       String orderBy;
        if (TextUtils.isEmpty(sortOrder)) {
-           orderBy = NotePad.Notes.DEFAULT_SORT_ORDER;
+           q.orderBy = defaultOrderBy;
        } else {
-           orderBy = sortOrder;
+           q.orderBy = sortOrder;
        }
-        SQLiteDatabase db = mOpenHelper.getReadableDatabase();
-       Cursor c = qb.query(
-           db,            // The database to query
-           projection,    // The columns to return from the query
-           selection,     // The columns for the where clause
-           selectionArgs, // The values for the where clause
-           null,          // don't group the rows
-           null,          // don't filter by row groups
-           orderBy        // The sort order
-       );
-        c.setNotificationUri(getContext().getContentResolver(), uri);
-       return c;
-   }
+       return q;
+    }
+
+    /**
+     * Returns the restriction of a page query to the notes that come after the keyset passed in
+     * the URI, or null for the first page, and validates the page size.
+     *
+     * @throws IllegalArgumentException if the limit or keyset parameters are not valid numbers,
+     * or if only one of the two keyset parameters is given.
+     */
+    private static String keysetWhere(Uri uri) {
+        String beforeModified =
+                uri.getQueryParameter(NotePad.Notes.QUERY_PARAMETER_BEFORE_MODIFIED);
+        String beforeId = uri.getQueryParameter(NotePad.Notes.QUERY_PARAMETER_BEFORE_ID);
+        try {
+            if (Integer.parseInt(uri.getQueryParameter(NotePad.Notes.QUERY_PARAMETER_LIMIT)) < 1) {
+                throw new IllegalArgumentException("Invalid page size in " + uri);
+            }
+            if (beforeModified == null && beforeId == null) {
+                return null;
+            }
+            if (beforeModified == null || beforeId == null) {
+                throw new IllegalArgumentException("Incomplete page keyset in " + uri);
+            }
+            long modified = Long.parseLong(beforeModified);
+            long id = Long.parseLong(beforeId);
+            // Written as a range on modified, so that the page starts with an index seek
+            // instead of walking the index from the newest note
+            return NotePad.Notes.COLUMN_NAME_MODIFICATION_DATE + " <= " + modified
+                    + " AND (" + NotePad.Notes.COLUMN_NAME_MODIFICATION_DATE + " < " + modified
+                    + " OR " + NotePad.Notes._ID + " < " + id + ")";
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Invalid page parameters in " + uri);
+        }
+    }
+
+    /**
+     * Restricts a search query to the notes whose title or contents match every word of the
+     * search terms, looked up in the FTS index: see {@link NoteSearch#matchQuery}.
+     *
+     * @return the default ORDER BY for the search, ranking title hits above content-only hits
+     */
+    private static String appendSearchWhere(SQLiteQueryBuilder qb, String terms) {
+        String match = NoteSearch.matchQuery(terms);
+        if (match == null) {
+            // Nothing searchable was typed, so return the full list
+            qb.setProjectionMap(sNotesProjectionMap);
+            return NotePad.Notes.DEFAULT_SORT_ORDER;
+        }
+
+        String escapedMatch = DatabaseUtils.sqlEscapeString(match);
+        qb.setTables(NotePad.Notes.TABLE_NAME + " JOIN " + FTS_TABLE_NAME + " ON "
+                + NotePad.Notes.TABLE_NAME + "." + NotePad.Notes._ID + " = "
+                + FTS_TABLE_NAME + ".docid");
+        qb.setProjectionMap(sSearchProjectionMap);
+        qb.appendWhere(FTS_TABLE_NAME + " MATCH " + escapedMatch);
+        return "CASE WHEN " + NotePad.Notes.TABLE_NAME + "." + NotePad.Notes._ID
+                + " IN (SELECT docid FROM " + FTS_TABLE_NAME + " WHERE "
+                + NotePad.Notes.COLUMN_NAME_TITLE + " MATCH " + escapedMatch
+                + ") THEN 0 ELSE 1 END, "
+                + NotePad.Notes.TABLE_NAME + "." + NotePad.Notes.DEFAULT_SORT_ORDER;
+    }
    @Override
    public String getType(Uri uri) {
        switch (sUriMatcher.match(uri)) {
          case NOTES:
            case LIVE_FOLDER_NOTES:
+           case SEARCH:
+           case CATEGORY_NOTES:
                return NotePad.Notes.CONTENT_TYPE;
            case NOTE_ID:
                return NotePad.Notes.CONTENT_ITEM_TYPE;
+           case METRICS:
+               return NotePad.Metrics.CONTENT_TYPE;
+           case CATEGORIES:
+               return NotePad.Categories.CONTENT_TYPE;
+           case CATEGORY_ID:
+               return NotePad.Categories.CONTENT_ITEM_TYPE;
+           case NOTE_REVISIONS:
+               return NotePad.Revisions.CONTENT_TYPE;
+           case NOTE_REVISION_ID:
+               return NotePad.Revisions.CONTENT_ITEM_TYPE;
      default:
                throw new IllegalArgumentException("Unknown URI " + uri);
        }
@@ -223,13 +814,19 @@ public class NotePadProvider extends ContentProvider implements PipeDataWriter<C
     static ClipDescription NOTE_STREAM_TYPES = new ClipDescription(null,
             new String[] { ClipDescription.MIMETYPE_TEXT_PLAIN });
 
+    static ClipDescription NOTES_STREAM_TYPES = new ClipDescription(null,
+            new String[] { NotePad.Notes.ARCHIVE_TYPE });
+
     @Override
     public String[] getStreamTypes(Uri uri, String mimeTypeFilter) {
 
         switch (sUriMatcher.match(uri)) {
 
             case NOTES:
+                return NOTES_STREAM_TYPES.filterMimeTypes(mimeTypeFilter);
+
             case LIVE_FOLDER_NOTES:
+            case SEARCH:
                 return null;
 
             case NOTE_ID:
@@ -242,11 +839,20 @@ public class NotePadProvider extends ContentProvider implements PipeDataWriter<C
     public AssetFileDescriptor openTypedAssetFile(Uri uri, String mimeTypeFilter, Bundle opts)
             throws FileNotFoundException {
 String[] mimeTypes = getStreamTypes(uri, mimeTypeFilter);
+        if (mimeTypes != null && sUriMatcher.match(uri) == NOTES) {
+            // Every note, oldest first. An empty archive is still an archive, so an empty
+            // cursor is not an error here.
+            Cursor c = mOpenHelper.getReadableDatabase().query(NotePad.Notes.TABLE_NAME,
+                    ARCHIVE_PROJECTION, null, null, null, null, NotePad.Notes._ID);
+            return new AssetFileDescriptor(
+                    openPipeHelper(uri, mimeTypes[0], opts, c, this), 0,
+                    AssetFileDescriptor.UNKNOWN_LENGTH);
+        }
         if (mimeTypes != null) {
             Cursor c = query(
                     uri,                    // The URI of a note
-                    READ_NOTE_PROJECTION,   // Gets a projection containing the note's ID, title,
-                                            // and contents
+                    READ_NOTE_PROJECTION,   // Gets a projection containing the note's ID and
+                                            // title
                     null,                   // No WHERE clause, get all matching records
                     null,                   // Since there is no WHERE clause, no selection criteria
                     null                    // Use the default sort order (modification date,
@@ -284,22 +890,24 @@ String[] mimeTypes = getStreamTypes(uri, mimeTypeFilter);
     @Override
     public void writeDataToPipe(ParcelFileDescriptor output, Uri uri, String mimeType,
             Bundle opts, Cursor c) {
-        // We currently only support conversion-to-text from a single note entry,
-        // so no need for cursor data type checking here.
+        // The cursor holds either every note, for an archive, or a single note, for text.
         FileOutputStream fout = new FileOutputStream(output.getFileDescriptor());
-        PrintWriter pw = null;
         try {
-            pw = new PrintWriter(new OutputStreamWriter(fout, "UTF-8"));
-            pw.println(c.getString(READ_NOTE_TITLE_INDEX));
-            pw.println("");
-            pw.println(c.getString(READ_NOTE_NOTE_INDEX));
-        } catch (UnsupportedEncodingException e) {
-            Log.w(TAG, "Ooops", e);
+            if (NotePad.Notes.ARCHIVE_TYPE.equals(mimeType)) {
+                NoteStreams.writeArchive(mOpenHelper.getReadableDatabase(), c, fout);
+            } else {
+                // The title, a blank line, and then the note, streamed from the database in
+                // chunks
+                NoteStreams.writeUtf8(c.getString(READ_NOTE_TITLE_INDEX) + "\n\n", fout);
+                NoteStreams.copyNote(mOpenHelper.getReadableDatabase(),
+                        c.getLong(READ_NOTE_ID_INDEX), fout, new byte[NoteStreams.BUFFER_SIZE]);
+                fout.write('\n');
+            }
+        } catch (IOException e) {
+            // The reader closed the pipe
+            Log.w(TAG, "Failed to stream " + uri, e);
         } finally {
             c.close();
-            if (pw != null) {
-                pw.flush();
-            }
             try {
                 fout.close();
             } catch (IOException e) {
@@ -309,12 +917,244 @@ String[] mimeTypes = getStreamTypes(uri, mimeTypeFilter);
 //END_INCLUDE(stream)
     @Override
     public Uri insert(Uri uri, ContentValues initialValues) {
-        // Validates the incoming URI. Only the full provider URI is allowed for inserts.
+        long start = System.nanoTime();
+        Uri result = null;
+        try {
+            result = performInsert(uri, initialValues);
+            return result;
+        } finally {
+            mMetrics.record(ProviderMetrics.INSERT, sUriMatcher.match(uri), start,
+                    result != null ? 1 : 0, result == null);
+        }
+    }
+
+    private Uri performInsert(Uri uri, ContentValues initialValues) {
+        // Validates the incoming URI. Only the notes and categories URIs allow inserts.
+        int match = sUriMatcher.match(uri);
+        if (match == CATEGORIES) {
+            return insertCategory(uri, initialValues);
+        }
+        if (match != NOTES) {
+            throw new IllegalArgumentException("Unknown URI " + uri);
+        }
+
+        // A map holding the new record's values, with defaults for any missing columns.
+        ContentValues values = newNoteValues(initialValues);
+
+        // Opens the database object in "write" mode.
+        SQLiteDatabase db = mOpenHelper.getWritableDatabase();
+
+        // Performs the insert, with the note's search index row, and returns the ID of the new
+        // note.
+        long rowId;
+        db.beginTransaction();
+        try {
+            rowId = db.insert(
+                NotePad.Notes.TABLE_NAME,        // The table to insert into.
+                NotePad.Notes.COLUMN_NAME_NOTE,  // A hack, SQLite sets this column value to null
+                                                 // if values is empty.
+                values                           // A map of column names, and the values to
+                                                 // insert into the columns.
+            );
+            if (rowId > 0) {
+                SQLiteStatement searchRow = db.compileStatement(NotePadSchema.INSERT_SEARCH_ROW);
+                try {
+                    bindSearchRow(searchRow, rowId,
+                            values.getAsString(NotePad.Notes.COLUMN_NAME_TITLE),
+                            values.getAsString(NotePad.Notes.COLUMN_NAME_NOTE));
+                    searchRow.executeInsert();
+                } finally {
+                    searchRow.close();
+                }
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+
+        // If the insert succeeded, the row ID exists.
+        if (rowId > 0) {
+            // Creates a URI with the note ID pattern and the new row ID appended to it.
+            Uri noteUri = ContentUris.withAppendedId(NotePad.Notes.CONTENT_ID_URI_BASE, rowId);
+
+            // Notifies observers registered against this provider that the data changed.
+            notifyChange(noteUri);
+            return noteUri;
+        }
+
+        // If the insert didn't succeed, then the rowID is <= 0. Throws an exception.
+        throw new SQLException("Failed to insert row into " + uri);
+    }
+
+    /**
+     * Inserts a set of notes in a single transaction. The INSERT statement is compiled once for
+     * each distinct set of columns in the batch and reused for every row that has that set, and
+     * observers receive one change notification for the notes URI once the batch has committed.
+     *
+     * @throws IllegalArgumentException if the URI is not the notes URI.
+     * @throws SQLException if any row cannot be inserted, in which case no rows are inserted.
+     */
+    @Override
+    public int bulkInsert(Uri uri, ContentValues[] valuesArray) {
+        long start = System.nanoTime();
+        int rows = 0;
+        boolean failed = true;
+        try {
+            rows = performBulkInsert(uri, valuesArray);
+            failed = false;
+            return rows;
+        } finally {
+            mMetrics.record(ProviderMetrics.BULK_INSERT, sUriMatcher.match(uri), start, rows,
+                    failed);
+        }
+    }
+
+    private int performBulkInsert(Uri uri, ContentValues[] valuesArray) {
         if (sUriMatcher.match(uri) != NOTES) {
             throw new IllegalArgumentException("Unknown URI " + uri);
         }
 
+        SQLiteDatabase db = mOpenHelper.getWritableDatabase();
+
+        // Compiled INSERT statements, keyed by the column list they insert into
+        HashMap<String, InsertStatement> statements = new HashMap<String, InsertStatement>();
+
+        boolean committed = false;
+        mNotifier.beginTransaction();
+        db.beginTransaction();
+        SQLiteStatement searchRow = db.compileStatement(NotePadSchema.INSERT_SEARCH_ROW);
+        try {
+            for (ContentValues initialValues : valuesArray) {
+                ContentValues values = newNoteValues(initialValues);
+                String[] columns = new String[values.size()];
+                int i = 0;
+                for (Map.Entry<String, Object> entry : values.valueSet()) {
+                    columns[i++] = entry.getKey();
+                }
+                Arrays.sort(columns);
+                String key = TextUtils.join(",", columns);
 
+                InsertStatement statement = statements.get(key);
+                if (statement == null) {
+                    statement = new InsertStatement(db, NotePad.Notes.TABLE_NAME, columns);
+                    statements.put(key, statement);
+                }
+                long rowId = statement.execute(values);
+                if (rowId <= 0) {
+                    throw new SQLException("Failed to insert row into " + uri);
+                }
+                bindSearchRow(searchRow, rowId,
+                        values.getAsString(NotePad.Notes.COLUMN_NAME_TITLE),
+                        values.getAsString(NotePad.Notes.COLUMN_NAME_NOTE));
+                searchRow.executeInsert();
+            }
+            notifyChange(NotePad.Notes.CONTENT_URI);
+            db.setTransactionSuccessful();
+            committed = true;
+        } finally {
+            db.endTransaction();
+            for (InsertStatement statement : statements.values()) {
+                statement.close();
+            }
+            searchRow.close();
+            mNotifier.endTransaction(committed);
+        }
+
+        return valuesArray.length;
+    }
+
+    /**
+     * Applies a batch of operations in a single transaction. Change notifications from the
+     * individual operations are held back and replaced by one notification for the notes URI
+     * once the batch has committed.
+     */
+    @Override
+    public ContentProviderResult[] applyBatch(ArrayList<ContentProviderOperation> operations)
+            throws OperationApplicationException {
+        SQLiteDatabase db = mOpenHelper.getWritableDatabase();
+        ContentProviderResult[] results;
+        boolean committed = false;
+        mNotifier.beginTransaction();
+        db.beginTransaction();
+        try {
+            results = super.applyBatch(operations);
+            // Covers every note the operations changed
+            notifyChange(NotePad.Notes.CONTENT_URI);
+            db.setTransactionSuccessful();
+            committed = true;
+        } finally {
+            db.endTransaction();
+            mNotifier.endTransaction(committed);
+        }
+        return results;
+    }
+
+    /**
+     * Handles {@link NotePad.Metrics#METHOD_DUMP}, which writes the provider metrics to logcat.
+     */
+    @Override
+    public Bundle call(String method, String arg, Bundle extras) {
+        if (NotePad.Metrics.METHOD_DUMP.equals(method)) {
+            mMetrics.log(TAG);
+            return null;
+        }
+        return super.call(method, arg, extras);
+    }
+
+    /**
+     * Notifies observers that the data at the given URI changed. Notifications are coalesced:
+     * see {@link NotificationCoalescer}.
+     */
+    private void notifyChange(Uri uri) {
+        mNotifier.notifyChange(uri);
+    }
+
+    /**
+     * A compiled INSERT statement for a fixed set of columns, so that a batch of rows with the
+     * same columns only compiles its SQL once.
+     */
+    private static class InsertStatement {
+        private final String[] mColumns;
+        private final SQLiteStatement mStatement;
+
+        InsertStatement(SQLiteDatabase db, String table, String[] columns) {
+            mColumns = columns;
+            StringBuilder sql = new StringBuilder("INSERT INTO ").append(table).append(" (");
+            StringBuilder args = new StringBuilder();
+            for (int i = 0; i < columns.length; i++) {
+                if (i > 0) {
+                    sql.append(',');
+                    args.append(',');
+                }
+                sql.append(columns[i]);
+                args.append('?');
+            }
+            sql.append(") VALUES (").append(args).append(')');
+            mStatement = db.compileStatement(sql.toString());
+        }
+
+        /**
+         * Binds the values to the statement and runs it.
+         * @return the row ID of the new row, or -1 if the insert failed
+         */
+        long execute(ContentValues values) {
+            mStatement.clearBindings();
+            for (int i = 0; i < mColumns.length; i++) {
+                DatabaseUtils.bindObjectToProgram(mStatement, i + 1, values.get(mColumns[i]));
+            }
+            return mStatement.executeInsert();
+        }
+
+        void close() {
+            mStatement.close();
+        }
+    }
+
+    /**
+     * Returns a copy of the values for a new note, filling in the creation and modification
+     * dates, title, contents and category that the caller left out.
+     */
+    private static ContentValues newNoteValues(ContentValues initialValues) {
         // A map to hold the new record's values.
         ContentValues values;
 
@@ -356,39 +1196,148 @@ String[] mimeTypes = getStreamTypes(uri, mimeTypeFilter);
             values.put("category", (String) null); // 默认值为 null
         }
 
-        // Opens the database object in "write" mode.
+        values.put(NotePad.Notes.COLUMN_NAME_SNIPPET,
+                NotePadSchema.snippet(values.getAsString(NotePad.Notes.COLUMN_NAME_NOTE)));
+
+        return values;
+    }
+
+    /**
+     * Inserts a category. The color defaults to white, and the count is set by the schema's
+     * triggers rather than by the caller.
+     *
+     * @throws SQLException if the name is missing or another category has it
+     */
+    private Uri insertCategory(Uri uri, ContentValues initialValues) {
+        ContentValues values = withoutCount(initialValues);
+        if (!values.containsKey(NotePad.Categories.COLUMN_NAME_COLOR)) {
+            values.put(NotePad.Categories.COLUMN_NAME_COLOR, "#FFFFFF");
+        }
         SQLiteDatabase db = mOpenHelper.getWritableDatabase();
-        if (sUriMatcher.match(uri) == CATEGORIES) {
-            long rowId = db.insert("category", null, values);
-            if (rowId > 0) {
-                Uri categoryUri = ContentUris.withAppendedId(Uri.parse("content://" + NotePad.AUTHORITY + "/categories"), rowId);
-                getContext().getContentResolver().notifyChange(categoryUri, null);
-                return categoryUri;
-            }
-            throw new SQLException("Failed to insert row into " + uri);
+        long rowId = db.insert(NotePad.Categories.TABLE_NAME, null, values);
+        if (rowId > 0) {
+            Uri categoryUri = ContentUris.withAppendedId(NotePad.Categories.CONTENT_URI, rowId);
+            notifyChange(categoryUri);
+            return categoryUri;
         }
+        throw new SQLException("Failed to insert row into " + uri);
+    }
 
-        // Performs the insert and returns the ID of the new note.
-        long rowId = db.insert(
-            NotePad.Notes.TABLE_NAME,        // The table to insert into.
-            NotePad.Notes.COLUMN_NAME_NOTE,  // A hack, SQLite sets this column value to null
-                                             // if values is empty.
-            values                           // A map of column names, and the values to insert
-                                             // into the columns.
-        );
+    /**
+     * Returns a copy of the values of a category insert or update without the count, which
+     * only the triggers write.
+     */
+    private static ContentValues withoutCount(ContentValues values) {
+        ContentValues result = values != null ? new ContentValues(values) : new ContentValues();
+        result.remove(NotePad.Categories.COLUMN_NAME_COUNT);
+        return result;
+    }
 
-        // If the insert succeeded, the row ID exists.
-        if (rowId > 0) {
-            // Creates a URI with the note ID pattern and the new row ID appended to it.
-            Uri noteUri = ContentUris.withAppendedId(NotePad.Notes.CONTENT_ID_URI_BASE, rowId);
+    /**
+     * Updates notes, first recording a revision of each note whose title or text the update
+     * changes, then rewriting their search index rows. The revisions, the update and the index
+     * are written in one transaction. An update of nothing but the snippet, which only the
+     * provider writes, changes nothing.
+     *
+     * @param coalesce whether a revision may replace a recent one, as autosaves do; see
+     * {@link NoteRevisions}
+     */
+    private static int updateNotes(SQLiteDatabase db, ContentValues values, String where,
+            String[] whereArgs, boolean coalesce) {
+        ContentValues noteValues = withSnippet(values);
+        if (noteValues == null || noteValues.size() == 0) {
+            return 0;
+        }
+        if (!values.containsKey(NotePad.Notes.COLUMN_NAME_TITLE)
+                && !values.containsKey(NotePad.Notes.COLUMN_NAME_NOTE)) {
+            return db.update(NotePad.Notes.TABLE_NAME, noteValues, where, whereArgs);
+        }
+        long now = System.currentTimeMillis();
+        db.beginTransaction();
+        try {
+            // The notes are found before the update, since it may change what the selection
+            // matches
+            ArrayList<Long> updated = new ArrayList<Long>();
+            Cursor ids = db.query(NotePad.Notes.TABLE_NAME, new String[] { NotePad.Notes._ID },
+                    where, whereArgs, null, null, null);
+            try {
+                while (ids.moveToNext()) {
+                    updated.add(ids.getLong(0));
+                    NoteRevisions.recordUpdate(db, ids.getLong(0), values, now, coalesce);
+                }
+            } finally {
+                ids.close();
+            }
+            int count = db.update(NotePad.Notes.TABLE_NAME, noteValues, where, whereArgs);
+            if (values.containsKey(NotePad.Notes.COLUMN_NAME_TITLE)) {
+                updateSearchRows(db, NotePadSchema.UPDATE_SEARCH_TITLE, updated,
+                        values.getAsString(NotePad.Notes.COLUMN_NAME_TITLE));
+            }
+            if (values.containsKey(NotePad.Notes.COLUMN_NAME_NOTE)) {
+                updateSearchRows(db, NotePadSchema.UPDATE_SEARCH_NOTE, updated,
+                        values.getAsString(NotePad.Notes.COLUMN_NAME_NOTE));
+            }
+            db.setTransactionSuccessful();
+            return count;
+        } finally {
+            db.endTransaction();
+        }
+    }
 
-            // Notifies observers registered against this provider that the data changed.
-            getContext().getContentResolver().notifyChange(noteUri, null);
-            return noteUri;
+    /**
+     * Binds the _id of a note and the index text of its title and contents to a
+     * {@link NotePadSchema#INSERT_SEARCH_ROW} statement.
+     */
+    private static void bindSearchRow(SQLiteStatement statement, long id, String title,
+            String note) {
+        statement.clearBindings();
+        statement.bindLong(1, id);
+        DatabaseUtils.bindObjectToProgram(statement, 2, NoteSearch.indexText(title));
+        DatabaseUtils.bindObjectToProgram(statement, 3, NoteSearch.indexText(note));
+    }
+
+    /**
+     * Sets one column of the search index rows of some notes to the index text of a value,
+     * with {@link NotePadSchema#UPDATE_SEARCH_TITLE} or {@link NotePadSchema#UPDATE_SEARCH_NOTE}.
+     */
+    private static void updateSearchRows(SQLiteDatabase db, String sql, List<Long> ids,
+            String text) {
+        if (ids.isEmpty()) {
+            return;
+        }
+        String indexText = NoteSearch.indexText(text);
+        SQLiteStatement statement = db.compileStatement(sql);
+        try {
+            for (long id : ids) {
+                statement.clearBindings();
+                DatabaseUtils.bindObjectToProgram(statement, 1, indexText);
+                statement.bindLong(2, id);
+                statement.execute();
+            }
+        } finally {
+            statement.close();
         }
+    }
 
-        // If the insert didn't succeed, then the rowID is <= 0. Throws an exception.
-        throw new SQLException("Failed to insert row into " + uri);
+    /**
+     * Returns the values of a note update, with the snippet recomputed if the note content
+     * changes. The snippet is never written from the caller's values.
+     */
+    private static ContentValues withSnippet(ContentValues values) {
+        if (values == null) {
+            return null;
+        }
+        if (!values.containsKey(NotePad.Notes.COLUMN_NAME_NOTE)
+                && !values.containsKey(NotePad.Notes.COLUMN_NAME_SNIPPET)) {
+            return values;
+        }
+        ContentValues result = new ContentValues(values);
+        result.remove(NotePad.Notes.COLUMN_NAME_SNIPPET);
+        if (values.containsKey(NotePad.Notes.COLUMN_NAME_NOTE)) {
+            result.put(NotePad.Notes.COLUMN_NAME_SNIPPET,
+                    NotePadSchema.snippet(values.getAsString(NotePad.Notes.COLUMN_NAME_NOTE)));
+        }
+        return result;
     }
 
     /**
@@ -406,6 +1355,19 @@ String[] mimeTypes = getStreamTypes(uri, mimeTypeFilter);
      */
     @Override
     public int delete(Uri uri, String where, String[] whereArgs) {
+        long start = System.nanoTime();
+        int rows = 0;
+        boolean failed = true;
+        try {
+            rows = performDelete(uri, where, whereArgs);
+            failed = false;
+            return rows;
+        } finally {
+            mMetrics.record(ProviderMetrics.DELETE, sUriMatcher.match(uri), start, rows, failed);
+        }
+    }
+
+    private int performDelete(Uri uri, String where, String[] whereArgs) {
 
         // Opens the database object in "write" mode.
         SQLiteDatabase db = mOpenHelper.getWritableDatabase();
@@ -455,12 +1417,15 @@ String[] mimeTypes = getStreamTypes(uri, mimeTypeFilter);
                 );
                 break;
             case CATEGORIES:
-                count = db.delete("category", where, whereArgs);
+                count = db.delete(NotePad.Categories.TABLE_NAME, where, whereArgs);
                 break;
             case CATEGORY_ID:
-                finalWhere = "_id = " + uri.getPathSegments().get(1);
-                if (where != null) finalWhere += " AND " + where;
-                count = db.delete("category", finalWhere, whereArgs);
+                finalWhere = NotePad.Categories._ID + " = " + uri.getPathSegments()
+                        .get(NotePad.Categories.CATEGORY_ID_PATH_POSITION);
+                if (where != null) {
+                    finalWhere = finalWhere + " AND " + where;
+                }
+                count = db.delete(NotePad.Categories.TABLE_NAME, finalWhere, whereArgs);
                 break;
 
             // If the incoming pattern is invalid, throws an exception.
@@ -472,13 +1437,26 @@ String[] mimeTypes = getStreamTypes(uri, mimeTypeFilter);
          * that the incoming URI changed. The object passes this along to the resolver framework,
          * and observers that have registered themselves for the provider are notified.
          */
-        getContext().getContentResolver().notifyChange(uri, null);
+        notifyChange(uri);
 
         // Returns the number of rows deleted.
         return count;
     }
     @Override
     public int update(Uri uri, ContentValues values, String where, String[] whereArgs) {
+        long start = System.nanoTime();
+        int rows = 0;
+        boolean failed = true;
+        try {
+            rows = performUpdate(uri, values, where, whereArgs);
+            failed = false;
+            return rows;
+        } finally {
+            mMetrics.record(ProviderMetrics.UPDATE, sUriMatcher.match(uri), start, rows, failed);
+        }
+    }
+
+    private int performUpdate(Uri uri, ContentValues values, String where, String[] whereArgs) {
 
         // Opens the database object in "write" mode.
         SQLiteDatabase db = mOpenHelper.getWritableDatabase();
@@ -492,27 +1470,32 @@ String[] mimeTypes = getStreamTypes(uri, mimeTypeFilter);
             // the incoming data.
             case NOTES:
 
-                // Does the update and returns the number of rows updated.
-                count = db.update(
-                    NotePad.Notes.TABLE_NAME, // The database table name.
-                    values,                   // A map of column names and new values to use.
-                    where,                    // The where clause column names.
-                    whereArgs                 // The where clause column values to select on.
-                );
+                // Does the update, recording revisions, and returns the number of rows updated.
+                count = updateNotes(db, values, where, whereArgs, true);
                 break;
 
-            // If the incoming URI matches a single note ID, does the update based on the incoming
-            // data, but modifies the where clause to restrict it to the particular note ID.
+            // Updates categories. Their counts are kept by the triggers, so a caller's count is
+            // dropped, and an update of nothing else changes nothing.
             case CATEGORIES:
-                count = db.delete("category", where, whereArgs);
-                break;
             case CATEGORY_ID:
-                finalWhere = "_id = " + uri.getPathSegments().get(1);
-                if (where != null) finalWhere += " AND " + where;
-                count = db.delete("category", finalWhere, whereArgs);
+                ContentValues categoryValues = withoutCount(values);
+                if (categoryValues.size() == 0) {
+                    return 0;
+                }
+                finalWhere = where;
+                if (sUriMatcher.match(uri) == CATEGORY_ID) {
+                    finalWhere = NotePad.Categories._ID + " = " + uri.getPathSegments()
+                            .get(NotePad.Categories.CATEGORY_ID_PATH_POSITION);
+                    if (where != null) {
+                        finalWhere = finalWhere + " AND " + where;
+                    }
+                }
+                count = db.update(NotePad.Categories.TABLE_NAME, categoryValues, finalWhere,
+                        whereArgs);
                 break;
 
-
+            // If the incoming URI matches a single note ID, does the update based on the incoming
+            // data, but modifies the where clause to restrict it to the particular note ID.
             case NOTE_ID:
                 // From the incoming URI, get the note ID
                 String noteId = uri.getPathSegments().get(NotePad.Notes.NOTE_ID_PATH_POSITION);
@@ -535,15 +1518,33 @@ String[] mimeTypes = getStreamTypes(uri, mimeTypeFilter);
                 }
 
 
-                // Does the update and returns the number of rows updated.
-                count = db.update(
-                    NotePad.Notes.TABLE_NAME, // The database table name.
-                    values,                   // A map of column names and new values to use.
-                    finalWhere,               // The final WHERE clause to use
-                                              // placeholders for whereArgs
-                    whereArgs                 // The where clause column values to select on, or
-                                              // null if the values are in the where argument.
-                );
+                // Does the update, recording a revision, and returns the number of rows updated.
+                count = updateNotes(db, values, finalWhere, whereArgs, true);
+                break;
+
+            // Reverts the note to the revision, which records a new revision rather than
+            // replacing the latest one
+            case NOTE_REVISION_ID:
+                List<String> segments = uri.getPathSegments();
+                long revertedId = Long.parseLong(
+                        segments.get(NotePad.Notes.NOTE_ID_PATH_POSITION));
+                NoteRevisions.Revision revision = NoteRevisions.read(db, revertedId,
+                        Integer.parseInt(segments.get(3)));
+                if (revision == null) {
+                    return 0;
+                }
+                ContentValues reverted =
+                        values != null ? new ContentValues(values) : new ContentValues();
+                reverted.put(NotePad.Notes.COLUMN_NAME_TITLE, revision.title);
+                reverted.put(NotePad.Notes.COLUMN_NAME_NOTE,
+                        new String(revision.text, Charset.forName("UTF-8")));
+                finalWhere = NotePad.Notes._ID + " = " + revertedId;
+                if (where != null) {
+                    finalWhere = finalWhere + " AND " + where;
+                }
+                count = updateNotes(db, reverted, finalWhere, whereArgs, false);
+                notifyChange(ContentUris.withAppendedId(NotePad.Notes.CONTENT_ID_URI_BASE,
+                        revertedId));
                 break;
             // If the incoming pattern is invalid, throws an exception.
             default:
@@ -554,7 +1555,7 @@ String[] mimeTypes = getStreamTypes(uri, mimeTypeFilter);
          * that the incoming URI changed. The object passes this along to the resolver framework,
          * and observers that have registered themselves for the provider are notified.
          */
-        getContext().getContentResolver().notifyChange(uri, null);
+        notifyChange(uri);
 
         // Returns the number of rows updated.
         return count;
@@ -571,4 +1572,31 @@ String[] mimeTypes = getStreamTypes(uri, mimeTypeFilter);
     DatabaseHelper getOpenHelperForTest() {
         return mOpenHelper;
     }
+
+    /**
+     * A test package can call this to receive the provider's change notifications, which
+     * {@link android.test.mock.MockContentResolver} drops.
+     *
+     * @param windowMillis how long changes are held. A test that counts notifications can hold
+     * them longer than it runs, and flush the returned coalescer itself.
+     * @return the coalescer that now delivers the notifications to the sink.
+     */
+    NotificationCoalescer setNotificationSinkForTest(NotificationCoalescer.Sink sink,
+            long windowMillis) {
+        mNotifier = new NotificationCoalescer(sink, new Handler(Looper.getMainLooper()),
+                windowMillis);
+        return mNotifier;
+    }
+
+    /**
+     * A test package can call this to get the SQL that {@link #query} runs for a URI, so it can
+     * check the query plan of every query shape the provider issues.
+     *
+     * @return the SELECT statement, with a placeholder for each selection argument.
+     */
+    static String getQuerySqlForTest(Uri uri, String[] projection, String selection,
+            String sortOrder) {
+        NotesQuery q = buildQuery(uri, sortOrder);
+        return q.builder.buildQuery(projection, selection, null, null, q.orderBy, q.limit);
+    }
 }
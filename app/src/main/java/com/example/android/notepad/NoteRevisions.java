@@ -0,0 +1,288 @@
+/*
+ * Copyright (C) 2007 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.android.notepad;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.SQLException;
+import android.database.sqlite.SQLiteDatabase;
+
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.zip.CRC32;
+
+/**
+ * Records and rebuilds the revisions of notes in the note_revisions table.
+ *
+ * Each revision is stored as a delta from the one before it, made by {@link NoteDelta}, except
+ * that every {@link #SNAPSHOT_INTERVAL}th revision is stored whole, so that rebuilding any
+ * revision applies fewer than that many deltas to the last snapshot before it. A revision is
+ * also stored whole when its delta would be no smaller, when either version is too large to
+ * diff, and when the note was changed without a revision being recorded, which the checksum of
+ * the previous revision shows.
+ *
+ * The editor saves a note every few seconds while it is edited, so an update within
+ * {@link #COALESCE_MILLIS} of the latest revision replaces that revision instead of adding
+ * another one: a burst of editing makes one revision, dated at its last save. Revision 1, the
+ * note as it was before its first recorded change, is never replaced.
+ *
+ * The methods must be called inside a transaction that also makes the change they record.
+ */
+final class NoteRevisions {
+
+    /**
+     * Revisions 1, 1 + SNAPSHOT_INTERVAL, 1 + 2 * SNAPSHOT_INTERVAL... are stored whole
+     */
+    static final int SNAPSHOT_INTERVAL = 20;
+
+    /**
+     * The most bytes of text diffed; longer versions are stored whole
+     */
+    static final int MAX_DIFF_BYTES = 4 * 1024 * 1024;
+
+    /**
+     * The longest time between the latest revision and an update that replaces it
+     */
+    static final long COALESCE_MILLIS = 60 * 1000;
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private static final String[] LATEST_PROJECTION = {
+            NotePad.Revisions.COLUMN_NAME_REVISION,
+            NotePad.Revisions.COLUMN_NAME_CREATE_DATE,
+            "checksum",
+    };
+
+    private static final String[] CHAIN_PROJECTION = {
+            NotePad.Revisions._ID,
+            NotePad.Revisions.COLUMN_NAME_REVISION,
+            NotePad.Revisions.COLUMN_NAME_SNAPSHOT,
+            NotePad.Revisions.COLUMN_NAME_CREATE_DATE,
+            NotePad.Revisions.COLUMN_NAME_TITLE,
+            "checksum",
+    };
+
+    /**
+     * A revision of a note, rebuilt.
+     */
+    static final class Revision {
+        final long id;
+        final long noteId;
+        final int revision;
+        final long created;
+        final String title;
+
+        /** The text of the note, as UTF-8 */
+        final byte[] text;
+
+        Revision(long id, long noteId, int revision, long created, String title, byte[] text) {
+            this.id = id;
+            this.noteId = noteId;
+            this.revision = revision;
+            this.created = created;
+            this.title = title;
+            this.text = text;
+        }
+    }
+
+    private NoteRevisions() {
+    }
+
+    /**
+     * Records the revision that an update of a note makes, if it changes the note's title or
+     * text. Call it before making the update.
+     *
+     * @param values the values the note is about to be updated with
+     * @param now the time of the update, unless values holds a modification date
+     * @param coalesce whether the update may replace a revision recorded less than
+     * {@link #COALESCE_MILLIS} before it
+     */
+    static void recordUpdate(SQLiteDatabase db, long noteId, ContentValues values, long now,
+            boolean coalesce) {
+        String oldTitle;
+        long oldModified;
+        Cursor note = db.query(NotePad.Notes.TABLE_NAME, new String[] {
+                NotePad.Notes.COLUMN_NAME_TITLE, NotePad.Notes.COLUMN_NAME_MODIFICATION_DATE },
+                NotePad.Notes._ID + " = " + noteId, null, null, null, null);
+        try {
+            if (!note.moveToFirst()) {
+                return;
+            }
+            oldTitle = note.getString(0);
+            oldModified = note.getLong(1);
+        } finally {
+            note.close();
+        }
+        byte[] oldText = NoteStreams.readValue(db, NotePad.Notes.TABLE_NAME,
+                NotePad.Notes.COLUMN_NAME_NOTE, noteId);
+
+        String newTitle = values.containsKey(NotePad.Notes.COLUMN_NAME_TITLE)
+                ? values.getAsString(NotePad.Notes.COLUMN_NAME_TITLE) : oldTitle;
+        byte[] newText = oldText;
+        if (values.containsKey(NotePad.Notes.COLUMN_NAME_NOTE)) {
+            String text = values.getAsString(NotePad.Notes.COLUMN_NAME_NOTE);
+            newText = text != null ? text.getBytes(UTF_8) : new byte[0];
+        }
+
+        int latest = 0;
+        long latestCreated = 0;
+        long latestChecksum = 0;
+        Cursor revisions = db.query(NotePad.Revisions.TABLE_NAME, LATEST_PROJECTION,
+                NotePad.Revisions.COLUMN_NAME_NOTE_ID + " = " + noteId, null, null, null,
+                NotePad.Revisions.DEFAULT_SORT_ORDER, "1");
+        try {
+            if (revisions.moveToFirst()) {
+                latest = revisions.getInt(0);
+                latestCreated = revisions.getLong(1);
+                latestChecksum = revisions.getLong(2);
+            }
+        } finally {
+            revisions.close();
+        }
+
+        boolean changed = !Arrays.equals(oldText, newText) || !equal(oldTitle, newTitle);
+        if (latest == 0) {
+            if (!changed) {
+                return;
+            }
+            // The history starts with the note as it was before its first recorded change
+            insert(db, noteId, 1, oldModified, oldTitle, oldText, null);
+            latest = 1;
+            latestChecksum = checksum(oldText);
+        } else if (!changed) {
+            return;
+        }
+
+        Long modified = values.getAsLong(NotePad.Notes.COLUMN_NAME_MODIFICATION_DATE);
+        long created = modified != null ? modified : now;
+        int revision = latest + 1;
+        // The text the new revision is diffed against, or null to store it whole
+        byte[] base = checksum(oldText) == latestChecksum ? oldText : null;
+        if (coalesce && latest > 1 && base != null && created >= latestCreated
+                && created - latestCreated < COALESCE_MILLIS) {
+            // Replaces the latest revision, so it is diffed against the one before it
+            revision = latest;
+            base = null;
+            if ((revision - 1) % SNAPSHOT_INTERVAL != 0) {
+                try {
+                    Revision previous = read(db, noteId, revision - 1);
+                    if (previous != null) {
+                        base = previous.text;
+                    }
+                } catch (SQLException e) {
+                    // A damaged history does not stop the note from being saved: the
+                    // revision is stored whole
+                }
+            }
+            db.delete(NotePad.Revisions.TABLE_NAME, NotePad.Revisions.COLUMN_NAME_NOTE_ID
+                    + " = " + noteId + " AND " + NotePad.Revisions.COLUMN_NAME_REVISION + " = "
+                    + revision, null);
+        }
+
+        byte[] delta = null;
+        if ((revision - 1) % SNAPSHOT_INTERVAL != 0 && base != null
+                && base.length <= MAX_DIFF_BYTES && newText.length <= MAX_DIFF_BYTES) {
+            delta = NoteDelta.diff(base, newText);
+            if (delta.length >= newText.length) {
+                delta = null;
+            }
+        }
+        insert(db, noteId, revision, created, newTitle, newText, delta);
+    }
+
+    /**
+     * Rebuilds a revision of a note, or returns null if it does not exist.
+     *
+     * @throws SQLException if the stored revisions do not rebuild it correctly
+     */
+    static Revision read(SQLiteDatabase db, long noteId, int revision) {
+        String noteWhere = NotePad.Revisions.COLUMN_NAME_NOTE_ID + " = " + noteId;
+        Cursor snapshot = db.query(NotePad.Revisions.TABLE_NAME,
+                new String[] { "max(" + NotePad.Revisions.COLUMN_NAME_REVISION + ")" },
+                noteWhere + " AND " + NotePad.Revisions.COLUMN_NAME_SNAPSHOT + " = 1 AND "
+                        + NotePad.Revisions.COLUMN_NAME_REVISION + " <= " + revision,
+                null, null, null, null);
+        int first;
+        try {
+            if (!snapshot.moveToFirst() || snapshot.isNull(0)) {
+                return null;
+            }
+            first = snapshot.getInt(0);
+        } finally {
+            snapshot.close();
+        }
+
+        Cursor chain = db.query(NotePad.Revisions.TABLE_NAME, CHAIN_PROJECTION,
+                noteWhere + " AND " + NotePad.Revisions.COLUMN_NAME_REVISION + " BETWEEN "
+                        + first + " AND " + revision,
+                null, null, null, NotePad.Revisions.COLUMN_NAME_REVISION);
+        try {
+            byte[] text = null;
+            while (chain.moveToNext()) {
+                long id = chain.getLong(0);
+                int number = chain.getInt(1);
+                byte[] data = NoteStreams.readValue(db, NotePad.Revisions.TABLE_NAME, "data",
+                        id);
+                if (chain.getInt(2) != 0) {
+                    text = data;
+                } else {
+                    try {
+                        text = NoteDelta.apply(text, data);
+                    } catch (IllegalArgumentException e) {
+                        throw new SQLException("Bad delta in revision " + number + " of note "
+                                + noteId + ": " + e.getMessage());
+                    }
+                }
+                if (checksum(text) != chain.getLong(5)) {
+                    throw new SQLException("Revision " + number + " of note " + noteId
+                            + " does not match its checksum");
+                }
+                if (number == revision) {
+                    return new Revision(id, noteId, number, chain.getLong(3),
+                            chain.getString(4), text);
+                }
+            }
+            return null;
+        } finally {
+            chain.close();
+        }
+    }
+
+    private static void insert(SQLiteDatabase db, long noteId, int revision, long created,
+            String title, byte[] text, byte[] delta) {
+        ContentValues values = new ContentValues();
+        values.put(NotePad.Revisions.COLUMN_NAME_NOTE_ID, noteId);
+        values.put(NotePad.Revisions.COLUMN_NAME_REVISION, revision);
+        values.put(NotePad.Revisions.COLUMN_NAME_CREATE_DATE, created);
+        values.put(NotePad.Revisions.COLUMN_NAME_TITLE, title);
+        values.put(NotePad.Revisions.COLUMN_NAME_SNAPSHOT, delta == null ? 1 : 0);
+        values.put("data", delta == null ? text : delta);
+        values.put(NotePad.Revisions.COLUMN_NAME_LENGTH, text.length);
+        values.put("checksum", checksum(text));
+        db.insertOrThrow(NotePad.Revisions.TABLE_NAME, null, values);
+    }
+
+    private static long checksum(byte[] text) {
+        CRC32 crc = new CRC32();
+        crc.update(text, 0, text.length);
+        return crc.getValue();
+    }
+
+    private static boolean equal(String a, String b) {
+        return a == null ? b == null : a.equals(b);
+    }
+}
@@ -0,0 +1,301 @@
+/*
+ * Copyright (C) 2007 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.android.notepad;
+
+import android.database.Cursor;
+import android.database.SQLException;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteDoneException;
+import android.database.sqlite.SQLiteStatement;
+import android.os.ParcelFileDescriptor;
+import android.text.TextUtils;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Locale;
+import java.util.TimeZone;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * Writes note text to streams in bounded chunks, so that exporting a note of many megabytes
+ * never holds the whole note, or a second encoded copy of it, in the Java heap.
+ */
+final class NoteStreams {
+
+    /**
+     * The most bytes of a note read from the database by one query
+     */
+    static final int CHUNK_BYTES = 256 * 1024;
+
+    /**
+     * The size of the buffers text is copied and encoded through
+     */
+    static final int BUFFER_SIZE = 16 * 1024;
+
+    /**
+     * The keys of the header lines of an archive entry, each followed by its value
+     */
+    static final String HEADER_TITLE = "Title: ";
+    static final String HEADER_CATEGORY = "Category: ";
+    static final String HEADER_CREATED = "Created: ";
+    static final String HEADER_MODIFIED = "Modified: ";
+
+    private NoteStreams() {
+    }
+
+    /**
+     * Copies the content of a note from the database to a stream.
+     *
+     * The database holds text as UTF-8, so the bytes are copied as they are, without decoding
+     * them into a String: each query returns the next chunk of bytes as a blob in shared memory,
+     * which is read through the buffer. A note that changes during the copy may be written
+     * partly old and partly new.
+     *
+     * @param buffer the buffer to copy through
+     * @return the number of bytes written, or -1 if the note does not exist
+     */
+    static long copyNote(SQLiteDatabase db, long noteId, OutputStream out, byte[] buffer)
+            throws IOException {
+        return copyValue(db, NotePad.Notes.TABLE_NAME, NotePad.Notes.COLUMN_NAME_NOTE, noteId,
+                out, buffer);
+    }
+
+    /**
+     * Copies a text or blob value from the database to a stream, in chunks, as
+     * {@link #copyNote} does. Text is copied as UTF-8.
+     *
+     * @param rowId the _id of the row holding the value
+     * @return the number of bytes written, or -1 if the row does not exist
+     */
+    static long copyValue(SQLiteDatabase db, String table, String column, long rowId,
+            OutputStream out, byte[] buffer) throws IOException {
+        String blob = "CAST(" + column + " AS BLOB)";
+        String where = " FROM " + table + " WHERE _id = ?";
+        SQLiteStatement lengthQuery = db.compileStatement("SELECT length(" + blob + ")" + where);
+        SQLiteStatement chunkQuery = db.compileStatement("SELECT substr(" + blob + ", ?, ?)"
+                + where);
+        try {
+            long length;
+            try {
+                lengthQuery.bindLong(1, rowId);
+                length = lengthQuery.simpleQueryForLong();
+            } catch (SQLiteDoneException e) {
+                return -1;
+            }
+
+            long written = 0;
+            while (written < length) {
+                ParcelFileDescriptor chunk;
+                try {
+                    // substr() counts the bytes of a blob from 1
+                    chunkQuery.bindLong(1, written + 1);
+                    chunkQuery.bindLong(2, CHUNK_BYTES);
+                    chunkQuery.bindLong(3, rowId);
+                    chunk = chunkQuery.simpleQueryForBlobFileDescriptor();
+                } catch (SQLiteDoneException e) {
+                    // The row was deleted meanwhile
+                    break;
+                }
+                if (chunk == null) {
+                    break;
+                }
+                long copied = 0;
+                InputStream in = new ParcelFileDescriptor.AutoCloseInputStream(chunk);
+                try {
+                    int count;
+                    while ((count = in.read(buffer)) > 0) {
+                        out.write(buffer, 0, count);
+                        copied += count;
+                    }
+                } finally {
+                    in.close();
+                }
+                if (copied == 0) {
+                    // The value got shorter meanwhile
+                    break;
+                }
+                written += copied;
+            }
+            return written;
+        } finally {
+            lengthQuery.close();
+            chunkQuery.close();
+        }
+    }
+
+    /**
+     * Reads a text or blob value in chunks, as {@link #copyValue} does, so that values too large
+     * for a cursor window can be read. Text is read as UTF-8.
+     *
+     * @return the value, or an empty array if it is null or the row does not exist
+     */
+    static byte[] readValue(SQLiteDatabase db, String table, String column, long rowId) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try {
+            copyValue(db, table, column, rowId, out, new byte[BUFFER_SIZE]);
+        } catch (IOException e) {
+            // A ByteArrayOutputStream does not throw, and the chunks are read from memory
+            throw new SQLException("Failed to read " + table + "." + column + ": " + e);
+        }
+        return out.toByteArray();
+    }
+
+    /**
+     * Writes text to a stream as UTF-8, encoding it a chunk at a time. Unlike
+     * String.getBytes(), this never makes an encoded copy of the whole text, and the text need
+     * not be a String: the Editable of an EditText is read in place.
+     */
+    static void writeUtf8(CharSequence text, OutputStream out) throws IOException {
+        CharsetEncoder encoder = Charset.forName("UTF-8").newEncoder()
+                .onMalformedInput(CodingErrorAction.REPLACE)
+                .onUnmappableCharacter(CodingErrorAction.REPLACE);
+        char[] chars = new char[BUFFER_SIZE];
+        CharBuffer in = CharBuffer.wrap(chars);
+        ByteBuffer bytes = ByteBuffer.allocate(BUFFER_SIZE * 3);
+
+        int length = text.length();
+        int start = 0;
+        // The characters left over from the previous chunk, at the start of chars: at most the
+        // first half of a surrogate pair
+        int carried = 0;
+        while (true) {
+            int count = Math.min(chars.length - carried, length - start);
+            TextUtils.getChars(text, start, start + count, chars, carried);
+            start += count;
+            boolean endOfInput = start == length;
+
+            in.limit(carried + count);
+            in.position(0);
+            CoderResult result;
+            do {
+                result = encoder.encode(in, bytes, endOfInput);
+                drain(bytes, out);
+            } while (result.isOverflow());
+
+            if (endOfInput) {
+                do {
+                    result = encoder.flush(bytes);
+                    drain(bytes, out);
+                } while (result.isOverflow());
+                return;
+            }
+            carried = in.remaining();
+            System.arraycopy(chars, in.position(), chars, 0, carried);
+        }
+    }
+
+    /**
+     * Writes notes to a stream as a ZIP archive, with a text entry per note: a header of the
+     * note's title, category and dates, a blank line, and the note.
+     *
+     * The archive is written as the cursor is read, and each note is copied from the database
+     * in chunks, so memory does not grow with the size of the notes. Only the archive's central
+     * directory, written at the end, is kept in memory, at about a hundred bytes per note.
+     *
+     * @param notes the notes, with the _id, title, category, created and modified columns of
+     * the notes table
+     */
+    static void writeArchive(SQLiteDatabase db, Cursor notes, OutputStream out)
+            throws IOException {
+        int idIndex = notes.getColumnIndexOrThrow(NotePad.Notes._ID);
+        int titleIndex = notes.getColumnIndexOrThrow(NotePad.Notes.COLUMN_NAME_TITLE);
+        int categoryIndex = notes.getColumnIndexOrThrow("category");
+        int createdIndex = notes.getColumnIndexOrThrow(NotePad.Notes.COLUMN_NAME_CREATE_DATE);
+        int modifiedIndex = notes.getColumnIndexOrThrow(
+                NotePad.Notes.COLUMN_NAME_MODIFICATION_DATE);
+
+        SimpleDateFormat dateFormat = newHeaderDateFormat();
+        ZipOutputStream zip = new ZipOutputStream(new BufferedOutputStream(out, BUFFER_SIZE));
+        byte[] buffer = new byte[BUFFER_SIZE];
+        StringBuilder header = new StringBuilder();
+
+        notes.moveToPosition(-1);
+        while (notes.moveToNext()) {
+            long id = notes.getLong(idIndex);
+            String title = oneLine(notes.getString(titleIndex));
+            long modified = notes.getLong(modifiedIndex);
+
+            ZipEntry entry = new ZipEntry(entryName(id, title));
+            entry.setTime(modified);
+            zip.putNextEntry(entry);
+
+            header.setLength(0);
+            header.append(HEADER_TITLE).append(title).append('\n');
+            if (!notes.isNull(categoryIndex)) {
+                header.append(HEADER_CATEGORY).append(oneLine(notes.getString(categoryIndex)))
+                        .append('\n');
+            }
+            header.append(HEADER_CREATED)
+                    .append(dateFormat.format(new Date(notes.getLong(createdIndex))))
+                    .append('\n');
+            header.append(HEADER_MODIFIED).append(dateFormat.format(new Date(modified)))
+                    .append("\n\n");
+            writeUtf8(header, zip);
+            copyNote(db, id, zip, buffer);
+            zip.closeEntry();
+        }
+        zip.finish();
+        zip.flush();
+    }
+
+    /**
+     * Returns a new format for the dates of archive entry headers: ISO 8601, in UTC, to the
+     * second.
+     */
+    static SimpleDateFormat newHeaderDateFormat() {
+        SimpleDateFormat format = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss'Z'", Locale.US);
+        format.setTimeZone(TimeZone.getTimeZone("UTC"));
+        return format;
+    }
+
+    /*
+     * Returns the archive entry name of a note: its ID, so that names are unique, and the
+     * start of its title, without the characters file systems reject.
+     */
+    private static String entryName(long id, String title) {
+        String name = title.replaceAll("[\\\\/:*?\"<>|\\p{Cntrl}]", "_").trim();
+        if (name.length() > 40) {
+            int end = Character.isHighSurrogate(name.charAt(39)) ? 39 : 40;
+            name = name.substring(0, end).trim();
+        }
+        return name.isEmpty() ? id + ".txt" : id + " " + name + ".txt";
+    }
+
+    /*
+     * Returns text with its line breaks replaced by spaces, and null as an empty string.
+     */
+    private static String oneLine(String text) {
+        return text == null ? "" : text.replaceAll("[\\r\\n]+", " ");
+    }
+
+    private static void drain(ByteBuffer bytes, OutputStream out) throws IOException {
+        out.write(bytes.array(), 0, bytes.position());
+        bytes.clear();
+    }
+}
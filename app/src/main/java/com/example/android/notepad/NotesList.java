@@ -17,22 +17,32 @@
 package com.example.android.notepad;
 
 import android.annotation.SuppressLint;
+import android.annotation.TargetApi;
 import android.app.ActionBar;
 import android.app.ListActivity;
+import android.app.LoaderManager;
+import android.content.AsyncQueryHandler;
 import android.content.ClipboardManager;
 import android.content.ClipData;
 import android.content.ComponentName;
 import android.content.ContentUris;
+import android.content.ContentResolver;
 import android.content.Context;
 import android.content.Intent;
+import android.content.Loader;
+import android.content.res.AssetFileDescriptor;
+import android.database.ContentObserver;
 import android.database.Cursor;
 import android.graphics.Color;
 import android.media.Image;
 import android.net.Uri;
+import android.os.Build;
 import android.os.Bundle;
+import android.os.Handler;
 import android.text.Editable;
 import android.text.TextWatcher;
 import android.util.Log;
+import android.util.SparseArray;
 import android.view.ContextMenu;
 import android.view.Gravity;
 import android.view.LayoutInflater;
@@ -41,6 +51,7 @@ import android.view.MenuInflater;
 import android.view.MenuItem;
 import android.view.View;
 import android.view.ContextMenu.ContextMenuInfo;
+import android.widget.AbsListView;
 import android.widget.AdapterView;
 import android.widget.ImageButton;
 import android.widget.LinearLayout;
@@ -51,55 +62,221 @@ import android.widget.SimpleCursorAdapter;
 import android.widget.TextView;
 import android.widget.Toast;
 
-import java.text.SimpleDateFormat;
-import java.util.Date;
-import java.util.Locale;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
 
 /**
  * Displays a list of notes. Will display notes from the {@link Uri}
  * provided in the incoming Intent if there is one, otherwise it defaults to displaying the
  * contents of the {@link NotePadProvider}.
  *
- * NOTE: Notice that the provider operations in this Activity are taking place on the UI thread.
- * This is not a good practice. It is only done here to make the code more readable. A real
- * application should use the {@link android.content.AsyncQueryHandler} or
- * {@link android.os.AsyncTask} object to perform operations asynchronously on a separate thread.
+ * The notes are loaded a page at a time by a {@link NotesPageLoader}, searches run in a
+ * {@link DebouncedSearch}, and deletes go through an {@link AsyncQueryHandler}, so the provider
+ * is never called on the UI thread.
  */
 public class NotesList extends ListActivity {
 
     // For logging and debugging
     private static final String TAG = "NotesList";
 
+    /**
+     * The request code of the document picker for exporting every note
+     */
+    private static final int REQUEST_CODE_EXPORT_ALL = 1;
+
+    /**
+     * The request code of the document picker for importing notes
+     */
+    private static final int REQUEST_CODE_IMPORT = 2;
+
     /**
      * The columns needed by the cursor adapter
      */
     private static final String[] PROJECTION = new String[] {
             NotePad.Notes._ID, // 0
             NotePad.Notes.COLUMN_NAME_TITLE, // 1
-            NotePad.Notes.COLUMN_NAME_MODIFICATION_DATE
+            NotePad.Notes.COLUMN_NAME_MODIFICATION_DATE, // 2
+            NotePad.Notes.COLUMN_NAME_SNIPPET // 3, never the full note
     };
 
     /** The index of the title column */
     private static final int COLUMN_INDEX_TITLE = 1;
 
+    /** The index of the modification date column */
+    private static final int COLUMN_INDEX_MODIFIED = 2;
+
+    /** The ID of the loader that pages through the notes list */
+    private static final int LOADER_NOTES = 0;
+
+    /** The ID of the loader that pages through the notes of the chosen folder */
+    private static final int LOADER_FOLDER = 1;
+
+    /** The argument of the folder loader holding the notes URI of the folder */
+    private static final String ARG_FOLDER_URI = "folderUri";
+
+    // Labels for the saved state of the activity
+    private static final String STATE_FOLDER_URI = "folderUri";
+    private static final String STATE_FOLDER_NAME = "folderName";
+
+    /** The token of the query for the folders to choose from */
+    private static final int TOKEN_FOLDERS = 1;
+
+    /** The preference holding the chosen background: "white" or a drawable resource name */
+    private static final String PREF_BACKGROUND = "background";
+
+    /** The plain white background */
+    private static final String BACKGROUND_WHITE = "white";
+
     /**
      * onCreate is called when Android starts this Activity from scratch.
      */
 
     private TextView searchView;
 
+    // Runs the searches typed into the search box off the UI thread
+    private DebouncedSearch mSearch;
+
+    // The text in the search box; empty when the full notes list is shown
+    private String mQuery = "";
+
+    // The cursor holding the pages of the shown list loaded so far, owned by its loader
+    private Cursor mListCursor;
+
+    // The pages loaded by each loader. The pages of every note stay loaded while a folder is
+    // shown, so going back to all notes needs no query.
+    private Cursor mAllPages;
+    private Cursor mFolderPages;
+
+    // The notes URI and name of the folder shown, or null when every note is shown
+    private Uri mFolderUri;
+    private String mFolderName;
+
+    // Creates both page loaders, and hands their pages to the list
+    private LoaderManager.LoaderCallbacks<Cursor> mPagesCallbacks;
+
+    // Re-runs the current search when notes change. The loader reloads the list by itself.
+    private ContentObserver mNotesObserver;
+
+    // Deletes notes, and queries the folders to choose from, off the UI thread
+    private AsyncQueryHandler mQueryHandler;
+
+    // Formats the modification dates shown in the list
+    private final TimestampFormatter mTimestampFormatter = new TimestampFormatter();
+
     // 搜索功能实现
     private void performSearch(String query) {
-        Cursor cursor = managedQuery(
-                NotePad.Notes.CONTENT_URI,
-                PROJECTION,
-                NotePad.Notes.COLUMN_NAME_TITLE + " LIKE ?",
-                new String[]{"%" + query + "%"},
-                NotePad.Notes.DEFAULT_SORT_ORDER
-        );
+        mQuery = query;
+        if (query.trim().length() == 0) {
+            // 清空搜索框时直接显示已加载的笔记列表
+            mSearch.cancel();
+            showSearchResult(mListCursor);
+            return;
+        }
+        // 合并连续的输入，只在输入停顿后在后台线程执行一次查询
+        mSearch.search(query);
+    }
 
+    /**
+     * Shows a cursor in the list. The page cursors are owned by the loaders and stay open;
+     * every other cursor is closed once it is replaced.
+     */
+    private void showSearchResult(Cursor cursor) {
         SimpleCursorAdapter adapter = (SimpleCursorAdapter) getListAdapter();
-        adapter.changeCursor(cursor);
+        Cursor old = adapter.swapCursor(cursor);
+        if (old != null && old != mAllPages && old != mFolderPages) {
+            old.close();
+        }
+    }
+
+    /**
+     * Receives the pages loaded so far by one of the loaders, and shows them if they are the
+     * pages of the list being shown and no search is being shown.
+     */
+    private void showPages(int loaderId, Cursor cursor) {
+        if (loaderId == LOADER_FOLDER) {
+            mFolderPages = cursor;
+        } else {
+            mAllPages = cursor;
+        }
+        if (loaderId == shownLoader()) {
+            mListCursor = cursor;
+            if (mQuery.trim().length() == 0) {
+                ((SimpleCursorAdapter) getListAdapter()).swapCursor(cursor);
+            }
+        }
+    }
+
+    /*
+     * The ID of the loader of the list being shown
+     */
+    private int shownLoader() {
+        return mFolderUri != null ? LOADER_FOLDER : LOADER_NOTES;
+    }
+
+    /**
+     * Shows the notes of a folder, or every note. The notes of a folder are paged by a loader of
+     * their own, from the folder's URI, while the pages of every note stay loaded.
+     *
+     * @param folderUri the notes URI of the folder, or null for every note
+     * @param name the name of the folder, or null for every note
+     */
+    private void showFolder(Uri folderUri, String name) {
+        if (folderUri != null && folderUri.equals(mFolderUri)) {
+            return;
+        }
+        mFolderUri = folderUri;
+        mFolderName = name;
+        ((TextView) findViewById(R.id.title)).setText(name != null ? name : "记事本");
+        if (folderUri == null) {
+            // Shows the pages of every note before the folder's pages are released
+            mListCursor = mAllPages;
+            if (mQuery.trim().length() == 0) {
+                showSearchResult(mAllPages);
+            }
+            getLoaderManager().destroyLoader(LOADER_FOLDER);
+            mFolderPages = null;
+        } else {
+            mListCursor = null;
+            if (mQuery.trim().length() == 0) {
+                showSearchResult(null);
+            }
+            Bundle args = new Bundle();
+            args.putParcelable(ARG_FOLDER_URI, folderUri);
+            getLoaderManager().restartLoader(LOADER_FOLDER, args, mPagesCallbacks);
+        }
+    }
+
+    /**
+     * Lets the user choose a folder to show, from the categories and their note counts.
+     */
+    private void showFolderMenu(View anchor, Cursor folders) {
+        PopupMenu popup = new PopupMenu(this, anchor);
+        final SparseArray<String> names = new SparseArray<String>();
+        popup.getMenu().add(Menu.NONE, 0, 0, "全部笔记");
+        try {
+            while (folders.moveToNext()) {
+                int id = (int) folders.getLong(0);
+                String name = folders.getString(1);
+                names.put(id, name);
+                popup.getMenu().add(Menu.NONE, id, folders.getPosition() + 1,
+                        name + " (" + folders.getInt(2) + ")");
+            }
+        } finally {
+            folders.close();
+        }
+        popup.setOnMenuItemClickListener(new PopupMenu.OnMenuItemClickListener() {
+            @Override
+            public boolean onMenuItemClick(MenuItem item) {
+                String name = names.get(item.getItemId());
+                showFolder(name != null ? NotePad.Categories.getNotesUri(item.getItemId()) : null,
+                        name);
+                return true;
+            }
+        });
+        popup.show();
     }
 
     @Override
@@ -115,6 +292,19 @@ public class NotesList extends ListActivity {
             actionBar.hide();
         }
 
+        // 点击标题切换文件夹，文件夹列表在后台查询
+        final TextView titleView = (TextView) findViewById(R.id.title);
+        titleView.setOnClickListener(new View.OnClickListener() {
+            @Override
+            public void onClick(View view) {
+                mQueryHandler.startQuery(TOKEN_FOLDERS, view, NotePad.Categories.CONTENT_URI,
+                        new String[] { NotePad.Categories._ID,
+                                NotePad.Categories.COLUMN_NAME_NAME,
+                                NotePad.Categories.COLUMN_NAME_COUNT },
+                        null, null, null);
+            }
+        });
+
         // 初始化按钮和输入框
         final ImageButton searchButton = (ImageButton) findViewById(R.id.searchbtn);
         final TextView searchEditText = (TextView) findViewById(R.id.search);
@@ -178,6 +368,15 @@ public class NotesList extends ListActivity {
         });
 
 
+        // 恢复上次选择的背景，图片从缓存读取，不在主线程解码
+        String background = getPreferences(MODE_PRIVATE).getString(PREF_BACKGROUND, null);
+        if (background != null) {
+            showBackground(background);
+        }
+
+        // 在后台预加载用户上次在编辑界面选择的字体
+        Typefaces.preload(this);
+
         // The user does not need to hold down the key to use menu shortcuts.
         setDefaultKeyMode(DEFAULT_KEYS_SHORTCUT);
 
@@ -189,42 +388,149 @@ public class NotesList extends ListActivity {
 
         getListView().setOnCreateContextMenuListener(this);
 
-        Cursor cursor = managedQuery(
-            getIntent().getData(),            // Use the default content URI for the provider.
-            PROJECTION,                       // Return the note ID and title for each note.
-            null,                             // No where clause, return all records.
-            null,                             // No where clause, therefore no where column values.
-            NotePad.Notes.DEFAULT_SORT_ORDER  // Use the default sort order.
-        );
-
-        String[] dataColumns = { NotePad.Notes.COLUMN_NAME_TITLE, NotePad.Notes.COLUMN_NAME_MODIFICATION_DATE } ;
+        // 修改时间由 bindView 通过 mTimestampFormatter 绑定
+        String[] dataColumns = { NotePad.Notes.COLUMN_NAME_TITLE,
+                NotePad.Notes.COLUMN_NAME_SNIPPET };
 
-        int[] viewIDs = { android.R.id.title, R.id.timetext };
+        int[] viewIDs = { android.R.id.title, R.id.snippet };
 
         // Creates the backing adapter for the ListView.
         SimpleCursorAdapter adapter
             = new SimpleCursorAdapter(
                       this,                             // The Context for the ListView
                       R.layout.noteslist_item,          // Points to the XML for a list item
-                      cursor,                           // The cursor to get items from
+                      null,                             // The loader supplies the cursor
                       dataColumns,
-                      viewIDs
+                      viewIDs,
+                      0                                 // The loader reloads on changes
               ) {
             @Override
             public void bindView(View view, Context context, Cursor cursor) {
                 super.bindView(view, context, cursor);
 
-                long timestamp = cursor.getLong(cursor.getColumnIndex(NotePad.Notes.COLUMN_NAME_MODIFICATION_DATE));
-                SimpleDateFormat dateFormat = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss", Locale.getDefault());
-                String formattedDate = dateFormat.format(new Date(timestamp));
-                TextView timeTextView = (TextView) view.findViewById(R.id.timetext);
-                timeTextView.setText(formattedDate);
+                // 复用时间格式化器，避免滚动时为每一行分配对象
+                TextView timeTextView = (TextView) view.getTag();
+                if (timeTextView == null) {
+                    timeTextView = (TextView) view.findViewById(R.id.timetext);
+                    view.setTag(timeTextView);
+                }
+                mTimestampFormatter.setText(timeTextView, cursor.getLong(COLUMN_INDEX_MODIFIED));
 
             }
         };
 
         // Sets the ListView's adapter to be the cursor adapter that was just created.
         setListAdapter(adapter);
+
+        mSearch = new DebouncedSearch(getContentResolver(), PROJECTION,
+                new DebouncedSearch.Callback() {
+                    @Override
+                    public void onSearchResult(String query, Cursor cursor) {
+                        showSearchResult(cursor);
+                    }
+                });
+
+        mQueryHandler = new AsyncQueryHandler(getContentResolver()) {
+            @Override
+            protected void onQueryComplete(int token, Object cookie, Cursor cursor) {
+                if (cursor == null) {
+                    return;
+                }
+                if (token == TOKEN_FOLDERS && !isFinishing()) {
+                    showFolderMenu((View) cookie, cursor);
+                } else {
+                    cursor.close();
+                }
+            }
+        };
+
+        // 在后台分页加载笔记列表，屏幕旋转后由 LoaderManager 直接交回已加载的页面
+        mPagesCallbacks = new LoaderManager.LoaderCallbacks<Cursor>() {
+            @Override
+            public Loader<Cursor> onCreateLoader(int id, Bundle args) {
+                Uri uri = id == LOADER_FOLDER ? (Uri) args.getParcelable(ARG_FOLDER_URI)
+                        : getIntent().getData();
+                return new NotesPageLoader(NotesList.this, uri, PROJECTION,
+                        NotesPageLoader.DEFAULT_PAGE_SIZE);
+            }
+
+            @Override
+            public void onLoadFinished(Loader<Cursor> loader, Cursor cursor) {
+                showPages(loader.getId(), cursor);
+            }
+
+            @Override
+            public void onLoaderReset(Loader<Cursor> loader) {
+                // A restarted folder loader is replaced by the new one, whose pages are kept
+                if (getLoaderManager().getLoader(loader.getId()) == loader) {
+                    showPages(loader.getId(), null);
+                }
+            }
+        };
+        getLoaderManager().initLoader(LOADER_NOTES, null, mPagesCallbacks);
+
+        // 恢复上次显示的文件夹
+        if (savedInstanceState != null
+                && savedInstanceState.getParcelable(STATE_FOLDER_URI) != null) {
+            mFolderUri = savedInstanceState.getParcelable(STATE_FOLDER_URI);
+            mFolderName = savedInstanceState.getString(STATE_FOLDER_NAME);
+            titleView.setText(mFolderName);
+            Bundle args = new Bundle();
+            args.putParcelable(ARG_FOLDER_URI, mFolderUri);
+            getLoaderManager().initLoader(LOADER_FOLDER, args, mPagesCallbacks);
+        }
+
+        // 滚动到底部附近时加载下一页
+        getListView().setOnScrollListener(new AbsListView.OnScrollListener() {
+            @Override
+            public void onScrollStateChanged(AbsListView view, int scrollState) {}
+
+            @Override
+            public void onScroll(AbsListView view, int firstVisibleItem, int visibleItemCount,
+                    int totalItemCount) {
+                if (mQuery.trim().length() == 0
+                        && firstVisibleItem + visibleItemCount
+                                >= totalItemCount - NotesPageLoader.DEFAULT_PAGE_SIZE / 2) {
+                    Loader<Cursor> loader = getLoaderManager().getLoader(shownLoader());
+                    if (loader != null) {
+                        ((NotesPageLoader) loader).loadNextPage();
+                    }
+                }
+            }
+        });
+
+        mNotesObserver = new ContentObserver(new Handler()) {
+            @Override
+            public void onChange(boolean selfChange) {
+                if (mQuery.trim().length() > 0) {
+                    mSearch.search(mQuery);
+                }
+            }
+        };
+        getContentResolver().registerContentObserver(getIntent().getData(), true, mNotesObserver);
+    }
+
+    @Override
+    protected void onSaveInstanceState(Bundle outState) {
+        super.onSaveInstanceState(outState);
+        outState.putParcelable(STATE_FOLDER_URI, mFolderUri);
+        outState.putString(STATE_FOLDER_NAME, mFolderName);
+    }
+
+    @Override
+    protected void onDestroy() {
+        super.onDestroy();
+        if (mNotesObserver != null) {
+            getContentResolver().unregisterContentObserver(mNotesObserver);
+        }
+        if (mSearch != null) {
+            mSearch.shutdown();
+        }
+        SimpleCursorAdapter adapter = (SimpleCursorAdapter) getListAdapter();
+        Cursor current = adapter != null ? adapter.getCursor() : null;
+        if (current != null && current != mAllPages && current != mFolderPages) {
+            current.close();
+        }
     }
 
     private void showStyleMenu(View v) {
@@ -247,53 +553,79 @@ public class NotesList extends ListActivity {
         popupView.findViewById(R.id.white).setOnClickListener(new View.OnClickListener() {
             @Override
             public void onClick(View view) {
-                findViewById(R.id.bg).setBackgroundColor(Color.parseColor("#FFFFFF"));
+                chooseBackground(BACKGROUND_WHITE);
             }
         });
 
         popupView.findViewById(R.id.bg1Btn).setOnClickListener(new View.OnClickListener() {
             @Override
             public void onClick(View view) {
-                findViewById(R.id.bg).setBackgroundResource(R.drawable.bg1);
+                chooseBackground("bg1");
             }
         });
 
         popupView.findViewById(R.id.bg2Btn).setOnClickListener(new View.OnClickListener() {
             @Override
             public void onClick(View view) {
-                findViewById(R.id.bg).setBackgroundResource(R.drawable.bg2);
+                chooseBackground("bg2");
             }
         });
 
         popupView.findViewById(R.id.bg3Btn).setOnClickListener(new View.OnClickListener() {
             @Override
             public void onClick(View view) {
-                findViewById(R.id.bg).setBackgroundResource(R.drawable.bg3);
+                chooseBackground("bg3");
             }
         });
 
         popupView.findViewById(R.id.bg4Btn).setOnClickListener(new View.OnClickListener() {
             @Override
             public void onClick(View view) {
-                findViewById(R.id.bg).setBackgroundResource(R.drawable.bg4);
+                chooseBackground("bg4");
             }
         });
 
         popupView.findViewById(R.id.bg5Btn).setOnClickListener(new View.OnClickListener() {
             @Override
             public void onClick(View view) {
-                findViewById(R.id.bg).setBackgroundResource(R.drawable.bg5);
+                chooseBackground("bg5");
             }
         });
 
         popupView.findViewById(R.id.bg6Btn).setOnClickListener(new View.OnClickListener() {
             @Override
             public void onClick(View view) {
-                findViewById(R.id.bg).setBackgroundResource(R.drawable.bg6);
+                chooseBackground("bg6");
             }
         });
     }
 
+    /**
+     * Shows a background and remembers it for the next start.
+     *
+     * @param name {@link #BACKGROUND_WHITE}, or the name of a drawable resource
+     */
+    private void chooseBackground(String name) {
+        getPreferences(MODE_PRIVATE).edit().putString(PREF_BACKGROUND, name).apply();
+        showBackground(name);
+    }
+
+    /*
+     * Shows a background. Images are decoded in the background at the size of the view.
+     */
+    private void showBackground(String name) {
+        View root = findViewById(R.id.bg);
+        BackgroundImageLoader loader = BackgroundImageLoader.getInstance(this);
+        int resId = BACKGROUND_WHITE.equals(name) ? 0
+                : getResources().getIdentifier(name, "drawable", getPackageName());
+        if (resId == 0) {
+            loader.cancel(root);
+            root.setBackgroundColor(Color.parseColor("#FFFFFF"));
+        } else {
+            loader.load(root, resId);
+        }
+    }
+
     @Override
     public boolean onCreateOptionsMenu(Menu menu) {
 
@@ -317,6 +649,11 @@ public class NotesList extends ListActivity {
 
         MenuItem mPasteItem = menu.findItem(R.id.menu_paste);
 
+        // Documents can only be created and picked from API 19
+        boolean haveDocuments = Build.VERSION.SDK_INT >= Build.VERSION_CODES.KITKAT;
+        menu.findItem(R.id.menu_export_all).setVisible(haveDocuments);
+        menu.findItem(R.id.menu_import).setVisible(haveDocuments);
+
         if (clipboard.hasPrimaryClip()) {
             mPasteItem.setEnabled(true);
         } else {
@@ -370,11 +707,146 @@ public class NotesList extends ListActivity {
         case R.id.menu_paste:
           startActivity(new Intent(Intent.ACTION_PASTE, getIntent().getData()));
           return true;
+        case R.id.menu_export_all:
+            Intent intent = new Intent(Intent.ACTION_CREATE_DOCUMENT);
+            intent.addCategory(Intent.CATEGORY_OPENABLE);
+            intent.setType(NotePad.Notes.ARCHIVE_TYPE);
+            intent.putExtra(Intent.EXTRA_TITLE, "notes.zip");
+            startActivityForResult(intent, REQUEST_CODE_EXPORT_ALL);
+            return true;
+        case R.id.menu_import:
+            Intent picker = new Intent(Intent.ACTION_OPEN_DOCUMENT);
+            picker.addCategory(Intent.CATEGORY_OPENABLE);
+            picker.setType("*/*");
+            picker.putExtra(Intent.EXTRA_MIME_TYPES,
+                    new String[] { "text/*", NotePad.Notes.ARCHIVE_TYPE });
+            picker.putExtra(Intent.EXTRA_ALLOW_MULTIPLE, true);
+            startActivityForResult(picker, REQUEST_CODE_IMPORT);
+            return true;
         default:
             return super.onOptionsItemSelected(item);
         }
     }
 
+    @Override
+    protected void onActivityResult(int requestCode, int resultCode, Intent data) {
+        super.onActivityResult(requestCode, resultCode, data);
+        if (requestCode == REQUEST_CODE_EXPORT_ALL && resultCode == RESULT_OK
+                && data != null && data.getData() != null) {
+            exportAllNotes(data.getData());
+        } else if (requestCode == REQUEST_CODE_IMPORT && resultCode == RESULT_OK && data != null) {
+            List<Uri> documents = getPickedDocuments(data);
+            if (!documents.isEmpty()) {
+                importNotes(documents);
+            }
+        }
+    }
+
+    /*
+     * Returns the documents picked with ACTION_OPEN_DOCUMENT: several in the clip data, or one
+     * in the data.
+     */
+    @TargetApi(Build.VERSION_CODES.KITKAT)
+    private static List<Uri> getPickedDocuments(Intent data) {
+        ArrayList<Uri> documents = new ArrayList<Uri>();
+        ClipData clip = data.getClipData();
+        if (clip != null) {
+            for (int i = 0; i < clip.getItemCount(); i++) {
+                documents.add(clip.getItemAt(i).getUri());
+            }
+        } else if (data.getData() != null) {
+            documents.add(data.getData());
+        }
+        return documents;
+    }
+
+    /*
+     * Imports picked documents on a background thread. The list shows the new notes through
+     * its content observer.
+     */
+    private void importNotes(final List<Uri> documents) {
+        final NoteImporter importer = new NoteImporter(getContentResolver());
+        Toast.makeText(this, "正在导入笔记", Toast.LENGTH_SHORT).show();
+        new Thread(new Runnable() {
+            @Override
+            public void run() {
+                String message;
+                try {
+                    NoteImporter.Result result = importer.importDocuments(documents);
+                    message = "已导入 " + result.imported + " 条笔记";
+                    if (result.failed > 0) {
+                        message += "，" + result.failed + " 个文件失败";
+                    }
+                } catch (IOException e) {
+                    Log.w(TAG, "Failed to import " + documents, e);
+                    message = "导入失败";
+                } catch (InterruptedException e) {
+                    message = "导入失败";
+                } catch (RuntimeException e) {
+                    // Thrown by the resolver, for example when a document is gone
+                    Log.w(TAG, "Failed to import " + documents, e);
+                    message = "导入失败";
+                }
+                final String text = message;
+                runOnUiThread(new Runnable() {
+                    @Override
+                    public void run() {
+                        Toast.makeText(NotesList.this, text, Toast.LENGTH_SHORT).show();
+                    }
+                });
+            }
+        }, "NotesImport").start();
+    }
+
+    /*
+     * Copies the provider's archive of every note to a document, on a background thread. The
+     * provider writes the archive as it is read, so the copy runs in constant memory however
+     * many notes there are.
+     */
+    private void exportAllNotes(final Uri document) {
+        final ContentResolver resolver = getContentResolver();
+        Toast.makeText(this, "正在导出全部笔记", Toast.LENGTH_SHORT).show();
+        new Thread(new Runnable() {
+            @Override
+            public void run() {
+                boolean exported = false;
+                try {
+                    AssetFileDescriptor archive = resolver.openTypedAssetFileDescriptor(
+                            NotePad.Notes.CONTENT_URI, NotePad.Notes.ARCHIVE_TYPE, null);
+                    InputStream in = archive.createInputStream();
+                    try {
+                        OutputStream out = resolver.openOutputStream(document);
+                        try {
+                            byte[] buffer = new byte[NoteStreams.BUFFER_SIZE];
+                            int count;
+                            while ((count = in.read(buffer)) > 0) {
+                                out.write(buffer, 0, count);
+                            }
+                        } finally {
+                            out.close();
+                        }
+                    } finally {
+                        in.close();
+                    }
+                    exported = true;
+                } catch (IOException e) {
+                    Log.w(TAG, "Failed to export notes to " + document, e);
+                } catch (RuntimeException e) {
+                    // Thrown by the resolver, for example when the document is gone
+                    Log.w(TAG, "Failed to export notes to " + document, e);
+                }
+                final boolean succeeded = exported;
+                runOnUiThread(new Runnable() {
+                    @Override
+                    public void run() {
+                        Toast.makeText(NotesList.this, succeeded ? "笔记导出成功" : "导出失败",
+                                Toast.LENGTH_SHORT).show();
+                    }
+                });
+            }
+        }, "NotesExport").start();
+    }
+
     @Override
     public void onCreateContextMenu(ContextMenu menu, View view, ContextMenuInfo menuInfo) {
 
@@ -424,7 +896,9 @@ public class NotesList extends ListActivity {
             );
             return true;
         case R.id.context_delete:
-            getContentResolver().delete(
+            mQueryHandler.startDelete(
+                0,        // No token is needed, since the result is not used
+                null,     // No cookie either
                 noteUri,  // The URI of the provider
                 null,     // No where clause is needed, since only a single note ID is being
                           // passed in.
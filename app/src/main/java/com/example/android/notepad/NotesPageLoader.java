@@ -0,0 +1,330 @@
+/*
+ * Copyright (C) 2007 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.android.notepad;
+
+import android.annotation.TargetApi;
+import android.content.AsyncTaskLoader;
+import android.content.Context;
+import android.database.Cursor;
+import android.database.CursorWrapper;
+import android.database.MergeCursor;
+import android.net.Uri;
+import android.os.Build;
+import android.os.CancellationSignal;
+import android.os.OperationCanceledException;
+
+import java.util.ArrayList;
+
+/**
+ * Loads the notes list one page at a time, using the provider's keyset paging parameters.
+ *
+ * Pages are queried on a background thread. Every time a page arrives, the pages loaded so far
+ * are delivered as one {@link MergeCursor}. The loader owns the page cursors; a delivered cursor
+ * stays valid until the next one is delivered or the loader is reset. Because the LoaderManager
+ * keeps the loader across configuration changes, a rotated NotesList gets the loaded pages back
+ * without querying again.
+ *
+ * When the notes change, the loader reloads them from the start, in a single query covering as
+ * many notes as are loaded at that time.
+ *
+ * Apart from {@link #loadInBackground()}, all methods must be called on the UI thread.
+ */
+class NotesPageLoader extends AsyncTaskLoader<Cursor> {
+
+    /**
+     * The default number of notes in a page
+     */
+    static final int DEFAULT_PAGE_SIZE = 50;
+
+    private final Uri mBaseUri;
+    private final String[] mProjection;
+    private final int mPageSize;
+    private final ForceLoadContentObserver mObserver = new ForceLoadContentObserver();
+    private boolean mObserverRegistered;
+
+    // The query for the next background load. Set on the UI thread before the load is started,
+    // and read once by the load.
+    private volatile Request mRequest;
+
+    // Cancels the running query, on platforms that support it. Guarded by this.
+    private Object mCancellationSignal;
+
+    // The pages loaded so far, and the cursor over all of them that was delivered last
+    private final ArrayList<Cursor> mPages = new ArrayList<Cursor>();
+    private Cursor mPagesCursor;
+
+    // The number of notes loaded so far
+    private int mLoadedCount;
+
+    // True once a page shorter than its limit has arrived
+    private boolean mExhausted;
+
+    // True from the start of a load until its page has been delivered
+    private boolean mLoading;
+
+    /**
+     * @param baseUri the notes URI to page through. Paging parameters are appended to it.
+     * @param projection the columns to return. Must include {@link NotePad.Notes#_ID} and
+     * {@link NotePad.Notes#COLUMN_NAME_MODIFICATION_DATE}, which form the page keyset.
+     */
+    NotesPageLoader(Context context, Uri baseUri, String[] projection, int pageSize) {
+        super(context);
+        mBaseUri = baseUri;
+        mProjection = projection;
+        mPageSize = pageSize;
+    }
+
+    /**
+     * Starts loading the page after the last loaded note, unless a load is already running or
+     * every note has been loaded.
+     */
+    void loadNextPage() {
+        if (mLoading || mExhausted || mPages.isEmpty()) {
+            return;
+        }
+        Cursor last = mPages.get(mPages.size() - 1);
+        if (!last.moveToLast()) {
+            return;
+        }
+        Uri uri = mBaseUri.buildUpon()
+                .appendQueryParameter(NotePad.Notes.QUERY_PARAMETER_LIMIT,
+                        Integer.toString(mPageSize))
+                .appendQueryParameter(NotePad.Notes.QUERY_PARAMETER_BEFORE_MODIFIED,
+                        Long.toString(last.getLong(last.getColumnIndexOrThrow(
+                                NotePad.Notes.COLUMN_NAME_MODIFICATION_DATE))))
+                .appendQueryParameter(NotePad.Notes.QUERY_PARAMETER_BEFORE_ID,
+                        Long.toString(last.getLong(last.getColumnIndexOrThrow(
+                                NotePad.Notes._ID))))
+                .build();
+        start(new Request(uri, false, mPageSize));
+    }
+
+    /*
+     * Reloads the notes from the start. Any running load is superseded.
+     */
+    private void reload() {
+        int limit = Math.max(mLoadedCount, mPageSize);
+        Uri uri = mBaseUri.buildUpon()
+                .appendQueryParameter(NotePad.Notes.QUERY_PARAMETER_LIMIT,
+                        Integer.toString(limit))
+                .build();
+        start(new Request(uri, true, limit));
+    }
+
+    private void start(Request request) {
+        mRequest = request;
+        mLoading = true;
+        forceLoad();
+    }
+
+    @Override
+    public Cursor loadInBackground() {
+        Request request = mRequest;
+        Cursor cursor;
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN) {
+            cursor = queryCancelable(request);
+        } else {
+            cursor = getContext().getContentResolver().query(request.uri, mProjection, null,
+                    null, null);
+        }
+        if (cursor == null) {
+            return null;
+        }
+        // Fills the cursor window here, so that the UI thread does not touch the database
+        cursor.getCount();
+        return new Page(cursor, request);
+    }
+
+    @TargetApi(Build.VERSION_CODES.JELLY_BEAN)
+    private Cursor queryCancelable(Request request) {
+        CancellationSignal signal;
+        synchronized (this) {
+            if (isLoadInBackgroundCanceled()) {
+                throw new OperationCanceledException();
+            }
+            signal = new CancellationSignal();
+            mCancellationSignal = signal;
+        }
+        try {
+            return getContext().getContentResolver().query(request.uri, mProjection, null, null,
+                    null, signal);
+        } finally {
+            synchronized (this) {
+                mCancellationSignal = null;
+            }
+        }
+    }
+
+    @TargetApi(Build.VERSION_CODES.JELLY_BEAN)
+    @Override
+    public void cancelLoadInBackground() {
+        super.cancelLoadInBackground();
+        synchronized (this) {
+            if (mCancellationSignal != null) {
+                ((CancellationSignal) mCancellationSignal).cancel();
+            }
+        }
+    }
+
+    /**
+     * Adds a freshly loaded page to the loaded pages and delivers a cursor over all of them.
+     * Called with the cursor that was delivered last when the loader is started again.
+     */
+    @Override
+    public void deliverResult(Cursor cursor) {
+        if (isReset()) {
+            // The loader has been reset while the page was loading
+            if (cursor instanceof Page) {
+                cursor.close();
+            }
+            return;
+        }
+        if (cursor == null) {
+            // The query failed, so the delivered cursor stays as it is
+            mLoading = false;
+            return;
+        }
+        if (!(cursor instanceof Page)) {
+            if (isStarted()) {
+                super.deliverResult(cursor);
+            }
+            return;
+        }
+
+        Page page = (Page) cursor;
+        mLoading = false;
+        int count = page.getCount();
+        if (!page.request.reload && count == 0 && !mPages.isEmpty()) {
+            // Every note was already loaded, so the delivered cursor stays as it is
+            page.close();
+            mExhausted = true;
+            return;
+        }
+
+        ArrayList<Cursor> stale = new ArrayList<Cursor>();
+        if (page.request.reload) {
+            stale.addAll(mPages);
+            mPages.clear();
+            mLoadedCount = 0;
+        }
+        mPages.add(page);
+        mLoadedCount += count;
+        mExhausted = count < page.request.limit;
+        mPagesCursor = mPages.size() == 1 ? mPages.get(0)
+                : new MergeCursor(mPages.toArray(new Cursor[mPages.size()]));
+
+        if (isStarted()) {
+            super.deliverResult(mPagesCursor);
+        }
+
+        // The delivered cursor has been replaced, so the pages that left it can be closed now
+        closePages(stale);
+    }
+
+    /**
+     * Reloads when the notes change. While the loader is stopped, the change is remembered and
+     * the reload happens when it is started again.
+     */
+    @Override
+    public void onContentChanged() {
+        if (isStarted()) {
+            reload();
+        } else {
+            super.onContentChanged();
+        }
+    }
+
+    @Override
+    protected void onStartLoading() {
+        if (!mObserverRegistered) {
+            // Watches every note, not the base URI: the provider notifies changes under the
+            // notes URI only, and a folder's notes change whenever a note does
+            getContext().getContentResolver().registerContentObserver(
+                    NotePad.Notes.CONTENT_URI, true, mObserver);
+            mObserverRegistered = true;
+        }
+        if (mPagesCursor != null) {
+            deliverResult(mPagesCursor);
+        }
+        if (takeContentChanged() || mPagesCursor == null) {
+            reload();
+        }
+    }
+
+    @Override
+    protected void onStopLoading() {
+        cancelLoad();
+        mLoading = false;
+    }
+
+    @Override
+    public void onCanceled(Cursor cursor) {
+        // A superseded page, which was never delivered
+        if (cursor != null && !cursor.isClosed()) {
+            cursor.close();
+        }
+    }
+
+    @Override
+    protected void onReset() {
+        super.onReset();
+        onStopLoading();
+        if (mObserverRegistered) {
+            getContext().getContentResolver().unregisterContentObserver(mObserver);
+            mObserverRegistered = false;
+        }
+        closePages(mPages);
+        mPages.clear();
+        mPagesCursor = null;
+        mLoadedCount = 0;
+        mExhausted = false;
+    }
+
+    private static void closePages(ArrayList<Cursor> pages) {
+        for (Cursor page : pages) {
+            page.close();
+        }
+    }
+
+    /*
+     * A query issued by the loader: the page URI, whether it replaces the loaded pages, and the
+     * number of notes it asks for.
+     */
+    private static class Request {
+        final Uri uri;
+        final boolean reload;
+        final int limit;
+
+        Request(Uri uri, boolean reload, int limit) {
+            this.uri = uri;
+            this.reload = reload;
+            this.limit = limit;
+        }
+    }
+
+    /*
+     * A loaded page, remembering the request it answers until it reaches deliverResult().
+     */
+    private static class Page extends CursorWrapper {
+        final Request request;
+
+        Page(Cursor cursor, Request request) {
+            super(cursor);
+            this.request = request;
+        }
+    }
+}
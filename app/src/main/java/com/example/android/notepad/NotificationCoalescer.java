@@ -0,0 +1,170 @@
+/*
+ * Copyright (C) 2007 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.android.notepad;
+
+import android.net.Uri;
+import android.os.Handler;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+
+/**
+ * Batches the change notifications of NotePadProvider, so that a burst of writes makes each
+ * observer requery once instead of once per write.
+ *
+ * A change is held for a short window after the first change of a burst, and then every URI
+ * that changed is notified once. A notification for a URI reaches the observers of all its
+ * descendants, so a URI is left out when one of its ancestors is notified as well. Changes made
+ * inside a transaction are held until the transaction ends, and notified right after it
+ * commits.
+ *
+ * All methods are thread-safe. Transactions are tracked per thread and do not nest.
+ */
+class NotificationCoalescer {
+
+    /**
+     * The default time changes are held, in milliseconds
+     */
+    static final long DEFAULT_WINDOW_MILLIS = 100;
+
+    /**
+     * Delivers the coalesced notifications.
+     */
+    interface Sink {
+        void notifyChange(Uri uri);
+    }
+
+    private final Sink mSink;
+    private final Handler mHandler;
+    private final long mWindowMillis;
+
+    private final Runnable mFlush = new Runnable() {
+        @Override
+        public void run() {
+            flush();
+        }
+    };
+
+    // The URIs that changed since the last flush, in the order they changed. Guarded by this.
+    private final LinkedHashSet<Uri> mPending = new LinkedHashSet<Uri>();
+
+    // True while a flush is posted to mHandler. Guarded by this.
+    private boolean mScheduled;
+
+    // The URIs changed by the transaction running on the calling thread, if any
+    private final ThreadLocal<LinkedHashSet<Uri>> mTransaction =
+            new ThreadLocal<LinkedHashSet<Uri>>();
+
+    /**
+     * @param handler the handler that runs the delayed flushes
+     */
+    NotificationCoalescer(Sink sink, Handler handler, long windowMillis) {
+        mSink = sink;
+        mHandler = handler;
+        mWindowMillis = windowMillis;
+    }
+
+    /**
+     * Records that the data at a URI changed. The observers are notified when the window
+     * closes, or when the calling thread's transaction commits.
+     */
+    void notifyChange(Uri uri) {
+        LinkedHashSet<Uri> transaction = mTransaction.get();
+        if (transaction != null) {
+            transaction.add(uri);
+            return;
+        }
+        synchronized (this) {
+            mPending.add(uri);
+            if (!mScheduled) {
+                mScheduled = true;
+                mHandler.postDelayed(mFlush, mWindowMillis);
+            }
+        }
+    }
+
+    /**
+     * Holds the changes made on the calling thread until {@link #endTransaction(boolean)}.
+     */
+    void beginTransaction() {
+        mTransaction.set(new LinkedHashSet<Uri>());
+    }
+
+    /**
+     * Ends the calling thread's transaction. If it committed, its changes are notified at
+     * once, together with any other pending changes; otherwise they are dropped.
+     */
+    void endTransaction(boolean committed) {
+        LinkedHashSet<Uri> transaction = mTransaction.get();
+        mTransaction.remove();
+        if (!committed || transaction == null || transaction.isEmpty()) {
+            return;
+        }
+        synchronized (this) {
+            mPending.addAll(transaction);
+        }
+        flush();
+    }
+
+    /**
+     * Notifies the pending changes now.
+     */
+    void flush() {
+        ArrayList<Uri> uris;
+        synchronized (this) {
+            if (mScheduled) {
+                mHandler.removeCallbacks(mFlush);
+                mScheduled = false;
+            }
+            uris = collapse(mPending);
+            mPending.clear();
+        }
+        for (Uri uri : uris) {
+            mSink.notifyChange(uri);
+        }
+    }
+
+    /*
+     * Returns the URIs that have no ancestor among the given URIs.
+     */
+    private static ArrayList<Uri> collapse(LinkedHashSet<Uri> uris) {
+        HashSet<String> names = new HashSet<String>(uris.size() * 2);
+        for (Uri uri : uris) {
+            names.add(uri.toString());
+        }
+        ArrayList<Uri> result = new ArrayList<Uri>(uris.size());
+        for (Uri uri : uris) {
+            if (!hasAncestorIn(uri, names)) {
+                result.add(uri);
+            }
+        }
+        return result;
+    }
+
+    private static boolean hasAncestorIn(Uri uri, HashSet<String> names) {
+        String name = uri.toString();
+        // The length of "scheme://authority", which ancestors all start with
+        int root = uri.getScheme().length() + 3 + uri.getEncodedAuthority().length();
+        for (int i = name.lastIndexOf('/'); i > root; i = name.lastIndexOf('/', i - 1)) {
+            if (names.contains(name.substring(0, i))) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
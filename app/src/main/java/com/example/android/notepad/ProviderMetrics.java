@@ -0,0 +1,343 @@
+/*
+ * Copyright (C) 2007 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.android.notepad;
+
+import android.database.Cursor;
+import android.database.CursorWrapper;
+import android.database.MatrixCursor;
+import android.util.Log;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Records the latency, row count and error count of the calls to NotePadProvider, for each
+ * operation and each kind of URI.
+ *
+ * Latencies go into log-linear histograms, as in HdrHistogram: latencies under
+ * 2 * {@link #SUB_BUCKETS} microseconds each have a bucket of their own, and every longer power
+ * of two is split into {@link #SUB_BUCKETS} buckets of equal width, so that a percentile is
+ * known to within 1 / SUB_BUCKETS of its value however many calls are recorded. All counters
+ * live in one preallocated AtomicLongArray: recording a call allocates nothing and takes no
+ * lock, so it can run on every binder thread of the provider.
+ *
+ * A query is recorded when it returns, but its rows only when the caller closes its cursor:
+ * see {@link #countRows}.
+ */
+class ProviderMetrics {
+
+    /*
+     * The operations that are recorded
+     */
+    static final int QUERY = 0;
+    static final int INSERT = 1;
+    static final int BULK_INSERT = 2;
+    static final int UPDATE = 3;
+    static final int DELETE = 4;
+
+    private static final String[] OPERATION_NAMES = {
+            "query", "insert", "bulk_insert", "update", "delete" };
+
+    /**
+     * The number of buckets each power of two of microseconds is split into, and its base 2
+     * logarithm
+     */
+    static final int SUB_BUCKET_BITS = 3;
+    static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+
+    /**
+     * The number of histogram buckets, which cover latencies under 2^32us, more than an hour.
+     * The last bucket also counts every longer call.
+     */
+    static final int BUCKETS = (33 - SUB_BUCKET_BITS) * SUB_BUCKETS;
+
+    /*
+     * The layout of the counters of one operation on one kind of URI
+     */
+    private static final int CALLS = 0;
+    private static final int ERRORS = 1;
+    private static final int ROWS = 2;
+    private static final int TOTAL_MICROS = 3;
+    private static final int MAX_MICROS = 4;
+    private static final int HISTOGRAM = 5;
+    private static final int STRIDE = HISTOGRAM + BUCKETS;
+
+    /**
+     * The columns of {@link #toCursor()}
+     */
+    static final String[] COLUMNS = {
+            NotePad.Metrics.COLUMN_NAME_OPERATION,
+            NotePad.Metrics.COLUMN_NAME_URI,
+            NotePad.Metrics.COLUMN_NAME_CALLS,
+            NotePad.Metrics.COLUMN_NAME_ERRORS,
+            NotePad.Metrics.COLUMN_NAME_ROWS,
+            NotePad.Metrics.COLUMN_NAME_MEAN_MICROS,
+            NotePad.Metrics.COLUMN_NAME_P50_MICROS,
+            NotePad.Metrics.COLUMN_NAME_P90_MICROS,
+            NotePad.Metrics.COLUMN_NAME_P99_MICROS,
+            NotePad.Metrics.COLUMN_NAME_MAX_MICROS,
+    };
+
+    // The names of the kinds of URI, indexed by URI match code
+    private final String[] mUriNames;
+    private final AtomicLongArray mCounters;
+
+    /**
+     * @param uriNames the name of each kind of URI, indexed by its UriMatcher code. A URI that
+     * matched nothing is recorded under code 0.
+     */
+    ProviderMetrics(String[] uriNames) {
+        mUriNames = uriNames;
+        mCounters = new AtomicLongArray(OPERATION_NAMES.length * uriNames.length * STRIDE);
+    }
+
+    /**
+     * Records a call.
+     *
+     * @param operation one of the operation constants
+     * @param match the UriMatcher code of the URI, or a negative code if it matched nothing
+     * @param startNanos the value of System.nanoTime() when the call started
+     * @param rows the number of rows changed, or 0 for a query, whose rows are added later
+     * @param failed whether the call threw an exception
+     */
+    void record(int operation, int match, long startNanos, int rows, boolean failed) {
+        long micros = (System.nanoTime() - startNanos) / 1000;
+        if (match < 0 || match >= mUriNames.length) {
+            match = 0;
+        }
+        int base = (operation * mUriNames.length + match) * STRIDE;
+        mCounters.incrementAndGet(base + CALLS);
+        if (failed) {
+            mCounters.incrementAndGet(base + ERRORS);
+        }
+        mCounters.addAndGet(base + ROWS, rows);
+        mCounters.addAndGet(base + TOTAL_MICROS, micros);
+        mCounters.incrementAndGet(base + HISTOGRAM + bucketOf(micros));
+
+        long max = mCounters.get(base + MAX_MICROS);
+        while (micros > max && !mCounters.compareAndSet(base + MAX_MICROS, max, micros)) {
+            max = mCounters.get(base + MAX_MICROS);
+        }
+    }
+
+    /**
+     * Adds rows to a call recorded earlier.
+     */
+    void addRows(int operation, int match, int rows) {
+        if (match < 0 || match >= mUriNames.length) {
+            match = 0;
+        }
+        mCounters.addAndGet((operation * mUriNames.length + match) * STRIDE + ROWS, rows);
+    }
+
+    /**
+     * Wraps the cursor a query returns, so that its rows are added to the query's metrics when
+     * it is closed. Counting them when the query returns would fill the cursor's window there,
+     * instead of as the caller reads it, and read every row of a cursor the caller pages
+     * through.
+     *
+     * @param match the UriMatcher code of the URI queried
+     */
+    Cursor countRows(Cursor cursor, int match) {
+        return new RowCountingCursor(cursor, match);
+    }
+
+    /*
+     * Counts the rows the caller reads: all of them if it asked for the count, or else the rows
+     * up to the furthest it moved to.
+     */
+    private final class RowCountingCursor extends CursorWrapper {
+
+        private final int mMatch;
+
+        // The count, once the caller has asked for it, or -1
+        private int mCount = -1;
+        private int mFurthest = -1;
+        private boolean mRecorded;
+
+        RowCountingCursor(Cursor cursor, int match) {
+            super(cursor);
+            mMatch = match;
+        }
+
+        @Override
+        public int getCount() {
+            mCount = super.getCount();
+            return mCount;
+        }
+
+        @Override
+        public boolean move(int offset) {
+            return moved(super.move(offset));
+        }
+
+        @Override
+        public boolean moveToPosition(int position) {
+            return moved(super.moveToPosition(position));
+        }
+
+        @Override
+        public boolean moveToFirst() {
+            return moved(super.moveToFirst());
+        }
+
+        @Override
+        public boolean moveToLast() {
+            return moved(super.moveToLast());
+        }
+
+        @Override
+        public boolean moveToNext() {
+            return moved(super.moveToNext());
+        }
+
+        @Override
+        public boolean moveToPrevious() {
+            return moved(super.moveToPrevious());
+        }
+
+        @Override
+        public void close() {
+            super.close();
+            // A cursor may be closed more than once
+            if (!mRecorded) {
+                mRecorded = true;
+                addRows(QUERY, mMatch, mCount >= 0 ? mCount : mFurthest + 1);
+            }
+        }
+
+        private boolean moved(boolean onRow) {
+            if (onRow) {
+                mFurthest = Math.max(mFurthest, getPosition());
+            }
+            return onRow;
+        }
+    }
+
+    /**
+     * Returns the histogram bucket of a latency in microseconds.
+     */
+    static int bucketOf(long micros) {
+        if (micros < 2 * SUB_BUCKETS) {
+            return (int) Math.max(micros, 0);
+        }
+        // The bits below the SUB_BUCKET_BITS bits after the highest one bit are dropped
+        int shift = 63 - Long.numberOfLeadingZeros(micros) - SUB_BUCKET_BITS;
+        int bucket = shift * SUB_BUCKETS + (int) (micros >>> shift);
+        return Math.min(bucket, BUCKETS - 1);
+    }
+
+    /**
+     * Returns the highest latency in a histogram bucket, in microseconds.
+     */
+    static long highestIn(int bucket) {
+        if (bucket < 2 * SUB_BUCKETS) {
+            return bucket;
+        }
+        int shift = bucket / SUB_BUCKETS - 1;
+        long subBucket = bucket % SUB_BUCKETS + SUB_BUCKETS;
+        return ((subBucket + 1) << shift) - 1;
+    }
+
+    /**
+     * Returns the upper bound of a percentile of a histogram, in microseconds: the highest
+     * latency in the bucket that holds the call at its rank.
+     *
+     * @param histogram the bucket counts, starting at offset
+     * @param calls the sum of the bucket counts
+     * @param percentile the percentile, between 0 and 100
+     */
+    static long percentile(long[] histogram, int offset, long calls, int percentile) {
+        if (calls == 0) {
+            return 0;
+        }
+        // The rank of the call at the percentile, counting from 1
+        long rank = Math.max(1, (calls * percentile + 99) / 100);
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += histogram[offset + i];
+            if (seen >= rank) {
+                return highestIn(i);
+            }
+        }
+        return highestIn(BUCKETS - 1);
+    }
+
+    /**
+     * Returns a row for each operation and kind of URI that has been called at least once, with
+     * the columns in {@link #COLUMNS}.
+     */
+    Cursor toCursor() {
+        MatrixCursor cursor = new MatrixCursor(COLUMNS);
+        long[] snapshot = snapshot();
+        for (int operation = 0; operation < OPERATION_NAMES.length; operation++) {
+            for (int match = 0; match < mUriNames.length; match++) {
+                int base = (operation * mUriNames.length + match) * STRIDE;
+                long calls = snapshot[base + CALLS];
+                if (calls == 0) {
+                    continue;
+                }
+                cursor.addRow(new Object[] {
+                        OPERATION_NAMES[operation],
+                        mUriNames[match],
+                        calls,
+                        snapshot[base + ERRORS],
+                        snapshot[base + ROWS],
+                        snapshot[base + TOTAL_MICROS] / calls,
+                        percentile(snapshot, base + HISTOGRAM, calls, 50),
+                        percentile(snapshot, base + HISTOGRAM, calls, 90),
+                        percentile(snapshot, base + HISTOGRAM, calls, 99),
+                        snapshot[base + MAX_MICROS],
+                });
+            }
+        }
+        return cursor;
+    }
+
+    /**
+     * Writes the metrics to logcat, one line for each row of {@link #toCursor()}.
+     */
+    void log(String tag) {
+        Cursor cursor = toCursor();
+        try {
+            Log.i(tag, "Provider metrics: " + cursor.getCount() + " operations");
+            while (cursor.moveToNext()) {
+                StringBuilder line = new StringBuilder();
+                for (int i = 0; i < COLUMNS.length; i++) {
+                    if (i > 0) {
+                        line.append(' ');
+                    }
+                    line.append(COLUMNS[i]).append('=').append(cursor.getString(i));
+                }
+                Log.i(tag, line.toString());
+            }
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /*
+     * Copies the counters. Calls recorded during the copy may be counted in some counters and
+     * not yet in others, which is close enough for metrics.
+     */
+    private long[] snapshot() {
+        long[] snapshot = new long[mCounters.length()];
+        for (int i = 0; i < snapshot.length; i++) {
+            snapshot[i] = mCounters.get(i);
+        }
+        return snapshot;
+    }
+}
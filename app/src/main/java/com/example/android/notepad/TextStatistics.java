@@ -0,0 +1,151 @@
+/*
+ * Copyright (C) 2007 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.android.notepad;
+
+import android.text.Editable;
+import android.text.TextWatcher;
+
+/**
+ * Counts the characters, words, CJK characters and lines of the text in an editor, updating the
+ * counts from each edit instead of rescanning the text.
+ *
+ * Attached to an EditText as a TextWatcher, it subtracts the replaced range in
+ * {@link #beforeTextChanged} and adds the replacement in {@link #onTextChanged}. Only the
+ * edited characters and the one character after them are looked at, so typing a character
+ * costs the same in a note of any length.
+ *
+ * A word is a run of letters and digits that are not CJK characters. Every CJK character is
+ * counted on its own, since CJK text does not separate its words. Characters outside the Basic
+ * Multilingual Plane are not recognized as CJK.
+ *
+ * Instances are not thread-safe; they are meant to be used on the UI thread.
+ */
+class TextStatistics implements TextWatcher {
+
+    /**
+     * Receives the updated counts after every edit.
+     */
+    interface Listener {
+        void onStatisticsChanged(TextStatistics statistics);
+    }
+
+    private int mCharCount;
+    private int mWordCount;
+    private int mCjkCount;
+    private int mNewlineCount;
+
+    private Listener mListener;
+
+    void setListener(Listener listener) {
+        mListener = listener;
+    }
+
+    /**
+     * Counts the given text from scratch. Needed when the watcher is attached to an editor that
+     * already holds text.
+     */
+    void reset(CharSequence text) {
+        mCharCount = 0;
+        mWordCount = 0;
+        mCjkCount = 0;
+        mNewlineCount = 0;
+        update(text, 0, text.length(), 1);
+    }
+
+    int getCharCount() {
+        return mCharCount;
+    }
+
+    int getWordCount() {
+        return mWordCount;
+    }
+
+    int getCjkCount() {
+        return mCjkCount;
+    }
+
+    int getLineCount() {
+        return mNewlineCount + 1;
+    }
+
+    @Override
+    public void beforeTextChanged(CharSequence s, int start, int count, int after) {
+        // s still holds the characters that are about to be replaced
+        update(s, start, start + count, -1);
+    }
+
+    @Override
+    public void onTextChanged(CharSequence s, int start, int before, int count) {
+        update(s, start, start + count, 1);
+    }
+
+    @Override
+    public void afterTextChanged(Editable s) {
+        if (mListener != null) {
+            mListener.onStatisticsChanged(this);
+        }
+    }
+
+    /*
+     * Adds (sign = 1) or subtracts (sign = -1) the counts of the range [start, end) of s.
+     */
+    private void update(CharSequence s, int start, int end, int sign) {
+        int cjk = 0;
+        int newlines = 0;
+        for (int i = start; i < end; i++) {
+            char c = s.charAt(i);
+            if (c == '\n') {
+                newlines++;
+            } else if (isCjk(c)) {
+                cjk++;
+            }
+        }
+
+        // Whether a character starts a word depends on the character before it, so the edit can
+        // also make or break a word start right after the range
+        int words = 0;
+        int last = Math.min(end, s.length() - 1);
+        boolean previousIsWordChar = start > 0 && isWordChar(s.charAt(start - 1));
+        for (int i = start; i <= last; i++) {
+            boolean isWordChar = isWordChar(s.charAt(i));
+            if (isWordChar && !previousIsWordChar) {
+                words++;
+            }
+            previousIsWordChar = isWordChar;
+        }
+
+        mCharCount += sign * (end - start);
+        mCjkCount += sign * cjk;
+        mNewlineCount += sign * newlines;
+        mWordCount += sign * words;
+    }
+
+    private static boolean isWordChar(char c) {
+        return Character.isLetterOrDigit(c) && !isCjk(c);
+    }
+
+    /*
+     * Han ideographs, kana and Hangul syllables.
+     */
+    static boolean isCjk(char c) {
+        return (c >= '\u4e00' && c <= '\u9fff') // CJK Unified Ideographs
+                || (c >= '\u3400' && c <= '\u4dbf') // CJK Unified Ideographs Extension A
+                || (c >= '\uf900' && c <= '\ufaff') // CJK Compatibility Ideographs
+                || (c >= '\u3040' && c <= '\u30ff') // Hiragana and Katakana
+                || (c >= '\uac00' && c <= '\ud7af'); // Hangul Syllables
+    }
+}
@@ -0,0 +1,130 @@
+/*
+ * Copyright (C) 2007 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.android.notepad;
+
+import android.widget.TextView;
+
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Locale;
+
+/**
+ * Formats note timestamps as "yyyy-MM-dd HH:mm:ss" for the notes list without allocating on the
+ * bind path.
+ *
+ * The "yyyy-MM-dd HH:mm:" part of a timestamp only changes once a minute, so it is formatted
+ * once per minute and kept in a small least-recently-used cache keyed by the minute. The seconds
+ * are written into a reusable buffer, which is handed to the TextView as a char array.
+ *
+ * Instances are not thread-safe; each one must be confined to a single thread, normally the UI
+ * thread.
+ */
+class TimestampFormatter {
+
+    /**
+     * The length of a formatted timestamp
+     */
+    static final int LENGTH = 19;
+
+    // The length of the "yyyy-MM-dd HH:mm:" part of a formatted timestamp
+    private static final int PREFIX_LENGTH = 17;
+
+    private static final long SECOND_MILLIS = 1000;
+    private static final long MINUTE_MILLIS = 60 * SECOND_MILLIS;
+
+    /**
+     * The default number of minutes whose formatted prefix is kept
+     */
+    static final int DEFAULT_CAPACITY = 64;
+
+    private final SimpleDateFormat mMinuteFormat =
+            new SimpleDateFormat("yyyy-MM-dd HH:mm:", Locale.getDefault());
+    private final Date mDate = new Date();
+    private final char[] mBuffer = new char[LENGTH];
+
+    // The cache: the minute of each entry, its formatted prefix, and when it was last used.
+    // Kept in parallel arrays so that a lookup does not box the key.
+    private final long[] mMinutes;
+    private final char[][] mPrefixes;
+    private final long[] mLastUsed;
+    private int mSize;
+    private long mClock;
+
+    TimestampFormatter() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    TimestampFormatter(int capacity) {
+        mMinutes = new long[capacity];
+        mPrefixes = new char[capacity][];
+        mLastUsed = new long[capacity];
+    }
+
+    /**
+     * Shows the formatted timestamp in a TextView.
+     */
+    void setText(TextView view, long timestamp) {
+        view.setText(format(timestamp), 0, LENGTH);
+    }
+
+    /**
+     * Formats a timestamp into the formatter's buffer.
+     *
+     * @return the buffer, holding {@link #LENGTH} characters. Its contents are only valid until
+     * the next call.
+     */
+    char[] format(long timestamp) {
+        long minute = timestamp / MINUTE_MILLIS;
+        if (timestamp % MINUTE_MILLIS < 0) {
+            // Rounds timestamps before 1970 down, not towards zero
+            minute--;
+        }
+        // Current time zones all have offsets in whole minutes, so the minute boundary is the
+        // same in UTC and in local time.
+        int seconds = (int) ((timestamp - minute * MINUTE_MILLIS) / SECOND_MILLIS);
+
+        System.arraycopy(prefixFor(minute), 0, mBuffer, 0, PREFIX_LENGTH);
+        mBuffer[PREFIX_LENGTH] = (char) ('0' + seconds / 10);
+        mBuffer[PREFIX_LENGTH + 1] = (char) ('0' + seconds % 10);
+        return mBuffer;
+    }
+
+    private char[] prefixFor(long minute) {
+        mClock++;
+        int oldest = 0;
+        for (int i = 0; i < mSize; i++) {
+            if (mMinutes[i] == minute) {
+                mLastUsed[i] = mClock;
+                return mPrefixes[i];
+            }
+            if (mLastUsed[i] < mLastUsed[oldest]) {
+                oldest = i;
+            }
+        }
+
+        // A miss: uses a free slot, or evicts the least recently used minute
+        int slot = mSize < mMinutes.length ? mSize++ : oldest;
+        if (mPrefixes[slot] == null) {
+            mPrefixes[slot] = new char[PREFIX_LENGTH];
+        }
+        mDate.setTime(minute * MINUTE_MILLIS);
+        mMinuteFormat.format(mDate).getChars(0, PREFIX_LENGTH, mPrefixes[slot], 0);
+        mMinutes[slot] = minute;
+        mLastUsed[slot] = mClock;
+        return mPrefixes[slot];
+    }
+}
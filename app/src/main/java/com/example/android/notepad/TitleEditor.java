@@ -17,7 +17,11 @@
 package com.example.android.notepad;
 
 import android.app.Activity;
+import android.app.LoaderManager;
+import android.content.AsyncQueryHandler;
 import android.content.ContentValues;
+import android.content.CursorLoader;
+import android.content.Loader;
 import android.database.Cursor;
 import android.net.Uri;
 import android.os.Bundle;
@@ -28,10 +32,8 @@ import android.widget.EditText;
  * This Activity allows the user to edit a note's title. It displays a floating window
  * containing an EditText.
  *
- * NOTE: Notice that the provider operations in this Activity are taking place on the UI thread.
- * This is not a good practice. It is only done here to make the code more readable. A real
- * application should use the {@link android.content.AsyncQueryHandler}
- * or {@link android.os.AsyncTask} object to perform operations asynchronously on a separate thread.
+ * The note is loaded by a {@link CursorLoader} and the new title is saved through an
+ * {@link AsyncQueryHandler}, so the provider is never called on the UI thread.
  */
 public class TitleEditor extends Activity {
 
@@ -49,9 +51,23 @@ public class TitleEditor extends Activity {
     // The position of the title column in a Cursor returned by the provider.
     private static final int COLUMN_INDEX_TITLE = 1;
 
-    // A Cursor object that will contain the results of querying the provider for a note.
+    // The ID of the loader that loads the note
+    private static final int LOADER_NOTE = 0;
+
+    // A label for the saved state of the activity
+    private static final String TITLE_SHOWN = "titleShown";
+
+    // A Cursor object that will contain the results of querying the provider for a note. It is
+    // owned by the loader, and null until the note has been loaded.
     private Cursor mCursor;
 
+    // True once the loaded title has been put in the EditText. The EditText keeps the user's
+    // edits across configuration changes by itself.
+    private boolean mTitleShown;
+
+    // Saves the title off the UI thread
+    private AsyncQueryHandler mQueryHandler;
+
     // An EditText object for preserving the edited title.
     private EditText mText;
 
@@ -73,50 +89,72 @@ public class TitleEditor extends Activity {
         // title we need to edit.
         mUri = getIntent().getData();
 
-        /*
-         * Using the URI passed in with the triggering Intent, gets the note.
-         *
-         * Note: This is being done on the UI thread. It will block the thread until the query
-         * completes. In a sample app, going against a simple provider based on a local database,
-         * the block will be momentary, but in a real app you should use
-         * android.content.AsyncQueryHandler or android.os.AsyncTask.
-         */
-
-        mCursor = managedQuery(
-            mUri,        // The URI for the note that is to be retrieved.
-            PROJECTION,  // The columns to retrieve
-            null,        // No selection criteria are used, so no where columns are needed.
-            null,        // No where columns are used, so no where values are needed.
-            null         // No sort order is needed.
-        );
-
         // Gets the View ID for the EditText box
         mText = (EditText) this.findViewById(R.id.title);
-    }
 
-    /**
-     * This method is called when the Activity is about to come to the foreground. This happens
-     * when the Activity comes to the top of the task stack, OR when it is first starting.
-     *
-     * Displays the current title for the selected note.
-     */
-    @Override
-    protected void onResume() {
-        super.onResume();
+        mQueryHandler = new AsyncQueryHandler(getContentResolver()) {};
 
-        // Verifies that the query made in onCreate() actually worked. If it worked, then the
-        // Cursor object is not null. If it is *empty*, then mCursor.getCount() == 0.
-        if (mCursor != null) {
+        if (savedInstanceState != null) {
+            mTitleShown = savedInstanceState.getBoolean(TITLE_SHOWN);
+        }
 
-            // The Cursor was just retrieved, so its index is set to one record *before* the first
-            // record retrieved. This moves it to the first record.
-            mCursor.moveToFirst();
+        /*
+         * Using the URI passed in with the triggering Intent, loads the note in the background.
+         * After a configuration change, the LoaderManager hands back the note it already loaded.
+         */
+        getLoaderManager().initLoader(LOADER_NOTE, null,
+                new LoaderManager.LoaderCallbacks<Cursor>() {
+                    @Override
+                    public Loader<Cursor> onCreateLoader(int id, Bundle args) {
+                        return new CursorLoader(
+                            TitleEditor.this,
+                            mUri,        // The URI for the note that is to be retrieved.
+                            PROJECTION,  // The columns to retrieve
+                            null,        // No selection criteria are used, so no where columns
+                                         // are needed.
+                            null,        // No where columns are used, so no where values are
+                                         // needed.
+                            null         // No sort order is needed.
+                        );
+                    }
+
+                    @Override
+                    public void onLoadFinished(Loader<Cursor> loader, Cursor cursor) {
+                        showTitle(cursor);
+                    }
+
+                    @Override
+                    public void onLoaderReset(Loader<Cursor> loader) {
+                        mCursor = null;
+                    }
+                });
+    }
 
+    /*
+     * Displays the current title for the selected note, the first time it is loaded. Later
+     * deliveries, such as the one caused by saving the title, leave the EditText alone.
+     */
+    private void showTitle(Cursor cursor) {
+        // If the query worked, the Cursor object is not null. If it is *empty*, the note does
+        // not exist and there is nothing to edit.
+        if (cursor == null || !cursor.moveToFirst()) {
+            mCursor = null;
+            return;
+        }
+        mCursor = cursor;
+        if (!mTitleShown) {
             // Displays the current title text in the EditText object.
             mText.setText(mCursor.getString(COLUMN_INDEX_TITLE));
+            mTitleShown = true;
         }
     }
 
+    @Override
+    protected void onSaveInstanceState(Bundle outState) {
+        super.onSaveInstanceState(outState);
+        outState.putBoolean(TITLE_SHOWN, mTitleShown);
+    }
+
     /**
      * This method is called when the Activity loses focus.
      *
@@ -132,10 +170,10 @@ public class TitleEditor extends Activity {
     protected void onPause() {
         super.onPause();
 
-        // Verifies that the query made in onCreate() actually worked. If it worked, then the
-        // Cursor object is not null. If it is *empty*, then mCursor.getCount() == 0.
+        // Verifies that the note has been loaded and its title shown; otherwise there is nothing
+        // to save.
 
-        if (mCursor != null) {
+        if (mCursor != null && mTitleShown) {
 
             // Creates a values map for updating the provider.
             ContentValues values = new ContentValues();
@@ -144,14 +182,12 @@ public class TitleEditor extends Activity {
             values.put(NotePad.Notes.COLUMN_NAME_TITLE, mText.getText().toString());
 
             /*
-             * Updates the provider with the note's new title.
-             *
-             * Note: This is being done on the UI thread. It will block the thread until the
-             * update completes. In a sample app, going against a simple provider based on a
-             * local database, the block will be momentary, but in a real app you should use
-             * android.content.AsyncQueryHandler or android.os.AsyncTask.
+             * Updates the provider with the note's new title, on the handler's worker thread.
+             * The update still completes if the Activity is finishing.
              */
-            getContentResolver().update(
+            mQueryHandler.startUpdate(
+                0,       // No token is needed, since the result is not used.
+                null,    // No cookie either.
                 mUri,    // The URI for the note to update.
                 values,  // The values map containing the columns to update and the values to use.
                 null,    // No selection criteria is used, so no "where" columns are needed.
@@ -0,0 +1,158 @@
+/*
+ * Copyright (C) 2007 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.android.notepad;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.graphics.Typeface;
+import android.os.Process;
+import android.util.Log;
+
+import java.util.HashMap;
+
+/**
+ * Loads the fonts in the assets once per process and hands out shared Typeface instances.
+ *
+ * Typeface.createFromAsset() parses the font file each time it is called, and the native font
+ * it creates is never freed, so the editor must not call it on every click. Each load is timed
+ * and logged under the tag "Typefaces". The font the user last chose in the editor is
+ * remembered: the editor shows notes in it, and it alone is loaded ahead of time.
+ */
+final class Typefaces {
+    private static final String TAG = "Typefaces";
+
+    /*
+     * The asset paths of the fonts offered by the note editor
+     */
+    static final String LOLI = "font/loli.ttf";
+    static final String QINGNIAO = "font/qingniao.ttf";
+    static final String ZIHUN = "font/zihun.ttf";
+
+    static final String[] EDITOR_FONTS = { LOLI, QINGNIAO, ZIHUN };
+
+    // The fonts loaded so far, by asset path. A font that failed to load maps to null, so that
+    // it is not tried again. Guarded by itself.
+    private static final HashMap<String, Typeface> sTypefaces = new HashMap<String, Typeface>();
+
+    // How long each font took to load, in nanoseconds. Guarded by sTypefaces.
+    private static final HashMap<String, Long> sLoadTimes = new HashMap<String, Long>();
+
+    private static boolean sPreloadStarted;
+
+    // The preferences that remember the font the user last chose, by asset path
+    private static final String PREFS_NAME = "typefaces";
+    private static final String PREF_CHOSEN = "chosen";
+
+    private Typefaces() {
+    }
+
+    /**
+     * Returns the font at an asset path, loading it on the first call. The font is parsed
+     * without holding the lock, so that a caller asking for a loaded font never waits for
+     * another font to be parsed. If two callers load the same font at once, the first to finish
+     * wins, and both get its instance.
+     *
+     * @return the font, or null if the asset is missing or is not a font
+     */
+    static Typeface get(Context context, String path) {
+        synchronized (sTypefaces) {
+            if (sTypefaces.containsKey(path)) {
+                return sTypefaces.get(path);
+            }
+        }
+
+        long start = System.nanoTime();
+        Typeface typeface = null;
+        try {
+            typeface = Typeface.createFromAsset(context.getApplicationContext().getAssets(),
+                    path);
+        } catch (RuntimeException e) {
+            // createFromAsset() throws a RuntimeException for a missing asset
+            Log.w(TAG, "Cannot load font " + path, e);
+        }
+        long nanos = System.nanoTime() - start;
+
+        synchronized (sTypefaces) {
+            if (sTypefaces.containsKey(path)) {
+                return sTypefaces.get(path);
+            }
+            sTypefaces.put(path, typeface);
+            sLoadTimes.put(path, nanos);
+            Log.i(TAG, (typeface != null ? "Loaded " : "Failed to load ") + path + " in "
+                    + nanos / 1000 + "us");
+            return typeface;
+        }
+    }
+
+    /**
+     * Returns how long the font at an asset path took to load, in nanoseconds, or -1 if it has
+     * not been loaded.
+     */
+    static long getLoadTimeNanos(String path) {
+        synchronized (sTypefaces) {
+            Long nanos = sLoadTimes.get(path);
+            return nanos != null ? nanos : -1;
+        }
+    }
+
+    /**
+     * Remembers the font the user chose in the editor.
+     *
+     * @param path the asset path of the font, or null for the default font
+     */
+    static void setChosen(Context context, String path) {
+        getPreferences(context).edit().putString(PREF_CHOSEN, path).apply();
+    }
+
+    /**
+     * Returns the asset path of the font the user last chose in the editor, or null if it is
+     * the default font. Reads the preferences from disk on the first call in a process.
+     */
+    static String getChosen(Context context) {
+        return getPreferences(context).getString(PREF_CHOSEN, null);
+    }
+
+    /**
+     * Loads the font the user last chose on a background thread, so that it is ready when the
+     * editor needs it. Nothing is loaded if the user keeps the default font. Only the first
+     * call in a process does anything.
+     */
+    static void preload(Context context) {
+        synchronized (sTypefaces) {
+            if (sPreloadStarted) {
+                return;
+            }
+            sPreloadStarted = true;
+        }
+        final Context appContext = context.getApplicationContext();
+        new Thread(new Runnable() {
+            @Override
+            public void run() {
+                Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                String path = getChosen(appContext);
+                if (path != null) {
+                    get(appContext, path);
+                }
+            }
+        }, TAG).start();
+    }
+
+    private static SharedPreferences getPreferences(Context context) {
+        return context.getApplicationContext().getSharedPreferences(PREFS_NAME,
+                Context.MODE_PRIVATE);
+    }
+}
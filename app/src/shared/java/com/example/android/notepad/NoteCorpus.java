@@ -0,0 +1,284 @@
+/*
+ * Copyright (C) 2007 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.android.notepad;
+
+import java.util.Random;
+
+/**
+ * Generates a synthetic collection of notes for load and scaling tests.
+ *
+ * The notes are mixed Chinese and English text, with body sizes drawn from a weighted set of
+ * size classes, categories of skewed popularity, and creation and modification times spread
+ * over a time span. Everything is derived from the seed: the same seed and settings give the
+ * same notes on every run and every device, and any note can be generated on its own with
+ * {@link #note(int)}, without generating the notes before it.
+ *
+ * This class is plain Java, in the shared source directory, so that the benchmark module and
+ * the instrumentation tests fill their databases with the same notes.
+ */
+final class NoteCorpus {
+
+    /**
+     * A range of body sizes, and how often notes fall in it.
+     */
+    static final class BodySize {
+        /** The relative frequency of this size class */
+        final int weight;
+
+        /** The smallest and largest body, in characters */
+        final int minChars;
+        final int maxChars;
+
+        BodySize(int weight, int minChars, int maxChars) {
+            this.weight = weight;
+            this.minChars = minChars;
+            this.maxChars = maxChars;
+        }
+    }
+
+    /**
+     * Mostly short notes, with a long tail up to 200,000 characters.
+     */
+    static final BodySize[] TYPICAL_BODY_SIZES = {
+            new BodySize(60, 20, 200),
+            new BodySize(30, 200, 2000),
+            new BodySize(9, 2000, 20000),
+            new BodySize(1, 20000, 200000),
+    };
+
+    /**
+     * The typical sizes, plus one note in a thousand of 1 to 4 million characters, such as a
+     * pasted log or book chapter.
+     */
+    static final BodySize[] WITH_HUGE_BODY_SIZES = {
+            new BodySize(600, 20, 200),
+            new BodySize(300, 200, 2000),
+            new BodySize(90, 2000, 20000),
+            new BodySize(9, 20000, 200000),
+            new BodySize(1, 1000000, 4000000),
+    };
+
+    /**
+     * The default categories. Earlier categories are more popular; null is a note that is in
+     * no category.
+     */
+    static final String[] DEFAULT_CATEGORIES = { null, "工作", "生活", "学习", "旅行", "Ideas" };
+
+    /**
+     * The default end of the time span: 2025-01-01 00:00 UTC. A fixed time, so that the notes
+     * do not depend on when they are generated.
+     */
+    static final long DEFAULT_END_MILLIS = 1735689600000L;
+
+    /**
+     * The default length of the time span: about three years
+     */
+    static final long DEFAULT_SPAN_MILLIS = 3L * 365 * 24 * 60 * 60 * 1000;
+
+    private static final String[] ENGLISH_WORDS = {
+            "the", "meeting", "notes", "for", "project", "review", "with", "team", "about",
+            "budget", "and", "plan", "next", "week", "call", "travel", "to", "buy", "milk",
+            "read", "chapter", "draft", "idea", "list", "of", "tasks", "check", "schedule",
+            "recipe", "garden", "music", "study", "exam", "deadline", "report", "email",
+    };
+
+    private static final String[] CHINESE_WORDS = {
+            "今天", "会议", "记录", "项目", "计划", "下周", "需要", "完成", "报告", "学习",
+            "笔记", "旅行", "购物", "清单", "预算", "朋友", "电话", "整理", "想法", "时间",
+            "工作", "生活", "阅读", "第一章", "复习", "考试", "安排", "检查", "邮件", "周末",
+    };
+
+    private final long mSeed;
+    private final int mCount;
+
+    private BodySize[] mBodySizes = TYPICAL_BODY_SIZES;
+    private int mTotalWeight = totalWeight(TYPICAL_BODY_SIZES);
+    private float mChineseFraction = 0.5f;
+    private String[] mCategories = DEFAULT_CATEGORIES;
+    private long mEndMillis = DEFAULT_END_MILLIS;
+    private long mSpanMillis = DEFAULT_SPAN_MILLIS;
+
+    /**
+     * @param seed the seed all the notes are derived from
+     * @param count the number of notes in the corpus
+     */
+    NoteCorpus(long seed, int count) {
+        mSeed = seed;
+        mCount = count;
+    }
+
+    /**
+     * Sets the size classes of the note bodies. The default is {@link #TYPICAL_BODY_SIZES}.
+     */
+    void setBodySizes(BodySize[] bodySizes) {
+        mBodySizes = bodySizes;
+        mTotalWeight = totalWeight(bodySizes);
+    }
+
+    /**
+     * Sets the fraction of sentences written in Chinese, from 0 to 1. The default is 0.5.
+     */
+    void setChineseFraction(float chineseFraction) {
+        mChineseFraction = chineseFraction;
+    }
+
+    /**
+     * Sets the categories the notes are put in; null stands for no category. The default is
+     * {@link #DEFAULT_CATEGORIES}.
+     */
+    void setCategories(String[] categories) {
+        mCategories = categories;
+    }
+
+    /**
+     * Sets the time span the notes are created and modified in. The default is the
+     * {@link #DEFAULT_SPAN_MILLIS} before {@link #DEFAULT_END_MILLIS}.
+     */
+    void setTimeSpan(long endMillis, long spanMillis) {
+        mEndMillis = endMillis;
+        mSpanMillis = spanMillis;
+    }
+
+    /**
+     * Returns the number of notes in the corpus.
+     */
+    int getCount() {
+        return mCount;
+    }
+
+    /**
+     * Generates a note of the corpus.
+     *
+     * @param index the note's position in the corpus, from 0 to {@link #getCount()} - 1
+     */
+    Note note(int index) {
+        Random random = new Random(mix(mSeed + mix(index)));
+
+        int length = bodyLength(random);
+        String body = text(random, length);
+        String title = text(random, 4 + random.nextInt(24)).trim();
+        String category = mCategories[skewedIndex(random, mCategories.length)];
+
+        long created = mEndMillis - (long) (random.nextDouble() * mSpanMillis);
+        // Most notes are edited soon after they are written, a few much later
+        long delay = (long) (Math.pow(random.nextDouble(), 4) * (mEndMillis - created));
+        return new Note(title, body, category, created, created + delay);
+    }
+
+    /*
+     * Picks a size class by weight, and then a length in it. Lengths are uniform on a log scale,
+     * so a class spanning 2,000 to 20,000 has as many notes under 6,300 characters as over.
+     */
+    private int bodyLength(Random random) {
+        int pick = random.nextInt(mTotalWeight);
+        BodySize size = mBodySizes[mBodySizes.length - 1];
+        for (BodySize candidate : mBodySizes) {
+            if (pick < candidate.weight) {
+                size = candidate;
+                break;
+            }
+            pick -= candidate.weight;
+        }
+        double min = Math.log(size.minChars);
+        double max = Math.log(size.maxChars);
+        long length = Math.round(Math.exp(min + random.nextDouble() * (max - min)));
+        return (int) Math.max(size.minChars, Math.min(size.maxChars, length));
+    }
+
+    /*
+     * Writes sentences of Chinese or English words until the text has the given length.
+     */
+    private String text(Random random, int length) {
+        StringBuilder text = new StringBuilder(length + 16);
+        while (text.length() < length) {
+            boolean chinese = random.nextFloat() < mChineseFraction;
+            int words = 3 + random.nextInt(12);
+            for (int i = 0; i < words; i++) {
+                if (chinese) {
+                    text.append(CHINESE_WORDS[random.nextInt(CHINESE_WORDS.length)]);
+                } else {
+                    if (i > 0) {
+                        text.append(' ');
+                    }
+                    text.append(ENGLISH_WORDS[random.nextInt(ENGLISH_WORDS.length)]);
+                }
+            }
+            text.append(chinese ? "。" : ". ");
+            if (random.nextInt(8) == 0) {
+                text.append('\n');
+            }
+        }
+        text.setLength(length);
+        return text.toString();
+    }
+
+    /*
+     * Returns an index from 0 to size - 1, where index i is picked in proportion to 1 / (i + 1).
+     */
+    private static int skewedIndex(Random random, int size) {
+        double total = 0;
+        for (int i = 0; i < size; i++) {
+            total += 1.0 / (i + 1);
+        }
+        double pick = random.nextDouble() * total;
+        for (int i = 0; i < size; i++) {
+            pick -= 1.0 / (i + 1);
+            if (pick < 0) {
+                return i;
+            }
+        }
+        return size - 1;
+    }
+
+    /*
+     * The SplitMix64 finalizer. The first values of java.util.Random are correlated for seeds
+     * that are close together, so the seed of each note is scrambled first.
+     */
+    private static long mix(long z) {
+        z = (z ^ (z >>> 30)) * 0xbf58476d1ce4e5b9L;
+        z = (z ^ (z >>> 27)) * 0x94d049bb133111ebL;
+        return z ^ (z >>> 31);
+    }
+
+    private static int totalWeight(BodySize[] bodySizes) {
+        int total = 0;
+        for (BodySize size : bodySizes) {
+            total += size.weight;
+        }
+        return total;
+    }
+
+    /**
+     * A generated note. The fields hold the values of the notes table's title, note, category,
+     * created and modified columns.
+     */
+    static final class Note {
+        final String title;
+        final String body;
+        final String category;
+        final long created;
+        final long modified;
+
+        Note(String title, String body, String category, long created, long modified) {
+            this.title = title;
+            this.body = body;
+            this.category = category;
+            this.created = created;
+            this.modified = modified;
+        }
+    }
+}
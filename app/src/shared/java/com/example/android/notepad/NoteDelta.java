@@ -0,0 +1,274 @@
+/*
+ * Copyright (C) 2007 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.android.notepad;
+
+import java.io.ByteArrayOutputStream;
+
+/**
+ * Binary deltas between two versions of a note, for the revision history.
+ *
+ * A delta is the length of the new version followed by instructions that build it from the old
+ * one: copy a run of bytes of the old version, or insert bytes carried in the delta. Numbers are
+ * unsigned varints. The text both versions start and end with is copied whole. Between them,
+ * matches are found as in rsync: every {@link #BLOCK} bytes of the old version are hashed, and a
+ * rolling hash of the new version is looked up at every position, so text that moved is found
+ * as well as text around an edit.
+ *
+ * This class is plain Java, in the shared source directory, so that the benchmarks of the
+ * benchmark module record revisions as NotePadProvider does.
+ */
+final class NoteDelta {
+
+    /**
+     * The length of the blocks of the old version that matches start from. Shorter matches are
+     * inserted rather than copied.
+     */
+    static final int BLOCK = 16;
+
+    /**
+     * The most blocks with the same hash compared at each position of the new version, which
+     * bounds the time taken by text with many equal blocks
+     */
+    private static final int MAX_PROBES = 16;
+
+    // The multiplier of the rolling hash, and its power for the byte leaving the window
+    private static final int PRIME = 0x01000193;
+    private static final int PRIME_OUT = power(PRIME, BLOCK - 1);
+
+    private NoteDelta() {
+    }
+
+    /**
+     * Returns a delta that builds target from base.
+     */
+    static byte[] diff(byte[] base, byte[] target) {
+        ByteArrayOutputStream delta = new ByteArrayOutputStream(64);
+        writeVarint(delta, target.length);
+
+        // Most revisions change one part of a note: what comes before and after it is copied
+        int prefix = 0;
+        int limit = Math.min(base.length, target.length);
+        while (prefix < limit && base[prefix] == target[prefix]) {
+            prefix++;
+        }
+        int suffix = 0;
+        limit -= prefix;
+        while (suffix < limit
+                && base[base.length - 1 - suffix] == target[target.length - 1 - suffix]) {
+            suffix++;
+        }
+        if (prefix > 0) {
+            writeCopy(delta, 0, prefix);
+        }
+        if (suffix < BLOCK) {
+            suffix = 0;
+        }
+        diffMiddle(delta, base, base.length - suffix, target, prefix, target.length - suffix);
+        if (suffix > 0) {
+            writeCopy(delta, base.length - suffix, suffix);
+        }
+        return delta.toByteArray();
+    }
+
+    /*
+     * Writes the instructions that build target[targetStart, targetEnd) from base[0, baseEnd).
+     */
+    private static void diffMiddle(ByteArrayOutputStream delta, byte[] base, int baseEnd,
+            byte[] target, int targetStart, int targetEnd) {
+        // The last block of base with each hash, plus one, and the block before it with the same
+        // hash; 0 ends a chain
+        int blocks = baseEnd / BLOCK;
+        int bits = 1;
+        while ((1 << bits) < blocks * 2) {
+            bits++;
+        }
+        int shift = 32 - bits;
+        int[] table = new int[1 << bits];
+        int[] chain = new int[blocks];
+        for (int b = 0; b < blocks; b++) {
+            int slot = slot(hash(base, b * BLOCK), shift);
+            chain[b] = table[slot];
+            table[slot] = b + 1;
+        }
+
+        int literalStart = targetStart;
+        int i = targetStart;
+        // Where the last copy ended in base, as the first guess for the next one
+        int expected = -1;
+        int h = targetEnd - i >= BLOCK ? hash(target, i) : 0;
+        while (blocks > 0 && i + BLOCK <= targetEnd) {
+            // Takes the longest match among the blocks with the hash, and the continuation
+            int bestStart = 0;
+            int bestLength = 0;
+            int bestBase = 0;
+            int candidate = expected;
+            int next = table[slot(h, shift)];
+            for (int probes = 0; probes <= MAX_PROBES; probes++) {
+                if (candidate >= 0 && candidate + BLOCK <= baseEnd
+                        && regionMatches(base, candidate, target, i, BLOCK)) {
+                    int back = 0;
+                    while (i - back > literalStart && candidate - back > 0
+                            && base[candidate - back - 1] == target[i - back - 1]) {
+                        back++;
+                    }
+                    int forward = BLOCK;
+                    while (i + forward < targetEnd && candidate + forward < baseEnd
+                            && base[candidate + forward] == target[i + forward]) {
+                        forward++;
+                    }
+                    if (back + forward > bestLength) {
+                        bestStart = i - back;
+                        bestLength = back + forward;
+                        bestBase = candidate - back;
+                    }
+                }
+                if (next == 0) {
+                    break;
+                }
+                candidate = (next - 1) * BLOCK;
+                next = chain[next - 1];
+            }
+
+            if (bestLength > 0) {
+                writeInsert(delta, target, literalStart, bestStart);
+                writeCopy(delta, bestBase, bestLength);
+                i = bestStart + bestLength;
+                literalStart = i;
+                expected = bestBase + bestLength;
+                if (i + BLOCK <= targetEnd) {
+                    h = hash(target, i);
+                }
+            } else {
+                if (i + BLOCK >= targetEnd) {
+                    break;
+                }
+                h = (h - target[i] * PRIME_OUT) * PRIME + target[i + BLOCK];
+                i++;
+            }
+        }
+        writeInsert(delta, target, literalStart, targetEnd);
+    }
+
+    /**
+     * Applies a delta made by {@link #diff(byte[], byte[])} to the base it was made from.
+     *
+     * @throws IllegalArgumentException if the delta is malformed, or does not fit the base
+     */
+    static byte[] apply(byte[] base, byte[] delta) {
+        int[] position = new int[1];
+        long length = readVarint(delta, position);
+        if (length > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("Bad delta length " + length);
+        }
+        byte[] result = new byte[(int) length];
+        int written = 0;
+        while (position[0] < delta.length) {
+            long op = readVarint(delta, position);
+            long count = op >>> 1;
+            if (count > result.length - written) {
+                throw new IllegalArgumentException("Delta overruns its length");
+            }
+            if ((op & 1) != 0) {
+                long from = readVarint(delta, position);
+                if (from + count > base.length) {
+                    throw new IllegalArgumentException("Delta copies past the end of the base");
+                }
+                System.arraycopy(base, (int) from, result, written, (int) count);
+            } else {
+                if (count > delta.length - position[0]) {
+                    throw new IllegalArgumentException("Delta is truncated");
+                }
+                System.arraycopy(delta, position[0], result, written, (int) count);
+                position[0] += (int) count;
+            }
+            written += (int) count;
+        }
+        if (written != result.length) {
+            throw new IllegalArgumentException("Delta is truncated");
+        }
+        return result;
+    }
+
+    private static void writeInsert(ByteArrayOutputStream delta, byte[] target, int start,
+            int end) {
+        if (end > start) {
+            writeVarint(delta, (long) (end - start) << 1);
+            delta.write(target, start, end - start);
+        }
+    }
+
+    private static void writeCopy(ByteArrayOutputStream delta, int from, int count) {
+        writeVarint(delta, ((long) count << 1) | 1);
+        writeVarint(delta, from);
+    }
+
+    private static void writeVarint(ByteArrayOutputStream out, long value) {
+        while ((value & ~0x7fL) != 0) {
+            out.write((int) ((value & 0x7f) | 0x80));
+            value >>>= 7;
+        }
+        out.write((int) value);
+    }
+
+    private static long readVarint(byte[] in, int[] position) {
+        long value = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            if (position[0] >= in.length) {
+                throw new IllegalArgumentException("Delta is truncated");
+            }
+            byte b = in[position[0]++];
+            value |= (long) (b & 0x7f) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new IllegalArgumentException("Bad varint in delta");
+    }
+
+    private static int hash(byte[] bytes, int start) {
+        int h = 0;
+        for (int i = start; i < start + BLOCK; i++) {
+            h = h * PRIME + bytes[i];
+        }
+        return h;
+    }
+
+    /*
+     * The low bits of the rolling hash depend only on the low bits of the bytes, so the table
+     * slot is taken from the high bits of a scrambled hash.
+     */
+    private static int slot(int h, int shift) {
+        return (h * 0x9e3779b1) >>> shift;
+    }
+
+    private static boolean regionMatches(byte[] a, int aStart, byte[] b, int bStart, int length) {
+        for (int i = 0; i < length; i++) {
+            if (a[aStart + i] != b[bStart + i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static int power(int base, int exponent) {
+        int result = 1;
+        for (int i = 0; i < exponent; i++) {
+            result *= base;
+        }
+        return result;
+    }
+}
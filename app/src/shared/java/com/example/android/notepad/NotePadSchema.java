@@ -0,0 +1,210 @@
+/*
+ * Copyright (C) 2007 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.android.notepad;
+
+/**
+ * The SQL that creates the tables, triggers and indexes of the notes database.
+ *
+ * This class is plain Java, in the shared source directory, so that the JVM benchmarks in the
+ * benchmark module build exactly the schema that NotePadProvider builds. The table and column
+ * names are those of {@link NotePad.Notes}, written out because the contract class depends on
+ * the Android framework.
+ */
+final class NotePadSchema {
+
+    /**
+     * The FTS4 shadow table that indexes the title and note columns of the notes table. Its
+     * docid is the _id of the note it mirrors.
+     */
+    static final String FTS_TABLE_NAME = "notes_fts";
+
+    /**
+     * Creates the notes table.
+     */
+    static final String CREATE_NOTES_TABLE = "CREATE TABLE notes ("
+            + "_id INTEGER PRIMARY KEY,"
+            + "title TEXT,"
+            + "note TEXT,"
+            + "created INTEGER,"
+            + "modified INTEGER,"
+            + "category TEXT,"
+            + "snippet TEXT"
+            + ");";
+
+    /**
+     * Adds the snippet column to a notes table created before it existed.
+     */
+    static final String ADD_SNIPPET_COLUMN = "ALTER TABLE notes ADD COLUMN snippet TEXT;";
+
+    /**
+     * The most characters in a snippet
+     */
+    static final int SNIPPET_LENGTH = 100;
+
+    /**
+     * Creates the FTS4 shadow table over the title and note columns, and the trigger that removes
+     * the rows of deleted notes. The rows hold the text of {@link NoteSearch#indexText}, which
+     * SQL cannot compute, so whatever inserts or changes a note writes its row with
+     * {@link #INSERT_SEARCH_ROW} or {@link #UPDATE_SEARCH_TITLE} and
+     * {@link #UPDATE_SEARCH_NOTE}.
+     */
+    static final String[] CREATE_SEARCH_INDEX = {
+            "CREATE VIRTUAL TABLE " + FTS_TABLE_NAME + " USING fts4(title,note);",
+            "CREATE TRIGGER notes_fts_delete AFTER DELETE ON notes BEGIN "
+                    + "DELETE FROM " + FTS_TABLE_NAME + " WHERE docid = old._id; END;",
+    };
+
+    /**
+     * Drops the triggers that copied the title and note of a note into the search index as they
+     * were, before the index held the text of {@link NoteSearch#indexText}.
+     */
+    static final String[] DROP_SEARCH_TRIGGERS = {
+            "DROP TRIGGER IF EXISTS notes_fts_insert;",
+            "DROP TRIGGER IF EXISTS notes_fts_update;",
+    };
+
+    /**
+     * Adds the search index row of a note. Binds the note's _id, then the index text of its
+     * title and of its contents.
+     */
+    static final String INSERT_SEARCH_ROW = "INSERT OR REPLACE INTO " + FTS_TABLE_NAME
+            + " (docid, title, note) VALUES (?, ?, ?);";
+
+    /**
+     * Changes the title in the search index row of a note. Binds the index text of the title,
+     * then the note's _id.
+     */
+    static final String UPDATE_SEARCH_TITLE = "UPDATE " + FTS_TABLE_NAME
+            + " SET title = ? WHERE docid = ?;";
+
+    /**
+     * Changes the contents in the search index row of a note. Binds the index text of the
+     * contents, then the note's _id.
+     */
+    static final String UPDATE_SEARCH_NOTE = "UPDATE " + FTS_TABLE_NAME
+            + " SET note = ? WHERE docid = ?;";
+
+    /**
+     * Creates the indexes behind the list's sort order and category filtering. The index on
+     * (category, modified) also serves lookups on category alone.
+     */
+    static final String[] CREATE_INDEXES = {
+            "CREATE INDEX notes_modified ON notes (modified);",
+            "CREATE INDEX notes_category_modified ON notes (category, modified);",
+    };
+
+    /**
+     * Creates the category table, with IF NOT EXISTS since older versions of the note editor
+     * created it themselves, and the triggers that keep the count of notes in each category.
+     * A note is in the category whose name is its category column. The count is adjusted by one
+     * for each note inserted, deleted or moved between categories, and counted once, through the
+     * (category, modified) index, when a category is created or renamed; reading it never scans
+     * the notes.
+     */
+    static final String[] CREATE_CATEGORIES = {
+            "CREATE TABLE IF NOT EXISTS category ("
+                    + "_id INTEGER PRIMARY KEY,"
+                    + "name TEXT NOT NULL UNIQUE,"
+                    + "color TEXT NOT NULL,"
+                    + "count INTEGER NOT NULL DEFAULT 0"
+                    + ");",
+            "CREATE TRIGGER category_count_insert AFTER INSERT ON notes"
+                    + " WHEN new.category IS NOT NULL BEGIN "
+                    + "UPDATE category SET count = count + 1 WHERE name = new.category; END;",
+            "CREATE TRIGGER category_count_delete AFTER DELETE ON notes"
+                    + " WHEN old.category IS NOT NULL BEGIN "
+                    + "UPDATE category SET count = count - 1 WHERE name = old.category; END;",
+            "CREATE TRIGGER category_count_update AFTER UPDATE OF category ON notes"
+                    + " WHEN old.category IS NOT new.category BEGIN "
+                    + "UPDATE category SET count = count - 1 WHERE name = old.category; "
+                    + "UPDATE category SET count = count + 1 WHERE name = new.category; END;",
+            "CREATE TRIGGER category_count_create AFTER INSERT ON category BEGIN "
+                    + "UPDATE category SET count = (SELECT count(*) FROM notes"
+                    + " WHERE category = new.name) WHERE _id = new._id; END;",
+            "CREATE TRIGGER category_count_rename AFTER UPDATE OF name ON category"
+                    + " WHEN old.name IS NOT new.name BEGIN "
+                    + "UPDATE category SET count = (SELECT count(*) FROM notes"
+                    + " WHERE category = new.name) WHERE _id = new._id; END;",
+    };
+
+    /**
+     * Counts the notes in every category, for a category table whose counts were not kept.
+     */
+    static final String COUNT_CATEGORIES = "UPDATE category SET count = (SELECT count(*)"
+            + " FROM notes WHERE notes.category = category.name);";
+
+    /**
+     * Creates the revision history of the notes: a row for each saved version of a note, holding
+     * either the whole text, as UTF-8, or a delta from the previous version. Revisions are
+     * numbered from 1 for each note, and go when their note is deleted.
+     */
+    static final String[] CREATE_REVISIONS = {
+            "CREATE TABLE note_revisions ("
+                    + "_id INTEGER PRIMARY KEY,"
+                    + "note_id INTEGER NOT NULL,"
+                    + "revision INTEGER NOT NULL,"
+                    + "created INTEGER,"
+                    + "title TEXT,"
+                    + "snapshot INTEGER NOT NULL,"
+                    + "data BLOB,"
+                    + "length INTEGER,"
+                    + "checksum INTEGER,"
+                    + "UNIQUE (note_id, revision)"
+                    + ");",
+            "CREATE TRIGGER note_revisions_delete AFTER DELETE ON notes BEGIN "
+                    + "DELETE FROM note_revisions WHERE note_id = old._id; END;",
+    };
+
+    private NotePadSchema() {
+    }
+
+    /**
+     * Returns the value of the snippet column for a note: its first {@link #SNIPPET_LENGTH}
+     * characters, with leading and trailing whitespace removed and every other run of
+     * whitespace replaced by a single space. Only the beginning of the note is read, however
+     * long it is.
+     */
+    static String snippet(String note) {
+        if (note == null) {
+            return "";
+        }
+        StringBuilder snippet = new StringBuilder(SNIPPET_LENGTH);
+        boolean pendingSpace = false;
+        for (int i = 0; i < note.length() && snippet.length() < SNIPPET_LENGTH; i++) {
+            char c = note.charAt(i);
+            if (Character.isWhitespace(c) || Character.isSpaceChar(c)) {
+                pendingSpace = snippet.length() > 0;
+                continue;
+            }
+            if (pendingSpace) {
+                snippet.append(' ');
+                pendingSpace = false;
+                if (snippet.length() == SNIPPET_LENGTH) {
+                    break;
+                }
+            }
+            snippet.append(c);
+        }
+        int length = snippet.length();
+        if (length > 0 && Character.isHighSurrogate(snippet.charAt(length - 1))) {
+            // Does not split a character outside the Basic Multilingual Plane
+            snippet.setLength(length - 1);
+        }
+        // A space appended just before the limit is trailing whitespace
+        return snippet.toString().trim();
+    }
+}
@@ -0,0 +1,177 @@
+/*
+ * Copyright (C) 2007 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.android.notepad;
+
+/**
+ * The text of the full-text search index, and the queries that match it.
+ *
+ * The FTS "simple" tokenizer splits text into words at ASCII spaces and punctuation only, so a
+ * run of Chinese or Japanese text, which has no spaces, would be indexed as one long word that
+ * only a search for its beginning finds. The index therefore holds the title and contents of
+ * each note rewritten by {@link #indexText}: every character that is neither a letter nor a
+ * digit becomes a space, and every run of CJK characters becomes the overlapping pairs of its
+ * characters, followed by its last character alone. "工作计划" is indexed as "工作 作计 计划 划".
+ * {@link #matchQuery} turns a search into prefix terms for other words, and into the phrase
+ * of its pairs for CJK text, so that any CJK substring of a note finds the note through the
+ * index.
+ *
+ * This class is plain Java, in the shared source directory, so that the benchmarks of the
+ * benchmark module index and search notes as NotePadProvider does.
+ */
+final class NoteSearch {
+
+    private NoteSearch() {
+    }
+
+    /**
+     * Returns the text that the search index holds for a title or note, or null for null.
+     */
+    static String indexText(String text) {
+        if (text == null) {
+            return null;
+        }
+        StringBuilder index = new StringBuilder(text.length() + 16);
+        // The start of the CJK run being read, or -1
+        int runStart = -1;
+        for (int i = 0; i < text.length(); ) {
+            int c = text.codePointAt(i);
+            if (isCjk(c)) {
+                if (runStart < 0) {
+                    runStart = i;
+                }
+            } else {
+                if (runStart >= 0) {
+                    appendPairs(index, text, runStart, i);
+                    runStart = -1;
+                }
+                if (isWordChar(c)) {
+                    index.appendCodePoint(Character.toLowerCase(c));
+                } else {
+                    index.append(' ');
+                }
+            }
+            i += Character.charCount(c);
+        }
+        if (runStart >= 0) {
+            appendPairs(index, text, runStart, text.length());
+        }
+        return index.toString();
+    }
+
+    /**
+     * Returns the FTS MATCH expression for a search, which matches the notes that contain every
+     * word of it, or null if it has no letters or digits. Words are split at every character
+     * that is neither a letter nor a digit, as the index is. Other words match as prefixes,
+     * and CJK text as a substring.
+     */
+    static String matchQuery(String terms) {
+        if (terms == null) {
+            return null;
+        }
+        StringBuilder match = new StringBuilder();
+        int wordStart = -1;
+        boolean cjkWord = false;
+        for (int i = 0; i <= terms.length(); ) {
+            int c = i < terms.length() ? terms.codePointAt(i) : ' ';
+            boolean cjk = isCjk(c);
+            // A word ends at a separator, and where CJK text starts or stops
+            if (wordStart >= 0 && (!isWordChar(c) || cjk != cjkWord)) {
+                appendTerm(match, terms, wordStart, i, cjkWord);
+                wordStart = -1;
+            }
+            if (wordStart < 0 && isWordChar(c)) {
+                wordStart = i;
+                cjkWord = cjk;
+            }
+            i += Character.charCount(c);
+        }
+        return match.length() > 0 ? match.toString() : null;
+    }
+
+    /*
+     * Appends the term of a word of a search: a prefix, or for CJK text of two characters or
+     * more, the phrase of its pairs.
+     */
+    private static void appendTerm(StringBuilder match, String terms, int start, int end,
+            boolean cjk) {
+        if (match.length() > 0) {
+            match.append(' ');
+        }
+        if (cjk && terms.codePointCount(start, end) > 1) {
+            StringBuilder pairs = new StringBuilder();
+            appendPairs(pairs, terms, start, end);
+            // The last character on its own is only in the index to make single characters
+            // searchable
+            String phrase = pairs.toString().trim();
+            match.append('"').append(phrase.substring(0, phrase.lastIndexOf(' '))).append('"');
+            return;
+        }
+        for (int i = start; i < end; ) {
+            int c = terms.codePointAt(i);
+            match.appendCodePoint(Character.toLowerCase(c));
+            i += Character.charCount(c);
+        }
+        match.append('*');
+    }
+
+    /*
+     * Appends the overlapping pairs of characters of a run of CJK text, then its last
+     * character, each as a separate word.
+     */
+    private static void appendPairs(StringBuilder out, String text, int start, int end) {
+        out.append(' ');
+        for (int i = start; i < end; ) {
+            int c = text.codePointAt(i);
+            int next = i + Character.charCount(c);
+            out.appendCodePoint(c);
+            if (next < end) {
+                out.appendCodePoint(text.codePointAt(next));
+            }
+            out.append(' ');
+            i = next;
+        }
+    }
+
+    /*
+     * Returns whether a character is part of a word: a letter, a digit, or a mark that
+     * combines with the letter before it.
+     */
+    private static boolean isWordChar(int c) {
+        if (Character.isLetterOrDigit(c)) {
+            return true;
+        }
+        int type = Character.getType(c);
+        return type == Character.NON_SPACING_MARK || type == Character.COMBINING_SPACING_MARK
+                || type == Character.ENCLOSING_MARK;
+    }
+
+    /*
+     * Returns whether a character is written without spaces between words: Chinese, Japanese
+     * and Korean characters.
+     */
+    private static boolean isCjk(int c) {
+        return (c >= 0x3005 && c <= 0x3007)     // Iteration marks and the ideographic zero
+                || (c >= 0x3040 && c <= 0x30FF) // Hiragana and Katakana
+                || (c >= 0x3130 && c <= 0x318F) // Hangul compatibility jamo
+                || (c >= 0x3400 && c <= 0x4DBF) // CJK unified ideographs extension A
+                || (c >= 0x4E00 && c <= 0x9FFF) // CJK unified ideographs
+                || (c >= 0xAC00 && c <= 0xD7AF) // Hangul syllables
+                || (c >= 0xF900 && c <= 0xFAFF) // CJK compatibility ideographs
+                || (c >= 0xFF66 && c <= 0xFF9F) // Halfwidth Katakana
+                || (c >= 0x20000 && c <= 0x2FFFF); // Supplementary ideographs
+    }
+}
@@ -0,0 +1,462 @@
+/*
+ * Copyright (C) 2007 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.android.notepad;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
+
+/**
+ * Measures the statements NotePadProvider runs for its main operations, against a notes
+ * database of 100 to 1,000,000 notes.
+ *
+ * The database is a SQLite file opened through sqlite-jdbc, created from {@link NotePadSchema}
+ * with the pragmas of the provider's default tuning, so it has the same tables, FTS index,
+ * triggers and indexes as on a device. It is filled with the same {@link NoteCorpus} for every
+ * table size, so a smaller table holds the first notes of a larger one. Each benchmark runs the
+ * SQL that the provider builds for the operation; the Android framework's own overhead, such as
+ * cursor windows and binder calls, is not included.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class NotePadProviderBenchmark {
+
+    // The number of notes inserted by each bulk insert, a typical import batch
+    private static final int BULK_INSERT_SIZE = 100;
+
+    // The number of notes generated for the insert and update benchmarks
+    private static final int SPARE_NOTES = 1000;
+
+    // The page size of the notes list, NotesPageLoader.DEFAULT_PAGE_SIZE
+    private static final int PAGE_SIZE = 50;
+
+    // Every SNAPSHOT_INTERVALth revision is stored whole, as in NoteRevisions
+    private static final int SNAPSHOT_INTERVAL = 20;
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    // Words of the generated notes, which the searches look for
+    private static final String[] SEARCH_TERMS = { "meeting", "budget", "recipe", "deadline" };
+
+    // Shorter than NoteCorpus.TYPICAL_BODY_SIZES, so that a million notes take a few hundred MB
+    private static final NoteCorpus.BodySize[] BODY_SIZES = {
+            new NoteCorpus.BodySize(70, 20, 200),
+            new NoteCorpus.BodySize(28, 200, 2000),
+            new NoteCorpus.BodySize(2, 2000, 20000),
+    };
+
+    /**
+     * The number of notes in the database when each iteration starts
+     */
+    @Param({ "100", "1000", "10000", "100000", "1000000" })
+    public int noteCount;
+
+    private File mFile;
+    private Connection mConnection;
+    private Random mRandom;
+
+    // The notes the insert and update benchmarks write, generated beforehand so that their
+    // generation is not timed
+    private NoteCorpus.Note[] mSpareNotes;
+    private int mNextSpareNote;
+
+    private PreparedStatement mInsert;
+    private PreparedStatement mInsertSearchRow;
+    private PreparedStatement mQueryById;
+    private PreparedStatement mSearch;
+    private PreparedStatement mList;
+    private PreparedStatement mListPage;
+    private PreparedStatement mUpdate;
+    private PreparedStatement mUpdateSearchNote;
+    private PreparedStatement mUpdatedNote;
+    private PreparedStatement mLatestRevision;
+    private PreparedStatement mInsertRevision;
+    private PreparedStatement mDeleteInserted;
+    private PreparedStatement mCategories;
+    private PreparedStatement mCategoriesGrouped;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException, SQLException {
+        mFile = File.createTempFile("note_pad", ".db");
+        mFile.delete();
+        mConnection = DriverManager.getConnection("jdbc:sqlite:" + mFile.getPath());
+        mRandom = new Random(42);
+        NoteCorpus corpus = new NoteCorpus(42, noteCount + SPARE_NOTES);
+        corpus.setBodySizes(BODY_SIZES);
+
+        Statement statement = mConnection.createStatement();
+        try {
+            // The settings of NotePadProvider.DatabaseHelper.Tuning.DEFAULT
+            statement.execute("PRAGMA page_size = 4096");
+            statement.execute("PRAGMA journal_mode = WAL");
+            statement.execute("PRAGMA synchronous = NORMAL");
+            statement.execute("PRAGMA cache_size = -2048");
+
+            statement.execute(NotePadSchema.CREATE_NOTES_TABLE);
+            for (String sql : NotePadSchema.CREATE_SEARCH_INDEX) {
+                statement.execute(sql);
+            }
+            for (String sql : NotePadSchema.CREATE_INDEXES) {
+                statement.execute(sql);
+            }
+            for (String sql : NotePadSchema.CREATE_CATEGORIES) {
+                statement.execute(sql);
+            }
+            for (String sql : NotePadSchema.CREATE_REVISIONS) {
+                statement.execute(sql);
+            }
+            // The categories exist before the notes, so every insert maintains their counts
+            for (String category : NoteCorpus.DEFAULT_CATEGORIES) {
+                if (category != null) {
+                    statement.execute("INSERT INTO category (name, color) VALUES ('" + category
+                            + "', '#FFFFFF')");
+                }
+            }
+        } finally {
+            statement.close();
+        }
+
+        mInsert = mConnection.prepareStatement("INSERT INTO notes"
+                + " (title, note, snippet, category, created, modified)"
+                + " VALUES (?, ?, ?, ?, ?, ?)", Statement.RETURN_GENERATED_KEYS);
+        mInsertSearchRow = mConnection.prepareStatement(NotePadSchema.INSERT_SEARCH_ROW);
+        mConnection.setAutoCommit(false);
+        for (int i = 0; i < noteCount; i++) {
+            insert(corpus.note(i));
+        }
+        mConnection.commit();
+        mConnection.setAutoCommit(true);
+        mSpareNotes = new NoteCorpus.Note[SPARE_NOTES];
+        for (int i = 0; i < SPARE_NOTES; i++) {
+            mSpareNotes[i] = corpus.note(noteCount + i);
+        }
+
+        // The note editor's projection
+        mQueryById = mConnection.prepareStatement(
+                "SELECT _id, note, title FROM notes WHERE _id = ?");
+        // The provider's search, ranking title hits first
+        mSearch = mConnection.prepareStatement("SELECT notes._id, notes.title, notes.modified"
+                + " FROM notes JOIN " + NotePadSchema.FTS_TABLE_NAME
+                + " ON notes._id = " + NotePadSchema.FTS_TABLE_NAME + ".docid"
+                + " WHERE " + NotePadSchema.FTS_TABLE_NAME + " MATCH ?"
+                + " ORDER BY CASE WHEN notes._id IN (SELECT docid FROM "
+                + NotePadSchema.FTS_TABLE_NAME + " WHERE title MATCH ?) THEN 0 ELSE 1 END,"
+                + " notes.modified DESC");
+        // The notes list's projection, without and with keyset paging
+        mList = mConnection.prepareStatement(
+                "SELECT _id, title, modified, snippet FROM notes ORDER BY modified DESC");
+        mListPage = mConnection.prepareStatement(
+                "SELECT _id, title, modified, snippet FROM notes"
+                + " ORDER BY modified DESC, _id DESC LIMIT " + PAGE_SIZE);
+        mUpdate = mConnection.prepareStatement(
+                "UPDATE notes SET note = ?, snippet = ?, modified = ? WHERE _id = ?");
+        mUpdateSearchNote = mConnection.prepareStatement(NotePadSchema.UPDATE_SEARCH_NOTE);
+        // The reads and the insert with which NoteRevisions records the revision of an update
+        mUpdatedNote = mConnection.prepareStatement(
+                "SELECT title, modified, note FROM notes WHERE _id = ?");
+        mLatestRevision = mConnection.prepareStatement("SELECT revision, checksum"
+                + " FROM note_revisions WHERE note_id = ? ORDER BY revision DESC LIMIT 1");
+        mInsertRevision = mConnection.prepareStatement("INSERT INTO note_revisions"
+                + " (note_id, revision, created, title, snapshot, data, length, checksum)"
+                + " VALUES (?, ?, ?, ?, ?, ?, ?, ?)");
+        mDeleteInserted = mConnection.prepareStatement("DELETE FROM notes WHERE _id > ?");
+        mCategories = mConnection.prepareStatement("SELECT _id, name, color, count FROM category");
+        mCategoriesGrouped = mConnection.prepareStatement("SELECT category, count(*) FROM notes"
+                + " WHERE category IS NOT NULL GROUP BY category");
+    }
+
+    /*
+     * Removes the notes the insert benchmarks added, so that every iteration starts with
+     * noteCount notes.
+     */
+    @TearDown(Level.Iteration)
+    public void removeInsertedNotes() throws SQLException {
+        mDeleteInserted.setInt(1, noteCount);
+        mDeleteInserted.executeUpdate();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws SQLException {
+        mConnection.close();
+        for (String suffix : new String[] { "", "-wal", "-shm" }) {
+            new File(mFile.getPath() + suffix).delete();
+        }
+    }
+
+    /*
+     * NotePadProvider.insert(): one note and its search index row, in their own transaction.
+     */
+    @Benchmark
+    public int insert() throws SQLException {
+        mConnection.setAutoCommit(false);
+        try {
+            int count = insert(nextSpareNote());
+            mConnection.commit();
+            return count;
+        } finally {
+            mConnection.setAutoCommit(true);
+        }
+    }
+
+    /*
+     * NotePadProvider.bulkInsert(): a batch of notes in one transaction, through one compiled
+     * statement.
+     */
+    @Benchmark
+    public int bulkInsert() throws SQLException {
+        mConnection.setAutoCommit(false);
+        try {
+            int count = 0;
+            for (int i = 0; i < BULK_INSERT_SIZE; i++) {
+                count += insert(nextSpareNote());
+            }
+            mConnection.commit();
+            return count;
+        } finally {
+            mConnection.setAutoCommit(true);
+        }
+    }
+
+    /*
+     * A query on a note URI, as NoteEditor loads the note.
+     */
+    @Benchmark
+    public void queryById(Blackhole blackhole) throws SQLException {
+        mQueryById.setInt(1, randomId());
+        consume(mQueryById.executeQuery(), blackhole);
+    }
+
+    /*
+     * A query on the search URI for a common word.
+     */
+    @Benchmark
+    public void search(Blackhole blackhole) throws SQLException {
+        String term = SEARCH_TERMS[mRandom.nextInt(SEARCH_TERMS.length)];
+        String match = NoteSearch.matchQuery(term);
+        mSearch.setString(1, match);
+        mSearch.setString(2, match);
+        consume(mSearch.executeQuery(), blackhole);
+    }
+
+    /*
+     * A query on the notes URI for the whole list, reading every row.
+     */
+    @Benchmark
+    public void queryList(Blackhole blackhole) throws SQLException {
+        consume(mList.executeQuery(), blackhole);
+    }
+
+    /*
+     * A query on the notes URI for the first page of the list, as NotesPageLoader runs it.
+     */
+    @Benchmark
+    public void queryListPage(Blackhole blackhole) throws SQLException {
+        consume(mListPage.executeQuery(), blackhole);
+    }
+
+    /*
+     * NotePadProvider.update() on a note URI, as NoteEditor saves an edit of a note: a phrase
+     * of its text is replaced. In one transaction, the note is read, the revision the save
+     * makes is recorded as a delta from the note's text, and the note and its search index row
+     * are updated. Each note's history grows over the iterations, as it would on a device.
+     */
+    @Benchmark
+    public int update() throws SQLException {
+        int id = randomId();
+        long now = System.currentTimeMillis();
+        mConnection.setAutoCommit(false);
+        try {
+            mUpdatedNote.setInt(1, id);
+            ResultSet note = mUpdatedNote.executeQuery();
+            String title;
+            long modified;
+            String text;
+            try {
+                if (!note.next()) {
+                    return 0;
+                }
+                title = note.getString(1);
+                modified = note.getLong(2);
+                text = note.getString(3) != null ? note.getString(3) : "";
+            } finally {
+                note.close();
+            }
+            String phrase = nextSpareNote().title;
+            int at = mRandom.nextInt(text.length() + 1);
+            String body = text.substring(0, at) + phrase
+                    + text.substring(Math.min(text.length(), at + phrase.length()));
+
+            recordRevision(id, title, modified, text.getBytes(UTF_8), body.getBytes(UTF_8), now);
+            mUpdate.setString(1, body);
+            mUpdate.setString(2, NotePadSchema.snippet(body));
+            mUpdate.setLong(3, now);
+            mUpdate.setInt(4, id);
+            int count = mUpdate.executeUpdate();
+            mUpdateSearchNote.setString(1, NoteSearch.indexText(body));
+            mUpdateSearchNote.setInt(2, id);
+            mUpdateSearchNote.executeUpdate();
+            mConnection.commit();
+            return count;
+        } finally {
+            mConnection.setAutoCommit(true);
+        }
+    }
+
+    /*
+     * A query on the categories URI, reading the note counts that the triggers keep.
+     */
+    @Benchmark
+    public void queryCategories(Blackhole blackhole) throws SQLException {
+        consume(mCategories.executeQuery(), blackhole);
+    }
+
+    /*
+     * The same counts computed from the notes table, as they would be without the triggers.
+     */
+    @Benchmark
+    public void countCategories(Blackhole blackhole) throws SQLException {
+        consume(mCategoriesGrouped.executeQuery(), blackhole);
+    }
+
+    private int insert(NoteCorpus.Note note) throws SQLException {
+        mInsert.setString(1, note.title);
+        mInsert.setString(2, note.body);
+        mInsert.setString(3, NotePadSchema.snippet(note.body));
+        mInsert.setString(4, note.category);
+        mInsert.setLong(5, note.created);
+        mInsert.setLong(6, note.modified);
+        int count = mInsert.executeUpdate();
+        ResultSet key = mInsert.getGeneratedKeys();
+        try {
+            key.next();
+            mInsertSearchRow.setLong(1, key.getLong(1));
+        } finally {
+            key.close();
+        }
+        mInsertSearchRow.setString(2, NoteSearch.indexText(note.title));
+        mInsertSearchRow.setString(3, NoteSearch.indexText(note.body));
+        mInsertSearchRow.executeUpdate();
+        return count;
+    }
+
+    /*
+     * NoteRevisions.recordUpdate() for a change of the text of a note, read beforehand, that
+     * adds a revision. The benchmark does not replace recent revisions as the provider does for
+     * autosaves, so that every update costs the same.
+     */
+    private void recordRevision(int id, String title, long modified, byte[] oldText,
+            byte[] newText, long now) throws SQLException {
+        int latest = 0;
+        long latestChecksum = 0;
+        mLatestRevision.setInt(1, id);
+        ResultSet revision = mLatestRevision.executeQuery();
+        try {
+            if (revision.next()) {
+                latest = revision.getInt(1);
+                latestChecksum = revision.getLong(2);
+            }
+        } finally {
+            revision.close();
+        }
+        if (latest == 0) {
+            // The history starts with the note as it was before its first recorded change
+            insertRevision(id, 1, modified, title, oldText, null);
+            latest = 1;
+            latestChecksum = checksum(oldText);
+        }
+
+        byte[] delta = null;
+        if (latest % SNAPSHOT_INTERVAL != 0 && checksum(oldText) == latestChecksum) {
+            delta = NoteDelta.diff(oldText, newText);
+            if (delta.length >= newText.length) {
+                delta = null;
+            }
+        }
+        insertRevision(id, latest + 1, now, title, newText, delta);
+    }
+
+    private void insertRevision(int id, int revision, long created, String title, byte[] text,
+            byte[] delta) throws SQLException {
+        mInsertRevision.setInt(1, id);
+        mInsertRevision.setInt(2, revision);
+        mInsertRevision.setLong(3, created);
+        mInsertRevision.setString(4, title);
+        mInsertRevision.setInt(5, delta == null ? 1 : 0);
+        mInsertRevision.setBytes(6, delta == null ? text : delta);
+        mInsertRevision.setInt(7, text.length);
+        mInsertRevision.setLong(8, checksum(text));
+        mInsertRevision.executeUpdate();
+    }
+
+    private static long checksum(byte[] text) {
+        CRC32 crc = new CRC32();
+        crc.update(text, 0, text.length);
+        return crc.getValue();
+    }
+
+    private NoteCorpus.Note nextSpareNote() {
+        NoteCorpus.Note note = mSpareNotes[mNextSpareNote];
+        mNextSpareNote = (mNextSpareNote + 1) % SPARE_NOTES;
+        return note;
+    }
+
+    private int randomId() {
+        return 1 + mRandom.nextInt(Math.max(noteCount, 1));
+    }
+
+    // Reads every column of every row, as a cursor adapter would
+    private static void consume(ResultSet rows, Blackhole blackhole) throws SQLException {
+        try {
+            int columns = rows.getMetaData().getColumnCount();
+            while (rows.next()) {
+                for (int i = 1; i <= columns; i++) {
+                    blackhole.consume(rows.getObject(i));
+                }
+            }
+        } finally {
+            rows.close();
+        }
+    }
+}